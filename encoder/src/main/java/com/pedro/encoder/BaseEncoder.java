@@ -153,7 +153,8 @@ public abstract class BaseEncoder implements EncoderCallback {
         handlerThread.getLooper().getThread().join(500);
       } catch (Exception ignored) { }
     }
-    queue.clear();
+    Frame frame;
+    while ((frame = queue.poll()) != null) frame.recycle();
     queue = new ArrayBlockingQueue<>(80);
     try {
       codec.stop();
@@ -196,19 +197,39 @@ public abstract class BaseEncoder implements EncoderCallback {
       int inBufferIndex) throws IllegalStateException {
     try {
       Frame frame = getInputFrame();
-      while (frame == null) frame = getInputFrame();
+      while (frame == null) {
+        //encoder stopped while waiting a frame, the codec is flushed so the buffer is not queued
+        if (!running) return;
+        frame = getInputFrame();
+      }
       byteBuffer.clear();
-      int size = Math.max(0, Math.min(frame.getSize(), byteBuffer.remaining()) - frame.getOffset());
-      byteBuffer.put(frame.getBuffer(), frame.getOffset(), size);
       long pts = calculatePts(frame, presentTimeUs);
+      int size;
+      try {
+        size = fillInputBuffer(frame, byteBuffer);
+      } finally {
+        //data copied to the codec buffer, the frame can be reused by the producer
+        frame.recycle();
+      }
       mediaCodec.queueInputBuffer(inBufferIndex, 0, size, pts, 0);
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
-    } catch (NullPointerException | IndexOutOfBoundsException e) {
+    } catch (NullPointerException | IndexOutOfBoundsException | IllegalArgumentException e) {
       Log.i(TAG, "Encoding error", e);
     }
   }
 
+  /**
+   * Write the frame in the codec input buffer.
+   *
+   * @return bytes written
+   */
+  protected int fillInputBuffer(@NonNull Frame frame, @NonNull ByteBuffer byteBuffer) {
+    int size = Math.max(0, Math.min(frame.getSize(), byteBuffer.remaining()) - frame.getOffset());
+    byteBuffer.put(frame.getBuffer(), frame.getOffset(), size);
+    return size;
+  }
+
   protected abstract void checkBuffer(@NonNull ByteBuffer byteBuffer,
       @NonNull MediaCodec.BufferInfo bufferInfo);
 
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder
+
+import android.media.MediaCodec
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Encoded audio or video access unit shared by all subscribers of a [EncodedFrameBus].
+ *
+ * Data is copied only one time from the codec output buffer. Each subscriber that receive the
+ * frame holds a reference and the frame returns to the pool when the last reference is released.
+ */
+class EncodedFrame internal constructor(capacity: Int, private val bus: EncodedFrameBus?) {
+
+  var data = ByteArray(capacity)
+    private set
+  var size = 0
+    private set
+  var timeStamp = 0L
+    private set
+  var flags = 0
+    private set
+  var isVideo = false
+    private set
+  val isKeyFrame: Boolean
+    get() = flags and MediaCodec.BUFFER_FLAG_KEY_FRAME != 0
+  private val references = AtomicInteger(0)
+
+  internal fun set(buffer: ByteBuffer, offset: Int, size: Int, timeStamp: Long, flags: Int, isVideo: Boolean) {
+    if (data.size < size) data = ByteArray(size)
+    val source = buffer.duplicate()
+    source.limit(offset + size)
+    source.position(offset)
+    source.get(data, 0, size)
+    this.size = size
+    this.timeStamp = timeStamp
+    this.flags = flags
+    this.isVideo = isVideo
+    references.set(1)
+  }
+
+  /**
+   * @return a new view of the data from position 0 to size. Each call return an independent
+   * position and limit so it can be used by different threads.
+   */
+  fun getBuffer(): ByteBuffer = ByteBuffer.wrap(data, 0, size).slice()
+
+  fun retain() {
+    references.incrementAndGet()
+  }
+
+  fun release() {
+    if (references.decrementAndGet() == 0) bus?.recycle(this)
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder
+
+import android.media.MediaCodec
+import android.util.Log
+import java.nio.ByteBuffer
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Publish encoded frames to N subscribers (stream clients, record controllers, analytics).
+ *
+ * The encoder thread copies each frame one time in a pooled [EncodedFrame] and returns without
+ * wait for consumers, so the codec output buffer is released immediately. Each subscriber has its
+ * own thread and bounded queue, so a slow subscriber only discards its own frames following its
+ * [DropPolicy]. Frames are delivered to each subscriber in the same order that they are published.
+ */
+class EncodedFrameBus @JvmOverloads constructor(private val maxPoolSize: Int = 64) {
+
+  companion object {
+    private const val TAG = "EncodedFrameBus"
+  }
+
+  enum class DropPolicy {
+    /**
+     * Discard the frame published if the queue is full.
+     */
+    DROP_NEWEST,
+    /**
+     * Discard the oldest frame in the queue to add the frame published.
+     */
+    DROP_OLDEST,
+    /**
+     * Discard the frame published if the queue is full and all video frames after it until the
+     * next key frame, so the subscriber never receives video that can't be decoded.
+     */
+    DROP_UNTIL_KEY_FRAME
+  }
+
+  fun interface Listener {
+    /**
+     * Called in the subscriber thread. The frame is released after return so retain it if you
+     * need it after that.
+     */
+    fun onFrame(frame: EncodedFrame)
+  }
+
+  private val pool = ArrayDeque<EncodedFrame>()
+  private val subscriptions = CopyOnWriteArrayList<Subscription>()
+
+  /**
+   * Create a subscription with its own thread. It receives frames published after this call.
+   */
+  fun subscribe(name: String, capacity: Int, dropPolicy: DropPolicy, listener: Listener): Subscription {
+    val subscription = Subscription(name, capacity, dropPolicy, listener)
+    subscriptions.add(subscription)
+    subscription.start()
+    return subscription
+  }
+
+  /**
+   * Stop the subscription thread. Frames not delivered are discarded.
+   */
+  fun unsubscribe(subscription: Subscription) {
+    subscriptions.remove(subscription)
+    subscription.stop()
+  }
+
+  fun getSubscriptions(): List<Subscription> = subscriptions
+
+  fun publish(buffer: ByteBuffer, info: MediaCodec.BufferInfo, isVideo: Boolean) {
+    publish(buffer, info.offset, info.size, info.presentationTimeUs, info.flags, isVideo)
+  }
+
+  /**
+   * Copy the frame and publish it to all subscribers without wait.
+   * Buffer position and limit are not modified.
+   */
+  fun publish(buffer: ByteBuffer, offset: Int, size: Int, timeStamp: Long, flags: Int, isVideo: Boolean) {
+    if (subscriptions.isEmpty()) return
+    val frame = obtain(size)
+    frame.set(buffer, offset, size, timeStamp, flags, isVideo)
+    for (subscription in subscriptions) subscription.offer(frame)
+    frame.release()
+  }
+
+  @Synchronized
+  fun getPoolSize(): Int = pool.size
+
+  @Synchronized
+  private fun obtain(size: Int): EncodedFrame {
+    //pool is small, search a frame with enough capacity to avoid grow it
+    val iterator = pool.iterator()
+    while (iterator.hasNext()) {
+      val frame = iterator.next()
+      if (frame.data.size >= size) {
+        iterator.remove()
+        return frame
+      }
+    }
+    return pool.removeFirstOrNull() ?: EncodedFrame(size, this)
+  }
+
+  @Synchronized
+  internal fun recycle(frame: EncodedFrame) {
+    if (pool.size < maxPoolSize) pool.addLast(frame)
+  }
+
+  class Subscription internal constructor(
+    val name: String,
+    val capacity: Int,
+    val dropPolicy: DropPolicy,
+    private val listener: Listener
+  ) {
+
+    private val queue = ArrayDeque<EncodedFrame>(capacity)
+    private val lock = Object()
+    @Volatile
+    private var running = false
+    private var waitingKeyFrame = false
+    private var processing = false
+    private var thread: Thread? = null
+    @Volatile
+    var droppedFrames = 0L
+      private set
+    @Volatile
+    var deliveredFrames = 0L
+      private set
+
+    init {
+      require(capacity > 0) { "capacity must be 1 or more" }
+    }
+
+    internal fun start() {
+      running = true
+      thread = Thread({ deliverFrames() }, "EncodedFrameBus-$name").apply { start() }
+    }
+
+    internal fun stop() {
+      synchronized(lock) {
+        running = false
+        lock.notifyAll()
+      }
+      thread?.let {
+        if (it !== Thread.currentThread()) {
+          it.interrupt()
+          try {
+            it.join(500)
+          } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+          }
+        }
+      }
+      thread = null
+      synchronized(lock) {
+        while (queue.isNotEmpty()) queue.removeFirst().release()
+      }
+    }
+
+    fun size(): Int = synchronized(lock) { queue.size }
+
+    /**
+     * Wait until all frames in the queue are delivered. Useful before stop a record.
+     *
+     * @return false if timeout
+     */
+    fun awaitIdle(timeoutMs: Long): Boolean {
+      val deadline = System.currentTimeMillis() + timeoutMs
+      synchronized(lock) {
+        while (running && (queue.isNotEmpty() || processing)) {
+          val remaining = deadline - System.currentTimeMillis()
+          if (remaining <= 0) return false
+          lock.wait(remaining)
+        }
+      }
+      return true
+    }
+
+    internal fun offer(frame: EncodedFrame) {
+      synchronized(lock) {
+        if (!running) return
+        if (frame.isVideo && waitingKeyFrame) {
+          if (!frame.isKeyFrame) {
+            droppedFrames++
+            return
+          }
+          waitingKeyFrame = false
+        }
+        if (queue.size >= capacity) {
+          when (dropPolicy) {
+            DropPolicy.DROP_NEWEST -> {
+              droppedFrames++
+              return
+            }
+            DropPolicy.DROP_OLDEST -> {
+              queue.removeFirst().release()
+              droppedFrames++
+            }
+            DropPolicy.DROP_UNTIL_KEY_FRAME -> {
+              if (frame.isVideo) waitingKeyFrame = true
+              droppedFrames++
+              return
+            }
+          }
+        }
+        frame.retain()
+        queue.addLast(frame)
+        lock.notifyAll()
+      }
+    }
+
+    private fun deliverFrames() {
+      while (running) {
+        val frame = synchronized(lock) {
+          processing = false
+          lock.notifyAll()
+          while (running && queue.isEmpty()) {
+            try {
+              lock.wait()
+            } catch (e: InterruptedException) {
+              return
+            }
+          }
+          if (!running) return
+          processing = true
+          queue.removeFirst()
+        }
+        try {
+          listener.onFrame(frame)
+          deliveredFrames++
+        } catch (e: RuntimeException) {
+          Log.e(TAG, "subscriber $name error", e)
+        } finally {
+          frame.release()
+        }
+      }
+    }
+  }
+}
@@ -16,6 +16,7 @@
 package com.pedro.encoder
 
 import android.graphics.ImageFormat
+import android.media.Image
 
 /**
  * Created by pedro on 17/02/18.
@@ -26,8 +27,15 @@ class Frame {
   var size: Int
   var orientation = 0
   var isFlip = false
-  var format = ImageFormat.NV21 //nv21 or yv12 supported
+  var format = ImageFormat.NV21 //nv21, yv12 or yuv_420_888 (image) supported
   var timeStamp: Long
+  /**
+   * Camera2 image used instead of buffer with YUV_420_888 format. Closed on recycle.
+   */
+  var image: Image? = null
+  internal var pool: FramePool? = null
+  //guarded by pool lock
+  internal var inUse = false
 
   /**
    * Used with video frame
@@ -51,4 +59,32 @@ class Frame {
     this.size = size
     this.timeStamp = timeStamp
   }
+
+  /**
+   * Used with Camera2 YUV_420_888 images to avoid copy it before the encoder conversion.
+   * The image is closed when the frame is recycled.
+   */
+  constructor(image: Image, orientation: Int, flip: Boolean, timeStamp: Long) {
+    this.image = image
+    this.orientation = orientation
+    isFlip = flip
+    format = ImageFormat.YUV_420_888
+    buffer = ByteArray(0)
+    offset = 0
+    size = 0
+    this.timeStamp = timeStamp
+  }
+
+  /**
+   * Return the frame to the pool that created it so the buffer can be reused.
+   * Do nothing with frames not created by a [FramePool] or already recycled.
+   * Frames with an image close it.
+   */
+  fun recycle() {
+    image?.let {
+      image = null
+      it.close()
+    }
+    pool?.release(this)
+  }
 }
\ No newline at end of file
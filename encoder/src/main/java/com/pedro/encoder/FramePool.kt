@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder
+
+/**
+ * Fixed amount of preallocated frames shared between a producer (microphone, camera) and an encoder.
+ *
+ * The producer copies data in a frame obtained from the pool and the encoder recycles it after copy
+ * the data to the codec input buffer, so a queued frame is never overwritten and there is no
+ * allocation per frame. If all frames are in use the producer must discard data.
+ *
+ * A frame recycled after the pool was replaced (resolution change) is simply released to the old pool.
+ */
+class FramePool(val capacity: Int, val frameSize: Int) {
+
+  private val frames = ArrayDeque<Frame>(capacity)
+
+  init {
+    require(capacity > 0) { "capacity must be 1 or more" }
+    repeat(capacity) {
+      val frame = Frame(ByteArray(frameSize), 0, frameSize, 0)
+      frame.pool = this
+      frames.addLast(frame)
+    }
+  }
+
+  /**
+   * @return a free frame with offset 0 and size frameSize or null if all frames are in use
+   */
+  @Synchronized
+  fun obtain(): Frame? {
+    val frame = frames.removeFirstOrNull() ?: return null
+    frame.inUse = true
+    frame.offset = 0
+    frame.size = frameSize
+    return frame
+  }
+
+  /**
+   * Obtain a frame and copy data on it.
+   *
+   * @return the frame or null if all frames are in use
+   */
+  fun obtain(data: ByteArray, offset: Int, size: Int, timeStamp: Long): Frame? {
+    require(size <= frameSize) { "size $size bigger than frame size $frameSize" }
+    val frame = obtain() ?: return null
+    System.arraycopy(data, offset, frame.buffer, 0, size)
+    frame.size = size
+    frame.timeStamp = timeStamp
+    return frame
+  }
+
+  @Synchronized
+  fun available(): Int = frames.size
+
+  @Synchronized
+  internal fun release(frame: Frame) {
+    //ignore frames recycled twice
+    if (!frame.inUse) return
+    frame.inUse = false
+    frames.addLast(frame)
+  }
+}
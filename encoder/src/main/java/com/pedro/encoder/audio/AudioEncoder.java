@@ -27,10 +27,12 @@ import com.pedro.encoder.BaseEncoder;
 import com.pedro.encoder.Frame;
 import com.pedro.encoder.GetFrame;
 import com.pedro.encoder.input.audio.GetMicrophoneData;
+import com.pedro.encoder.input.audio.SilenceDetector;
 import com.pedro.encoder.utils.CodecUtil;
 
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by pedro on 19/01/17.
@@ -48,6 +50,12 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
   private GetFrame getFrame;
   private long bytesRead = 0;
   private boolean tsModeBuffer = false;
+  //samples per channel in an AAC frame
+  private static final int AAC_FRAME_SAMPLES = 1024;
+  private volatile PcmRingBuffer pcmRingBuffer;
+  //reused to queue data from the ring
+  private final Frame ringFrame = new Frame(new byte[0], 0, 0, 0);
+  private volatile SilenceDetector silenceDetector;
 
   public AudioEncoder(GetAacData getAacData) {
     this.getAacData = getAacData;
@@ -98,6 +106,24 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
     this.getFrame = getFrame;
   }
 
+  /**
+   * Read PCM data from a ring written by the producer (MicrophoneManager.setPcmRingBuffer) instead of
+   * frames. Each codec input buffer is filled with an AAC frame (1024 samples per channel) and a
+   * timestamp calculated from the sample count. Null to use frames.
+   */
+  public void setPcmRingBuffer(PcmRingBuffer pcmRingBuffer) {
+    this.pcmRingBuffer = pcmRingBuffer;
+  }
+
+  /**
+   * Replace the input with digital silence (all samples 0) while the detector reports silence
+   * (DTX). Digital silence is cheaper to encode and produce identical AAC frames, so RTMP, RTSP and
+   * SRT senders can send only comfort frames with audio DTX enabled. Null to disable.
+   */
+  public void setSilenceDetector(SilenceDetector silenceDetector) {
+    this.silenceDetector = silenceDetector;
+  }
+
   /**
    * Prepare encoder with default parameters
    */
@@ -114,6 +140,8 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
   @Override
   protected void stopImp() {
     bytesRead = 0;
+    SilenceDetector detector = silenceDetector;
+    if (detector != null) detector.reset();
     Log.i(TAG, "stopped");
   }
 
@@ -126,9 +154,35 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
 
   @Override
   protected Frame getInputFrame() throws InterruptedException {
+    PcmRingBuffer ring = pcmRingBuffer;
+    if (ring != null) {
+      int size = AAC_FRAME_SAMPLES * ring.getBytesPerSample();
+      //return null on timeout so processInput can check running state again
+      if (!ring.await(size, 100, TimeUnit.MILLISECONDS)) return null;
+      ringFrame.setSize(size);
+      ringFrame.setTimeStamp(ring.getReadTimeStamp());
+      return ringFrame;
+    }
     return getFrame != null ? getFrame.getInputFrame() : queue.take();
   }
 
+  @Override
+  protected int fillInputBuffer(@NonNull Frame frame, @NonNull ByteBuffer byteBuffer) {
+    int position = byteBuffer.position();
+    PcmRingBuffer ring = pcmRingBuffer;
+    int size;
+    if (frame == ringFrame && ring != null) {
+      size = ring.read(byteBuffer, frame.getSize());
+    } else {
+      size = super.fillInputBuffer(frame, byteBuffer);
+    }
+    SilenceDetector detector = silenceDetector;
+    if (detector != null && detector.process(byteBuffer, position, size)) {
+      for (int i = position; i < position + size; i++) byteBuffer.put(i, (byte) 0);
+    }
+    return size;
+  }
+
   @Override
   protected long calculatePts(Frame frame, long presentTimeUs) {
     long pts;
@@ -161,7 +215,10 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
    */
   @Override
   public void inputPCMData(Frame frame) {
-    if (running && !queue.offer(frame)) {
+    if (!running) {
+      frame.recycle();
+    } else if (!queue.offer(frame)) {
+      frame.recycle();
       Log.i(TAG, "frame discarded");
     }
   }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.audio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock free ring of 16 bits PCM bytes with one producer thread (microphone) and one consumer thread
+ * (encoder).
+ *
+ * Timestamps are calculated using the amount of samples from an anchor (position and capture time)
+ * so consecutive reads are continuous without the jitter of the capture thread. A new anchor is
+ * created on the first write, after discarding data because the ring was full and when the capture
+ * time drift more than resyncThresholdUs from the calculated time.
+ */
+public class PcmRingBuffer {
+
+  private static final int MAX_ANCHORS = 16;
+  public static final long DEFAULT_RESYNC_THRESHOLD_US = 100_000;
+
+  private final byte[] buffer;
+  private final int mask;
+  private final int sampleRate;
+  private final int bytesPerSample;
+  private volatile long resyncThresholdUs = DEFAULT_RESYNC_THRESHOLD_US;
+  //total bytes written and read, only modified by producer and consumer respectively
+  private volatile long writePosition = 0;
+  private volatile long readPosition = 0;
+  //anchors (ring position, timestamp) published before the bytes that use them
+  private final long[] anchorPositions = new long[MAX_ANCHORS];
+  private final long[] anchorTimeStamps = new long[MAX_ANCHORS];
+  private volatile long anchorsWritten = 0;
+  private volatile long anchorIndex = 0;
+  private volatile Thread waitingConsumer;
+  //producer state
+  private long lastAnchorPosition;
+  private long lastAnchorTs;
+  private boolean needAnchor = true;
+  private long discardedBytes = 0;
+
+  /**
+   * @param capacity minimum size in bytes, rounded up to a power of 2
+   */
+  public PcmRingBuffer(int capacity, int sampleRate, boolean isStereo) {
+    if (capacity <= 0 || capacity > 1 << 30) throw new IllegalArgumentException("invalid capacity: " + capacity);
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) size <<= 1;
+    buffer = new byte[size];
+    mask = size - 1;
+    this.sampleRate = sampleRate;
+    bytesPerSample = isStereo ? 4 : 2;
+  }
+
+  public int getCapacity() {
+    return buffer.length;
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  public int getBytesPerSample() {
+    return bytesPerSample;
+  }
+
+  public void setResyncThresholdUs(long resyncThresholdUs) {
+    this.resyncThresholdUs = resyncThresholdUs;
+  }
+
+  /**
+   * Producer. Write all data or nothing if there is not enough space.
+   *
+   * @param timeStamp capture time of the first sample in microseconds
+   * @return true if written, false if discarded
+   */
+  public boolean write(byte[] data, int offset, int size, long timeStamp) {
+    long position = writePosition;
+    if (size > buffer.length - (position - readPosition)) {
+      discardedBytes += size;
+      needAnchor = true;
+      return false;
+    }
+    if (!needAnchor) {
+      long expectedTs = lastAnchorTs + bytesToUs(position - lastAnchorPosition);
+      if (Math.abs(timeStamp - expectedTs) > resyncThresholdUs) needAnchor = true;
+    }
+    //if there is no space for an anchor, keep using the previous one and try again on next write
+    if (needAnchor && anchorsWritten - anchorIndex < MAX_ANCHORS) {
+      int index = (int) (anchorsWritten & (MAX_ANCHORS - 1));
+      anchorPositions[index] = position;
+      anchorTimeStamps[index] = timeStamp;
+      anchorsWritten++;
+      lastAnchorPosition = position;
+      lastAnchorTs = timeStamp;
+      needAnchor = false;
+    }
+    int start = (int) (position & mask);
+    int first = Math.min(size, buffer.length - start);
+    System.arraycopy(data, offset, buffer, start, first);
+    if (first < size) System.arraycopy(data, offset + first, buffer, 0, size - first);
+    writePosition = position + size;
+    Thread consumer = waitingConsumer;
+    if (consumer != null) LockSupport.unpark(consumer);
+    return true;
+  }
+
+  /**
+   * Consumer.
+   *
+   * @return bytes available to read
+   */
+  public int available() {
+    return (int) (writePosition - readPosition);
+  }
+
+  /**
+   * Consumer. Wait until there are at least size bytes to read.
+   *
+   * @return true if available, false on timeout
+   */
+  public boolean await(int size, long timeout, TimeUnit unit) throws InterruptedException {
+    if (available() >= size) return true;
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    waitingConsumer = Thread.currentThread();
+    try {
+      while (available() < size) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) return false;
+        LockSupport.parkNanos(this, remaining);
+        if (Thread.interrupted()) throw new InterruptedException();
+      }
+      return true;
+    } finally {
+      waitingConsumer = null;
+    }
+  }
+
+  /**
+   * Consumer.
+   *
+   * @return timestamp in microseconds of the next sample to read. Only valid with data available.
+   */
+  public long getReadTimeStamp() {
+    long position = readPosition;
+    long index = anchorIndex;
+    long written = anchorsWritten;
+    while (index + 1 < written && anchorPositions[(int) ((index + 1) & (MAX_ANCHORS - 1))] <= position) {
+      index++;
+    }
+    anchorIndex = index;
+    int i = (int) (index & (MAX_ANCHORS - 1));
+    return anchorTimeStamps[i] + bytesToUs(position - anchorPositions[i]);
+  }
+
+  /**
+   * Consumer. Read up to size bytes in the buffer position.
+   *
+   * @return bytes read
+   */
+  public int read(ByteBuffer output, int size) {
+    long position = readPosition;
+    int length = Math.min(Math.min(size, output.remaining()), (int) (writePosition - position));
+    int start = (int) (position & mask);
+    int first = Math.min(length, buffer.length - start);
+    output.put(buffer, start, first);
+    if (first < length) output.put(buffer, 0, length - first);
+    readPosition = position + length;
+    return length;
+  }
+
+  /**
+   * Consumer. Same as {@link #read(ByteBuffer, int)} but in an array.
+   */
+  public int read(byte[] output, int offset, int size) {
+    long position = readPosition;
+    int length = Math.min(size, (int) (writePosition - position));
+    int start = (int) (position & mask);
+    int first = Math.min(length, buffer.length - start);
+    System.arraycopy(buffer, start, output, offset, first);
+    if (first < length) System.arraycopy(buffer, 0, output, offset + first, length - first);
+    readPosition = position + length;
+    return length;
+  }
+
+  /**
+   * Bytes discarded by the producer because the ring was full.
+   */
+  public long getDiscardedBytes() {
+    return discardedBytes;
+  }
+
+  /**
+   * Discard all data. Producer and consumer must be stopped.
+   */
+  public void clear() {
+    writePosition = 0;
+    readPosition = 0;
+    anchorsWritten = 0;
+    anchorIndex = 0;
+    needAnchor = true;
+    discardedBytes = 0;
+  }
+
+  private long bytesToUs(long bytes) {
+    return bytes / bytesPerSample * 1_000_000L / sampleRate;
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.input.audio;
+
+import com.pedro.encoder.Frame;
+import com.pedro.encoder.FramePool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Mix N sources of 16 bits little endian PCM (microphone, internal audio, file) in a single stream.
+ *
+ * All inputs must use the mixer sample rate and channels. Input frames are placed in a common
+ * sample timeline using the frame timestamp, so sources started at different times or with
+ * different buffer sizes are aligned. Each input has a small jitter buffer, an output frame is
+ * mixed when all inputs have data for it or when any input is jitterMs ahead (missing samples are
+ * silence).
+ *
+ * Samples are mixed in float with a gain per input and a soft limiter over -3 dBFS instead of hard
+ * clipping. Output frames are obtained from a {@link FramePool} and sent to getMicrophoneData
+ * (usually AudioEncoder) with timestamps calculated from the sample count.
+ */
+public class AudioMixer {
+
+  //output frames waiting to be encoded, same as encoder queue size
+  private static final int FRAME_POOL_SIZE = 80;
+  //capture timestamps jitter ignored to keep each input continuous
+  private static final int TOLERANCE_MS = 20;
+  //limiter knee, -3 dBFS
+  private static final float KNEE = 0.7071f;
+
+  private final GetMicrophoneData getMicrophoneData;
+  private final int sampleRate;
+  private final int channels;
+  private final int frameSamples;
+  private final int jitterSamples;
+  private final int toleranceSamples;
+  private final List<Input> inputs = new ArrayList<>();
+  private final float[] mixBuffer;
+  private final FramePool framePool;
+  private long originTs = -1;
+  private long mixIndex = 0;
+
+  /**
+   * @param frameSamples samples per channel in each output frame. 1024 to produce AAC frames.
+   * @param jitterMs max time to wait for late inputs
+   */
+  public AudioMixer(GetMicrophoneData getMicrophoneData, int sampleRate, boolean isStereo,
+      int frameSamples, int jitterMs) {
+    this.getMicrophoneData = getMicrophoneData;
+    this.sampleRate = sampleRate;
+    this.channels = isStereo ? 2 : 1;
+    this.frameSamples = frameSamples;
+    this.jitterSamples = (int) ((long) jitterMs * sampleRate / 1000);
+    this.toleranceSamples = TOLERANCE_MS * sampleRate / 1000;
+    mixBuffer = new float[frameSamples * channels];
+    framePool = new FramePool(FRAME_POOL_SIZE, frameSamples * channels * 2);
+  }
+
+  public AudioMixer(GetMicrophoneData getMicrophoneData, int sampleRate, boolean isStereo) {
+    this(getMicrophoneData, sampleRate, isStereo, 1024, 60);
+  }
+
+  /**
+   * @param gain linear gain, 1 keeps the original volume
+   * @return input to use as GetMicrophoneData of a source (MicrophoneManager, AudioDecoder)
+   */
+  public synchronized Input addInput(float gain) {
+    Input input = new Input(gain);
+    inputs.add(input);
+    return input;
+  }
+
+  public synchronized void removeInput(Input input) {
+    inputs.remove(input);
+    //other inputs could be waiting for it
+    mix();
+  }
+
+  /**
+   * Discard all buffered data. Next input frame start a new timeline.
+   */
+  public synchronized void reset() {
+    for (Input input : inputs) input.reset();
+    originTs = -1;
+    mixIndex = 0;
+  }
+
+  private synchronized void onInputFrame(Input input, Frame frame) {
+    int samples = frame.getSize() / 2 / channels;
+    if (samples == 0) return;
+    if (originTs < 0) originTs = frame.getTimeStamp();
+    long index = (frame.getTimeStamp() - originTs) * sampleRate / 1_000_000L;
+    input.write(frame.getBuffer(), frame.getOffset(), samples, index);
+    mix();
+  }
+
+  private void mix() {
+    while (isFrameReady()) {
+      long frameEnd = mixIndex + frameSamples;
+      Arrays.fill(mixBuffer, 0f);
+      for (int i = 0; i < inputs.size(); i++) {
+        inputs.get(i).readInto(mixBuffer, mixIndex, frameEnd);
+      }
+      //discard output if the encoder is not consuming frames
+      Frame frame = framePool.obtain();
+      if (frame != null) {
+        writeLimited(mixBuffer, frame.getBuffer());
+        frame.setSize(frameSamples * channels * 2);
+        frame.setTimeStamp(originTs + mixIndex * 1_000_000L / sampleRate);
+        getMicrophoneData.inputPCMData(frame);
+      }
+      mixIndex = frameEnd;
+    }
+  }
+
+  private boolean isFrameReady() {
+    if (originTs < 0) return false;
+    long frameEnd = mixIndex + frameSamples;
+    boolean allReady = true;
+    boolean anyData = false;
+    for (int i = 0; i < inputs.size(); i++) {
+      Input input = inputs.get(i);
+      //inputs without data yet are waited only up to jitter time
+      if (!input.started) {
+        allReady = false;
+        continue;
+      }
+      anyData = true;
+      if (input.endIndex >= frameEnd + jitterSamples) return true;
+      if (input.endIndex < frameEnd) allReady = false;
+    }
+    return anyData && allReady;
+  }
+
+  /**
+   * Convert mixed float samples to 16 bits little endian applying a soft limiter.
+   * Values under the knee are not modified, values over it are compressed to never reach full scale.
+   */
+  private static void writeLimited(float[] samples, byte[] output) {
+    final float knee = KNEE * 32768f;
+    final float range = 32767f - knee;
+    for (int i = 0, j = 0; i < samples.length; i++, j += 2) {
+      float x = samples[i];
+      float abs = x < 0 ? -x : x;
+      if (abs > knee) {
+        float d = (abs - knee) / range;
+        abs = knee + range * d / (1f + d);
+        x = x < 0 ? -abs : abs;
+      }
+      int value = Math.round(x);
+      output[j] = (byte) value;
+      output[j + 1] = (byte) (value >> 8);
+    }
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  public int getChannels() {
+    return channels;
+  }
+
+  /**
+   * A source of the mixer with its own gain and jitter buffer.
+   * Frames received are copied so they are recycled immediately.
+   */
+  public class Input implements GetMicrophoneData {
+
+    private volatile float gain;
+    //interleaved samples
+    private final short[] buffer;
+    private final int capacity; //in samples per channel
+    //timeline index of the first and next sample written
+    private long startIndex = 0;
+    private long endIndex = 0;
+    private boolean started = false;
+
+    private Input(float gain) {
+      this.gain = gain;
+      capacity = frameSamples * 2 + jitterSamples * 2 + toleranceSamples;
+      buffer = new short[capacity * channels];
+    }
+
+    public void setGain(float gain) {
+      this.gain = gain;
+    }
+
+    public float getGain() {
+      return gain;
+    }
+
+    @Override
+    public void inputPCMData(Frame frame) {
+      onInputFrame(this, frame);
+      frame.recycle();
+    }
+
+    private void write(byte[] data, int offset, int samples, long index) {
+      if (!started) {
+        startIndex = index;
+        endIndex = index;
+        started = true;
+      } else if (Math.abs(index - endIndex) > toleranceSamples) {
+        if (index > endIndex) {
+          //gap in the source, silence until the new data
+          long gap = index - endIndex;
+          if (gap >= capacity) {
+            startIndex = index;
+            endIndex = index;
+          } else {
+            writeSilence((int) gap);
+          }
+        } else {
+          //data overlapped with previous data, discard the overlapped part
+          int skip = (int) Math.min(samples, endIndex - index);
+          offset += skip * channels * 2;
+          samples -= skip;
+        }
+      }
+      //samples older than the last frame mixed are too late
+      if (endIndex < mixIndex) {
+        int skip = (int) Math.min(samples, mixIndex - endIndex);
+        offset += skip * channels * 2;
+        samples -= skip;
+        endIndex += skip;
+        startIndex = endIndex;
+      }
+      for (int s = 0; s < samples; s++) {
+        int position = (int) (endIndex % capacity) * channels;
+        for (int c = 0; c < channels; c++) {
+          buffer[position + c] = (short) ((data[offset] & 0xff) | (data[offset + 1] << 8));
+          offset += 2;
+        }
+        endIndex++;
+      }
+      //overflow, oldest samples are lost
+      if (endIndex - startIndex > capacity) startIndex = endIndex - capacity;
+    }
+
+    private void writeSilence(int samples) {
+      for (int s = 0; s < samples; s++) {
+        int position = (int) (endIndex % capacity) * channels;
+        for (int c = 0; c < channels; c++) buffer[position + c] = 0;
+        endIndex++;
+      }
+      if (endIndex - startIndex > capacity) startIndex = endIndex - capacity;
+    }
+
+    /**
+     * Add samples in timeline range [from, to) multiplied by gain. Consumed samples are removed.
+     */
+    private void readInto(float[] output, long from, long to) {
+      if (!started) return;
+      float gain = this.gain;
+      long first = Math.max(from, startIndex);
+      long last = Math.min(to, endIndex);
+      for (long index = first; index < last; index++) {
+        int position = (int) (index % capacity) * channels;
+        int out = (int) (index - from) * channels;
+        for (int c = 0; c < channels; c++) {
+          output[out + c] += buffer[position + c] * gain;
+        }
+      }
+      if (startIndex < to) startIndex = Math.min(to, endIndex);
+    }
+
+    private void reset() {
+      started = false;
+      startIndex = 0;
+      endIndex = 0;
+    }
+  }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.input.audio;
+
+/**
+ * Streaming sample rate and channels converter for 16 bits little endian PCM.
+ *
+ * Channels are remixed first (mono to stereo duplicates, stereo to mono averages and multichannel
+ * is downmixed using the Android channel order, normalized to avoid clipping). Then samples are
+ * resampled with a polyphase windowed sinc filter (Kaiser window, ~80 dB of stop band attenuation).
+ * The filter cutoff is placed under the lowest Nyquist frequency so downsampling doesn't produce
+ * aliasing and upsampling doesn't produce images.
+ *
+ * The converter keeps filter history between calls, so input can be split in buffers of any size and
+ * the output is the same. Output is delayed by the filter half length (see {@link #getDelay()}).
+ * Internal buffers are only resized if a bigger input is received, so there is no allocation per call.
+ *
+ * This class is not thread safe, use one instance per source.
+ */
+public class AudioResampler {
+
+  //max filter phases stored, used when the rates ratio can't be reduced to less phases.
+  //The position is always exact, only the filter phase used is rounded to the previous one stored
+  private static final int MAX_PHASES = 512;
+  //Kaiser window beta for ~80 dB of attenuation
+  private static final double KAISER_BETA = 7.857;
+  private static final double ATTENUATION = 80;
+  //cutoff and transition band relative to the lowest Nyquist frequency
+  private static final double CUTOFF = 0.91;
+  private static final double TRANSITION = 0.18;
+  //-3 dB gain for center and surround channels in downmix
+  private static final float SURROUND_GAIN = 0.7071f;
+
+  private final int inputSampleRate;
+  private final int inputChannels;
+  private final int outputSampleRate;
+  private final int outputChannels;
+  private final float[] mixMatrix;
+  private final boolean passthrough;
+  //input samples per output sample is down / up
+  private final int up;
+  private final int down;
+  private final int phases;
+  private final int halfLength;
+  private final float[] coefficients;
+  //planar buffer per output channel with filter history and pending input samples
+  private float[][] buffer;
+  private int bufferFrames;
+  private int position;
+  //position between input samples in 1 / up units
+  private int fraction;
+
+  public AudioResampler(int inputSampleRate, int inputChannels, int outputSampleRate,
+      int outputChannels) {
+    if (inputSampleRate <= 0 || outputSampleRate <= 0) {
+      throw new IllegalArgumentException("invalid sample rate");
+    }
+    if (inputChannels <= 0 || outputChannels <= 0 || outputChannels > 2) {
+      throw new IllegalArgumentException("invalid channels");
+    }
+    this.inputSampleRate = inputSampleRate;
+    this.inputChannels = inputChannels;
+    this.outputSampleRate = outputSampleRate;
+    this.outputChannels = outputChannels;
+    this.mixMatrix = createMixMatrix(inputChannels, outputChannels);
+    this.passthrough = inputSampleRate == outputSampleRate;
+    int gcd = gcd(inputSampleRate, outputSampleRate);
+    up = outputSampleRate / gcd;
+    down = inputSampleRate / gcd;
+    phases = Math.min(up, MAX_PHASES);
+    if (passthrough) {
+      halfLength = 0;
+      coefficients = new float[0];
+    } else {
+      double nyquist = 0.5 * Math.min(1.0, (double) outputSampleRate / inputSampleRate);
+      double cutoff = CUTOFF * nyquist;
+      double transition = TRANSITION * nyquist;
+      int length = (int) Math.ceil((ATTENUATION - 8) / (2.285 * 2 * Math.PI * transition));
+      halfLength = length / 2 + 1;
+      coefficients = createCoefficients(phases, halfLength, cutoff);
+    }
+    buffer = new float[outputChannels][2 * halfLength + 1024];
+    reset();
+  }
+
+  /**
+   * @return max output bytes produced by {@link #process} with an input of inputSize bytes
+   */
+  public int getMaxOutputSize(int inputSize) {
+    long inputFrames = inputSize / (2L * inputChannels) + 1;
+    long outputFrames = inputFrames * up / down + 2;
+    return (int) (outputFrames * 2 * outputChannels);
+  }
+
+  /**
+   * @return output delay in input samples per channel
+   */
+  public int getDelay() {
+    return halfLength;
+  }
+
+  /**
+   * Convert PCM from input format to output format. Size must be a multiple of input frame size
+   * (2 * inputChannels bytes).
+   *
+   * @param output buffer with at least {@link #getMaxOutputSize(int)} bytes from outputOffset
+   * @return bytes written in output
+   */
+  public int process(byte[] input, int offset, int size, byte[] output, int outputOffset) {
+    int frames = size / (2 * inputChannels);
+    ensureCapacity(bufferFrames + frames);
+    remix(input, offset, frames);
+    if (passthrough) {
+      int written = writeOutput(output, outputOffset, 0, bufferFrames);
+      bufferFrames = 0;
+      return written;
+    }
+    int outputPosition = outputOffset;
+    int taps = 2 * halfLength;
+    while (position + halfLength < bufferFrames) {
+      int first = position - halfLength + 1;
+      int row = getPhase() * taps;
+      for (int c = 0; c < outputChannels; c++) {
+        float[] samples = buffer[c];
+        float sum = 0;
+        for (int i = 0; i < taps; i++) {
+          sum += coefficients[row + i] * samples[first + i];
+        }
+        writeSample(output, outputPosition + 2 * c, sum);
+      }
+      outputPosition += 2 * outputChannels;
+      fraction += down;
+      position += fraction / up;
+      fraction %= up;
+    }
+    //keep only the history needed for the next output sample
+    int discard = Math.min(position - halfLength + 1, bufferFrames);
+    if (discard > 0) {
+      for (int c = 0; c < outputChannels; c++) {
+        System.arraycopy(buffer[c], discard, buffer[c], 0, bufferFrames - discard);
+      }
+      bufferFrames -= discard;
+      position -= discard;
+    }
+    return outputPosition - outputOffset;
+  }
+
+  /**
+   * Discard filter history. Call it if the input is not continuous (seek, source changed).
+   */
+  public void reset() {
+    for (int c = 0; c < outputChannels; c++) {
+      for (int i = 0; i < halfLength; i++) buffer[c][i] = 0;
+    }
+    //first output sample is centered in first input sample with silence as history
+    bufferFrames = Math.max(halfLength - 1, 0);
+    position = bufferFrames;
+    fraction = 0;
+  }
+
+  public int getInputSampleRate() {
+    return inputSampleRate;
+  }
+
+  public int getInputChannels() {
+    return inputChannels;
+  }
+
+  public int getOutputSampleRate() {
+    return outputSampleRate;
+  }
+
+  public int getOutputChannels() {
+    return outputChannels;
+  }
+
+  /**
+   * @return filter phase of the fraction, rounded down if there are less phases than up
+   */
+  private int getPhase() {
+    if (phases == up) return fraction;
+    return (int) ((long) fraction * phases / up);
+  }
+
+  private void remix(byte[] input, int offset, int frames) {
+    int index = offset;
+    for (int f = 0; f < frames; f++) {
+      int frame = bufferFrames + f;
+      for (int c = 0; c < outputChannels; c++) {
+        int row = c * inputChannels;
+        float sum = 0;
+        for (int i = 0; i < inputChannels; i++) {
+          int sampleIndex = index + 2 * i;
+          short sample = (short) ((input[sampleIndex] & 0xFF) | (input[sampleIndex + 1] << 8));
+          sum += mixMatrix[row + i] * sample;
+        }
+        buffer[c][frame] = sum;
+      }
+      index += 2 * inputChannels;
+    }
+    bufferFrames += frames;
+  }
+
+  private int writeOutput(byte[] output, int outputOffset, int from, int to) {
+    int outputPosition = outputOffset;
+    for (int f = from; f < to; f++) {
+      for (int c = 0; c < outputChannels; c++) {
+        writeSample(output, outputPosition, buffer[c][f]);
+        outputPosition += 2;
+      }
+    }
+    return outputPosition - outputOffset;
+  }
+
+  private static void writeSample(byte[] output, int index, float value) {
+    int sample = Math.round(value);
+    if (sample > Short.MAX_VALUE) sample = Short.MAX_VALUE;
+    else if (sample < Short.MIN_VALUE) sample = Short.MIN_VALUE;
+    output[index] = (byte) sample;
+    output[index + 1] = (byte) (sample >> 8);
+  }
+
+  private void ensureCapacity(int frames) {
+    if (buffer[0].length >= frames) return;
+    int capacity = Math.max(frames, buffer[0].length * 2);
+    for (int c = 0; c < outputChannels; c++) {
+      float[] resized = new float[capacity];
+      System.arraycopy(buffer[c], 0, resized, 0, bufferFrames);
+      buffer[c] = resized;
+    }
+  }
+
+  /**
+   * Coefficients of each phase, normalized to unity gain.
+   * Phase p is used to calculate an output sample at p / phases input samples after position.
+   */
+  private static float[] createCoefficients(int phases, int halfLength, double cutoff) {
+    int taps = 2 * halfLength;
+    float[] coefficients = new float[phases * taps];
+    double windowNorm = bessel(KAISER_BETA);
+    for (int p = 0; p < phases; p++) {
+      double fraction = (double) p / phases;
+      double[] row = new double[taps];
+      double sum = 0;
+      for (int i = 0; i < taps; i++) {
+        //distance from the output sample to input sample position - halfLength + 1 + i
+        double t = fraction + halfLength - 1 - i;
+        double x = t / halfLength;
+        double window = Math.abs(x) >= 1 ? 0 : bessel(KAISER_BETA * Math.sqrt(1 - x * x)) / windowNorm;
+        double argument = 2 * Math.PI * cutoff * t;
+        double sinc = t == 0 ? 1 : Math.sin(argument) / argument;
+        row[i] = 2 * cutoff * sinc * window;
+        sum += row[i];
+      }
+      for (int i = 0; i < taps; i++) {
+        coefficients[p * taps + i] = (float) (row[i] / sum);
+      }
+    }
+    return coefficients;
+  }
+
+  /**
+   * Zeroth order modified Bessel function of the first kind.
+   */
+  private static double bessel(double x) {
+    double sum = 1;
+    double term = 1;
+    double half = x / 2;
+    for (int k = 1; k < 50; k++) {
+      term *= half / k;
+      double value = term * term;
+      sum += value;
+      if (value < sum * 1e-12) break;
+    }
+    return sum;
+  }
+
+  /**
+   * Matrix of outputChannels rows and inputChannels columns.
+   * Multichannel input use Android default channel masks order (FL, FR, FC, LFE, BL, BR, SL, SR).
+   */
+  private static float[] createMixMatrix(int inputChannels, int outputChannels) {
+    float[] left = new float[inputChannels];
+    float[] right = new float[inputChannels];
+    switch (inputChannels) {
+      case 1:
+        left[0] = 1;
+        right[0] = 1;
+        break;
+      case 2:
+        left[0] = 1;
+        right[1] = 1;
+        break;
+      case 3: //FL, FR, FC
+        left[0] = 1;
+        right[1] = 1;
+        left[2] = right[2] = SURROUND_GAIN;
+        break;
+      case 4: //quad FL, FR, BL, BR
+        left[0] = 1;
+        right[1] = 1;
+        left[2] = SURROUND_GAIN;
+        right[3] = SURROUND_GAIN;
+        break;
+      case 5: //FL, FR, FC, BL, BR
+        left[0] = 1;
+        right[1] = 1;
+        left[2] = right[2] = SURROUND_GAIN;
+        left[3] = SURROUND_GAIN;
+        right[4] = SURROUND_GAIN;
+        break;
+      default: //5.1, 7.1 (FL, FR, FC, LFE, BL, BR, SL, SR). LFE is discarded
+        for (int i = 0; i < inputChannels; i++) {
+          if (i == 3) continue;
+          float gain = i < 2 ? 1 : SURROUND_GAIN;
+          if (i == 2) {
+            left[i] = right[i] = gain;
+          } else if (i % 2 == 0) {
+            left[i] = gain;
+          } else {
+            right[i] = gain;
+          }
+        }
+        break;
+    }
+    if (inputChannels > 2) {
+      normalize(left);
+      normalize(right);
+    }
+    float[] matrix = new float[outputChannels * inputChannels];
+    for (int i = 0; i < inputChannels; i++) {
+      if (outputChannels == 1) {
+        matrix[i] = inputChannels == 1 ? 1 : (left[i] + right[i]) / 2;
+      } else {
+        matrix[i] = left[i];
+        matrix[inputChannels + i] = right[i];
+      }
+    }
+    return matrix;
+  }
+
+  private static void normalize(float[] gains) {
+    float sum = 0;
+    for (float gain : gains) sum += gain;
+    for (int i = 0; i < gains.length; i++) gains[i] /= sum;
+  }
+
+  private static int gcd(int a, int b) {
+    while (b != 0) {
+      int t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+}
@@ -21,5 +21,9 @@ import com.pedro.encoder.Frame
  * Created by pedro on 19/01/17.
  */
 interface GetMicrophoneData {
+  /**
+   * Frames could be obtained from a [com.pedro.encoder.FramePool].
+   * Call [Frame.recycle] when the data is no longer needed if the frame is not sent to an encoder.
+   */
   fun inputPCMData(frame: Frame)
 }
\ No newline at end of file
@@ -28,6 +28,10 @@ import android.os.HandlerThread;
 import android.util.Log;
 
 import com.pedro.encoder.Frame;
+import com.pedro.encoder.FramePool;
+import com.pedro.encoder.audio.PcmRingBuffer;
+
+import java.util.Arrays;
 
 /**
  * Created by pedro on 19/01/17.
@@ -38,12 +42,15 @@ public class MicrophoneManager {
 
   private final String TAG = "MicrophoneManager";
   private final int DEFAULT_BUFFER_SIZE = 2048;
+  //frames waiting to be encoded, same as encoder queue size
+  private final int FRAME_POOL_SIZE = 80;
   private int BUFFER_SIZE = 0;
   private int CUSTOM_BUFFER_SIZE = 0;
   protected AudioRecord audioRecord;
   private final GetMicrophoneData getMicrophoneData;
   protected byte[] pcmBuffer = new byte[BUFFER_SIZE];
   protected byte[] pcmBufferMuted = new byte[BUFFER_SIZE];
+  protected FramePool framePool;
   protected boolean running = false;
   private boolean created = false;
   //default parameters for microphone
@@ -54,6 +61,7 @@ public class MicrophoneManager {
   private AudioPostProcessEffect audioPostProcessEffect;
   protected HandlerThread handlerThread;
   protected CustomAudioEffect customAudioEffect = new NoAudioEffect();
+  private volatile PcmRingBuffer pcmRingBuffer;
 
   public MicrophoneManager(GetMicrophoneData getMicrophoneData) {
     this.getMicrophoneData = getMicrophoneData;
@@ -63,6 +71,14 @@ public class MicrophoneManager {
     this.customAudioEffect = customAudioEffect;
   }
 
+  /**
+   * Write PCM data in a ring read by AudioEncoder (AudioEncoder.setPcmRingBuffer) instead of
+   * send frames to GetMicrophoneData. Null to send frames.
+   */
+  public void setPcmRingBuffer(PcmRingBuffer pcmRingBuffer) {
+    this.pcmRingBuffer = pcmRingBuffer;
+  }
+
   /**
    * Create audio record
    */
@@ -169,7 +185,15 @@ public class MicrophoneManager {
       while (running) {
         Frame frame = read();
         if (frame != null) {
-          getMicrophoneData.inputPCMData(frame);
+          PcmRingBuffer ring = pcmRingBuffer;
+          if (ring != null) {
+            if (!ring.write(frame.getBuffer(), frame.getOffset(), frame.getSize(), frame.getTimeStamp())) {
+              Log.i(TAG, "frame discarded, ring buffer full");
+            }
+            frame.recycle();
+          } else {
+            getMicrophoneData.inputPCMData(frame);
+          }
         }
       }
     });
@@ -198,16 +222,32 @@ public class MicrophoneManager {
   }
 
   /**
-   * @return Object with size and PCM buffer data
+   * @return Object with size and PCM buffer data. The frame is owned by the receiver until recycled.
    */
   protected Frame read() {
     long timeStamp = System.nanoTime() / 1000;
-    int size = audioRecord.read(pcmBuffer, 0, pcmBuffer.length);
+    Frame frame = framePool.obtain();
+    //keep reading with all frames in use to avoid get old samples after that
+    byte[] buffer = frame != null ? frame.getBuffer() : pcmBuffer;
+    int size = audioRecord.read(buffer, 0, buffer.length);
     if (size < 0){
       Log.e(TAG, "read error: " + size);
+      if (frame != null) frame.recycle();
       return null;
     }
-    return new Frame(muted ? pcmBufferMuted : customAudioEffect.process(pcmBuffer), 0, size, timeStamp);
+    if (frame == null) {
+      Log.i(TAG, "frame discarded, all frames in use");
+      return null;
+    }
+    if (muted) {
+      Arrays.fill(buffer, 0, size, (byte) 0);
+    } else {
+      byte[] processed = customAudioEffect.process(buffer);
+      if (processed != buffer) System.arraycopy(processed, 0, buffer, 0, size);
+    }
+    frame.setSize(size);
+    frame.setTimeStamp(timeStamp);
+    return frame;
   }
 
   /**
@@ -248,6 +288,7 @@ public class MicrophoneManager {
       pcmBuffer = new byte[BUFFER_SIZE];
       pcmBufferMuted = new byte[BUFFER_SIZE];
     }
+    framePool = new FramePool(FRAME_POOL_SIZE, pcmBuffer.length);
   }
 
   public int getMaxInputSize() {
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.input.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Silence detector for 16 bits little endian PCM using RMS and peak level with hangover.
+ *
+ * A buffer is quiet if RMS and peak are under the thresholds. Silence starts only after
+ * hangoverMs of continuous quiet buffers, so pauses between words and the tail of the speech are
+ * not cut. Silence ends with the first buffer over the thresholds.
+ *
+ * Used by AudioEncoder (see AudioEncoder.setSilenceDetector) to replace the input with digital
+ * silence, that is cheap to encode and produce identical encoded frames that protocol senders can
+ * thin out.
+ */
+public class SilenceDetector {
+
+  public static final float DEFAULT_RMS_THRESHOLD_DB = -50f;
+  public static final float DEFAULT_PEAK_THRESHOLD_DB = -36f;
+  public static final int DEFAULT_HANGOVER_MS = 400;
+
+  private final int sampleRate;
+  private final int channels;
+  private final double rmsThreshold;
+  private final int peakThreshold;
+  private final long hangoverSamples;
+  private long quietSamples = 0;
+  private boolean silence = false;
+  private float rmsDb = -96f;
+
+  /**
+   * @param rmsThresholdDb max RMS level in dBFS considered quiet
+   * @param peakThresholdDb max peak level in dBFS considered quiet
+   * @param hangoverMs time of quiet audio before start silence
+   */
+  public SilenceDetector(int sampleRate, boolean isStereo, float rmsThresholdDb,
+      float peakThresholdDb, int hangoverMs) {
+    this.sampleRate = sampleRate;
+    this.channels = isStereo ? 2 : 1;
+    this.rmsThreshold = toLinear(rmsThresholdDb);
+    this.peakThreshold = (int) toLinear(peakThresholdDb);
+    this.hangoverSamples = (long) hangoverMs * sampleRate / 1000;
+  }
+
+  public SilenceDetector(int sampleRate, boolean isStereo) {
+    this(sampleRate, isStereo, DEFAULT_RMS_THRESHOLD_DB, DEFAULT_PEAK_THRESHOLD_DB,
+        DEFAULT_HANGOVER_MS);
+  }
+
+  /**
+   * Analyze a PCM buffer.
+   *
+   * @return true if the buffer is silence
+   */
+  public boolean process(byte[] data, int offset, int size) {
+    long sum = 0;
+    int peak = 0;
+    int end = offset + size - 1;
+    for (int i = offset; i < end; i += 2) {
+      int sample = (short) ((data[i] & 0xFF) | (data[i + 1] << 8));
+      sum += (long) sample * sample;
+      int abs = Math.abs(sample);
+      if (abs > peak) peak = abs;
+    }
+    return update(sum, peak, size / 2);
+  }
+
+  /**
+   * Same as {@link #process(byte[], int, int)} reading from position to position + size. Buffer
+   * position is not modified.
+   */
+  public boolean process(ByteBuffer data, int position, int size) {
+    long sum = 0;
+    int peak = 0;
+    int end = position + size - 1;
+    for (int i = position; i < end; i += 2) {
+      int sample = (short) ((data.get(i) & 0xFF) | (data.get(i + 1) << 8));
+      sum += (long) sample * sample;
+      int abs = Math.abs(sample);
+      if (abs > peak) peak = abs;
+    }
+    return update(sum, peak, size / 2);
+  }
+
+  private boolean update(long sum, int peak, int samples) {
+    if (samples <= 0) return silence;
+    double rms = Math.sqrt((double) sum / samples);
+    rmsDb = rms < 1 ? -96f : (float) (20 * Math.log10(rms / 32768));
+    if (rms <= rmsThreshold && peak <= peakThreshold) {
+      quietSamples += samples / channels;
+      silence = quietSamples >= hangoverSamples;
+    } else {
+      quietSamples = 0;
+      silence = false;
+    }
+    return silence;
+  }
+
+  public boolean isSilence() {
+    return silence;
+  }
+
+  /**
+   * @return RMS level of the last buffer in dBFS
+   */
+  public float getRmsDb() {
+    return rmsDb;
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  public void reset() {
+    quietSamples = 0;
+    silence = false;
+    rmsDb = -96f;
+  }
+
+  private static double toLinear(float db) {
+    return 32768 * Math.pow(10, db / 20);
+  }
+}
@@ -16,14 +16,18 @@
 
 package com.pedro.encoder.input.decoder;
 
+import android.media.MediaCodec;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import android.util.Log;
 
 import com.pedro.encoder.Frame;
+import com.pedro.encoder.audio.GetAacData;
+import com.pedro.encoder.input.audio.AudioResampler;
 import com.pedro.encoder.input.audio.GetMicrophoneData;
 import com.pedro.encoder.utils.CodecUtil;
-import com.pedro.encoder.utils.PCMUtil;
+import com.pedro.encoder.utils.MediaClock;
+import com.pedro.encoder.utils.RemuxUtil;
 
 import java.nio.ByteBuffer;
 
@@ -40,11 +44,15 @@ public class AudioDecoder extends BaseDecoder {
   private int size = 2048;
   private byte[] pcmBuffer = new byte[size];
   private byte[] pcmBufferMuted = new byte[11];
+  private AudioResampler downmix;
+  private byte[] pcmBufferStereo = new byte[0];
+  private GetAacData getAacData;
+  private boolean formatSent = false;
   private boolean muted = false;
 
   public AudioDecoder(GetMicrophoneData getMicrophoneData,
       AudioDecoderInterface audioDecoderInterface, DecoderInterface decoderInterface) {
-    super(decoderInterface);
+    super(decoderInterface, MediaClock.Track.AUDIO);
     TAG = "AudioDecoder";
     this.getMicrophoneData = getMicrophoneData;
     this.audioDecoderInterface = audioDecoderInterface;
@@ -81,9 +89,28 @@ public class AudioDecoder extends BaseDecoder {
       size *= channels;
     }
     pcmBuffer = new byte[size];
+    downmix = channels > 2 ? new AudioResampler(sampleRate, channels, sampleRate, 2) : null;
   }
 
   public boolean prepareAudio() {
+    passthrough = false;
+    return prepare(null);
+  }
+
+  /**
+   * Send AAC frames of the file to getAacData without decode, in the same format that AudioEncoder
+   * produce (raw AAC without ADTS header).
+   *
+   * @return false if the audio codec is not AAC or has more than 2 channels
+   */
+  public boolean prepareAudioPassthrough(GetAacData getAacData) {
+    if (!mime.equals(CodecUtil.AAC_MIME) || channels > 2) {
+      Log.e(TAG, "passthrough not supported with codec " + mime + " and " + channels + " channels");
+      return false;
+    }
+    this.getAacData = getAacData;
+    formatSent = false;
+    passthrough = true;
     return prepare(null);
   }
 
@@ -98,10 +125,13 @@ public class AudioDecoder extends BaseDecoder {
       if (pcmBuffer.length < outputBuffer.remaining()) {
         pcmBuffer = new byte[outputBuffer.remaining()];
       }
-      outputBuffer.get(pcmBuffer, 0, Math.min(outputBuffer.remaining(), pcmBuffer.length));
-      if (channels > 2) { //downgrade to stereo
-        byte[] bufferStereo = PCMUtil.pcmToStereo(pcmBuffer, channels);
-        getMicrophoneData.inputPCMData(new Frame(bufferStereo, 0, bufferStereo.length, timeStamp));
+      int pcmSize = Math.min(outputBuffer.remaining(), pcmBuffer.length);
+      outputBuffer.get(pcmBuffer, 0, pcmSize);
+      if (downmix != null) { //downgrade to stereo
+        int maxSize = downmix.getMaxOutputSize(pcmSize);
+        if (pcmBufferStereo.length < maxSize) pcmBufferStereo = new byte[maxSize];
+        int stereoSize = downmix.process(pcmBuffer, 0, pcmSize, pcmBufferStereo, 0);
+        getMicrophoneData.inputPCMData(new Frame(pcmBufferStereo, 0, stereoSize, timeStamp));
       } else {
         getMicrophoneData.inputPCMData(new Frame(pcmBuffer, 0, pcmBuffer.length, timeStamp));
       }
@@ -109,6 +139,22 @@ public class AudioDecoder extends BaseDecoder {
     return false;
   }
 
+  @Override
+  protected void remuxOutput(ByteBuffer buffer, MediaCodec.BufferInfo info) {
+    if (!formatSent) {
+      getAacData.onAudioFormat(mediaFormat);
+      formatSent = true;
+    }
+    int headerSize = RemuxUtil.getAdtsHeaderSize(buffer, 0, info.size);
+    if (headerSize > 0) {
+      buffer.position(headerSize);
+      buffer.compact();
+      buffer.flip();
+      info.set(0, info.size - headerSize, info.presentationTimeUs, info.flags);
+    }
+    getAacData.getAacData(buffer, info);
+  }
+
   @Override
   protected void finished() {
     audioDecoderInterface.onAudioDecoderFinished();
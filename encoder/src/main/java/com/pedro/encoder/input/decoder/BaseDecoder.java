@@ -31,6 +31,8 @@ import android.view.Surface;
 
 import androidx.annotation.RequiresApi;
 
+import com.pedro.encoder.utils.MediaClock;
+
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -48,17 +50,51 @@ public abstract class BaseDecoder {
   private HandlerThread handlerThread;
   protected String mime = "";
   protected boolean loopMode = false;
-  private volatile long startTs = 0;
   protected long duration;
   protected final Object sync = new Object();
-  private volatile long lastExtractorTs = 0;
   //Avoid decode while change output surface
   protected AtomicBoolean pause = new AtomicBoolean(false);
-  protected volatile boolean looped = false;
   private final DecoderInterface decoderInterface;
+  //send extractor samples to remuxOutput instead of decode it
+  protected boolean passthrough = false;
+  //timestamps of passthrough samples must be increasing after seek
+  private volatile boolean rebaseTs = false;
+  //decoded frames before this timestamp are from samples before the seek time
+  private volatile long seekTargetUs = -1;
+  //video frames of a slave track later than this are discarded
+  private static final long MAX_LATE_US = 50_000;
+  private final MediaClock.Track track;
+  private MediaClock mediaClock = new MediaClock();
+  //only the owner of the clock can reset it, a shared clock is reset by the owner
+  private boolean ownClock = true;
+  //added to extractor timestamps to get media clock timestamps
+  private volatile long offsetUs = 0;
+  private volatile boolean clockInitialized = false;
+  //used as loop duration if the file has no duration
+  private long lastSampleUs = -1;
+  private long sampleDurationUs = 0;
 
   public BaseDecoder(DecoderInterface decoderInterface) {
+    this(decoderInterface, MediaClock.Track.VIDEO);
+  }
+
+  public BaseDecoder(DecoderInterface decoderInterface, MediaClock.Track track) {
     this.decoderInterface = decoderInterface;
+    this.track = track;
+    mediaClock.setMaster(track);
+  }
+
+  /**
+   * Share the clock with other decoders to keep the tracks synchronized.
+   * Must be called before start.
+   */
+  public void setMediaClock(MediaClock mediaClock) {
+    this.mediaClock = mediaClock;
+    ownClock = false;
+  }
+
+  public MediaClock getMediaClock() {
+    return mediaClock;
   }
 
   public boolean initExtractor(String filePath) throws IOException {
@@ -110,13 +146,15 @@ public abstract class BaseDecoder {
   public void start() {
     Log.i(TAG, "start decoder");
     running = true;
+    if (mediaClock.isMaster(track)) mediaClock.setLoopDurationUs(duration);
     handlerThread = new HandlerThread(TAG);
     handlerThread.start();
     Handler handler = new Handler(handlerThread.getLooper());
-    codec.start();
+    if (!passthrough) codec.start();
     handler.post(() -> {
       try {
-        decode();
+        if (passthrough) remux();
+        else decode();
       } catch (IllegalStateException e) {
         Log.i(TAG, "Decoding error", e);
       } catch (NullPointerException e) {
@@ -130,8 +168,7 @@ public abstract class BaseDecoder {
     Log.i(TAG, "stop decoder");
     running = false;
     stopDecoder();
-    lastExtractorTs = 0;
-    startTs = 0;
+    if (ownClock) mediaClock.reset();
     if (extractor != null) {
       extractor.release();
       extractor = null;
@@ -140,6 +177,7 @@ public abstract class BaseDecoder {
   }
 
   protected boolean prepare(Surface surface) {
+    if (passthrough) return true;
     try {
       codec = MediaCodec.createDecoderByType(mime);
       codec.configure(mediaFormat, surface, null, 0);
@@ -165,7 +203,10 @@ public abstract class BaseDecoder {
 
   protected void stopDecoder(boolean clearTs) {
     running = false;
-    if (clearTs) startTs = 0;
+    if (clearTs) {
+      clockInitialized = false;
+      seekTargetUs = -1;
+    }
     if (handlerThread != null) {
       if (handlerThread.getLooper() != null) {
         if (handlerThread.getLooper().getThread() != null) {
@@ -196,8 +237,14 @@ public abstract class BaseDecoder {
 
   public void moveTo(double time) {
     synchronized (sync) {
-      extractor.seekTo((long) (time * 10E5), MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
-      lastExtractorTs = extractor.getSampleTime();
+      long timeUs = (long) (time * 10E5);
+      extractor.seekTo(timeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+      if (clockInitialized) {
+        //continue from the current media time. Samples before the time requested are discarded
+        seekTargetUs = mediaClock.getTimeUs();
+        offsetUs = seekTargetUs - timeUs;
+        rebaseTs = true;
+      }
     }
   }
 
@@ -209,10 +256,18 @@ public abstract class BaseDecoder {
     return loopMode;
   }
 
+  public String getMime() {
+    return mime;
+  }
+
   public double getDuration() {
     return duration / 10E5;
   }
 
+  public long getDurationUs() {
+    return duration;
+  }
+
   public double getTime() {
     if (running) {
       return extractor.getSampleTime() / 10E5;
@@ -227,89 +282,193 @@ public abstract class BaseDecoder {
 
   protected abstract void finished();
 
-  private void decode() {
-    if (startTs == 0) {
-      moveTo(0); //make sure that we are on the start
-      startTs = System.nanoTime() / 1000;
+  /**
+   * Called in passthrough mode with each sample of the file.
+   *
+   * @param buffer sample data from position 0 to info.size
+   * @param info presentation timestamp relative to the start and key frame flag
+   */
+  protected void remuxOutput(ByteBuffer buffer, MediaCodec.BufferInfo info) {
+  }
+
+  private void initClock() {
+    if (!clockInitialized) {
+      //make sure that we are on the start
+      extractor.seekTo(0, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+      offsetUs = 0;
+      rebaseTs = false;
+      lastSampleUs = -1;
+      sampleDurationUs = 0;
+      mediaClock.start();
+      clockInitialized = true;
     }
-    long sleepTime = 0;
-    long accumulativeTs = 0;
+  }
+
+  private void updateLastSample(long sampleTime) {
+    if (sampleTime > lastSampleUs) {
+      if (lastSampleUs >= 0) sampleDurationUs = sampleTime - lastSampleUs;
+      lastSampleUs = sampleTime;
+    }
+  }
+
+  private long getLoopDurationUs() {
+    long loopDuration = mediaClock.getLoopDurationUs();
+    if (loopDuration > 0) return loopDuration;
+    return duration > 0 ? duration : lastSampleUs + sampleDurationUs;
+  }
+
+  /**
+   * @return true if there are no more samples to play in this loop. In loop mode samples after
+   * the master track duration are discarded to keep all tracks with the same loop duration.
+   */
+  private boolean isEndOfTrack(long sampleTime) {
+    if (sampleTime < 0) return true;
+    long loopDuration = mediaClock.getLoopDurationUs();
+    return loopMode && loopDuration > 0 && sampleTime >= loopDuration;
+  }
+
+  private void loop() {
+    offsetUs += getLoopDurationUs();
+    extractor.seekTo(0, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+    decoderInterface.onLoop();
+  }
+
+  /**
+   * Video of a slave track is discarded if it is too late to follow the master track.
+   */
+  private boolean isLate(long ts) {
+    return track == MediaClock.Track.VIDEO && !mediaClock.isMaster(track)
+        && mediaClock.getLateUs(ts) > MAX_LATE_US;
+  }
+
+  /**
+   * Samples from the previous sync frame to the seek time are decoded only to be able to decode
+   * the frame requested. Discard it on all tracks to keep timestamps increasing.
+   */
+  private boolean isBeforeSeek(long ts) {
+    if (seekTargetUs < 0) return false;
+    if (ts < seekTargetUs) return true;
+    seekTargetUs = -1;
+    return false;
+  }
+
+  private void decode() {
+    initClock();
+    boolean inputFinished = false;
+    long lastTs = -1;
     while (running) {
       synchronized (sync) {
         if (pause.get()) continue;
-        if (looped) {
-          double time = getTime();
-          if (time > 0) {
-            moveTo(0);
+        if (!inputFinished) {
+          long sampleTime = extractor.getSampleTime();
+          boolean endOfTrack = isEndOfTrack(sampleTime);
+          if (endOfTrack && loopMode) {
+            loop();
             continue;
-          } else {
-            decoderInterface.onLoop();
-            looped = false;
-          }
-        }
-        int inIndex = codec.dequeueInputBuffer(10000);
-        int sampleSize;
-        long timeStamp = System.nanoTime() / 1000;
-        if (inIndex >= 0) {
-          ByteBuffer input;
-          if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            input = codec.getInputBuffer(inIndex);
-          } else {
-            input = codec.getInputBuffers()[inIndex];
           }
-          if (input == null) continue;
-          sampleSize = extractor.readSampleData(input, 0);
-
-          long ts = System.nanoTime() / 1000 - startTs;
-          long extractorTs = extractor.getSampleTime();
-          accumulativeTs += extractorTs - lastExtractorTs;
-          lastExtractorTs = extractor.getSampleTime();
-
-          if (accumulativeTs > ts) sleepTime = (accumulativeTs - ts) / 1000;
-          else sleepTime = 0;
-
-          if (sampleSize < 0) {
-            if (!loopMode) {
+          int inIndex = codec.dequeueInputBuffer(10000);
+          if (inIndex >= 0) {
+            ByteBuffer input;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+              input = codec.getInputBuffer(inIndex);
+            } else {
+              input = codec.getInputBuffers()[inIndex];
+            }
+            if (input == null) continue;
+            int sampleSize = endOfTrack ? -1 : extractor.readSampleData(input, 0);
+            if (sampleSize < 0) {
               codec.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+              inputFinished = true;
+            } else {
+              updateLastSample(sampleTime);
+              codec.queueInputBuffer(inIndex, 0, sampleSize, sampleTime + offsetUs, 0);
+              extractor.advance();
             }
-          } else {
-            codec.queueInputBuffer(inIndex, 0, sampleSize, ts + sleepTime, 0);
-            extractor.advance();
           }
         }
         int outIndex = codec.dequeueOutputBuffer(bufferInfo, 10000);
         if (outIndex >= 0) {
-          if (!sleep(sleepTime)) return;
-          ByteBuffer output;
-          if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            output = codec.getOutputBuffer(outIndex);
+          long ts = bufferInfo.presentationTimeUs;
+          if (bufferInfo.size == 0 || isLate(ts) || isBeforeSeek(ts) || ts <= lastTs) {
+            codec.releaseOutputBuffer(outIndex, false);
           } else {
-            output = codec.getOutputBuffers()[outIndex];
-          }
-          boolean render = decodeOutput(output, timeStamp);
-          codec.releaseOutputBuffer(outIndex, render && bufferInfo.size != 0);
-          boolean finished = extractor.getSampleTime() < 0;
-          if (finished) {
-            if (loopMode) {
-              moveTo(0);
-              looped = true;
+            lastTs = ts;
+            if (!mediaClock.waitUntil(ts)) return;
+            ByteBuffer output;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+              output = codec.getOutputBuffer(outIndex);
             } else {
-              Log.i(TAG, "end of file");
-              finished();
+              output = codec.getOutputBuffers()[outIndex];
             }
+            boolean render = decodeOutput(output, mediaClock.toSystemTimeUs(ts));
+            codec.releaseOutputBuffer(outIndex, render);
+          }
+          if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            Log.i(TAG, "end of file");
+            finished();
+            return;
           }
         }
       }
     }
   }
 
-  private boolean sleep(long sleepTime) {
-    try {
-      Thread.sleep(sleepTime);
-      return true;
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      return false;
+  /**
+   * Read samples from the extractor without decode and send it to remuxOutput paced by timestamp.
+   * Timestamps are continuous after seek and loop.
+   */
+  private void remux() {
+    initClock();
+    int maxSize = mediaFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+        ? mediaFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : 1024 * 1024;
+    ByteBuffer buffer = ByteBuffer.allocateDirect(maxSize);
+    long maxTs = -1;
+    long frameDuration = 0;
+    while (running) {
+      synchronized (sync) {
+        if (pause.get()) continue;
+        long sampleTime = extractor.getSampleTime();
+        if (isEndOfTrack(sampleTime)) {
+          if (loopMode) {
+            loop();
+            continue;
+          } else {
+            Log.i(TAG, "end of file");
+            finished();
+            return;
+          }
+        }
+        buffer.clear();
+        int sampleSize;
+        try {
+          sampleSize = extractor.readSampleData(buffer, 0);
+        } catch (IllegalArgumentException e) { //buffer too small
+          buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+          continue;
+        }
+        int flags = extractor.getSampleFlags();
+        extractor.advance();
+        if (sampleSize < 0) continue;
+        updateLastSample(sampleTime);
+        //samples before the seek time can't be discarded without decode, keep timestamps increasing
+        if (rebaseTs) {
+          long ts = sampleTime + offsetUs;
+          if (maxTs >= 0 && ts <= maxTs) offsetUs += maxTs + frameDuration - ts;
+          rebaseTs = false;
+        }
+        long ts = sampleTime + offsetUs;
+        if (ts > maxTs) {
+          if (maxTs >= 0) frameDuration = ts - maxTs;
+          maxTs = ts;
+        }
+        //samples are in decode order, wait for the max timestamp to support B-frames
+        if (!mediaClock.waitUntil(maxTs)) return;
+        boolean isKeyFrame = (flags & MediaExtractor.SAMPLE_FLAG_SYNC) != 0;
+        bufferInfo.set(0, sampleSize, ts, isKeyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+        buffer.position(0);
+        buffer.limit(sampleSize);
+        remuxOutput(buffer, bufferInfo);
+      }
     }
   }
 }
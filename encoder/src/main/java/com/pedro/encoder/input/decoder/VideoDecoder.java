@@ -16,12 +16,20 @@
 
 package com.pedro.encoder.input.decoder;
 
+import android.media.MediaCodec;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import android.os.Build;
+import android.util.Log;
 import android.view.Surface;
 
+import com.pedro.encoder.utils.CodecUtil;
+import com.pedro.encoder.utils.MediaClock;
+import com.pedro.encoder.utils.RemuxUtil;
+import com.pedro.encoder.video.GetVideoData;
+
 import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * Created by pedro on 20/06/17.
@@ -32,9 +40,12 @@ public class VideoDecoder extends BaseDecoder {
   private int width;
   private int height;
   private int fps;
+  private GetVideoData getVideoData;
+  private int nalLengthSize = 0;
+  private boolean formatSent = false;
 
   public VideoDecoder(VideoDecoderInterface videoDecoderInterface, DecoderInterface decoderInterface) {
-    super(decoderInterface);
+    super(decoderInterface, MediaClock.Track.VIDEO);
     TAG = "VideoDecoder";
     this.videoDecoderInterface = videoDecoderInterface;
   }
@@ -64,14 +75,60 @@ public class VideoDecoder extends BaseDecoder {
   }
 
   public boolean prepareVideo(Surface surface) {
+    passthrough = false;
     return prepare(surface);
   }
 
+  /**
+   * Send H264/H265 samples of the file to getVideoData without decode, in the same format that
+   * VideoEncoder produce (Annex-B with parameter sets sent in onSpsPpsVps).
+   * Files with B-frames are not supported because there is no composition time in the output.
+   *
+   * @return false if the video codec is not H264 or H265
+   */
+  public boolean prepareVideoPassthrough(GetVideoData getVideoData) {
+    boolean isH265 = mime.equals(CodecUtil.H265_MIME);
+    if (!isH265 && !mime.equals(CodecUtil.H264_MIME)) {
+      Log.e(TAG, "passthrough not supported with codec " + mime);
+      return false;
+    }
+    ByteBuffer csd0 = mediaFormat.getByteBuffer("csd-0");
+    if (csd0 == null) return false;
+    this.getVideoData = getVideoData;
+    nalLengthSize = RemuxUtil.getNalLengthSize(csd0, isH265);
+    formatSent = false;
+    passthrough = true;
+    return prepare(null);
+  }
+
   @Override
   protected boolean decodeOutput(ByteBuffer outputBuffer, long timeStamp) {
     return true;
   }
 
+  @Override
+  protected void remuxOutput(ByteBuffer buffer, MediaCodec.BufferInfo info) {
+    if (!formatSent) {
+      boolean isH265 = mime.equals(CodecUtil.H265_MIME);
+      List<ByteBuffer> parameterSets = RemuxUtil.getParameterSets(mediaFormat.getByteBuffer("csd-0"),
+          mediaFormat.getByteBuffer("csd-1"), isH265);
+      if (isH265 && parameterSets.size() >= 3) {
+        getVideoData.onSpsPpsVps(parameterSets.get(1), parameterSets.get(2), parameterSets.get(0));
+      } else if (!isH265 && parameterSets.size() >= 2) {
+        getVideoData.onSpsPpsVps(parameterSets.get(0), parameterSets.get(1), null);
+      } else {
+        Log.e(TAG, "parameter sets not found");
+      }
+      getVideoData.onVideoFormat(mediaFormat);
+      formatSent = true;
+    }
+    if (nalLengthSize > 0 && !RemuxUtil.toAnnexB(buffer, 0, info.size, nalLengthSize)) {
+      Log.e(TAG, "sample discarded, invalid NAL units length");
+      return;
+    }
+    getVideoData.getVideoData(buffer, info);
+  }
+
   @Override
   protected void finished() {
     videoDecoderInterface.onVideoDecoderFinished();
@@ -25,6 +25,7 @@ import com.pedro.encoder.utils.gl.GifStreamObject;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.IntBuffer;
 
 /**
  * Created by pedro on 27/07/18.
@@ -33,6 +34,8 @@ import java.io.InputStream;
 @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
 public class GifObjectFilterRender extends BaseObjectFilterRender {
 
+  private int uploadedFrame = -1;
+
   public GifObjectFilterRender() {
     super();
     streamObject = new GifStreamObject();
@@ -40,11 +43,23 @@ public class GifObjectFilterRender extends BaseObjectFilterRender {
 
   @Override
   protected void drawFilter() {
+    if (shouldLoad) uploadedFrame = -1;
     super.drawFilter();
-    int position = ((GifStreamObject) streamObject).updateFrame(streamObjectTextureId.length);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, streamObjectTextureId[position]);
+    GifStreamObject gifStreamObject = (GifStreamObject) streamObject;
+    int textureId = streamObjectTextureId[0];
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+    int position = gifStreamObject.updateFrame();
+    //frames are decoded in background, keep the last frame uploaded until the next one is ready
+    if (textureId != -1 && position != uploadedFrame) {
+      int[] pixels = gifStreamObject.getFramePixels(position);
+      if (pixels != null) {
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, gifStreamObject.getWidth(),
+            gifStreamObject.getHeight(), GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, IntBuffer.wrap(pixels));
+        uploadedFrame = position;
+      }
+    }
     //Set alpha. 0f if no image loaded.
-    GLES20.glUniform1f(uAlphaHandle, streamObjectTextureId[position] == -1 ? 0f : alpha);
+    GLES20.glUniform1f(uAlphaHandle, textureId == -1 || uploadedFrame == -1 ? 0f : alpha);
   }
 
   public void setGif(InputStream inputStream) throws IOException {
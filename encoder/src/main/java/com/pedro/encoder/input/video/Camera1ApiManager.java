@@ -30,6 +30,7 @@ import android.view.TextureView;
 import android.view.View;
 
 import com.pedro.encoder.Frame;
+import com.pedro.encoder.FramePool;
 import com.pedro.encoder.input.video.facedetector.FaceDetectorCallback;
 import com.pedro.encoder.input.video.facedetector.UtilsKt;
 
@@ -75,6 +76,9 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
   private int rotation = 0;
   private int imageFormat = ImageFormat.NV21;
   private byte[] yuvBuffer;
+  //frames waiting to be encoded, camera buffer is reused after each preview frame
+  private final int FRAME_POOL_SIZE = 4;
+  private FramePool framePool;
   private List<Camera.Size> previewSizeBack;
   private List<Camera.Size> previewSizeFront;
   private float distance;
@@ -166,6 +170,9 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
       throw new CameraOpenException("This camera resolution cant be opened");
     }
     yuvBuffer = new byte[width * height * 3 / 2];
+    if (framePool == null || framePool.getFrameSize() != yuvBuffer.length) {
+      framePool = new FramePool(FRAME_POOL_SIZE, yuvBuffer.length);
+    }
     try {
       camera = Camera.open(cameraSelect);
       Camera.CameraInfo info = new Camera.CameraInfo();
@@ -395,7 +402,15 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
   @Override
   public void onPreviewFrame(byte[] data, Camera camera) {
     long timeStamp = System.nanoTime() / 1000;
-    getCameraData.inputYUVData(new Frame(data, rotation, facing == CameraHelper.Facing.FRONT && isPortrait, imageFormat, timeStamp));
+    Frame frame = framePool.obtain(data, 0, data.length, timeStamp);
+    if (frame != null) {
+      frame.setOrientation(rotation);
+      frame.setFlip(facing == CameraHelper.Facing.FRONT && isPortrait);
+      frame.setFormat(imageFormat);
+      getCameraData.inputYUVData(frame);
+    } else {
+      Log.i(TAG, "frame discarded, all frames in use");
+    }
     camera.addCallbackBuffer(yuvBuffer);
   }
 
@@ -16,37 +16,67 @@
 
 package com.pedro.encoder.input.video;
 
+import com.pedro.encoder.utils.MediaClock;
+
 /**
  * Created by pedro on 11/10/18.
+ *
+ * Frames are scheduled in absolute nanosecond deadlines (start + frame * 1s / fps) so the
+ * rounding of the frame period is never accumulated.
  */
 
 public class FpsLimiter {
 
-  private long startTS = System.currentTimeMillis();
-  private long ratioF = 1000 / 30;
-  private long ratio = 1000 / 30;
+  private final MediaClock.TimeSource timeSource;
+  private long startTS;
+  private int fps = 30;
+  //index of the next frame that can be rendered
+  private long frame = 0;
   private long frameStartTS = 0;
 
-  public void setFPS(int fps) {
-    startTS = System.currentTimeMillis();
-    ratioF = 1000 / fps;
-    ratio = 1000 / fps;
+  public FpsLimiter() {
+    this(MediaClock.SYSTEM);
+  }
+
+  public FpsLimiter(MediaClock.TimeSource timeSource) {
+    this.timeSource = timeSource;
+    startTS = timeSource.nanoTime();
+  }
+
+  public synchronized void setFPS(int fps) {
+    startTS = timeSource.nanoTime();
+    this.fps = fps;
+    frame = 0;
+  }
+
+  /**
+   * @return true if the frame must be discarded
+   */
+  public synchronized boolean limitFPS() {
+    long elapsed = timeSource.nanoTime() - startTS;
+    long period = 1_000_000_000L / fps;
+    //allow a bit of jitter in the source frames, the next deadline is not moved
+    if (elapsed < getFrameTs(frame) - period / 4) return true;
+    //too late, skip lost frames instead of render a burst
+    if (elapsed - getFrameTs(frame) >= period) frame = elapsed * fps / 1_000_000_000L;
+    frame++;
+    return false;
   }
 
-  public boolean limitFPS() {
-    long lastFrameTimestamp = System.currentTimeMillis() - startTS;
-    if (ratio < lastFrameTimestamp) {
-      ratio += ratioF;
-      return false;
-    }
-    return true;
+  public synchronized void setFrameStartTs() {
+    long elapsed = timeSource.nanoTime() - startTS;
+    frameStartTS = startTS + getFrameTs(elapsed * fps / 1_000_000_000L + 1);
   }
 
-  public void setFrameStartTs() {
-    frameStartTS = System.currentTimeMillis();
+  /**
+   * @return milliseconds until the next frame deadline, rounded up to never wake up early
+   */
+  public synchronized long getSleepTime() {
+    long remaining = frameStartTS - timeSource.nanoTime();
+    return remaining <= 0 ? 0 : (remaining + 999_999) / 1_000_000;
   }
 
-  public long getSleepTime() {
-    return Math.max(0, ratioF - (System.currentTimeMillis() - frameStartTS));
+  private long getFrameTs(long frame) {
+    return frame * 1_000_000_000L / fps;
   }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Nanosecond clock shared by the tracks of a file to pace samples using absolute deadlines.
+ *
+ * Each sample is scheduled at start + pts instead of sleeping the difference with the previous
+ * sample, so scheduler latency and processing time are never accumulated.
+ * The master track provides the loop duration so all tracks use the same timestamp offset
+ * after each loop.
+ */
+public class MediaClock {
+
+  public enum Track {
+    AUDIO, VIDEO
+  }
+
+  public interface TimeSource {
+    long nanoTime();
+
+    void parkNanos(long nanos);
+  }
+
+  public static final TimeSource SYSTEM = new TimeSource() {
+    @Override
+    public long nanoTime() {
+      return System.nanoTime();
+    }
+
+    @Override
+    public void parkNanos(long nanos) {
+      LockSupport.parkNanos(nanos);
+    }
+  };
+
+  private final TimeSource timeSource;
+  private volatile long startNs = 0;
+  private volatile boolean started = false;
+  private volatile Track master = Track.AUDIO;
+  private volatile long loopDurationUs = 0;
+
+  public MediaClock() {
+    this(SYSTEM);
+  }
+
+  public MediaClock(TimeSource timeSource) {
+    this.timeSource = timeSource;
+  }
+
+  /**
+   * Start the clock if it is not started. Media time 0 is the first call.
+   */
+  public synchronized void start() {
+    if (!started) {
+      startNs = timeSource.nanoTime();
+      started = true;
+    }
+  }
+
+  public synchronized void reset() {
+    started = false;
+    startNs = 0;
+  }
+
+  public boolean isStarted() {
+    return started;
+  }
+
+  /**
+   * @return media time in microseconds, 0 if the clock is not started
+   */
+  public long getTimeUs() {
+    if (!started) return 0;
+    return (timeSource.nanoTime() - startNs) / 1000;
+  }
+
+  /**
+   * @return time source timestamp in microseconds of the media time provided
+   */
+  public long toSystemTimeUs(long mediaTimeUs) {
+    return startNs / 1000 + mediaTimeUs;
+  }
+
+  /**
+   * @return microseconds that the media time provided is late, negative if it is in the future
+   */
+  public long getLateUs(long mediaTimeUs) {
+    return getTimeUs() - mediaTimeUs;
+  }
+
+  /**
+   * Park the thread until the absolute deadline of the media time provided.
+   *
+   * @return false if the thread was interrupted
+   */
+  public boolean waitUntil(long mediaTimeUs) {
+    long deadline = startNs + mediaTimeUs * 1000;
+    while (true) {
+      if (Thread.currentThread().isInterrupted()) return false;
+      long remaining = deadline - timeSource.nanoTime();
+      if (remaining <= 0) return true;
+      timeSource.parkNanos(remaining);
+    }
+  }
+
+  public void setMaster(Track master) {
+    this.master = master;
+  }
+
+  public Track getMaster() {
+    return master;
+  }
+
+  public boolean isMaster(Track track) {
+    return master == track;
+  }
+
+  /**
+   * Duration added to timestamps of all tracks after each loop. 0 to use the track duration.
+   */
+  public void setLoopDurationUs(long loopDurationUs) {
+    this.loopDurationUs = loopDurationUs;
+  }
+
+  public long getLoopDurationUs() {
+    return loopDurationUs;
+  }
+}
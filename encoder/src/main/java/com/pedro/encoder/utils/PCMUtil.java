@@ -23,6 +23,10 @@ public class PCMUtil {
 
   //no tested
   //see https://stackoverflow.com/questions/15652432/how-to-mix-overlay-two-mp3-audio-file-into-one-mp3-file-not-concatenate/33255658#33255658
+  /**
+   * @deprecated mix bytes instead of 16 bits samples. Use {@link com.pedro.encoder.input.audio.AudioMixer}
+   */
+  @Deprecated
   public static byte[] mixPCM(byte[] pcm1, byte[] pcm2) {
     int len1 = pcm1.length;
     int len2 = pcm2.length;
@@ -62,7 +66,10 @@ public class PCMUtil {
    * Experimental method to downgrade pcm with 3 channels or more to stereo.
    *
    * @return pcm buffer in stereo (2 channels)
+   * @deprecated copy bytes instead of 16 bits samples in a shared buffer of 4096 bytes.
+   * Use {@link com.pedro.encoder.input.audio.AudioResampler}
    */
+  @Deprecated
   public static byte[] pcmToStereo(byte[] pcm, int channels) {
     int cont = 0;
     for (int i = 0; i < pcm.length; i += channels) {
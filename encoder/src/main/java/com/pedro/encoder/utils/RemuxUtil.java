@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Convert MediaExtractor samples to the format produced by MediaCodec encoders, so files can be
+ * streamed without decode and encode (remux).
+ *
+ * Video: H264/H265 samples with NAL units prefixed by length (avcC/hvcC) are converted to Annex-B
+ * in place. Audio: ADTS header is removed from AAC frames.
+ */
+public class RemuxUtil {
+
+  private static final byte[] START_CODE = new byte[] { 0, 0, 0, 1 };
+
+  /**
+   * Length prefixed samples can look like Annex-B (NAL unit of 256 to 511 bytes with 4 bytes length),
+   * use {@link #getNalLengthSize(ByteBuffer, boolean)} with csd-0 to know the sample format.
+   *
+   * @return true if data start with a 3 or 4 bytes start code
+   */
+  public static boolean isAnnexB(ByteBuffer buffer, int offset, int size) {
+    if (size >= 4 && buffer.get(offset) == 0 && buffer.get(offset + 1) == 0) {
+      if (buffer.get(offset + 2) == 1) return true;
+      return buffer.get(offset + 2) == 0 && buffer.get(offset + 3) == 1;
+    }
+    return false;
+  }
+
+  /**
+   * Replace NAL units length prefix with start codes in place.
+   *
+   * @param lengthSize bytes of the length prefix. Only 3 and 4 can be converted in place.
+   * @return false if the data is not valid or the length size is not supported
+   */
+  public static boolean toAnnexB(ByteBuffer buffer, int offset, int size, int lengthSize) {
+    if (lengthSize != 3 && lengthSize != 4) return false;
+    int position = offset;
+    int end = offset + size;
+    while (position + lengthSize <= end) {
+      int length = 0;
+      for (int i = 0; i < lengthSize; i++) {
+        length = (length << 8) | (buffer.get(position + i) & 0xFF);
+      }
+      if (length < 0 || position + lengthSize + length > end) return false;
+      for (int i = 0; i < lengthSize; i++) {
+        buffer.put(position + i, START_CODE[4 - lengthSize + i]);
+      }
+      position += lengthSize + length;
+    }
+    return position == end;
+  }
+
+  /**
+   * @param csd0 csd-0 of a H264/H265 MediaFormat
+   * @return bytes of NAL units length prefix in samples. 0 if samples are Annex-B
+   */
+  public static int getNalLengthSize(ByteBuffer csd0, boolean isH265) {
+    ByteBuffer data = csd0.duplicate();
+    if (isAnnexB(data, data.position(), data.remaining())) return 0;
+    int lengthIndex = isH265 ? 21 : 4;
+    if (data.remaining() <= lengthIndex) return 4;
+    return (data.get(data.position() + lengthIndex) & 0x03) + 1;
+  }
+
+  /**
+   * Extract parameter sets (VPS, SPS, PPS) from csd buffers of a MediaFormat with a start code
+   * before each one, in the same order that are found.
+   * Support Annex-B csd (MediaExtractor) and avcC/hvcC configuration records (csd-0 only).
+   */
+  public static List<ByteBuffer> getParameterSets(ByteBuffer csd0, ByteBuffer csd1,
+      boolean isH265) {
+    List<ByteBuffer> list = new ArrayList<>();
+    ByteBuffer data = csd0.duplicate();
+    if (isAnnexB(data, data.position(), data.remaining())) {
+      splitAnnexB(data, list);
+      if (csd1 != null) splitAnnexB(csd1.duplicate(), list);
+    } else if (isH265) {
+      readHvcc(data, list);
+    } else {
+      readAvcc(data, list);
+    }
+    return list;
+  }
+
+  /**
+   * @return size of the ADTS header of an AAC frame (7 or 9 bytes) or 0 if there is no header
+   */
+  public static int getAdtsHeaderSize(ByteBuffer buffer, int offset, int size) {
+    if (size < 7) return 0;
+    if ((buffer.get(offset) & 0xFF) != 0xFF || (buffer.get(offset + 1) & 0xF6) != 0xF0) return 0;
+    boolean protectionAbsent = (buffer.get(offset + 1) & 0x01) == 1;
+    return protectionAbsent ? 7 : 9;
+  }
+
+  private static void splitAnnexB(ByteBuffer data, List<ByteBuffer> list) {
+    int start = data.position();
+    int end = data.limit();
+    int nalStart = -1;
+    int i = start;
+    while (i + 3 <= end) {
+      if (data.get(i) == 0 && data.get(i + 1) == 0 && data.get(i + 2) == 1) {
+        int codeStart = i > start && data.get(i - 1) == 0 ? i - 1 : i;
+        if (nalStart >= 0) list.add(copy(data, nalStart, codeStart));
+        nalStart = codeStart;
+        i += 3;
+      } else {
+        i++;
+      }
+    }
+    if (nalStart >= 0) list.add(copy(data, nalStart, end));
+  }
+
+  private static void readAvcc(ByteBuffer data, List<ByteBuffer> list) {
+    int position = data.position() + 5;
+    int spsCount = data.get(position++) & 0x1F;
+    position = readNalUnits(data, position, spsCount, list);
+    int ppsCount = data.get(position++) & 0xFF;
+    readNalUnits(data, position, ppsCount, list);
+  }
+
+  private static void readHvcc(ByteBuffer data, List<ByteBuffer> list) {
+    int position = data.position() + 22;
+    int arrays = data.get(position++) & 0xFF;
+    for (int i = 0; i < arrays; i++) {
+      position++; //array completeness and NAL unit type
+      int count = ((data.get(position) & 0xFF) << 8) | (data.get(position + 1) & 0xFF);
+      position = readNalUnits(data, position + 2, count, list);
+    }
+  }
+
+  private static int readNalUnits(ByteBuffer data, int position, int count, List<ByteBuffer> list) {
+    for (int i = 0; i < count; i++) {
+      int length = ((data.get(position) & 0xFF) << 8) | (data.get(position + 1) & 0xFF);
+      position += 2;
+      ByteBuffer nal = ByteBuffer.allocate(START_CODE.length + length);
+      nal.put(START_CODE);
+      for (int j = 0; j < length; j++) nal.put(data.get(position + j));
+      nal.flip();
+      list.add(nal);
+      position += length;
+    }
+    return position;
+  }
+
+  private static ByteBuffer copy(ByteBuffer data, int start, int end) {
+    ByteBuffer result = ByteBuffer.allocate(end - start);
+    for (int i = start; i < end; i++) result.put(data.get(i));
+    result.flip();
+    return result;
+  }
+}
@@ -20,6 +20,7 @@ import android.graphics.Bitmap;
 import android.util.Log;
 
 import com.pedro.encoder.utils.gl.gif.GifDecoder;
+import com.pedro.encoder.utils.gl.gif.GifFrameCache;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -33,37 +34,54 @@ public class GifStreamObject extends StreamObjectBase {
   private static final String TAG = "GifStreamObject";
 
   private int numFrames;
+  private int width;
+  private int height;
+  //only used to create the texture, frames are uploaded from the cache
   private Bitmap[] gifBitmaps;
   private int[] gifDelayFrames;
   private long startDelayFrame;
   private int currentGifFrame;
+  private GifFrameCache frameCache;
+  private long memoryBudget = GifFrameCache.DEFAULT_MEMORY_BUDGET;
 
   public GifStreamObject() {
   }
 
   @Override
   public int getWidth() {
-    return gifBitmaps != null ? gifBitmaps[0].getWidth() : 0;
+    return width;
   }
 
   @Override
   public int getHeight() {
-    return gifBitmaps != null ? gifBitmaps[0].getHeight() : 0;
+    return height;
+  }
+
+  /**
+   * Max memory used by decoded frames. Frames out of budget are decoded again when needed.
+   * Must be called before load.
+   */
+  public void setMemoryBudget(long memoryBudget) {
+    this.memoryBudget = memoryBudget;
   }
 
   public void load(InputStream inputStreamGif) throws IOException {
     GifDecoder gifDecoder = new GifDecoder();
     if (gifDecoder.read(inputStreamGif, inputStreamGif.available()) == 0) {
       Log.i(TAG, "read gif ok");
+      recycle();
       numFrames = gifDecoder.getFrameCount();
+      width = gifDecoder.getWidth();
+      height = gifDecoder.getHeight();
       gifDelayFrames = new int[numFrames];
-      gifBitmaps = new Bitmap[numFrames];
       for (int i = 0; i < numFrames; i++) {
-        gifDecoder.advance();
-        gifBitmaps[i] = gifDecoder.getNextFrame();
-        gifDelayFrames[i] = gifDecoder.getNextDelay();
+        gifDelayFrames[i] = gifDecoder.getDelay(i);
       }
-      Log.i(TAG, "finish load gif frames");
+      gifBitmaps = new Bitmap[] { Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888) };
+      startDelayFrame = 0;
+      currentGifFrame = 0;
+      frameCache = new GifFrameCache(gifDecoder, memoryBudget, GifFrameCache.DEFAULT_DECODE_AHEAD);
+      frameCache.start();
     } else {
       throw new IOException("Read gif error");
     }
@@ -71,9 +89,13 @@ public class GifStreamObject extends StreamObjectBase {
 
   @Override
   public void recycle() {
+    if (frameCache != null) {
+      frameCache.stop();
+      frameCache = null;
+    }
     if (gifBitmaps != null) {
-      for (int i = 0; i < numFrames; i++) {
-        if (gifBitmaps[i] != null && !gifBitmaps[i].isRecycled()) gifBitmaps[i].recycle();
+      for (Bitmap bitmap : gifBitmaps) {
+        if (bitmap != null && !bitmap.isRecycled()) bitmap.recycle();
       }
     }
   }
@@ -92,12 +114,21 @@ public class GifStreamObject extends StreamObjectBase {
     return gifDelayFrames;
   }
 
+  /**
+   * @return pixels of the frame in RGBA byte order or null if it is not decoded yet
+   */
+  public int[] getFramePixels(int frame) {
+    GifFrameCache frameCache = this.frameCache;
+    return frameCache != null ? frameCache.getFrame(frame) : null;
+  }
+
   public int updateFrame(int size) {
     return size <= 1 ? 0 : updateFrame();
   }
 
   @Override
   public int updateFrame() {
+    if (numFrames == 0) return 0;
     if (startDelayFrame == 0) {
       startDelayFrame = System.currentTimeMillis();
     }
@@ -132,7 +132,7 @@ public class GifDecoder {
   private int loopIndex;
   private GifHeader header;
   private BitmapProvider bitmapProvider;
-  private Bitmap previousImage;
+  private int[] previousPixels;
   private boolean savePrevious;
   private int status;
   private int sampleSize;
@@ -351,6 +351,19 @@ public class GifDecoder {
    * @return Bitmap representation of frame.
    */
   public synchronized Bitmap getNextFrame() {
+    int[] pixels = getNextFramePixels();
+    if (pixels == null) return null;
+    Bitmap result = getNextBitmap();
+    result.setPixels(pixels, 0, downsampledWidth, 0, 0, downsampledWidth, downsampledHeight);
+    return result;
+  }
+
+  /**
+   * Get the next frame in the animation sequence without create a Bitmap.
+   *
+   * @return ARGB pixels of the frame. The array is reused in the next call, copy it if needed.
+   */
+  public synchronized int[] getNextFramePixels() {
     if (header.frameCount <= 0 || framePointer < 0) {
       if (Log.isLoggable(TAG, Log.DEBUG)) {
         Log.d(TAG, "unable to decode frame, frameCount="
@@ -400,6 +413,13 @@ public class GifDecoder {
     return setPixels(currentFrame, previousFrame);
   }
 
+  /**
+   * @return true if the first frame has transparent pixels
+   */
+  public boolean isFirstFrameTransparent() {
+    return isFirstFrameTransparent;
+  }
+
   /**
    * Reads GIF image from stream.
    *
@@ -445,10 +465,10 @@ public class GifDecoder {
     if (mainScratch != null) {
       bitmapProvider.release(mainScratch);
     }
-    if (previousImage != null) {
-      bitmapProvider.release(previousImage);
+    if (previousPixels != null) {
+      bitmapProvider.release(previousPixels);
     }
-    previousImage = null;
+    previousPixels = null;
     rawData = null;
     isFirstFrameTransparent = false;
     if (block != null) {
@@ -527,7 +547,7 @@ public class GifDecoder {
    * Creates new frame image from current data (and previous frames as specified by their
    * disposition codes).
    */
-  private Bitmap setPixels(GifFrame currentFrame, GifFrame previousFrame) {
+  private int[] setPixels(GifFrame currentFrame, GifFrame previousFrame) {
     // Final location of blended pixels.
     final int[] dest = mainScratch;
 
@@ -556,7 +576,7 @@ public class GifDecoder {
         }
         fillRect(dest, previousFrame, c);
       } else if (previousFrame.dispose == DISPOSAL_PREVIOUS) {
-        if (previousImage == null) {
+        if (previousPixels == null) {
           fillRect(dest, previousFrame, 0);
         } else {
           // Start with the previous frame
@@ -565,8 +585,10 @@ public class GifDecoder {
           int downsampledIW = previousFrame.iw / sampleSize;
           int downsampledIX = previousFrame.ix / sampleSize;
           int topLeft = downsampledIY * downsampledWidth + downsampledIX;
-          previousImage.getPixels(dest, topLeft, downsampledWidth, downsampledIX, downsampledIY,
-              downsampledIW, downsampledIH);
+          int bottomLeft = topLeft + downsampledIH * downsampledWidth;
+          for (int left = topLeft; left < bottomLeft; left += downsampledWidth) {
+            System.arraycopy(previousPixels, left, dest, left, downsampledIW);
+          }
         }
       }
     }
@@ -646,16 +668,12 @@ public class GifDecoder {
     // Copy pixels into previous image
     if (savePrevious && (currentFrame.dispose == DISPOSAL_UNSPECIFIED
         || currentFrame.dispose == DISPOSAL_NONE)) {
-      if (previousImage == null) {
-        previousImage = getNextBitmap();
+      if (previousPixels == null) {
+        previousPixels = bitmapProvider.obtainIntArray(dest.length);
       }
-      previousImage.setPixels(dest, 0, downsampledWidth, 0, 0, downsampledWidth, downsampledHeight);
+      System.arraycopy(dest, 0, previousPixels, 0, dest.length);
     }
-
-    // Set pixels for current image.
-    Bitmap result = getNextBitmap();
-    result.setPixels(dest, 0, downsampledWidth, 0, 0, downsampledWidth, downsampledHeight);
-    return result;
+    return dest;
   }
 
   private void fillRect(int[] dest, GifFrame frame, int bgColor) {
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.utils.gl.gif;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of decoded GIF frames ready to upload to a GL texture.
+ *
+ * Frames are decoded in a background thread a few frames ahead of the display position and stored
+ * in RGBA byte order until the memory budget is reached. If all frames fit in the budget, each
+ * frame is decoded only once and the thread finishes after the first loop. Otherwise, the least
+ * recently used frames out of the decode ahead window are evicted and decoded again when needed.
+ */
+public class GifFrameCache {
+
+  public static final long DEFAULT_MEMORY_BUDGET = 32 * 1024 * 1024;
+  public static final int DEFAULT_DECODE_AHEAD = 4;
+
+  private final GifDecoder decoder;
+  private final int numFrames;
+  private final int frameBytes;
+  private final long memoryBudget;
+  private final int decodeAhead;
+  //access order to evict the least recently used frame
+  private final LinkedHashMap<Integer, int[]> frames = new LinkedHashMap<>(16, 0.75f, true);
+  //arrays of evicted frames reused to avoid allocations
+  private final ArrayDeque<int[]> freeFrames = new ArrayDeque<>();
+  private long memoryUsage = 0;
+  private int displayIndex = 0;
+  //frames displayed and decoded since start, counting loops
+  private long displayPosition = 0;
+  private long decoderPosition = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private volatile long decodedFrames = 0;
+  private volatile boolean running = false;
+  private Thread thread;
+
+  /**
+   * @param decoder with the GIF read. It must not be used by others after start.
+   * @param memoryBudget max bytes used by decoded frames. At least 2 frames are cached.
+   * @param decodeAhead frames decoded after the frame displayed.
+   */
+  public GifFrameCache(GifDecoder decoder, long memoryBudget, int decodeAhead) {
+    this.decoder = decoder;
+    numFrames = decoder.getFrameCount();
+    frameBytes = decoder.getWidth() * decoder.getHeight() * 4;
+    this.memoryBudget = Math.max(memoryBudget, 2L * frameBytes);
+    long maxFrames = frameBytes > 0 ? this.memoryBudget / frameBytes : numFrames;
+    this.decodeAhead = (int) Math.max(1, Math.min(decodeAhead, Math.min(maxFrames - 1, numFrames - 1)));
+  }
+
+  public GifFrameCache(GifDecoder decoder) {
+    this(decoder, DEFAULT_MEMORY_BUDGET, DEFAULT_DECODE_AHEAD);
+  }
+
+  public synchronized void start() {
+    if (running || numFrames <= 0) return;
+    running = true;
+    thread = new Thread(this::decodeFrames, "GifFrameCache");
+    thread.start();
+  }
+
+  public void stop() {
+    Thread thread;
+    synchronized (this) {
+      running = false;
+      thread = this.thread;
+      this.thread = null;
+      notifyAll();
+    }
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join(500);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this) {
+      frames.clear();
+      freeFrames.clear();
+      memoryUsage = 0;
+    }
+  }
+
+  /**
+   * Get a decoded frame without wait. The frame is displayed so it is not evicted until other
+   * frame is requested.
+   *
+   * @return frame pixels in RGBA byte order (little endian int) or null if not decoded yet.
+   */
+  public synchronized int[] getFrame(int index) {
+    if (index != displayIndex) {
+      displayPosition += distance(displayIndex, index);
+      displayIndex = index;
+      notifyAll();
+    }
+    int[] pixels = frames.get(index);
+    if (pixels != null) hits++;
+    else misses++;
+    return pixels;
+  }
+
+  public int getNumFrames() {
+    return numFrames;
+  }
+
+  public int getWidth() {
+    return decoder.getWidth();
+  }
+
+  public int getHeight() {
+    return decoder.getHeight();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * @return number of times that a frame was decoded, including frames decoded again after evict
+   */
+  public long getDecodedFrames() {
+    return decodedFrames;
+  }
+
+  public synchronized int getCachedFrames() {
+    return frames.size();
+  }
+
+  public synchronized long getMemoryUsage() {
+    return memoryUsage;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  private void decodeFrames() {
+    while (running) {
+      synchronized (this) {
+        if (frames.size() == numFrames) break; //all frames cached
+        try {
+          while (running && decoderPosition - displayPosition > decodeAhead) wait();
+        } catch (InterruptedException e) {
+          break;
+        }
+        if (!running) break;
+      }
+      //frames depend on the previous one so all frames are decoded in order.
+      //Loop forever ignoring the loop count of the file
+      int index = (decoder.getCurrentFrameIndex() + 1) % numFrames;
+      decoder.setFrameIndex(index);
+      int[] pixels = decoder.getNextFramePixels();
+      decodedFrames++;
+      put(index, pixels);
+    }
+    running = false;
+  }
+
+  private synchronized void put(int index, int[] argb) {
+    decoderPosition++;
+    if (argb == null || frames.containsKey(index)) return;
+    if (memoryUsage + frameBytes > memoryBudget && !evict()) return;
+    int[] rgba = freeFrames.poll();
+    if (rgba == null) rgba = new int[argb.length];
+    for (int i = 0; i < argb.length; i++) {
+      int color = argb[i];
+      //swap red and blue so the little endian bytes are R, G, B, A. Transparent pixels are black
+      rgba[i] = (color >>> 24) == 0 ? 0
+          : (color & 0xFF00FF00) | ((color >> 16) & 0xFF) | ((color & 0xFF) << 16);
+    }
+    frames.put(index, rgba);
+    memoryUsage += frameBytes;
+  }
+
+  /**
+   * Remove the least recently used frame that is not the displayed frame or decoded ahead.
+   */
+  private boolean evict() {
+    Iterator<Map.Entry<Integer, int[]>> iterator = frames.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Integer, int[]> entry = iterator.next();
+      if (distance(displayIndex, entry.getKey()) > decodeAhead) {
+        iterator.remove();
+        freeFrames.add(entry.getValue());
+        memoryUsage -= frameBytes;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int distance(int from, int to) {
+    return (to - from + numFrames) % numFrames;
+  }
+}
@@ -133,6 +133,8 @@ public class YUVUtil {
   public static Bitmap frameToBitmap(Frame frame, int width, int height, int orientation) {
     int w = (orientation == 90 || orientation == 270) ? height : width;
     int h = (orientation == 90 || orientation == 270) ? width : height;
+    //encoders use YuvConverter so rotate buffers could be not allocated
+    if (orientation != 0) NV21Utils.preAllocateBuffers(width * height * 3 / 2);
     int[] argb = NV21Utils.toARGB(rotateNV21(frame.getBuffer(), width, height, orientation), w, h);
     return Bitmap.createBitmap(argb, w, h, Bitmap.Config.ARGB_8888);
   }
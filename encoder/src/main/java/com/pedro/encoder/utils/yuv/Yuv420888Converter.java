@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.utils.yuv;
+
+import android.media.Image;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import com.pedro.encoder.video.FormatVideoEncoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Convert YUV_420_888 images (Camera2 ImageReader) to I420 (YUV420PLANAR) or NV12 (YUV420SEMIPLANAR)
+ * writing directly in the output buffer (normally a MediaCodec input buffer).
+ *
+ * Planes are read honoring row and pixel strides. Planes with pixel stride 1 are copied with bulk
+ * copies (a single copy if rows are contiguous), interleaved planes are read a row at a time.
+ */
+public class Yuv420888Converter {
+
+  private byte[] uRow = new byte[0];
+  private byte[] vRow = new byte[0];
+  private byte[] outRow = new byte[0];
+
+  /**
+   * Convert an image writing the result at the current position of the output buffer.
+   * The image is not closed.
+   *
+   * @return bytes written
+   */
+  @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+  public int convert(Image image, FormatVideoEncoder formatVideoEncoder, ByteBuffer output) {
+    Image.Plane[] planes = image.getPlanes();
+    return convert(planes[0].getBuffer(), planes[0].getRowStride(), planes[1].getBuffer(),
+        planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+        image.getWidth(), image.getHeight(), formatVideoEncoder, output);
+  }
+
+  /**
+   * Convert YUV 420 planes writing the result at the current position of the output buffer.
+   * Plane buffers are read from its current position and are not modified.
+   *
+   * @param uvRowStride row stride of U and V planes
+   * @param uvPixelStride pixel stride of U and V planes, 1 (planar) or 2 (interleaved) normally
+   * @param formatVideoEncoder YUV420PLANAR or YUV420SEMIPLANAR
+   * @return bytes written
+   */
+  public synchronized int convert(ByteBuffer yPlane, int yRowStride, ByteBuffer uPlane,
+      ByteBuffer vPlane, int uvRowStride, int uvPixelStride, int width, int height,
+      FormatVideoEncoder formatVideoEncoder, ByteBuffer output) {
+    if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+      throw new IllegalArgumentException("invalid resolution: " + width + "x" + height);
+    }
+    if (yRowStride < width || uvPixelStride < 1 || uvRowStride < (width / 2 - 1) * uvPixelStride + 1) {
+      throw new IllegalArgumentException("invalid strides, y row: " + yRowStride + ", uv row: "
+          + uvRowStride + ", uv pixel: " + uvPixelStride);
+    }
+    boolean isNV12;
+    switch (formatVideoEncoder) {
+      case YUV420PLANAR:
+        isNV12 = false;
+        break;
+      case YUV420SEMIPLANAR:
+        isNV12 = true;
+        break;
+      default:
+        throw new IllegalArgumentException("output format not supported: " + formatVideoEncoder);
+    }
+    int size = YuvConverter.getOutputSize(width, height);
+    if (output.remaining() < size) {
+      throw new IndexOutOfBoundsException("output buffer too small: " + output.remaining() + " < " + size);
+    }
+    int chromaWidth = width / 2;
+    int chromaHeight = height / 2;
+    //last row can be shorter than row stride
+    int chromaRowLength = (chromaWidth - 1) * uvPixelStride + 1;
+    checkPlaneSize("y", yPlane, yRowStride, width, height);
+    checkPlaneSize("u", uPlane, uvRowStride, chromaRowLength, chromaHeight);
+    checkPlaneSize("v", vPlane, uvRowStride, chromaRowLength, chromaHeight);
+
+    copyPlane(yPlane, yRowStride, width, height, output);
+    if (isNV12) {
+      ensureRows(chromaRowLength, width);
+      ByteBuffer u = uPlane.duplicate();
+      ByteBuffer v = vPlane.duplicate();
+      int uStart = u.position();
+      int vStart = v.position();
+      for (int row = 0; row < chromaHeight; row++) {
+        u.position(uStart + row * uvRowStride);
+        u.get(uRow, 0, chromaRowLength);
+        v.position(vStart + row * uvRowStride);
+        v.get(vRow, 0, chromaRowLength);
+        for (int x = 0, src = 0; x < chromaWidth; x++, src += uvPixelStride) {
+          outRow[2 * x] = uRow[src];
+          outRow[2 * x + 1] = vRow[src];
+        }
+        output.put(outRow, 0, width);
+      }
+    } else if (uvPixelStride == 1) {
+      copyPlane(uPlane, uvRowStride, chromaWidth, chromaHeight, output);
+      copyPlane(vPlane, uvRowStride, chromaWidth, chromaHeight, output);
+    } else {
+      ensureRows(chromaRowLength, chromaWidth);
+      copyInterleavedPlane(uPlane, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, output);
+      copyInterleavedPlane(vPlane, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, output);
+    }
+    return size;
+  }
+
+  private void checkPlaneSize(String name, ByteBuffer plane, int rowStride, int rowLength, int rows) {
+    int required = rowStride * (rows - 1) + rowLength;
+    if (plane.remaining() < required) {
+      throw new IndexOutOfBoundsException(name + " plane too small: " + plane.remaining() + " < " + required);
+    }
+  }
+
+  private void ensureRows(int inputRowLength, int outputRowLength) {
+    if (uRow.length < inputRowLength) {
+      uRow = new byte[inputRowLength];
+      vRow = new byte[inputRowLength];
+    }
+    if (outRow.length < outputRowLength) outRow = new byte[outputRowLength];
+  }
+
+  /**
+   * Copy a plane with pixel stride 1 using bulk copies.
+   */
+  private static void copyPlane(ByteBuffer plane, int rowStride, int width, int height,
+      ByteBuffer output) {
+    ByteBuffer src = plane.duplicate();
+    int start = src.position();
+    if (rowStride == width) {
+      src.limit(start + width * height);
+      output.put(src);
+      return;
+    }
+    for (int row = 0; row < height; row++) {
+      int rowStart = start + row * rowStride;
+      src.limit(rowStart + width);
+      src.position(rowStart);
+      output.put(src);
+    }
+  }
+
+  private void copyInterleavedPlane(ByteBuffer plane, int rowStride, int pixelStride, int width,
+      int height, ByteBuffer output) {
+    ByteBuffer src = plane.duplicate();
+    int start = src.position();
+    int rowLength = (width - 1) * pixelStride + 1;
+    for (int row = 0; row < height; row++) {
+      src.position(start + row * rowStride);
+      src.get(uRow, 0, rowLength);
+      for (int x = 0, i = 0; x < width; x++, i += pixelStride) {
+        outRow[x] = uRow[i];
+      }
+      output.put(outRow, 0, width);
+    }
+  }
+}
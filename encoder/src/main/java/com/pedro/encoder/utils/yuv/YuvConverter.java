@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.utils.yuv;
+
+import android.graphics.ImageFormat;
+
+import com.pedro.encoder.video.FormatVideoEncoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Rotate and convert NV21 or YV12 frames to I420 (YUV420PLANAR) or NV12 (YUV420SEMIPLANAR)
+ * in a single pass. Each output byte is written once, reading the input in square tiles to keep
+ * rotated reads cache friendly.
+ *
+ * Unlike NV21Utils and YV12Utils, all buffers belong to the instance so different encoders can
+ * convert at the same time. Output rows can be split in bands processed by a small worker pool.
+ */
+public class YuvConverter {
+
+  private static final int TILE = 32;
+
+  private final int threads;
+  private ExecutorService executor;
+  private final List<Future<?>> pending = new ArrayList<>();
+  private byte[] scratch;
+
+  public YuvConverter() {
+    this(1);
+  }
+
+  /**
+   * @param threads number of threads used to convert a frame. 1 to convert in the caller thread.
+   */
+  public YuvConverter(int threads) {
+    if (threads < 1) throw new IllegalArgumentException("threads must be 1 or more");
+    this.threads = threads;
+  }
+
+  public static int getOutputSize(int width, int height) {
+    return width * height * 3 / 2;
+  }
+
+  /**
+   * Convert a frame writing the result at the current position of the output buffer.
+   * Heap buffers are written directly, direct buffers are written using a single bulk copy.
+   *
+   * @param imageFormat ImageFormat.NV21 or ImageFormat.YV12
+   * @param width input frame width
+   * @param height input frame height
+   * @param rotation clockwise rotation, 0, 90, 180 or 270
+   * @param formatVideoEncoder YUV420PLANAR or YUV420SEMIPLANAR
+   * @return bytes written
+   */
+  public synchronized int convert(byte[] input, int imageFormat, int width, int height,
+      int rotation, FormatVideoEncoder formatVideoEncoder, ByteBuffer output) {
+    int size = getOutputSize(width, height);
+    if (output.remaining() < size) {
+      throw new IndexOutOfBoundsException("output buffer too small: " + output.remaining() + " < " + size);
+    }
+    if (output.hasArray()) {
+      convert(input, imageFormat, width, height, rotation, formatVideoEncoder, output.array(),
+          output.arrayOffset() + output.position());
+      output.position(output.position() + size);
+    } else {
+      if (scratch == null || scratch.length < size) scratch = new byte[size];
+      convert(input, imageFormat, width, height, rotation, formatVideoEncoder, scratch, 0);
+      output.put(scratch, 0, size);
+    }
+    return size;
+  }
+
+  /**
+   * Same as {@link #convert(byte[], int, int, int, int, FormatVideoEncoder, ByteBuffer)} but
+   * writing in an array. Output must have getOutputSize(width, height) bytes after outputOffset.
+   */
+  public synchronized void convert(byte[] input, int imageFormat, int width, int height,
+      int rotation, FormatVideoEncoder formatVideoEncoder, byte[] output, int outputOffset) {
+    if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+      throw new IllegalArgumentException("invalid resolution: " + width + "x" + height);
+    }
+    if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+      throw new IllegalArgumentException("invalid rotation: " + rotation);
+    }
+    boolean isNV12;
+    switch (formatVideoEncoder) {
+      case YUV420PLANAR:
+        isNV12 = false;
+        break;
+      case YUV420SEMIPLANAR:
+        isNV12 = true;
+        break;
+      default:
+        throw new IllegalArgumentException("output format not supported: " + formatVideoEncoder);
+    }
+    boolean isYV12 = imageFormat == ImageFormat.YV12;
+    if (!isYV12 && imageFormat != ImageFormat.NV21) {
+      throw new IllegalArgumentException("input format not supported: " + imageFormat);
+    }
+    int frameSize = width * height;
+    int qFrameSize = frameSize / 4;
+    if (input.length < frameSize + 2 * qFrameSize) {
+      throw new IndexOutOfBoundsException("input buffer too small: " + input.length);
+    }
+    //NV21 chroma is interleaved VU, YV12 chroma is a V plane followed by a U plane
+    int srcU = isYV12 ? frameSize + qFrameSize : frameSize + 1;
+    int srcV = frameSize;
+    int srcChromaStride = isYV12 ? 1 : 2;
+    //NV12 chroma is interleaved UV, I420 chroma is a U plane followed by a V plane
+    int dstU = outputOffset + frameSize;
+    int dstV = isNV12 ? dstU + 1 : dstU + qFrameSize;
+    int dstChromaStride = isNV12 ? 2 : 1;
+
+    int dstHeight = (rotation == 90 || rotation == 270) ? width : height;
+    if (threads == 1) {
+      convertRows(input, output, width, height, rotation, outputOffset, srcU, srcV, srcChromaStride,
+          dstU, dstV, dstChromaStride, 0, dstHeight);
+      return;
+    }
+    if (executor == null) executor = Executors.newFixedThreadPool(threads - 1);
+    //bands with even rows so each band has whole chroma rows
+    int band = Math.max(2, ((dstHeight + threads - 1) / threads + 1) & ~1);
+    try {
+      for (int start = band; start < dstHeight; start += band) {
+        final int rowStart = start;
+        final int rowEnd = Math.min(start + band, dstHeight);
+        pending.add(executor.submit(() -> convertRows(input, output, width, height, rotation,
+            outputOffset, srcU, srcV, srcChromaStride, dstU, dstV, dstChromaStride, rowStart, rowEnd)));
+      }
+      convertRows(input, output, width, height, rotation, outputOffset, srcU, srcV, srcChromaStride,
+          dstU, dstV, dstChromaStride, 0, Math.min(band, dstHeight));
+      for (Future<?> future : pending) future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("convert failed", e.getCause());
+    } finally {
+      for (Future<?> future : pending) future.cancel(false);
+      pending.clear();
+    }
+  }
+
+  /**
+   * Stop worker threads. The converter can be used again after release.
+   */
+  public synchronized void release() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    scratch = null;
+  }
+
+  /**
+   * Convert output rows from rowStart to rowEnd (rowEnd not included). Both values must be pair.
+   */
+  private static void convertRows(byte[] input, byte[] output, int width, int height, int rotation,
+      int dstY, int srcU, int srcV, int srcChromaStride, int dstU, int dstV, int dstChromaStride,
+      int rowStart, int rowEnd) {
+    rotatePlane(input, 0, 1, width, height, rotation, output, dstY, 1, rowStart, rowEnd);
+    int chromaWidth = width / 2;
+    int chromaHeight = height / 2;
+    rotatePlane(input, srcU, srcChromaStride, chromaWidth, chromaHeight, rotation, output, dstU,
+        dstChromaStride, rowStart / 2, rowEnd / 2);
+    rotatePlane(input, srcV, srcChromaStride, chromaWidth, chromaHeight, rotation, output, dstV,
+        dstChromaStride, rowStart / 2, rowEnd / 2);
+  }
+
+  /**
+   * Copy a plane of width x height samples rotated clockwise. Each sample is at src + index * srcStride
+   * and is written at dst + index * dstStride.
+   * The source index of an output sample (x, y) is origin + x * stepX + y * stepY.
+   */
+  private static void rotatePlane(byte[] src, int srcOffset, int srcStride, int width, int height,
+      int rotation, byte[] dst, int dstOffset, int dstStride, int rowStart, int rowEnd) {
+    int dstWidth;
+    int origin, stepX, stepY;
+    switch (rotation) {
+      case 90:
+        dstWidth = height;
+        origin = (height - 1) * width;
+        stepX = -width;
+        stepY = 1;
+        break;
+      case 180:
+        dstWidth = width;
+        origin = width * height - 1;
+        stepX = -1;
+        stepY = -width;
+        break;
+      case 270:
+        dstWidth = height;
+        origin = width - 1;
+        stepX = width;
+        stepY = -1;
+        break;
+      default:
+        dstWidth = width;
+        origin = 0;
+        stepX = 1;
+        stepY = width;
+        break;
+    }
+    if (rotation == 0 && srcStride == 1 && dstStride == 1) {
+      System.arraycopy(src, srcOffset + rowStart * width, dst, dstOffset + rowStart * width,
+          (rowEnd - rowStart) * width);
+      return;
+    }
+    stepX *= srcStride;
+    stepY *= srcStride;
+    origin = srcOffset + origin * srcStride;
+    for (int tileY = rowStart; tileY < rowEnd; tileY += TILE) {
+      int tileEndY = Math.min(tileY + TILE, rowEnd);
+      for (int tileX = 0; tileX < dstWidth; tileX += TILE) {
+        int tileEndX = Math.min(tileX + TILE, dstWidth);
+        for (int y = tileY; y < tileEndY; y++) {
+          int srcIndex = origin + tileX * stepX + y * stepY;
+          int dstIndex = dstOffset + (y * dstWidth + tileX) * dstStride;
+          for (int x = tileX; x < tileEndX; x++) {
+            dst[dstIndex] = src[srcIndex];
+            srcIndex += stepX;
+            dstIndex += dstStride;
+          }
+        }
+      }
+    }
+  }
+}
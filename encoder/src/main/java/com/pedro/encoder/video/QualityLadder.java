@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.video;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Choose video resolution, fps and bitrate from a list of rungs (from best to worst quality) using
+ * the bitrate measured by the stream client and its congestion state.
+ *
+ * The bitrate is adapted inside the range of the current rung. A rung is stepped down if the bitrate
+ * needed stays under the rung minimum for downHoldMs and stepped up after upHoldMs at the rung
+ * maximum without congestion. If a rung stepped up fails soon, upHoldMs is doubled so the ladder
+ * doesn't oscillate between 2 rungs when the bandwidth is near the limit.
+ *
+ * Call adapt each time a new bitrate is measured (onNewBitrate callback) and apply changes in the
+ * listener: setVideoBitrateOnFly for bitrate changes and a video reconfiguration for rung changes.
+ */
+public class QualityLadder {
+
+  public static class Rung {
+    public final int width;
+    public final int height;
+    public final int fps;
+    public final int minBitrate;
+    public final int maxBitrate;
+
+    public Rung(int width, int height, int fps, int minBitrate, int maxBitrate) {
+      if (minBitrate <= 0 || minBitrate > maxBitrate) {
+        throw new IllegalArgumentException("invalid bitrate range: " + minBitrate + " - " + maxBitrate);
+      }
+      this.width = width;
+      this.height = height;
+      this.fps = fps;
+      this.minBitrate = minBitrate;
+      this.maxBitrate = maxBitrate;
+    }
+
+    @Override
+    public String toString() {
+      return "Rung{" + width + "x" + height + ", fps=" + fps + ", bitrate=" + minBitrate + "-"
+          + maxBitrate + "}";
+    }
+  }
+
+  public interface Listener {
+    /**
+     * Bitrate changed in the same rung.
+     */
+    void onBitrateChanged(int bitrate);
+
+    /**
+     * Resolution and fps must be changed. The encoder should start with the bitrate provided.
+     */
+    void onRungChanged(Rung rung, int bitrate);
+  }
+
+  private static final int[] LADDER_HEIGHTS = { 1080, 720, 480, 360 };
+
+  private final List<Rung> rungs;
+  private final Listener listener;
+  private float decreaseRange = 0.8f; //20%
+  private float increaseRange = 1.1f; //10%
+  private long downHoldMs = 2000;
+  private long baseUpHoldMs = 10000;
+  private long maxUpHoldMs = 80000;
+  private long upHoldMs = baseUpHoldMs;
+  private int index;
+  private int bitrate;
+  //time since the bitrate is at the rung max without congestion
+  private long atMaxSinceMs = -1;
+  private long lowSinceMs = -1;
+  private long lastUpMs = -1;
+  private int rungChanges = 0;
+
+  /**
+   * @param rungs ordered from best to worst quality. Start in the first rung with max bitrate.
+   */
+  public QualityLadder(List<Rung> rungs, Listener listener) {
+    if (rungs.isEmpty()) throw new IllegalArgumentException("rungs can't be empty");
+    this.rungs = Collections.unmodifiableList(new ArrayList<>(rungs));
+    this.listener = listener;
+    reset();
+  }
+
+  /**
+   * Create a ladder from a resolution going down to 720p, 480p and 360p keeping the aspect ratio.
+   * Bitrate is scaled by pixels and fps, the last rung uses half of fps (15 min).
+   * Each rung min bitrate is the max bitrate of the next rung so changes keep the same bitrate.
+   */
+  public static List<Rung> createRungs(int width, int height, int fps, int maxBitrate) {
+    int shortSide = Math.min(width, height);
+    List<Integer> sides = new ArrayList<>();
+    sides.add(shortSide);
+    for (int side : LADDER_HEIGHTS) {
+      if (side < shortSide) sides.add(side);
+    }
+    List<Rung> rungs = new ArrayList<>();
+    long pixels = (long) width * height;
+    int[] widths = new int[sides.size()];
+    int[] heights = new int[sides.size()];
+    int[] fpsList = new int[sides.size()];
+    int[] maxBitrates = new int[sides.size()];
+    for (int i = 0; i < sides.size(); i++) {
+      int side = sides.get(i);
+      int longSide = even(Math.round((float) Math.max(width, height) * side / shortSide));
+      widths[i] = width >= height ? longSide : side;
+      heights[i] = width >= height ? side : longSide;
+      boolean last = i == sides.size() - 1 && i > 0;
+      fpsList[i] = last && fps > 15 ? Math.max(15, fps / 2) : fps;
+      maxBitrates[i] = (int) (maxBitrate * ((double) widths[i] * heights[i] / pixels)
+          * fpsList[i] / fps);
+    }
+    for (int i = 0; i < sides.size(); i++) {
+      int minBitrate = i + 1 < sides.size() ? maxBitrates[i + 1] : maxBitrates[i] / 2;
+      rungs.add(new Rung(widths[i], heights[i], fpsList[i], minBitrate, maxBitrates[i]));
+    }
+    return rungs;
+  }
+
+  private static int even(int value) {
+    return (value + 1) & ~1;
+  }
+
+  public void adapt(long measuredBitrate, boolean hasCongestion) {
+    adapt(measuredBitrate, hasCongestion, System.nanoTime() / 1000000);
+  }
+
+  /**
+   * @param measuredBitrate bitrate sent in bits per second
+   * @param timeMs monotonic time of the measure
+   */
+  public synchronized void adapt(long measuredBitrate, boolean hasCongestion, long timeMs) {
+    Rung rung = rungs.get(index);
+    int newBitrate;
+    if (hasCongestion) {
+      newBitrate = (int) Math.min(bitrate, measuredBitrate * decreaseRange);
+    } else {
+      newBitrate = (int) Math.min((long) (bitrate * increaseRange), rung.maxBitrate);
+    }
+    if (!hasCongestion && newBitrate >= rung.maxBitrate) {
+      if (atMaxSinceMs < 0) atMaxSinceMs = timeMs;
+    } else {
+      atMaxSinceMs = -1;
+    }
+    if (newBitrate < rung.minBitrate) {
+      if (lowSinceMs < 0) lowSinceMs = timeMs;
+      if (index < rungs.size() - 1 && timeMs - lowSinceMs >= downHoldMs) {
+        //a step up that fails soon is retried later
+        if (lastUpMs >= 0 && timeMs - lastUpMs < upHoldMs) {
+          upHoldMs = Math.min(upHoldMs * 2, maxUpHoldMs);
+        }
+        lastUpMs = -1;
+        Rung next = rungs.get(index + 1);
+        changeRung(index + 1, clamp(newBitrate, next), timeMs);
+        return;
+      }
+      newBitrate = rung.minBitrate;
+    } else {
+      lowSinceMs = -1;
+    }
+    if (lastUpMs >= 0 && timeMs - lastUpMs >= upHoldMs) {
+      //step up confirmed
+      lastUpMs = -1;
+      upHoldMs = baseUpHoldMs;
+    }
+    if (index > 0 && atMaxSinceMs >= 0 && timeMs - atMaxSinceMs >= upHoldMs) {
+      Rung previous = rungs.get(index - 1);
+      lastUpMs = timeMs;
+      changeRung(index - 1, previous.minBitrate, timeMs);
+      return;
+    }
+    if (newBitrate != bitrate) {
+      bitrate = newBitrate;
+      if (listener != null) listener.onBitrateChanged(bitrate);
+    }
+  }
+
+  private void changeRung(int newIndex, int newBitrate, long timeMs) {
+    index = newIndex;
+    bitrate = newBitrate;
+    lowSinceMs = -1;
+    atMaxSinceMs = -1;
+    rungChanges++;
+    if (listener != null) listener.onRungChanged(rungs.get(index), bitrate);
+  }
+
+  private static int clamp(int bitrate, Rung rung) {
+    return Math.max(rung.minBitrate, Math.min(bitrate, rung.maxBitrate));
+  }
+
+  public synchronized void reset() {
+    index = 0;
+    bitrate = rungs.get(0).maxBitrate;
+    atMaxSinceMs = -1;
+    lowSinceMs = -1;
+    lastUpMs = -1;
+    upHoldMs = baseUpHoldMs;
+    rungChanges = 0;
+  }
+
+  public List<Rung> getRungs() {
+    return rungs;
+  }
+
+  public synchronized Rung getCurrentRung() {
+    return rungs.get(index);
+  }
+
+  public synchronized int getRungIndex() {
+    return index;
+  }
+
+  public synchronized int getBitrate() {
+    return bitrate;
+  }
+
+  public synchronized int getRungChanges() {
+    return rungChanges;
+  }
+
+  /**
+   * @param decreaseRange in percent. How many bitrate will be reduced from the measured bitrate
+   * with congestion. valid values: 0 to 100 not included
+   */
+  public void setDecreaseRange(float decreaseRange) {
+    if (decreaseRange > 0f && decreaseRange < 100f) {
+      this.decreaseRange = 1f - (decreaseRange / 100f);
+    }
+  }
+
+  /**
+   * @param increaseRange in percent. How many bitrate will be increased each measure without
+   * congestion. valid values: 0 to 100 not included
+   */
+  public void setIncreaseRange(float increaseRange) {
+    if (increaseRange > 0f && increaseRange < 100f) {
+      this.increaseRange = 1f + (increaseRange / 100f);
+    }
+  }
+
+  /**
+   * @param downHoldMs time under the rung min bitrate before step down
+   */
+  public synchronized void setDownHoldMs(long downHoldMs) {
+    this.downHoldMs = downHoldMs;
+  }
+
+  /**
+   * @param upHoldMs time at rung max bitrate without congestion before step up
+   * @param maxUpHoldMs max value of upHoldMs after failed steps up
+   */
+  public synchronized void setUpHoldMs(long upHoldMs, long maxUpHoldMs) {
+    if (upHoldMs <= 0 || maxUpHoldMs < upHoldMs) {
+      throw new IllegalArgumentException("invalid up hold: " + upHoldMs + ", max: " + maxUpHoldMs);
+    }
+    this.baseUpHoldMs = upHoldMs;
+    this.maxUpHoldMs = maxUpHoldMs;
+    this.upHoldMs = upHoldMs;
+  }
+}
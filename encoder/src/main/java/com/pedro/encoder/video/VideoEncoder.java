@@ -17,6 +17,7 @@
 package com.pedro.encoder.video;
 
 import android.graphics.ImageFormat;
+import android.media.Image;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
@@ -34,7 +35,8 @@ import com.pedro.encoder.Frame;
 import com.pedro.encoder.input.video.FpsLimiter;
 import com.pedro.encoder.input.video.GetCameraData;
 import com.pedro.encoder.utils.CodecUtil;
-import com.pedro.encoder.utils.yuv.YUVUtil;
+import com.pedro.encoder.utils.yuv.Yuv420888Converter;
+import com.pedro.encoder.utils.yuv.YuvConverter;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -64,6 +66,8 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
   private int iFrameInterval = 2;
   //for disable video
   private final FpsLimiter fpsLimiter = new FpsLimiter();
+  private volatile YuvConverter yuvConverter = new YuvConverter();
+  private final Yuv420888Converter imageConverter = new Yuv420888Converter();
   private String type = CodecUtil.H264_MIME;
   private FormatVideoEncoder formatVideoEncoder = FormatVideoEncoder.YUV420Dynamical;
   private int avcProfile = -1;
@@ -176,9 +180,6 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     if (resetTs) {
       fpsLimiter.setFPS(fps);
     }
-    if (formatVideoEncoder != FormatVideoEncoder.SURFACE) {
-      YUVUtil.preAllocateBuffers(width * height * 3 / 2);
-    }
     Log.i(TAG, "started");
   }
 
@@ -190,6 +191,7 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     oldSps = null;
     oldPps = null;
     oldVps = null;
+    yuvConverter.release();
     Log.i(TAG, "stopped");
   }
 
@@ -201,6 +203,36 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     restart();
   }
 
+  /**
+   * Change resolution, fps and bitrate keeping the timestamp base, so a stream can continue with
+   * the new values. The encoder is restarted if it was running and a new input surface is created
+   * in surface mode. New video info (sps, pps) is provided with the first keyframe.
+   *
+   * If the new values fail, the encoder is prepared again with the previous values and restarted.
+   *
+   * @return false if the encoder can't be configured with the new values
+   */
+  public boolean reconfigure(int width, int height, int fps, int bitRate) {
+    boolean wasRunning = running;
+    int oldWidth = this.width;
+    int oldHeight = this.height;
+    int oldFps = this.fps;
+    int oldBitRate = this.bitRate;
+    stop(false);
+    if (!prepareVideoEncoder(width, height, fps, bitRate, rotation, iFrameInterval,
+        formatVideoEncoder, avcProfile, avcProfileLevel)) {
+      Log.e(TAG, "reconfigure failed, restoring " + oldWidth + "x" + oldHeight + " " + oldFps + "fps");
+      if (prepareVideoEncoder(oldWidth, oldHeight, oldFps, oldBitRate, rotation, iFrameInterval,
+          formatVideoEncoder, avcProfile, avcProfileLevel) && wasRunning) {
+        restart();
+      }
+      return false;
+    }
+    fpsLimiter.setFPS(fps);
+    if (wasRunning) restart();
+    return true;
+  }
+
   private FormatVideoEncoder chooseColorDynamically(MediaCodecInfo mediaCodecInfo) {
     for (int color : mediaCodecInfo.getCapabilitiesForType(type).colorFormats) {
       if (color == FormatVideoEncoder.YUV420PLANAR.getFormatCodec()) {
@@ -297,13 +329,37 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     this.type = type;
   }
 
+  /**
+   * Threads used to rotate and convert YUV frames (buffer mode only). Default 1.
+   */
+  public void setYuvConverterThreads(int threads) {
+    YuvConverter old = yuvConverter;
+    yuvConverter = new YuvConverter(threads);
+    old.release();
+  }
+
   @Override
   public void inputYUVData(Frame frame) {
-    if (running && !queue.offer(frame)) {
+    if (!running) {
+      frame.recycle();
+    } else if (!queue.offer(frame)) {
+      frame.recycle();
       Log.i(TAG, "frame discarded");
     }
   }
 
+  /**
+   * Encode a Camera2 YUV_420_888 image in buffer mode. Image planes are converted directly in the
+   * codec input buffer so the image must have the encoder resolution and it is not rotated.
+   * The image is closed after the conversion or if it is discarded, use it with
+   * Camera2ApiManager.addImageListener with autoClose false and maxImages greater than 1.
+   */
+  @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+  public void inputImage(@NonNull Image image) {
+    //image timestamp base depends on the camera, use the same clock that other sources
+    inputYUVData(new Frame(image, 0, false, System.nanoTime() / 1000));
+  }
+
   private void sendSPSandPPS(MediaFormat mediaFormat) {
     //H265
     if (type.equals(CodecUtil.H265_MIME)) {
@@ -442,19 +498,28 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
   protected Frame getInputFrame() throws InterruptedException {
     Frame frame = queue.take();
     if (frame == null) return null;
-    if (fpsLimiter.limitFPS()) return getInputFrame();
-    byte[] buffer = frame.getBuffer();
-    boolean isYV12 = frame.getFormat() == ImageFormat.YV12;
+    if (fpsLimiter.limitFPS()) {
+      frame.recycle();
+      return getInputFrame();
+    }
+    return frame;
+  }
 
+  @Override
+  protected int fillInputBuffer(@NonNull Frame frame, @NonNull ByteBuffer byteBuffer) {
+    Image image = frame.getImage();
+    if (frame.getFormat() == ImageFormat.YUV_420_888 && image != null
+        && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+      if (image.getWidth() != width || image.getHeight() != height) {
+        throw new IllegalArgumentException("image resolution " + image.getWidth() + "x"
+            + image.getHeight() + " is not the encoder resolution " + width + "x" + height);
+      }
+      return imageConverter.convert(image, formatVideoEncoder, byteBuffer);
+    }
     int orientation = frame.isFlip() ? frame.getOrientation() + 180 : frame.getOrientation();
     if (orientation >= 360) orientation -= 360;
-    buffer = isYV12 ? YUVUtil.rotateYV12(buffer, width, height, orientation)
-        : YUVUtil.rotateNV21(buffer, width, height, orientation);
-
-    buffer = isYV12 ? YUVUtil.YV12toYUV420byColor(buffer, width, height, formatVideoEncoder)
-        : YUVUtil.NV21toYUV420byColor(buffer, width, height, formatVideoEncoder);
-    frame.setBuffer(buffer);
-    return frame;
+    return yuvConverter.convert(frame.getBuffer(), frame.getFormat(), width, height, orientation,
+        formatVideoEncoder, byteBuffer);
   }
 
   @Override
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder
+
+import android.media.MediaCodec
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.util.Collections
+
+class EncodedFrameBusTest {
+
+  private val gop = 30
+
+  private fun publishFrames(bus: EncodedFrameBus, amount: Int, onPublish: (Long) -> Unit = {}) {
+    val buffer = ByteBuffer.allocateDirect(20_000)
+    for (i in 0 until amount) {
+      val size = 1000 + (i % 10) * 1000
+      buffer.clear()
+      repeat(size) { buffer.put(i.toByte()) }
+      buffer.flip()
+      val flags = if (i % gop == 0) MediaCodec.BUFFER_FLAG_KEY_FRAME else 0
+      val start = System.nanoTime()
+      bus.publish(buffer, 0, size, i * 33_333L, flags, true)
+      onPublish(System.nanoTime() - start)
+      assertEquals(0, buffer.position())
+      //encoder reuses the buffer after publish
+      buffer.clear()
+      repeat(size) { buffer.put((-1).toByte()) }
+      Thread.sleep(1)
+    }
+  }
+
+  @Test
+  fun `GIVEN a slow subscriber WHEN publish frames THEN publish is not blocked and other subscribers receive all frames`() {
+    val bus = EncodedFrameBus()
+    val fastFrames = Collections.synchronizedList(mutableListOf<Long>())
+    val slowFrames = Collections.synchronizedList(mutableListOf<Pair<Long, Boolean>>())
+    val fast = bus.subscribe("fast", 30, EncodedFrameBus.DropPolicy.DROP_UNTIL_KEY_FRAME) { frame ->
+      val data = ByteArray(frame.size)
+      frame.getBuffer().get(data)
+      val index = (frame.timeStamp / 33_333L).toInt()
+      assertArrayEquals(ByteArray(frame.size) { index.toByte() }, data)
+      fastFrames.add(frame.timeStamp)
+    }
+    val slow = bus.subscribe("slow", 30, EncodedFrameBus.DropPolicy.DROP_UNTIL_KEY_FRAME) { frame ->
+      slowFrames.add(Pair(frame.timeStamp, frame.isKeyFrame))
+      try {
+        Thread.sleep(20)
+      } catch (ignored: InterruptedException) { }
+    }
+    val frames = 300
+    var maxPublishTime = 0L
+    var totalPublishTime = 0L
+    publishFrames(bus, frames) {
+      maxPublishTime = maxOf(maxPublishTime, it)
+      totalPublishTime += it
+    }
+    assertTrue(fast.awaitIdle(2000))
+    println("publish time avg ${totalPublishTime / frames / 1000} us, max ${maxPublishTime / 1000} us")
+    println("slow subscriber: ${slow.deliveredFrames} delivered, ${slow.droppedFrames} dropped")
+    //the slow subscriber takes 20 ms per frame so it would block the encoder 6 seconds
+    assertTrue(totalPublishTime < 1_000_000_000L)
+    assertEquals((0 until frames).map { it * 33_333L }, fastFrames.toList())
+    assertEquals(0, fast.droppedFrames)
+    assertTrue(slow.droppedFrames > 0)
+    bus.unsubscribe(slow)
+    //after a drop the next video frame delivered is a key frame
+    val received = slowFrames.toList()
+    received.zipWithNext().forEach { (previous, current) ->
+      if (current.first - previous.first > 33_333L) assertTrue(current.second)
+    }
+    bus.unsubscribe(fast)
+  }
+
+  @Test
+  fun `GIVEN drop oldest policy WHEN queue is full THEN keep the newest frames`() {
+    val bus = EncodedFrameBus()
+    val lock = Object()
+    var blocked = true
+    val received = Collections.synchronizedList(mutableListOf<Long>())
+    val subscription = bus.subscribe("blocked", 5, EncodedFrameBus.DropPolicy.DROP_OLDEST) { frame ->
+      synchronized(lock) {
+        while (blocked) lock.wait()
+      }
+      received.add(frame.timeStamp)
+    }
+    val buffer = ByteBuffer.wrap(ByteArray(100))
+    //first frame is taken by the subscriber thread and blocked
+    bus.publish(buffer, 0, 100, 0, 0, false)
+    Thread.sleep(50)
+    for (i in 1..20) bus.publish(buffer, 0, 100, i.toLong(), 0, false)
+    synchronized(lock) {
+      blocked = false
+      lock.notifyAll()
+    }
+    assertTrue(subscription.awaitIdle(2000))
+    assertEquals(listOf(0L, 16L, 17L, 18L, 19L, 20L), received.toList())
+    assertEquals(15, subscription.droppedFrames)
+    bus.unsubscribe(subscription)
+  }
+
+  @Test
+  fun `GIVEN frames released by all subscribers WHEN publish again THEN frames are reused from the pool`() {
+    val bus = EncodedFrameBus()
+    val frames = Collections.synchronizedSet(Collections.newSetFromMap(java.util.IdentityHashMap<EncodedFrame, Boolean>()))
+    val first = bus.subscribe("first", 10, EncodedFrameBus.DropPolicy.DROP_NEWEST) { frames.add(it) }
+    val second = bus.subscribe("second", 10, EncodedFrameBus.DropPolicy.DROP_NEWEST) { frames.add(it) }
+    val buffer = ByteBuffer.wrap(ByteArray(5000))
+    repeat(100) {
+      bus.publish(buffer, 0, 1000 + it * 10, it.toLong(), 0, true)
+      assertTrue(first.awaitIdle(1000))
+      assertTrue(second.awaitIdle(1000))
+    }
+    //one frame shared by both subscribers and reused each time
+    assertEquals(1, frames.size)
+    assertEquals(1, bus.getPoolSize())
+    bus.unsubscribe(first)
+    bus.unsubscribe(second)
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.locks.LockSupport
+import kotlin.concurrent.thread
+
+class FramePoolTest {
+
+  @Test
+  fun `GIVEN a pool WHEN all frames are in use THEN obtain return null until a frame is recycled`() {
+    val pool = FramePool(2, 16)
+    val first = pool.obtain()
+    val second = pool.obtain()
+    assertNotNull(first)
+    assertNotNull(second)
+    assertNull(pool.obtain())
+    first?.recycle()
+    //recycle twice is ignored
+    first?.recycle()
+    assertEquals(1, pool.available())
+    val frame = pool.obtain(ByteArray(8) { it.toByte() }, 2, 4, 1000)
+    assertEquals(first, frame)
+    assertEquals(4, frame?.size)
+    assertEquals(1000L, frame?.timeStamp)
+    assertEquals(listOf<Byte>(2, 3, 4, 5), frame?.buffer?.take(4))
+    assertNull(pool.obtain())
+  }
+
+  @Test
+  fun `GIVEN a frame not created by a pool WHEN recycle THEN nothing happens`() {
+    val pool = FramePool(1, 16)
+    Frame(ByteArray(16), 0, 16, 0).recycle()
+    assertEquals(1, pool.available())
+  }
+
+  /**
+   * Previous behavior, producer reuse the same buffer for all frames.
+   */
+  @Test
+  fun `GIVEN frames sharing the producer buffer WHEN consumer is slower than producer THEN queued data is overwritten`() {
+    val queue = ArrayBlockingQueue<Frame>(80)
+    val pcmBuffer = ByteArray(16)
+    repeat(2) { sequence ->
+      pcmBuffer.fill(sequence.toByte())
+      queue.offer(Frame(pcmBuffer, 0, pcmBuffer.size, sequence.toLong()))
+    }
+    val first = queue.take()
+    assertEquals(1.toByte(), first.buffer[0])
+    queue.clear()
+
+    val pool = FramePool(4, 16)
+    repeat(2) { sequence ->
+      pcmBuffer.fill(sequence.toByte())
+      queue.offer(pool.obtain(pcmBuffer, 0, pcmBuffer.size, sequence.toLong()))
+    }
+    assertEquals(0.toByte(), queue.take().buffer[0])
+    assertEquals(1.toByte(), queue.take().buffer[0])
+  }
+
+  /**
+   * Producer at full speed like a microphone read loop and a slow consumer like an encoder that copy
+   * frames to the codec input buffer and recycle them.
+   */
+  @Test
+  fun `GIVEN a fast producer and a slow consumer WHEN use a frame pool THEN frames are not corrupted and not allocated`() {
+    val frameSize = 2048
+    val pool = FramePool(8, frameSize)
+    val queue = ArrayBlockingQueue<Frame>(80)
+    val frames = 3000
+    val codecBuffer = ByteBuffer.allocateDirect(frameSize)
+    val errors = Collections.synchronizedList(mutableListOf<String>())
+    val usedFrames = Collections.newSetFromMap(IdentityHashMap<Frame, Boolean>())
+    var discarded = 0
+    var received = 0
+    var lastSequence = -1L
+    val producing = AtomicBoolean(true)
+
+    val producer = thread {
+      val pcmBuffer = ByteArray(frameSize)
+      for (sequence in 0 until frames) {
+        //same buffer reused in each read
+        pcmBuffer.fill(sequence.toByte())
+        val frame = pool.obtain(pcmBuffer, 0, 256 + sequence % (frameSize - 256), sequence.toLong())
+        if (frame == null) {
+          discarded++
+          continue
+        }
+        if (!queue.offer(frame)) frame.recycle()
+        LockSupport.parkNanos(50_000)
+      }
+      producing.set(false)
+    }
+    val consumer = thread {
+      while (producing.get() || queue.isNotEmpty()) {
+        val frame = queue.poll(10, TimeUnit.MILLISECONDS) ?: continue
+        usedFrames.add(frame)
+        if (received % 10 == 0) LockSupport.parkNanos(500_000)
+        codecBuffer.clear()
+        codecBuffer.put(frame.buffer, frame.offset, frame.size)
+        val sequence = frame.timeStamp
+        frame.recycle()
+        codecBuffer.flip()
+        val expectedSize = 256 + (sequence % (frameSize - 256)).toInt()
+        if (codecBuffer.remaining() != expectedSize) errors.add("frame $sequence wrong size")
+        while (codecBuffer.hasRemaining()) {
+          if (codecBuffer.get() != sequence.toByte()) {
+            errors.add("frame $sequence corrupted")
+            break
+          }
+        }
+        if (sequence <= lastSequence) errors.add("frame $sequence after $lastSequence")
+        lastSequence = sequence
+        received++
+      }
+    }
+    producer.join()
+    consumer.join()
+    println("frames received: $received, discarded: $discarded")
+    assertTrue(errors.take(10).toString(), errors.isEmpty())
+    assertEquals(frames, received + discarded)
+    assertTrue(received > 0)
+    assertTrue(usedFrames.size <= pool.capacity)
+    assertEquals(pool.capacity, pool.available())
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.audio
+
+import com.pedro.encoder.Frame
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+import kotlin.random.Random
+
+class PcmRingBufferTest {
+
+  private val sampleRate = 32000
+  //1024 stereo samples, an AAC frame
+  private val frameSize = 4096
+  private val frameDurationUs = 1024 * 1_000_000L / sampleRate
+
+  @Test
+  fun `GIVEN capture timestamps with jitter WHEN read aac frames THEN timestamps are continuous`() {
+    val ring = PcmRingBuffer(64 * 1024, sampleRate, true)
+    val random = Random(1)
+    val chunk = ByteArray(3528) //882 samples
+    val startTs = 1_000_000L
+    val timeStamps = mutableListOf<Long>()
+    val output = ByteBuffer.allocate(frameSize)
+    var samples = 0L
+    repeat(200) {
+      val jitter = random.nextLong(-5000, 5000)
+      assertTrue(ring.write(chunk, 0, chunk.size, startTs + samples * 1_000_000 / sampleRate + jitter))
+      samples += chunk.size / 4
+      while (ring.available() >= frameSize) {
+        timeStamps.add(ring.getReadTimeStamp())
+        output.clear()
+        assertEquals(frameSize, ring.read(output, frameSize))
+      }
+    }
+    assertTrue(timeStamps.size > 100)
+    timeStamps.zipWithNext().forEach { (previous, current) ->
+      assertEquals(frameDurationUs, current - previous)
+    }
+  }
+
+  @Test
+  fun `GIVEN a full ring WHEN write THEN data is discarded and next data use the new capture time`() {
+    val ring = PcmRingBuffer(2 * frameSize, sampleRate, true)
+    val chunk = ByteArray(frameSize)
+    assertTrue(ring.write(chunk, 0, frameSize, 0))
+    assertTrue(ring.write(chunk, 0, frameSize, frameDurationUs))
+    assertFalse(ring.write(chunk, 0, frameSize, 2 * frameDurationUs))
+    assertEquals(frameSize.toLong(), ring.getDiscardedBytes())
+    val output = ByteArray(frameSize)
+    assertEquals(0, ring.getReadTimeStamp())
+    ring.read(output, 0, frameSize)
+    //space again, this data is after the discarded frame
+    assertTrue(ring.write(chunk, 0, frameSize, 3 * frameDurationUs))
+    assertEquals(frameDurationUs, ring.getReadTimeStamp())
+    ring.read(output, 0, frameSize)
+    assertEquals(3 * frameDurationUs, ring.getReadTimeStamp())
+    //reads in the middle of a write use the sample count
+    ring.read(output, 0, 400)
+    assertEquals(3 * frameDurationUs + 100 * 1_000_000L / sampleRate, ring.getReadTimeStamp())
+  }
+
+  @Test
+  fun `GIVEN capture time drifting from sample count WHEN drift is over threshold THEN resync timestamps`() {
+    val ring = PcmRingBuffer(64 * 1024, sampleRate, true)
+    ring.setResyncThresholdUs(20_000)
+    val chunk = ByteArray(frameSize)
+    val output = ByteArray(frameSize)
+    //capture clock 10% faster than sample clock
+    val timeStamps = (0 until 10).map {
+      ring.write(chunk, 0, frameSize, it * frameDurationUs * 11 / 10)
+      val ts = ring.getReadTimeStamp()
+      ring.read(output, 0, frameSize)
+      ts
+    }
+    val steps = timeStamps.zipWithNext().map { (previous, current) -> current - previous }
+    //continuous until drift is over 20 ms, then move to capture time
+    assertEquals(listOf(frameDurationUs, frameDurationUs, frameDurationUs, frameDurationUs, frameDurationUs,
+      frameDurationUs, frameDurationUs + 7 * frameDurationUs / 10), steps.take(7))
+    timeStamps.forEachIndexed { index, ts ->
+      assertTrue(kotlin.math.abs(ts - index * frameDurationUs * 11 / 10) <= 20_000 + frameDurationUs / 10)
+    }
+  }
+
+  /**
+   * Producer writing microphone sized chunks and consumer reading aac frames in different threads.
+   * Compare with previous path: a Frame per read in a blocking queue.
+   */
+  @Test
+  fun `GIVEN producer and consumer threads WHEN transfer pcm data THEN data is not corrupted`() {
+    val totalBytes = 128 * 1024 * 1024L
+    val chunkSize = 2048
+    val ring = PcmRingBuffer(64 * 1024, sampleRate, true)
+    var errors = 0
+    val ringTime = measure {
+      val producer = thread {
+        val chunk = ByteArray(chunkSize)
+        var position = 0L
+        while (position < totalBytes) {
+          for (i in chunk.indices) chunk[i] = ((position + i) % 251).toByte()
+          if (ring.write(chunk, 0, chunkSize, 0)) position += chunkSize else Thread.yield()
+        }
+      }
+      val consumer = thread {
+        val output = ByteArray(frameSize)
+        var position = 0L
+        while (position < totalBytes) {
+          if (!ring.await(frameSize, 1, TimeUnit.SECONDS)) break
+          val read = ring.read(output, 0, frameSize)
+          for (i in 0 until read) if (output[i] != ((position + i) % 251).toByte()) errors++
+          position += read
+        }
+      }
+      producer.join()
+      consumer.join()
+    }
+    assertEquals(0, errors)
+
+    val queue = ArrayBlockingQueue<Frame>(80)
+    var queueErrors = 0
+    val queueTime = measure {
+      val producer = thread {
+        var position = 0L
+        while (position < totalBytes) {
+          val chunk = ByteArray(chunkSize)
+          for (i in chunk.indices) chunk[i] = ((position + i) % 251).toByte()
+          queue.put(Frame(chunk, 0, chunkSize, 0))
+          position += chunkSize
+        }
+      }
+      val consumer = thread {
+        val output = ByteBuffer.allocate(frameSize)
+        var position = 0L
+        while (position < totalBytes) {
+          val frame = queue.take()
+          output.clear()
+          output.put(frame.buffer, frame.offset, frame.size)
+          for (i in 0 until frame.size) if (output[i] != ((position + i) % 251).toByte()) queueErrors++
+          position += frame.size
+        }
+      }
+      producer.join()
+      consumer.join()
+    }
+    assertEquals(0, queueErrors)
+    val mb = totalBytes / 1024 / 1024
+    println("ring: ${mb * 1000 / ringTime} MB/s, blocking queue: ${mb * 1000 / queueTime} MB/s")
+  }
+
+  private inline fun measure(block: () -> Unit): Long {
+    val start = System.nanoTime()
+    block()
+    return maxOf(1, (System.nanoTime() - start) / 1_000_000)
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.input.audio
+
+import com.pedro.encoder.Frame
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.roundToInt
+import kotlin.math.sin
+
+class AudioMixerTest {
+
+  private val sampleRate = 48000
+  private val frameSamples = 960
+
+  /**
+   * Collect mixer output as 16 bits samples (left channel) and timestamps.
+   */
+  private class Output : GetMicrophoneData {
+    val samples = mutableListOf<Short>()
+    val timeStamps = mutableListOf<Long>()
+
+    override fun inputPCMData(frame: Frame) {
+      timeStamps.add(frame.timeStamp)
+      var i = frame.offset
+      while (i < frame.offset + frame.size) {
+        samples.add(((frame.buffer[i].toInt() and 0xff) or (frame.buffer[i + 1].toInt() shl 8)).toShort())
+        i += 4
+      }
+      frame.recycle()
+    }
+  }
+
+  /**
+   * Send a signal to an input in chunks of chunkSamples stereo samples.
+   */
+  private fun feed(input: AudioMixer.Input, startTs: Long, samples: Int, chunkSamples: Int,
+    signal: (Int) -> Double) {
+    val buffer = ByteArray(chunkSamples * 4)
+    var written = 0
+    while (written < samples) {
+      val size = minOf(chunkSamples, samples - written)
+      for (i in 0 until size) {
+        val value = (signal(written + i) * 32767).roundToInt()
+        for (c in 0 until 2) {
+          buffer[i * 4 + c * 2] = value.toByte()
+          buffer[i * 4 + c * 2 + 1] = (value shr 8).toByte()
+        }
+      }
+      input.inputPCMData(Frame(buffer, 0, size * 4, startTs + written * 1_000_000L / sampleRate))
+      written += size
+    }
+  }
+
+  /**
+   * Send signals to inputs alternating chunks like capture threads running at the same time.
+   */
+  private fun feedTogether(startSample: Int, samples: Int, chunkSamples: Int,
+    vararg inputs: Pair<AudioMixer.Input, (Int) -> Double>) {
+    var position = 0
+    while (position < samples) {
+      val size = minOf(chunkSamples, samples - position)
+      val start = startSample + position
+      inputs.forEach { (input, signal) ->
+        feed(input, start * 1_000_000L / sampleRate, size, size) { signal(start + it) }
+      }
+      position += size
+    }
+  }
+
+  private fun sine(frequency: Double, amplitude: Double): (Int) -> Double = { amplitude * sin(2 * PI * frequency * it / sampleRate) }
+
+  @Test
+  fun `GIVEN two sine inputs with different chunk sizes WHEN mix THEN output is the sum of inputs with continuous timestamps`() {
+    val output = Output()
+    val mixer = AudioMixer(output, sampleRate, true, frameSamples, 60)
+    val first = mixer.addInput(1f)
+    val second = mixer.addInput(1f)
+    val a = sine(440.0, 0.3)
+    val b = sine(1000.0, 0.3)
+    val total = sampleRate
+    //interleave chunks like 2 capture threads
+    var position = 0
+    while (position < total) {
+      feed(first, 1_000_000L + position * 1_000_000L / sampleRate, 1024, 1024) { a(position + it) }
+      feed(second, 1_000_000L + position * 1_000_000L / sampleRate, 1024, 441) { b(position + it) }
+      position += 1024
+    }
+    assertTrue(output.samples.size >= total - 2 * frameSamples)
+    output.samples.forEachIndexed { index, sample ->
+      val expected = (a(index) * 32767).roundToInt() + (b(index) * 32767).roundToInt()
+      assertTrue("sample $index: $sample != $expected", abs(sample - expected) <= 2)
+    }
+    output.timeStamps.zipWithNext().forEach { (previous, current) ->
+      assertEquals(frameSamples * 1_000_000L / sampleRate, current - previous)
+    }
+    assertEquals(1_000_000L, output.timeStamps.first())
+  }
+
+  @Test
+  fun `GIVEN inputs with gains WHEN mix THEN each input is scaled`() {
+    val output = Output()
+    val mixer = AudioMixer(output, sampleRate, true, frameSamples, 60)
+    val first = mixer.addInput(0.5f)
+    val second = mixer.addInput(0f)
+    feed(first, 0, frameSamples * 4, 480) { 0.4 }
+    feed(second, 0, frameSamples * 4, 480) { 0.4 }
+    assertEquals(frameSamples * 4, output.samples.size)
+    val expected = (0.4 * 32767).roundToInt() / 2
+    output.samples.forEach { assertTrue(abs(it - expected) <= 1) }
+  }
+
+  @Test
+  fun `GIVEN loud inputs WHEN mix THEN soft limiter avoid clipping and keep low levels untouched`() {
+    val output = Output()
+    val mixer = AudioMixer(output, sampleRate, true, frameSamples, 60)
+    val first = mixer.addInput(1f)
+    val second = mixer.addInput(1f)
+    val signal = sine(100.0, 0.9)
+    feedTogether(0, sampleRate / 10, 960, first to signal, second to signal)
+    var previous = Int.MIN_VALUE
+    output.samples.forEachIndexed { index, sample ->
+      val sum = 2 * signal(index)
+      if (abs(sum) < 0.7) assertTrue(abs(sample - sum * 32767) <= 2)
+      assertTrue(abs(sample.toInt()) < 32767)
+      //first quarter of the period is increasing, limiter must be monotonic
+      if (index < sampleRate / 400) {
+        assertTrue(sample >= previous)
+        previous = sample.toInt()
+      }
+    }
+    assertTrue(output.samples.maxOf { it } > 30000)
+  }
+
+  @Test
+  fun `GIVEN an input started later WHEN mix THEN input is aligned using timestamps`() {
+    val output = Output()
+    val mixer = AudioMixer(output, sampleRate, true, frameSamples, 60)
+    val first = mixer.addInput(1f)
+    val second = mixer.addInput(1f)
+    val startDelay = 4800 //100 ms
+    feedTogether(0, startDelay, 480, first to { 0.1 })
+    feedTogether(startDelay, frameSamples * 5, 480, first to { 0.1 }, second to { 0.2 })
+    val low = (0.1 * 32767).roundToInt()
+    val high = low + (0.2 * 32767).roundToInt()
+    assertEquals(startDelay + frameSamples * 5, output.samples.size)
+    output.samples.forEachIndexed { index, sample ->
+      assertEquals("sample $index", if (index < startDelay) low else high, sample.toInt())
+    }
+  }
+
+  @Test
+  fun `GIVEN an input that stop sending data WHEN jitter time pass THEN mix other inputs alone`() {
+    val output = Output()
+    val mixer = AudioMixer(output, sampleRate, true, frameSamples, 60)
+    val first = mixer.addInput(1f)
+    val second = mixer.addInput(1f)
+    feed(second, 0, frameSamples, frameSamples) { 0.2 }
+    feed(first, 0, frameSamples * 2, frameSamples) { 0.1 }
+    //second input has no data for the second frame, wait up to 60 ms
+    assertEquals(frameSamples, output.samples.size)
+    feed(first, frameSamples * 2 * 1_000_000L / sampleRate, frameSamples * 3, frameSamples) { 0.1 }
+    assertTrue(output.samples.size >= frameSamples * 2)
+    val low = (0.1 * 32767).roundToInt()
+    output.samples.drop(frameSamples).forEach { assertEquals(low, it.toInt()) }
+  }
+
+  /**
+   * Mix 4 inputs sending 20 ms frames and measure speed compared to real time and allocations.
+   */
+  @Test
+  fun `GIVEN 4 inputs WHEN mix a minute of audio THEN mix is faster than real time without allocations per frame`() {
+    var frames = 0
+    val mixer = AudioMixer(object : GetMicrophoneData {
+      override fun inputPCMData(frame: Frame) {
+        frames++
+        frame.recycle()
+      }
+    }, sampleRate, true, 1024, 60)
+    val inputs = List(4) { mixer.addInput(0.5f) }
+    val chunk = ByteArray(frameSamples * 4) { (it * 31).toByte() }
+    val inputFrame = Frame(chunk, 0, chunk.size, 0)
+    val chunks = 60 * 50
+    fun run() {
+      mixer.reset()
+      for (i in 0 until chunks) {
+        inputFrame.timeStamp = i * 20_000L
+        for (j in inputs.indices) inputs[j].inputPCMData(inputFrame)
+      }
+    }
+    run()
+    val threadId = Thread.currentThread().id
+    val bean = ManagementFactory.getThreadMXBean()
+    val startAllocated = if (bean is com.sun.management.ThreadMXBean) bean.getThreadAllocatedBytes(threadId) else -1
+    frames = 0
+    val start = System.nanoTime()
+    run()
+    val time = (System.nanoTime() - start) / 1_000_000
+    val allocated = if (bean is com.sun.management.ThreadMXBean) bean.getThreadAllocatedBytes(threadId) - startAllocated else -1
+    println("mixed 60 s of 4 stereo inputs in $time ms (${60_000 / maxOf(1, time)}x real time), $frames frames, $allocated bytes allocated")
+    assertTrue(frames > 2700)
+    assertTrue(time < 60_000)
+    if (startAllocated >= 0) assertTrue(allocated / frames < 64)
+  }
+}
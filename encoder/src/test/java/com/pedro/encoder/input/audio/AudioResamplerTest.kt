@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.input.audio
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.log10
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+class AudioResamplerTest {
+
+  @Test
+  fun `GIVEN tones in pass band WHEN resample THEN keep frequency and amplitude`() {
+    val conversions = listOf(48000 to 44100, 44100 to 48000, 48000 to 16000, 16000 to 48000, 44100 to 32000)
+    conversions.forEach { (inputRate, outputRate) ->
+      val nyquist = minOf(inputRate, outputRate) / 2.0
+      listOf(440.0, nyquist * 0.5, nyquist * 0.8).forEach { frequency ->
+        val resampler = AudioResampler(inputRate, 1, outputRate, 1)
+        val output = resample(resampler, tone(frequency, inputRate, inputRate, 1, 16000.0), 1)
+        val amplitude = toneAmplitude(output, frequency, outputRate, 1, skip = outputRate / 10)
+        val gainDb = 20 * log10(amplitude / 16000.0)
+        println("$inputRate -> $outputRate, $frequency Hz: $gainDb dB")
+        assertTrue("gain $gainDb dB", gainDb > -0.1 && gainDb < 0.1)
+      }
+    }
+  }
+
+  @Test
+  fun `GIVEN tones over output nyquist WHEN downsample THEN aliasing is rejected`() {
+    val conversions = listOf(48000 to 16000, 48000 to 44100, 44100 to 8000)
+    conversions.forEach { (inputRate, outputRate) ->
+      val nyquist = outputRate / 2.0
+      //tones that would alias to nyquist * 0.8, nyquist * 0.5 and nyquist * 0.2
+      listOf(nyquist * 1.2, nyquist * 1.5, nyquist * 1.8).filter { it < inputRate / 2 }.forEach { frequency ->
+        val resampler = AudioResampler(inputRate, 1, outputRate, 1)
+        val output = resample(resampler, tone(frequency, inputRate, inputRate, 1, 16000.0), 1)
+        val aliasFrequency = outputRate - frequency
+        val rms = rms(output, outputRate / 10)
+        val alias = toneAmplitude(output, aliasFrequency, outputRate, 1, skip = outputRate / 10)
+        val rejectionDb = 20 * log10(maxOf(rms * sqrt(2.0), alias, 1e-9) / 16000.0)
+        println("$inputRate -> $outputRate, $frequency Hz: $rejectionDb dB")
+        assertTrue("rejection $rejectionDb dB", rejectionDb < -60)
+      }
+    }
+  }
+
+  @Test
+  fun `GIVEN input split in buffers of different sizes WHEN resample THEN output is the same that resample all input`() {
+    val input = tone(1000.0, 44100, 44100, 2, 12000.0)
+    val expected = resample(AudioResampler(44100, 2, 48000, 2), input, 2, chunk = input.size)
+    val chunks = intArrayOf(4, 36, 4096, 8, 1000, 8192, 20)
+    val resampler = AudioResampler(44100, 2, 48000, 2)
+    val output = ByteArray(resampler.getMaxOutputSize(input.size))
+    var inputOffset = 0
+    var outputSize = 0
+    var i = 0
+    while (inputOffset < input.size) {
+      val size = minOf(chunks[i++ % chunks.size], input.size - inputOffset)
+      outputSize += resampler.process(input, inputOffset, size, output, outputSize)
+      inputOffset += size
+    }
+    assertArrayEquals(expected, output.copyOf(outputSize))
+    //output length is only short by the filter delay
+    val expectedFrames = (input.size / 4 - resampler.delay) * 48000L / 44100
+    assertTrue(kotlin.math.abs(outputSize / 4 - expectedFrames) <= 1)
+  }
+
+  @Test
+  fun `GIVEN rates with more phases than stored WHEN resample THEN output rate is exact`() {
+    //44100 -> 44101 needs 44101 phases, only 512 are stored
+    val inputRate = 44100
+    val outputRate = 44101
+    val resampler = AudioResampler(inputRate, 1, outputRate, 1)
+    val seconds = 10
+    val output = resample(resampler, tone(440.0, inputRate, inputRate * seconds, 1, 16000.0), 1)
+    val expectedFrames = (inputRate.toLong() * seconds - resampler.delay) * outputRate / inputRate
+    assertTrue(kotlin.math.abs(output.size / 2 - expectedFrames) <= 1)
+    val amplitude = toneAmplitude(output, 440.0, outputRate, 1, skip = outputRate)
+    val gainDb = 20 * log10(amplitude / 16000.0)
+    assertTrue("gain $gainDb dB", gainDb > -0.1 && gainDb < 0.1)
+  }
+
+  @Test
+  fun `GIVEN different channels WHEN remix THEN mono is duplicated stereo is averaged and multichannel is downmixed`() {
+    val mono = samples(AudioResampler(48000, 1, 48000, 2), shortArrayOf(1000, -2000))
+    assertArrayEquals(shortArrayOf(1000, 1000, -2000, -2000), mono)
+    val stereo = samples(AudioResampler(48000, 2, 48000, 1), shortArrayOf(1000, 3000, -1000, -3000))
+    assertArrayEquals(shortArrayOf(2000, -2000), stereo)
+    //5.1: FL, FR, FC, LFE, BL, BR. LFE discarded, same gain in all channels keep the level
+    val surround = samples(AudioResampler(48000, 6, 48000, 2), shortArrayOf(10000, 10000, 10000, 32767, 10000, 10000))
+    assertArrayEquals(shortArrayOf(10000, 10000), surround)
+    val left = samples(AudioResampler(48000, 6, 48000, 2), shortArrayOf(10000, 0, 0, 0, 0, 0))
+    assertEquals(0, left[1].toInt())
+    assertTrue(left[0] > 0)
+  }
+
+  @Test
+  fun `GIVEN one second of audio WHEN resample THEN measure cpu time without allocations`() {
+    val conversions = listOf(Triple(44100, 2, 48000), Triple(48000, 2, 44100), Triple(48000, 6, 44100), Triple(16000, 1, 48000))
+    conversions.forEach { (inputRate, inputChannels, outputRate) ->
+      val resampler = AudioResampler(inputRate, inputChannels, outputRate, 2)
+      val input = tone(1000.0, inputRate, inputRate, inputChannels, 8000.0)
+      val chunk = 2048 * inputChannels
+      val output = ByteArray(resampler.getMaxOutputSize(chunk))
+      val process = {
+        var offset = 0
+        while (offset < input.size) {
+          val size = minOf(chunk, input.size - offset)
+          resampler.process(input, offset, size, output, 0)
+          offset += size
+        }
+      }
+      repeat(5) { process() }
+      val threadId = Thread.currentThread().id
+      val startAllocated = allocatedBytes(threadId)
+      val iterations = 10
+      val start = System.nanoTime()
+      repeat(iterations) { process() }
+      val time = (System.nanoTime() - start) / iterations
+      val allocated = allocatedBytes(threadId) - startAllocated
+      println("$inputRate Hz $inputChannels ch -> $outputRate Hz stereo: ${time / 1000} us per second of audio, $allocated bytes allocated")
+      //less than 5% of a core
+      assertTrue(time < 50_000_000)
+      if (startAllocated >= 0) assertTrue(allocated < 1024)
+    }
+  }
+
+  private fun resample(resampler: AudioResampler, input: ByteArray, channels: Int, chunk: Int = 2048 * channels): ByteArray {
+    val output = ByteArray(resampler.getMaxOutputSize(input.size))
+    var outputSize = 0
+    var offset = 0
+    while (offset < input.size) {
+      val size = minOf(chunk, input.size - offset)
+      outputSize += resampler.process(input, offset, size, output, outputSize)
+      offset += size
+    }
+    return output.copyOf(outputSize)
+  }
+
+  private fun samples(resampler: AudioResampler, input: ShortArray): ShortArray {
+    val bytes = ByteArray(input.size * 2)
+    input.forEachIndexed { i, sample ->
+      bytes[2 * i] = sample.toByte()
+      bytes[2 * i + 1] = (sample.toInt() shr 8).toByte()
+    }
+    val output = resample(resampler, bytes, resampler.inputChannels)
+    return ShortArray(output.size / 2) { sample(output, it) }
+  }
+
+  private fun tone(frequency: Double, sampleRate: Int, samples: Int, channels: Int, amplitude: Double): ByteArray {
+    val data = ByteArray(samples * channels * 2)
+    for (i in 0 until samples) {
+      val value = (amplitude * sin(2 * PI * frequency * i / sampleRate)).toInt()
+      for (c in 0 until channels) {
+        val index = (i * channels + c) * 2
+        data[index] = value.toByte()
+        data[index + 1] = (value shr 8).toByte()
+      }
+    }
+    return data
+  }
+
+  /**
+   * Amplitude of a frequency in the first channel, correlating with sin and cos.
+   */
+  private fun toneAmplitude(data: ByteArray, frequency: Double, sampleRate: Int, channels: Int, skip: Int): Double {
+    val samples = data.size / 2 / channels
+    //use an integer number of periods
+    val periods = ((samples - skip) * frequency / sampleRate).toInt()
+    val length = (periods * sampleRate / frequency).toInt()
+    var sinSum = 0.0
+    var cosSum = 0.0
+    for (i in skip until skip + length) {
+      val value = sample(data, i * channels)
+      val angle = 2 * PI * frequency * i / sampleRate
+      sinSum += value * sin(angle)
+      cosSum += value * cos(angle)
+    }
+    return 2 * sqrt(sinSum * sinSum + cosSum * cosSum) / length
+  }
+
+  private fun rms(data: ByteArray, skip: Int): Double {
+    var sum = 0.0
+    val samples = data.size / 2
+    for (i in skip until samples) {
+      val value = sample(data, i).toDouble()
+      sum += value * value
+    }
+    return sqrt(sum / (samples - skip))
+  }
+
+  private fun sample(data: ByteArray, index: Int): Short {
+    return ((data[2 * index].toInt() and 0xFF) or (data[2 * index + 1].toInt() shl 8)).toShort()
+  }
+
+  private fun allocatedBytes(threadId: Long): Long {
+    val bean = ManagementFactory.getThreadMXBean()
+    return if (bean is com.sun.management.ThreadMXBean) bean.getThreadAllocatedBytes(threadId) else -1
+  }
+}
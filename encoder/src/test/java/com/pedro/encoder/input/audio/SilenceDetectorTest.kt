@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.input.audio
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.util.Random
+import kotlin.math.PI
+import kotlin.math.sin
+
+class SilenceDetectorTest {
+
+  private val sampleRate = 44100
+  //AAC frame
+  private val frameSamples = 1024
+  private val frameMs = frameSamples * 1000.0 / sampleRate
+
+  /**
+   * Speech like signal: harmonics of a varying pitch with a syllable envelope (4 Hz) over a
+   * background noise floor.
+   */
+  private fun talk(durationMs: Int, random: Random, level: Double = 8000.0): ShortArray {
+    val samples = durationMs * sampleRate / 1000
+    return ShortArray(samples) { i ->
+      val t = i.toDouble() / sampleRate
+      val pitch = 140 + 30 * sin(2 * PI * 0.7 * t)
+      val envelope = 0.2 + 0.8 * sin(PI * 4 * t).let { it * it }
+      var value = 0.0
+      for (harmonic in 1..5) value += sin(2 * PI * pitch * harmonic * t) / harmonic
+      (level * envelope * value / 2 + noise(random)).toInt().toShort()
+    }
+  }
+
+  private fun roomNoise(durationMs: Int, random: Random): ShortArray {
+    return ShortArray(durationMs * sampleRate / 1000) { noise(random).toInt().toShort() }
+  }
+
+  //~ -66 dBFS RMS
+  private fun noise(random: Random) = random.nextGaussian() * 16
+
+  private fun toBytes(samples: ShortArray): ByteArray {
+    val bytes = ByteArray(samples.size * 2)
+    samples.forEachIndexed { i, sample ->
+      bytes[2 * i] = sample.toByte()
+      bytes[2 * i + 1] = (sample.toInt() shr 8).toByte()
+    }
+    return bytes
+  }
+
+  /**
+   * @return silence result of each AAC frame
+   */
+  private fun detect(detector: SilenceDetector, pcm: ByteArray): List<Boolean> {
+    val frameSize = frameSamples * 2
+    return (0 until pcm.size / frameSize).map { detector.process(pcm, it * frameSize, frameSize) }
+  }
+
+  @Test
+  fun `GIVEN speech and room noise WHEN detect THEN room noise is silence after hangover`() {
+    val random = Random(1)
+    val detector = SilenceDetector(sampleRate, false)
+    val results = detect(detector, toBytes(talk(2000, random) + roomNoise(3000, random) + talk(1000, random)))
+    val speechFrames = (2000 / frameMs).toInt()
+    val hangoverFrames = (SilenceDetector.DEFAULT_HANGOVER_MS / frameMs).toInt() + 1
+    val noiseFrames = (3000 / frameMs).toInt()
+    assertTrue(results.subList(0, speechFrames).none { it })
+    //first noise frames after speech are not silence (hangover)
+    assertTrue(results.subList(speechFrames, speechFrames + hangoverFrames - 1).none { it })
+    assertTrue(results.subList(speechFrames + hangoverFrames + 1, speechFrames + noiseFrames).all { it })
+    //speech start is detected in the first frame
+    assertTrue(results.subList(speechFrames + noiseFrames + 1, results.size).none { it })
+  }
+
+  @Test
+  fun `GIVEN speech with short pauses WHEN detect THEN pauses are not silence`() {
+    val random = Random(2)
+    val detector = SilenceDetector(sampleRate, false)
+    var signal = ShortArray(0)
+    repeat(10) { signal += talk(600, random) + roomNoise(250, random) }
+    val results = detect(detector, toBytes(signal))
+    assertTrue(results.none { it })
+  }
+
+  @Test
+  fun `GIVEN stereo pcm in a byte buffer WHEN detect THEN result is the same that with array and position is kept`() {
+    val random = Random(3)
+    val mono = roomNoise(1000, random)
+    val stereo = ShortArray(mono.size * 2) { mono[it / 2] }
+    val pcm = toBytes(stereo)
+    val arrayDetector = SilenceDetector(sampleRate, true)
+    val bufferDetector = SilenceDetector(sampleRate, true)
+    val buffer = ByteBuffer.allocateDirect(pcm.size).put(pcm)
+    buffer.position(10)
+    val frameSize = frameSamples * 4
+    for (i in 0 until pcm.size / frameSize) {
+      assertEquals(arrayDetector.process(pcm, i * frameSize, frameSize), bufferDetector.process(buffer, i * frameSize, frameSize))
+      assertEquals(arrayDetector.rmsDb, bufferDetector.rmsDb, 0.001f)
+    }
+    assertTrue(bufferDetector.isSilence)
+    assertEquals(10, buffer.position())
+    bufferDetector.reset()
+    assertFalse(bufferDetector.isSilence)
+  }
+
+  /**
+   * Talk show like stream: 2-8 seconds of speech and pauses of 2-6 seconds. Count AAC frames replaced
+   * with digital silence.
+   */
+  @Test
+  fun `GIVEN a talk show stream WHEN detect THEN measure frames replaced with digital silence`() {
+    val random = Random(4)
+    val detector = SilenceDetector(sampleRate, false)
+    var speechMs = 0
+    var pauseMs = 0
+    var signal = ShortArray(0)
+    while (speechMs + pauseMs < 60_000) {
+      val speech = 2000 + random.nextInt(6000)
+      val pause = 2000 + random.nextInt(4000)
+      signal += talk(speech, random) + roomNoise(pause, random)
+      speechMs += speech
+      pauseMs += pause
+    }
+    val start = System.nanoTime()
+    val results = detect(detector, toBytes(signal))
+    val time = System.nanoTime() - start
+    val silenceFrames = results.count { it }
+    val silenceRatio = silenceFrames.toDouble() / results.size
+    val pauseRatio = pauseMs.toDouble() / (speechMs + pauseMs)
+    println("pauses ${(pauseRatio * 100).toInt()}%, digital silence ${(silenceRatio * 100).toInt()}% of frames, " +
+        "detection ${time / 1000 / ((speechMs + pauseMs) / 1000)} us per second of audio")
+    //only the hangover of each pause is encoded
+    assertTrue(silenceRatio > pauseRatio * 0.75)
+    assertTrue(silenceRatio <= pauseRatio)
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.input.video
+
+import com.pedro.encoder.utils.MediaClockTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class FpsLimiterTest {
+
+  private val hour = 3_600_000_000_000L
+
+  /**
+   * Feed frames from a source with the fps and jitter provided during 1 hour.
+   *
+   * @return frames rendered
+   */
+  private fun simulate(fpsLimiter: FpsLimiter, timeSource: MediaClockTest.FakeTimeSource,
+    sourceFps: Int, jitter: Long): Int {
+    val random = Random(1)
+    val start = timeSource.now
+    var rendered = 0
+    for (frame in 1L..sourceFps * 3600L) {
+      val ts = frame * 1_000_000_000L / sourceFps + random.nextLong(-jitter, jitter + 1)
+      timeSource.now = start + ts
+      if (!fpsLimiter.limitFPS()) rendered++
+    }
+    return rendered
+  }
+
+  @Test
+  fun `GIVEN a 60 fps source WHEN limit to 30 fps during 1 hour THEN render exactly 30 fps`() {
+    val timeSource = MediaClockTest.FakeTimeSource()
+    val fpsLimiter = FpsLimiter(timeSource)
+    fpsLimiter.setFPS(30)
+    val rendered = simulate(fpsLimiter, timeSource, 60, 2_000_000)
+    println("60 fps to 30 fps: $rendered frames, expected ${30 * 3600}")
+    assertTrue(kotlin.math.abs(30 * 3600 - rendered) <= 1)
+  }
+
+  @Test
+  fun `GIVEN a 30 fps source with jitter WHEN limit to 30 fps THEN no frame is discarded`() {
+    val timeSource = MediaClockTest.FakeTimeSource()
+    val fpsLimiter = FpsLimiter(timeSource)
+    fpsLimiter.setFPS(30)
+    val rendered = simulate(fpsLimiter, timeSource, 30, 5_000_000)
+    assertEquals(30 * 3600, rendered)
+  }
+
+  @Test
+  fun `GIVEN a 30 fps source WHEN limit to 24 fps THEN render exactly 24 fps`() {
+    val timeSource = MediaClockTest.FakeTimeSource()
+    val fpsLimiter = FpsLimiter(timeSource)
+    fpsLimiter.setFPS(24)
+    val rendered = simulate(fpsLimiter, timeSource, 30, 2_000_000)
+    assertTrue(kotlin.math.abs(24 * 3600 - rendered) <= 1)
+  }
+
+  /**
+   * Render loop that sleep the time returned after each frame, with random render time.
+   * Using milliseconds periods (1000 / 30 = 33 ms) the loop run at 30.3 fps.
+   */
+  @Test
+  fun `GIVEN a render loop WHEN sleep between frames during 1 hour THEN loop run exactly at 30 fps`() {
+    val timeSource = MediaClockTest.FakeTimeSource()
+    val fpsLimiter = FpsLimiter(timeSource)
+    fpsLimiter.setFPS(30)
+    val random = Random(1)
+    val start = timeSource.now
+    var loops = 0
+    while (timeSource.now - start < hour) {
+      fpsLimiter.setFrameStartTs()
+      timeSource.now += random.nextLong(0, 10_000_000)
+      loops++
+      timeSource.now += fpsLimiter.getSleepTime() * 1_000_000
+    }
+    println("render loop: $loops loops, expected ${30 * 3600}")
+    assertTrue(kotlin.math.abs(30 * 3600 - loops) <= 1)
+  }
+}
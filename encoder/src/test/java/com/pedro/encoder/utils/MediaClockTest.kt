@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class MediaClockTest {
+
+  /**
+   * Time only advance when a thread is parked, so the simulation is deterministic.
+   */
+  class FakeTimeSource(var now: Long = 123_456_789L) : MediaClock.TimeSource {
+    override fun nanoTime(): Long = now
+    override fun parkNanos(nanos: Long) {
+      now += nanos
+    }
+  }
+
+  private class Track(
+    val ptsList: List<Long>,
+    val loopDuration: Long,
+  ) {
+    var index = 0
+    var offset = 0L
+
+    fun nextTs(): Long = ptsList[index] + offset
+
+    fun advance() {
+      index++
+      if (index == ptsList.size) {
+        index = 0
+        offset += loopDuration
+      }
+    }
+  }
+
+  @Test
+  fun `GIVEN a started clock WHEN wait until a deadline THEN wake up exactly at start + pts`() {
+    val timeSource = FakeTimeSource()
+    val clock = MediaClock(timeSource)
+    assertEquals(0, clock.getTimeUs())
+    clock.start()
+    val start = timeSource.now
+    assertTrue(clock.waitUntil(40_000))
+    assertEquals(start + 40_000_000, timeSource.now)
+    assertEquals(40_000, clock.getTimeUs())
+    //deadline in the past return immediately
+    assertTrue(clock.waitUntil(10_000))
+    assertEquals(30_000, clock.getLateUs(10_000))
+    assertEquals(start / 1000 + 40_000, clock.toSystemTimeUs(40_000))
+    //start again is ignored until reset
+    timeSource.now += 5_000_000
+    clock.start()
+    assertEquals(45_000, clock.getTimeUs())
+    clock.reset()
+    assertFalse(clock.isStarted)
+  }
+
+  @Test
+  fun `GIVEN an interrupted thread WHEN wait until a deadline THEN return false`() {
+    val clock = MediaClock(FakeTimeSource())
+    clock.start()
+    Thread.currentThread().interrupt()
+    assertFalse(clock.waitUntil(1_000_000))
+    assertTrue(Thread.interrupted())
+  }
+
+  /**
+   * Play a 10 seconds file in loop during 1 hour with 30 fps video and 44100 Hz AAC audio.
+   * Each sample has a random processing time after wait the deadline, like decode or render.
+   * Timestamps in the file are in microseconds so the frame duration is not exact.
+   */
+  @Test
+  fun `GIVEN audio and video tracks in loop WHEN play 1 hour with processing jitter THEN there is no drift`() {
+    val timeSource = FakeTimeSource()
+    val clock = MediaClock(timeSource)
+    clock.master = MediaClock.Track.AUDIO
+    val audioDuration = 10_000_000L
+    val videoPts = (0 until 300).map { it * 1_000_000L / 30 }
+    val audioPts = (0 until 431).map { it * 1024 * 1_000_000L / 44100 }
+    clock.loopDurationUs = audioDuration
+    val video = Track(videoPts, clock.loopDurationUs)
+    val audio = Track(audioPts, clock.loopDurationUs)
+    val random = Random(1)
+    val hour = 3_600_000_000L
+    var maxLate = 0L
+    clock.start()
+    val start = timeSource.now
+    var lastVideoTs = 0L
+    var lastAudioTs = 0L
+    //two threads simulated, the track with the first deadline is processed
+    while (true) {
+      val track = if (video.nextTs() <= audio.nextTs()) video else audio
+      val ts = track.nextTs()
+      if (ts >= hour) break
+      assertTrue(clock.waitUntil(ts))
+      maxLate = maxOf(maxLate, clock.getLateUs(ts))
+      if (track === video) lastVideoTs = ts else lastAudioTs = ts
+      timeSource.now += random.nextLong(0, 5_000_000)
+      track.advance()
+    }
+    println("media clock, max late: $maxLate us")
+    //the last samples are played in the same position of the file as the first loop
+    assertEquals(hour - audioDuration + videoPts.last(), lastVideoTs)
+    assertEquals(hour - audioDuration + audioPts.last(), lastAudioTs)
+    //waiting is not accumulated, only the processing time of the previous sample
+    assertTrue(maxLate < 5_000)
+    assertTrue(timeSource.now - start < hour * 1000 + 5_000_000)
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.utils
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class RemuxUtilTest {
+
+  private val sps = byteArrayOf(0x67, 0x42, 0xC0.toByte(), 0x1F, 0x8C.toByte(), 0x8D.toByte())
+  private val pps = byteArrayOf(0x68, 0xCE.toByte(), 0x3C, 0x80.toByte())
+  private val startCode = byteArrayOf(0, 0, 0, 1)
+
+  private fun ByteBuffer.toArray(): ByteArray {
+    val data = ByteArray(remaining())
+    duplicate().get(data)
+    return data
+  }
+
+  @Test
+  fun `GIVEN samples with length prefix WHEN convert to annex b THEN length is replaced by start code in place`() {
+    val nal1 = ByteArray(1000) { 0x65 }
+    val nal2 = ByteArray(20) { 0x41 }
+    val sample = ByteBuffer.allocateDirect(4 + nal1.size + 4 + nal2.size)
+    sample.putInt(nal1.size).put(nal1).putInt(nal2.size).put(nal2).flip()
+    assertFalse(RemuxUtil.isAnnexB(sample, 0, sample.limit()))
+    assertTrue(RemuxUtil.toAnnexB(sample, 0, sample.limit(), 4))
+    assertArrayEquals(startCode + nal1 + startCode + nal2, sample.toArray())
+    assertTrue(RemuxUtil.isAnnexB(sample, 0, sample.limit()))
+
+    val shortSample = ByteBuffer.wrap(byteArrayOf(0, 0, 2, 0x65, 0x01))
+    assertTrue(RemuxUtil.toAnnexB(shortSample, 0, 5, 3))
+    assertArrayEquals(byteArrayOf(0, 0, 1, 0x65, 0x01), shortSample.toArray())
+  }
+
+  @Test
+  fun `GIVEN samples with invalid length WHEN convert to annex b THEN return false`() {
+    val sample = ByteBuffer.allocate(10).putInt(100).put(ByteArray(6)).flip() as ByteBuffer
+    assertFalse(RemuxUtil.toAnnexB(sample, 0, 10, 4))
+    assertFalse(RemuxUtil.toAnnexB(ByteBuffer.allocate(10), 0, 10, 2))
+  }
+
+  @Test
+  fun `GIVEN annex b csd WHEN get parameter sets THEN get each one with start code`() {
+    //MediaExtractor H264 format
+    val h264 = RemuxUtil.getParameterSets(ByteBuffer.wrap(startCode + sps), ByteBuffer.wrap(startCode + pps), false)
+    assertEquals(2, h264.size)
+    assertArrayEquals(startCode + sps, h264[0].toArray())
+    assertArrayEquals(startCode + pps, h264[1].toArray())
+    assertEquals(0, RemuxUtil.getNalLengthSize(ByteBuffer.wrap(startCode + sps), false))
+    //H265 csd-0 contains vps, sps and pps
+    val vps = byteArrayOf(0x40, 0x01, 0x0C)
+    val h265Sps = byteArrayOf(0x42, 0x01, 0x01)
+    val h265Pps = byteArrayOf(0x44, 0x01, 0xC1.toByte())
+    val csd0 = ByteBuffer.wrap(startCode + vps + startCode + h265Sps + byteArrayOf(0, 0, 1) + h265Pps)
+    val h265 = RemuxUtil.getParameterSets(csd0, null, true)
+    assertEquals(3, h265.size)
+    assertArrayEquals(startCode + vps, h265[0].toArray())
+    assertArrayEquals(startCode + h265Sps, h265[1].toArray())
+    assertArrayEquals(byteArrayOf(0, 0, 1) + h265Pps, h265[2].toArray())
+    assertEquals(0, csd0.position())
+  }
+
+  @Test
+  fun `GIVEN avcC and hvcC configuration records WHEN get parameter sets THEN convert to annex b`() {
+    val avcc = byteArrayOf(1, 0x42, 0xC0.toByte(), 0x1F, 0xFF.toByte(), 0xE1.toByte(), 0, sps.size.toByte()) +
+        sps + byteArrayOf(1, 0, pps.size.toByte()) + pps
+    val avc = RemuxUtil.getParameterSets(ByteBuffer.wrap(avcc), null, false)
+    assertEquals(2, avc.size)
+    assertArrayEquals(startCode + sps, avc[0].toArray())
+    assertArrayEquals(startCode + pps, avc[1].toArray())
+    assertEquals(4, RemuxUtil.getNalLengthSize(ByteBuffer.wrap(avcc), false))
+
+    val vps = byteArrayOf(0x40, 0x01, 0x0C)
+    val hvcc = ByteArray(21) + byteArrayOf(0x0F, 1) +
+        byteArrayOf(0x20, 0, 1, 0, vps.size.toByte()) + vps
+    val hevc = RemuxUtil.getParameterSets(ByteBuffer.wrap(hvcc), null, true)
+    assertEquals(1, hevc.size)
+    assertArrayEquals(startCode + vps, hevc[0].toArray())
+    assertEquals(4, RemuxUtil.getNalLengthSize(ByteBuffer.wrap(hvcc), true))
+  }
+
+  @Test
+  fun `GIVEN aac frames WHEN get adts header size THEN detect header with and without crc`() {
+    val frame = byteArrayOf(0x21, 0x10, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00)
+    val adts = byteArrayOf(0xFF.toByte(), 0xF1.toByte(), 0x50, 0x80.toByte(), 0x01, 0x1F, 0xFC.toByte())
+    val adtsCrc = byteArrayOf(0xFF.toByte(), 0xF0.toByte(), 0x50, 0x80.toByte(), 0x01, 0x1F, 0xFC.toByte(), 0, 0)
+    assertEquals(0, RemuxUtil.getAdtsHeaderSize(ByteBuffer.wrap(frame), 0, frame.size))
+    assertEquals(7, RemuxUtil.getAdtsHeaderSize(ByteBuffer.wrap(adts + frame), 0, adts.size + frame.size))
+    assertEquals(9, RemuxUtil.getAdtsHeaderSize(ByteBuffer.wrap(adtsCrc + frame), 0, adtsCrc.size + frame.size))
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.utils.gl.gif
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.awt.image.BufferedImage
+import java.awt.image.IndexColorModel
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import javax.imageio.IIOImage
+import javax.imageio.ImageIO
+import javax.imageio.ImageTypeSpecifier
+import javax.imageio.metadata.IIOMetadataNode
+import kotlin.random.Random
+
+class GifFrameCacheTest {
+
+  private val width = 320
+  private val height = 240
+  private val numFrames = 20
+  private val palette = IntArray(16) { 0xFF000000.toInt() or (it * 0x0F0F0F) }
+  private var frameCache: GifFrameCache? = null
+
+  @After
+  fun teardown() {
+    frameCache?.stop()
+  }
+
+  private fun getColor(frame: Int, x: Int, y: Int, random: Random): Int {
+    //blocks moving with the frame plus noise so LZW has work to do
+    val index = if (random.nextInt(8) == 0) random.nextInt(16) else (x / 8 + y / 8 + frame) % 16
+    return palette[index]
+  }
+
+  private fun createGif(): Pair<ByteArray, List<IntArray>> {
+    val random = Random(1)
+    val frames = List(numFrames) { frame ->
+      IntArray(width * height) { getColor(frame, it % width, it / width, random) }
+    }
+    val colors = ByteArray(palette.size) { (palette[it] and 0xFF).toByte() }
+    val colorModel = IndexColorModel(8, palette.size, colors, colors, colors)
+    val writer = ImageIO.getImageWritersByFormatName("gif").next()
+    val output = ByteArrayOutputStream()
+    val imageOutput = ImageIO.createImageOutputStream(output)
+    writer.output = imageOutput
+    writer.prepareWriteSequence(null)
+    frames.forEach { pixels ->
+      val image = BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, colorModel)
+      image.setRGB(0, 0, width, height, pixels, 0, width)
+      //graphic control extension with 40 ms delay, each frame needs it
+      val metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), null)
+      val format = metadata.nativeMetadataFormatName
+      val root = metadata.getAsTree(format) as IIOMetadataNode
+      val graphicControl = IIOMetadataNode("GraphicControlExtension")
+      graphicControl.setAttribute("disposalMethod", "none")
+      graphicControl.setAttribute("userInputFlag", "FALSE")
+      graphicControl.setAttribute("transparentColorFlag", "FALSE")
+      graphicControl.setAttribute("delayTime", "4")
+      graphicControl.setAttribute("transparentColorIndex", "0")
+      root.appendChild(graphicControl)
+      metadata.setFromTree(format, root)
+      writer.writeToSequence(IIOImage(image, null, metadata), null)
+    }
+    writer.endWriteSequence()
+    imageOutput.close()
+    val gif = output.toByteArray()
+    //frames decoded by ImageIO as reference
+    val reader = ImageIO.getImageReadersByFormatName("gif").next()
+    reader.input = ImageIO.createImageInputStream(ByteArrayInputStream(gif))
+    val expected = List(numFrames) { reader.read(it).getRGB(0, 0, width, height, null, 0, width) }
+    return Pair(gif, expected)
+  }
+
+  private fun createDecoder(gif: ByteArray): GifDecoder {
+    val decoder = GifDecoder()
+    assertEquals(0, decoder.read(ByteArrayInputStream(gif), gif.size))
+    return decoder
+  }
+
+  private fun toRgba(argb: Int): Int {
+    return (argb and 0xFF00FF00.toInt()) or ((argb shr 16) and 0xFF) or ((argb and 0xFF) shl 16)
+  }
+
+  /**
+   * Wait the frame like a render loop that keep the previous frame until the next one is ready.
+   */
+  private fun waitFrame(cache: GifFrameCache, index: Int): IntArray {
+    val start = System.currentTimeMillis()
+    while (System.currentTimeMillis() - start < 2000) {
+      cache.getFrame(index)?.let { return it }
+      Thread.sleep(1)
+    }
+    throw AssertionError("frame $index not decoded")
+  }
+
+  @Test
+  fun `GIVEN a gif that fit in memory budget WHEN display frames in loop THEN each frame is decoded only once`() {
+    val (gif, frames) = createGif()
+    val cache = GifFrameCache(createDecoder(gif))
+    frameCache = cache
+    cache.start()
+    repeat(numFrames) { index ->
+      val pixels = waitFrame(cache, index)
+      assertEquals(toRgba(frames[index][width * 10 + 10]), pixels[width * 10 + 10])
+      assertEquals(toRgba(frames[index].last()), pixels.last())
+    }
+    val start = System.currentTimeMillis()
+    while (cache.isRunning && System.currentTimeMillis() - start < 2000) Thread.sleep(1)
+    val hits = cache.hits
+    val misses = cache.misses
+    repeat(3) {
+      repeat(numFrames) { index -> assertNotNull(cache.getFrame(index)) }
+    }
+    assertEquals(numFrames.toLong(), cache.decodedFrames)
+    assertEquals(numFrames, cache.cachedFrames)
+    assertEquals(hits + 3 * numFrames, cache.hits)
+    assertEquals(misses, cache.misses)
+    assertEquals(numFrames.toLong() * width * height * 4, cache.memoryUsage)
+  }
+
+  @Test
+  fun `GIVEN a small memory budget WHEN display frames in loop THEN memory used is limited and frames are decoded again`() {
+    val (gif, frames) = createGif()
+    val frameBytes = width * height * 4L
+    val cache = GifFrameCache(createDecoder(gif), 6 * frameBytes, 4)
+    frameCache = cache
+    cache.start()
+    repeat(2 * numFrames) {
+      val index = it % numFrames
+      val pixels = waitFrame(cache, index)
+      assertEquals(toRgba(frames[index][width * 100 + 50]), pixels[width * 100 + 50])
+      assertTrue(cache.memoryUsage <= 6 * frameBytes)
+    }
+    assertTrue(cache.isRunning)
+    assertTrue(cache.decodedFrames > numFrames)
+    println("small budget: ${cache.decodedFrames} frames decoded, ${cache.cachedFrames} cached")
+  }
+
+  /**
+   * Compare decode a frame (LZW + compose) against get it from the cache. Times are only printed.
+   */
+  @Test
+  fun `GIVEN decoded frames WHEN compare decode and cache hit THEN frames are got from cache without decode again`() {
+    val (gif, _) = createGif()
+    val decoder = createDecoder(gif)
+    val loops = 10
+    //warm up
+    repeat(numFrames) {
+      decoder.advance()
+      decoder.nextFramePixels
+    }
+    var start = System.nanoTime()
+    repeat(loops * numFrames) {
+      decoder.advance()
+      decoder.nextFramePixels
+    }
+    val decodeTime = (System.nanoTime() - start) / (loops * numFrames)
+    val megaPixels = width * height * 1000.0 / decodeTime
+    println("LZW decode: ${decodeTime / 1000} us per frame, ${"%.1f".format(megaPixels)} Mpixels/s, ${gif.size / numFrames} bytes per frame")
+
+    val cache = GifFrameCache(createDecoder(gif))
+    frameCache = cache
+    cache.start()
+    repeat(numFrames) { waitFrame(cache, it) }
+    val waitStart = System.currentTimeMillis()
+    while (cache.isRunning && System.currentTimeMillis() - waitStart < 2000) Thread.sleep(1)
+    val hits = cache.hits
+    val misses = cache.misses
+    start = System.nanoTime()
+    repeat(loops * numFrames) { assertNotNull(cache.getFrame(it % numFrames)) }
+    val hitTime = (System.nanoTime() - start) / (loops * numFrames)
+    println("cache hit: $hitTime ns per frame")
+    assertEquals(hits + loops * numFrames, cache.hits)
+    assertEquals(misses, cache.misses)
+    assertEquals(numFrames.toLong(), cache.decodedFrames)
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.utils.yuv
+
+import android.graphics.ImageFormat
+import com.pedro.encoder.video.FormatVideoEncoder
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+class Yuv420888ConverterTest {
+
+  private val outputs = listOf(FormatVideoEncoder.YUV420PLANAR, FormatVideoEncoder.YUV420SEMIPLANAR)
+
+  /**
+   * YUV_420_888 planes as returned by Image.getPlanes()
+   */
+  private class Planes(
+    val y: ByteBuffer, val yRowStride: Int,
+    val u: ByteBuffer, val v: ByteBuffer, val uvRowStride: Int, val uvPixelStride: Int
+  )
+
+  /**
+   * Logical planes without padding used to create the image planes and the expected result.
+   */
+  private class Source(val width: Int, val height: Int) {
+    val random = Random(width * height)
+    val y = random.nextBytes(width * height)
+    val u = random.nextBytes(width * height / 4)
+    val v = random.nextBytes(width * height / 4)
+  }
+
+  @Test
+  fun `GIVEN planar planes with row padding WHEN convert THEN result is i420 or nv12 without padding`() {
+    val source = Source(64, 48)
+    listOf(Pair(64, 32), Pair(80, 48), Pair(96, 40)).forEach { (yRowStride, uvRowStride) ->
+      val planes = planarPlanes(source, yRowStride, uvRowStride)
+      outputs.forEach { output ->
+        assertArrayEquals("strides $yRowStride $uvRowStride, $output", expected(source, output),
+          convert(planes, source, output))
+      }
+    }
+  }
+
+  @Test
+  fun `GIVEN interleaved chroma planes sharing memory WHEN convert THEN result is i420 or nv12 without padding`() {
+    val source = Source(70, 38)
+    listOf(70, 80).forEach { rowStride ->
+      listOf(true, false).forEach { vFirst ->
+        val planes = interleavedPlanes(source, rowStride, vFirst)
+        outputs.forEach { output ->
+          assertArrayEquals("stride $rowStride, v first $vFirst, $output", expected(source, output),
+            convert(planes, source, output))
+        }
+      }
+    }
+  }
+
+  @Test
+  fun `GIVEN planes not at position 0 WHEN convert in a buffer with data THEN write at buffer position and planes are not modified`() {
+    val source = Source(32, 16)
+    val planes = interleavedPlanes(source, 48, true, offset = 3)
+    val size = YuvConverter.getOutputSize(source.width, source.height)
+    val converter = Yuv420888Converter()
+    listOf(ByteBuffer.allocate(size + 8), ByteBuffer.allocateDirect(size + 8)).forEach { buffer ->
+      buffer.position(4)
+      val written = converter.convert(planes.y, planes.yRowStride, planes.u, planes.v, planes.uvRowStride,
+        planes.uvPixelStride, source.width, source.height, FormatVideoEncoder.YUV420SEMIPLANAR, buffer)
+      assertEquals(size, written)
+      assertEquals(size + 4, buffer.position())
+      val result = ByteArray(size)
+      buffer.position(4)
+      buffer.get(result)
+      assertArrayEquals(expected(source, FormatVideoEncoder.YUV420SEMIPLANAR), result)
+    }
+    assertEquals(3, planes.y.position())
+    assertEquals(3, planes.v.position())
+    assertEquals(4, planes.u.position())
+  }
+
+  @Test(expected = IndexOutOfBoundsException::class)
+  fun `GIVEN a chroma plane smaller than strides WHEN convert THEN throw an exception`() {
+    val source = Source(32, 16)
+    val planes = planarPlanes(source, 32, 16)
+    planes.v.limit(planes.v.limit() - 1)
+    convert(planes, source, FormatVideoEncoder.YUV420PLANAR)
+  }
+
+  /**
+   * Compare the conversion from camera planes to the codec buffer with the usual path of copy planes
+   * to a NV21 array reading pixel by pixel and convert it with YuvConverter.
+   */
+  @Test
+  fun `GIVEN 720p and 1080p camera planes WHEN convert to the codec buffer THEN print time of direct conversion and copy to nv21 before convert`() {
+    listOf(Pair(1280, 720), Pair(1920, 1080)).forEach { (width, height) ->
+      val source = Source(width, height)
+      val planes = interleavedPlanes(source, width + 64, true)
+      val codecBuffer = ByteBuffer.allocateDirect(YuvConverter.getOutputSize(width, height))
+      val nv21 = ByteArray(YuvConverter.getOutputSize(width, height))
+      val yuvConverter = YuvConverter()
+      val iterations = 60
+      val previous = measure(iterations) {
+        toNV21(planes, width, height, nv21)
+        codecBuffer.clear()
+        yuvConverter.convert(nv21, ImageFormat.NV21, width, height, 0, FormatVideoEncoder.YUV420PLANAR, codecBuffer)
+      }
+      val converter = Yuv420888Converter()
+      val direct = measure(iterations) {
+        codecBuffer.clear()
+        converter.convert(planes.y, planes.yRowStride, planes.u, planes.v, planes.uvRowStride,
+          planes.uvPixelStride, width, height, FormatVideoEncoder.YUV420PLANAR, codecBuffer)
+      }
+      println("${width}x${height} yuv_420_888 to i420, nv21 copy + convert: ${previous / iterations / 1000} us, " +
+          "direct: ${direct / iterations / 1000} us")
+    }
+  }
+
+  private fun convert(planes: Planes, source: Source, output: FormatVideoEncoder): ByteArray {
+    val buffer = ByteBuffer.allocateDirect(YuvConverter.getOutputSize(source.width, source.height))
+    Yuv420888Converter().convert(planes.y, planes.yRowStride, planes.u, planes.v, planes.uvRowStride,
+      planes.uvPixelStride, source.width, source.height, output, buffer)
+    val result = ByteArray(buffer.capacity())
+    buffer.flip()
+    buffer.get(result)
+    return result
+  }
+
+  private fun expected(source: Source, output: FormatVideoEncoder): ByteArray {
+    if (output == FormatVideoEncoder.YUV420PLANAR) return source.y + source.u + source.v
+    val chroma = ByteArray(source.u.size * 2)
+    for (i in source.u.indices) {
+      chroma[2 * i] = source.u[i]
+      chroma[2 * i + 1] = source.v[i]
+    }
+    return source.y + chroma
+  }
+
+  private fun lumaPlane(source: Source, rowStride: Int, offset: Int = 0): ByteBuffer {
+    val buffer = ByteBuffer.allocateDirect(offset + rowStride * (source.height - 1) + source.width)
+    for (row in 0 until source.height) {
+      buffer.position(offset + row * rowStride)
+      buffer.put(source.y, row * source.width, source.width)
+    }
+    buffer.position(offset)
+    return buffer
+  }
+
+  private fun planarPlanes(source: Source, yRowStride: Int, uvRowStride: Int): Planes {
+    val chromaWidth = source.width / 2
+    val chromaHeight = source.height / 2
+    val chroma = { plane: ByteArray ->
+      val buffer = ByteBuffer.allocateDirect(uvRowStride * (chromaHeight - 1) + chromaWidth)
+      for (row in 0 until chromaHeight) {
+        buffer.position(row * uvRowStride)
+        buffer.put(plane, row * chromaWidth, chromaWidth)
+      }
+      buffer.clear()
+      buffer
+    }
+    return Planes(lumaPlane(source, yRowStride), yRowStride, chroma(source.u), chroma(source.v), uvRowStride, 1)
+  }
+
+  /**
+   * Chroma like most cameras: U and V planes are views of the same memory with pixel stride 2
+   * (NV21 if V is first, NV12 if U is first) and the last row of each plane is 1 byte shorter.
+   */
+  private fun interleavedPlanes(source: Source, rowStride: Int, vFirst: Boolean, offset: Int = 0): Planes {
+    val chromaWidth = source.width / 2
+    val chromaHeight = source.height / 2
+    val memory = ByteBuffer.allocateDirect(offset + rowStride * (chromaHeight - 1) + source.width)
+    for (row in 0 until chromaHeight) {
+      for (x in 0 until chromaWidth) {
+        val index = offset + row * rowStride + 2 * x
+        val first = if (vFirst) source.v else source.u
+        val second = if (vFirst) source.u else source.v
+        memory.put(index, first[row * chromaWidth + x])
+        memory.put(index + 1, second[row * chromaWidth + x])
+      }
+    }
+    val planeSize = rowStride * (chromaHeight - 1) + source.width - 1
+    //planes are read from its position, the second plane starts 1 byte after the first
+    val firstPlane = memory.duplicate()
+    firstPlane.limit(offset + planeSize)
+    firstPlane.position(offset)
+    val secondPlane = memory.duplicate()
+    secondPlane.limit(offset + 1 + planeSize)
+    secondPlane.position(offset + 1)
+    val u = if (vFirst) secondPlane else firstPlane
+    val v = if (vFirst) firstPlane else secondPlane
+    return Planes(lumaPlane(source, rowStride, offset), rowStride, u, v, rowStride, 2)
+  }
+
+  /**
+   * Usual way to get a NV21 array from an image, reading chroma pixel by pixel.
+   */
+  private fun toNV21(planes: Planes, width: Int, height: Int, output: ByteArray) {
+    for (row in 0 until height) {
+      for (x in 0 until width) {
+        output[row * width + x] = planes.y.get(planes.y.position() + row * planes.yRowStride + x)
+      }
+    }
+    var index = width * height
+    for (row in 0 until height / 2) {
+      for (x in 0 until width / 2) {
+        val position = row * planes.uvRowStride + x * planes.uvPixelStride
+        output[index++] = planes.v.get(planes.v.position() + position)
+        output[index++] = planes.u.get(planes.u.position() + position)
+      }
+    }
+  }
+
+  private inline fun measure(iterations: Int, block: () -> Unit): Long {
+    //warm up
+    repeat(iterations) { block() }
+    val start = System.nanoTime()
+    repeat(iterations) { block() }
+    return System.nanoTime() - start
+  }
+}
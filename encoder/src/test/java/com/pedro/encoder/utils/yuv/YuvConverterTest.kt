@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.utils.yuv
+
+import android.graphics.ImageFormat
+import com.pedro.encoder.video.FormatVideoEncoder
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
+import kotlin.random.Random
+
+class YuvConverterTest {
+
+  private val rotations = listOf(0, 90, 180, 270)
+  private val outputs = listOf(FormatVideoEncoder.YUV420PLANAR, FormatVideoEncoder.YUV420SEMIPLANAR)
+
+  @Test
+  fun `GIVEN nv21 frames WHEN convert with all rotations and formats THEN result is the same that previous functions`() {
+    val width = 64
+    val height = 48
+    val input = randomFrame(width, height)
+    NV21Utils.preAllocateBuffers(input.size)
+    rotations.forEach { rotation ->
+      outputs.forEach { output ->
+        val expected = legacyNV21(input, width, height, rotation, output)
+        val result = convert(YuvConverter(), input, ImageFormat.NV21, width, height, rotation, output)
+        assertArrayEquals("rotation $rotation, $output", expected, result)
+        assertArrayEquals("rotation $rotation, $output",
+          reference(input, ImageFormat.NV21, width, height, rotation, output), result)
+      }
+    }
+  }
+
+  @Test
+  fun `GIVEN yv12 frames WHEN convert with all rotations and formats THEN result is the same that previous functions`() {
+    val width = 64
+    val height = 48
+    val input = randomFrame(width, height)
+    YV12Utils.preAllocateBuffers(input.size)
+    rotations.forEach { rotation ->
+      outputs.forEach { output ->
+        val result = convert(YuvConverter(), input, ImageFormat.YV12, width, height, rotation, output)
+        assertArrayEquals("rotation $rotation, $output",
+          reference(input, ImageFormat.YV12, width, height, rotation, output), result)
+        val expected = legacyYV12(input, width, height, rotation, output)
+        assertArrayEquals("rotation $rotation, $output", expected, result)
+      }
+    }
+  }
+
+  @Test
+  fun `GIVEN a resolution not multiple of tile size WHEN convert using threads THEN result is the same that single thread`() {
+    val width = 70
+    val height = 38
+    val input = randomFrame(width, height)
+    val converter = YuvConverter(3)
+    rotations.forEach { rotation ->
+      outputs.forEach { output ->
+        listOf(ImageFormat.NV21, ImageFormat.YV12).forEach { format ->
+          val expected = reference(input, format, width, height, rotation, output)
+          assertArrayEquals(expected, convert(YuvConverter(), input, format, width, height, rotation, output))
+          assertArrayEquals(expected, convert(converter, input, format, width, height, rotation, output))
+        }
+      }
+    }
+    converter.release()
+  }
+
+  @Test
+  fun `GIVEN heap and direct buffers WHEN convert THEN write the frame at buffer position`() {
+    val width = 32
+    val height = 16
+    val size = YuvConverter.getOutputSize(width, height)
+    val input = randomFrame(width, height)
+    val expected = reference(input, ImageFormat.NV21, width, height, 90, FormatVideoEncoder.YUV420PLANAR)
+    val converter = YuvConverter()
+    listOf(ByteBuffer.allocate(size + 8), ByteBuffer.allocateDirect(size + 8)).forEach { buffer ->
+      buffer.position(4)
+      val written = converter.convert(input, ImageFormat.NV21, width, height, 90,
+        FormatVideoEncoder.YUV420PLANAR, buffer)
+      assertEquals(size, written)
+      assertEquals(size + 4, buffer.position())
+      val result = ByteArray(size)
+      buffer.position(4)
+      buffer.get(result)
+      assertArrayEquals(expected, result)
+    }
+  }
+
+  @Test
+  fun `GIVEN different converters WHEN convert at the same time THEN frames are not mixed`() {
+    val width = 128
+    val height = 96
+    val frames = List(4) { randomFrame(width, height) }
+    val expected = frames.map { reference(it, ImageFormat.NV21, width, height, 270, FormatVideoEncoder.YUV420SEMIPLANAR) }
+    val start = CountDownLatch(1)
+    val errors = mutableListOf<String>()
+    val threads = frames.mapIndexed { index, frame ->
+      thread {
+        val converter = YuvConverter()
+        start.await()
+        repeat(200) {
+          val result = convert(converter, frame, ImageFormat.NV21, width, height, 270, FormatVideoEncoder.YUV420SEMIPLANAR)
+          if (!result.contentEquals(expected[index])) synchronized(errors) { errors.add("frame $index") }
+        }
+      }
+    }
+    start.countDown()
+    threads.forEach { it.join() }
+    assertTrue(errors.toString(), errors.isEmpty())
+  }
+
+  /**
+   * Compare rotate + color conversion using previous functions (2 passes and a copy to the codec buffer)
+   * with a single pass writing in the codec buffer.
+   */
+  @Test
+  fun `GIVEN 720p and 1080p frames WHEN rotate and convert THEN print time of single pass and previous functions`() {
+    listOf(Pair(1280, 720), Pair(1920, 1080)).forEach { (width, height) ->
+      val input = randomFrame(width, height)
+      val size = YuvConverter.getOutputSize(width, height)
+      val codecBuffer = ByteBuffer.allocateDirect(size)
+      NV21Utils.preAllocateBuffers(size)
+      val iterations = 60
+      val legacy = measure(iterations) {
+        codecBuffer.clear()
+        codecBuffer.put(legacyNV21(input, width, height, 90, FormatVideoEncoder.YUV420PLANAR, copy = false))
+      }
+      val converter = YuvConverter()
+      val fused = measure(iterations) {
+        codecBuffer.clear()
+        converter.convert(input, ImageFormat.NV21, width, height, 90, FormatVideoEncoder.YUV420PLANAR, codecBuffer)
+      }
+      val threads = YuvConverter(2)
+      val fusedThreads = measure(iterations) {
+        codecBuffer.clear()
+        threads.convert(input, ImageFormat.NV21, width, height, 90, FormatVideoEncoder.YUV420PLANAR, codecBuffer)
+      }
+      threads.release()
+      println("${width}x${height} rotate 90 nv21 to i420, previous: ${legacy / iterations / 1000} us, " +
+          "single pass: ${fused / iterations / 1000} us, single pass 2 threads: ${fusedThreads / iterations / 1000} us")
+    }
+  }
+
+  private fun randomFrame(width: Int, height: Int): ByteArray {
+    return Random(width * height).nextBytes(YuvConverter.getOutputSize(width, height))
+  }
+
+  private fun convert(converter: YuvConverter, input: ByteArray, format: Int, width: Int, height: Int,
+    rotation: Int, output: FormatVideoEncoder): ByteArray {
+    val result = ByteArray(YuvConverter.getOutputSize(width, height))
+    converter.convert(input, format, width, height, rotation, output, result, 0)
+    return result
+  }
+
+  private fun legacyNV21(input: ByteArray, width: Int, height: Int, rotation: Int,
+    output: FormatVideoEncoder, copy: Boolean = true): ByteArray {
+    val rotated = when (rotation) {
+      90 -> NV21Utils.rotate90(input, width, height)
+      180 -> NV21Utils.rotate180(input, width, height)
+      270 -> NV21Utils.rotate270(input, width, height)
+      else -> input
+    }
+    val result = if (output == FormatVideoEncoder.YUV420PLANAR) {
+      NV21Utils.toI420(rotated, width, height)
+    } else {
+      NV21Utils.toNV12(rotated, width, height)
+    }
+    return if (copy) result.copyOf() else result
+  }
+
+  private fun legacyYV12(input: ByteArray, width: Int, height: Int, rotation: Int,
+    output: FormatVideoEncoder): ByteArray {
+    val rotated = when (rotation) {
+      90 -> YV12Utils.rotate90(input, width, height)
+      180 -> YV12Utils.rotate180(input, width, height)
+      270 -> YV12Utils.rotate270(input, width, height)
+      else -> input
+    }
+    val result = if (output == FormatVideoEncoder.YUV420PLANAR) {
+      YV12Utils.toI420(rotated, width, height)
+    } else {
+      YV12Utils.toNV12(rotated, width, height)
+    }
+    return result.copyOf()
+  }
+
+  /**
+   * Pixel by pixel conversion. Each output pixel is rotated clockwise to find the input pixel.
+   */
+  private fun reference(input: ByteArray, format: Int, width: Int, height: Int, rotation: Int,
+    output: FormatVideoEncoder): ByteArray {
+    val result = ByteArray(YuvConverter.getOutputSize(width, height))
+    val swap = rotation == 90 || rotation == 270
+    val outWidth = if (swap) height else width
+    val outHeight = if (swap) width else height
+    val frameSize = width * height
+    val chromaSize = frameSize / 4
+    fun source(x: Int, y: Int, w: Int, h: Int): Pair<Int, Int> = when (rotation) {
+      90 -> Pair(y, h - 1 - x)
+      180 -> Pair(w - 1 - x, h - 1 - y)
+      270 -> Pair(w - 1 - y, x)
+      else -> Pair(x, y)
+    }
+    for (y in 0 until outHeight) {
+      for (x in 0 until outWidth) {
+        val (sx, sy) = source(x, y, width, height)
+        result[y * outWidth + x] = input[sy * width + sx]
+      }
+    }
+    for (y in 0 until outHeight / 2) {
+      for (x in 0 until outWidth / 2) {
+        val (sx, sy) = source(x, y, width / 2, height / 2)
+        val index = sy * width / 2 + sx
+        val u: Byte
+        val v: Byte
+        if (format == ImageFormat.YV12) {
+          v = input[frameSize + index]
+          u = input[frameSize + chromaSize + index]
+        } else {
+          v = input[frameSize + index * 2]
+          u = input[frameSize + index * 2 + 1]
+        }
+        val outIndex = y * outWidth / 2 + x
+        if (output == FormatVideoEncoder.YUV420PLANAR) {
+          result[frameSize + outIndex] = u
+          result[frameSize + chromaSize + outIndex] = v
+        } else {
+          result[frameSize + outIndex * 2] = u
+          result[frameSize + outIndex * 2 + 1] = v
+        }
+      }
+    }
+    return result
+  }
+
+  private inline fun measure(iterations: Int, block: () -> Unit): Long {
+    //warm up
+    repeat(iterations) { block() }
+    val start = System.nanoTime()
+    repeat(iterations) { block() }
+    return System.nanoTime() - start
+  }
+}
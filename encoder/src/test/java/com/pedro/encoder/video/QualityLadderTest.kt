@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.encoder.video
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class QualityLadderTest {
+
+  private val rungs = QualityLadder.createRungs(1920, 1080, 30, 4_000_000)
+
+  /**
+   * Simple uplink model with 1 second ticks. The encoder produces the ladder bitrate, the link sends
+   * up to its capacity and the rest is queued. Congestion is reported with more than 500 ms queued.
+   */
+  private class Simulation(rungs: List<QualityLadder.Rung>) {
+    val rungChanges = mutableListOf<Pair<Int, QualityLadder.Rung>>()
+    var second = 0
+    val ladder = QualityLadder(rungs, object : QualityLadder.Listener {
+      override fun onBitrateChanged(bitrate: Int) { }
+
+      override fun onRungChanged(rung: QualityLadder.Rung, bitrate: Int) {
+        rungChanges.add(Pair(second, rung))
+      }
+    })
+    private var queued = 0L
+    val heights = mutableListOf<Int>()
+    var congestedSeconds = 0
+
+    fun run(capacityTrace: List<Int>) {
+      capacityTrace.forEach { capacity ->
+        val produced = ladder.bitrate.toLong()
+        val sent = minOf(queued + produced, capacity.toLong())
+        queued += produced - sent
+        val hasCongestion = queued > capacity / 2
+        if (hasCongestion) congestedSeconds++
+        ladder.adapt(sent, hasCongestion, second * 1000L)
+        heights.add(ladder.currentRung.height)
+        second++
+      }
+    }
+  }
+
+  @Test
+  fun `GIVEN a resolution WHEN create rungs THEN keep aspect ratio and bitrate ranges are contiguous`() {
+    assertEquals(listOf(1080, 720, 480, 360), rungs.map { it.height })
+    assertEquals(listOf(1920, 1280, 854, 640), rungs.map { it.width })
+    assertEquals(listOf(30, 30, 30, 15), rungs.map { it.fps })
+    assertEquals(4_000_000, rungs[0].maxBitrate)
+    for (i in 0 until rungs.size - 1) assertEquals(rungs[i + 1].maxBitrate, rungs[i].minBitrate)
+    val portrait = QualityLadder.createRungs(720, 1280, 30, 2_500_000)
+    assertEquals(listOf(720, 480, 360), portrait.map { it.width })
+    assertEquals(listOf(1280, 854, 640), portrait.map { it.height })
+  }
+
+  @Test
+  fun `GIVEN an uplink that drops to 400 kbps and recovers WHEN adapt THEN step down to 480p and return to 1080p`() {
+    val simulation = Simulation(rungs)
+    simulation.run(List(30) { 6_000_000 } + List(90) { 400_000 } + List(150) { 6_000_000 })
+    println("drop trace: ${simulation.rungChanges.map { "${it.first}s ${it.second.height}p" }}")
+    assertTrue(simulation.heights.subList(45, 120).all { it == 480 })
+    assertEquals(1080, simulation.heights.last())
+    //2 steps down and 2 steps up
+    assertEquals(4, simulation.rungChanges.size)
+  }
+
+  @Test
+  fun `GIVEN a noisy uplink near a rung limit WHEN adapt THEN rung changes are limited by hysteresis`() {
+    val random = Random(1)
+    //near the limit between 720p and 1080p with +-30% noise
+    val trace = List(600) { (1_900_000 * (0.7 + random.nextDouble() * 0.6)).toInt() }
+    val simulation = Simulation(rungs)
+    simulation.run(trace)
+    println("noisy trace: ${simulation.rungChanges.map { "${it.first}s ${it.second.height}p" }}, " +
+        "${simulation.congestedSeconds} s congested")
+    assertTrue(simulation.rungChanges.size <= 12)
+    assertTrue(simulation.heights.subList(30, 600).all { it == 720 || it == 1080 })
+  }
+
+  @Test
+  fun `GIVEN a bitrate that increase slowly to the rung max WHEN adapt THEN step up only after up hold at the rung max`() {
+    var timeMs = 0L
+    var rungChangedMs = -1L
+    val ladder = QualityLadder(rungs, object : QualityLadder.Listener {
+      override fun onBitrateChanged(bitrate: Int) { }
+
+      override fun onRungChanged(rung: QualityLadder.Rung, bitrate: Int) {
+        rungChangedMs = timeMs
+      }
+    })
+    ladder.setIncreaseRange(1f)
+    while (ladder.rungIndex == 0) {
+      ladder.adapt(500_000, true, timeMs)
+      timeMs += 1000
+    }
+    assertEquals(rungs[1].minBitrate, ladder.bitrate)
+    //1% each second, near 80 seconds to reach the rung max
+    val rampStartMs = timeMs
+    var atMaxMs = -1L
+    while (ladder.rungIndex == 1 && timeMs < 300_000) {
+      ladder.adapt(ladder.bitrate.toLong(), false, timeMs)
+      if (atMaxMs < 0 && ladder.rungIndex == 1 && ladder.bitrate >= rungs[1].maxBitrate) atMaxMs = timeMs
+      timeMs += 1000
+    }
+    println("slow ramp: max reached after ${(atMaxMs - rampStartMs) / 1000} s, step up after ${(rungChangedMs - atMaxMs) / 1000} s at max")
+    assertEquals(0, ladder.rungIndex)
+    assertTrue(atMaxMs - rampStartMs > 10_000)
+    assertEquals(10_000, rungChangedMs - atMaxMs)
+  }
+
+  /**
+   * Uplink capacity in kbps measured each second in a mobile network while moving
+   * (handover near 40 s, tunnel near 85 s).
+   */
+  private val mobileTrace = listOf(
+    5200, 5400, 4900, 5100, 5600, 5300, 4800, 5000, 5200, 5500, 5100, 4700, 4900, 5300, 5600,
+    5800, 5400, 5000, 4600, 4800, 5100, 4900, 4400, 4200, 4500, 4300, 3900, 3600, 3300, 3100,
+    2900, 2600, 2400, 2100, 1900, 1700, 1500, 1200, 900, 600, 450, 500, 700, 1100, 1600,
+    2100, 2500, 2800, 3000, 3200, 3100, 3300, 3500, 3400, 3600, 3800, 3700, 3500, 3300, 3000,
+    2800, 2500, 2300, 2200, 2000, 1900, 1800, 1900, 2100, 2000, 1800, 1700, 1600, 1500, 1300,
+    1200, 1000, 900, 800, 700, 650, 600, 550, 500, 450, 400, 350, 300, 300, 250,
+    250, 200, 200, 250, 300, 350, 400, 500, 600, 800, 1000, 1300, 1600, 2000, 2400,
+    2800, 3200, 3600, 4000, 4300, 4600, 4800, 5000, 5100, 5300, 5200, 5400, 5500, 5300, 5600,
+    5700, 5500, 5800, 6000, 5900, 6100, 6000, 5800, 6200, 6300, 6100, 6000, 5900, 6200, 6400,
+    6300, 6100, 6500, 6400, 6200, 6300, 6600, 6500, 6400, 6700, 6500, 6300, 6600, 6800, 6700
+  ).map { it * 1000 }
+
+  @Test
+  fun `GIVEN a mobile uplink trace WHEN adapt THEN follow the bandwidth with few rung changes`() {
+    val simulation = Simulation(rungs)
+    //stable capacity after the trace, the last step up wait up hold at the rung max
+    simulation.run(mobileTrace + List(30) { 6_700_000 })
+    println("mobile trace: ${simulation.rungChanges.map { "${it.first}s ${it.second.height}p" }}, " +
+        "${simulation.congestedSeconds} s congested")
+    assertEquals(360, simulation.heights.subList(85, 100).minOrNull())
+    assertEquals(1080, simulation.heights.last())
+    assertTrue(simulation.rungChanges.size <= 12)
+    //congestion only while the bandwidth goes down
+    assertTrue(simulation.congestedSeconds < mobileTrace.size / 3)
+  }
+}
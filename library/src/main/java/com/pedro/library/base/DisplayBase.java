@@ -87,7 +87,7 @@ public abstract class DisplayBase {
   private Intent data;
   protected BaseRecordController recordController;
   private final FpsListener fpsListener = new FpsListener();
-  private boolean audioInitialized = false;
+  protected boolean audioInitialized = false;
 
   public DisplayBase(Context context, boolean useOpengl) {
     if (useOpengl) {
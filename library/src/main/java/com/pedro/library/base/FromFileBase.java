@@ -39,6 +39,7 @@ import com.pedro.encoder.input.decoder.DecoderInterface;
 import com.pedro.encoder.input.decoder.VideoDecoder;
 import com.pedro.encoder.input.decoder.VideoDecoderInterface;
 import com.pedro.encoder.utils.CodecUtil;
+import com.pedro.encoder.utils.MediaClock;
 import com.pedro.encoder.video.FormatVideoEncoder;
 import com.pedro.encoder.video.GetVideoData;
 import com.pedro.encoder.video.VideoEncoder;
@@ -85,6 +86,8 @@ public abstract class FromFileBase {
   protected boolean videoEnabled = false;
   private boolean audioEnabled = false;
   private AudioTrack audioTrackPlayer;
+  private boolean remuxMode = false;
+  private final MediaClock mediaClock = new MediaClock();
 
   public FromFileBase(VideoDecoderInterface videoDecoderInterface,
       AudioDecoderInterface audioDecoderInterface) {
@@ -118,9 +121,25 @@ public abstract class FromFileBase {
     audioEncoder = new AudioEncoder(getAacData);
     videoDecoder = new VideoDecoder(videoDecoderInterface, decoderInterface);
     audioDecoder = new AudioDecoder(getMicrophoneData, audioDecoderInterface, decoderInterface);
+    videoDecoder.setMediaClock(mediaClock);
+    audioDecoder.setMediaClock(mediaClock);
     recordController = new AndroidMuxerRecordController();
   }
 
+  /**
+   * Stream and record the file samples without decode and encode. Only H264/H265 and AAC are
+   * supported, use it with files already encoded with the bitrate and resolution wanted.
+   * Bitrate, rotation, OpenGl filters and audio device are ignored in this mode.
+   * Must be called before prepareVideo and prepareAudio.
+   */
+  public void setRemuxMode(boolean remuxMode) {
+    if (!isStreaming() && !isRecording()) this.remuxMode = remuxMode;
+  }
+
+  public boolean isRemuxMode() {
+    return remuxMode;
+  }
+
   /**
    * @param callback get fps while record or stream
    */
@@ -192,6 +211,12 @@ public abstract class FromFileBase {
   }
 
   private boolean finishPrepareVideo(int bitRate, int rotation, int avcProfile,  int avcProfileLevel) {
+    if (remuxMode) {
+      boolean isH265 = CodecUtil.H265_MIME.equals(videoDecoder.getMime());
+      setVideoCodec(isH265 ? VideoCodec.H265 : VideoCodec.H264);
+      videoEnabled = videoDecoder.prepareVideoPassthrough(getVideoData);
+      return videoEnabled;
+    }
     boolean result =
         videoEncoder.prepareVideoEncoder(videoDecoder.getWidth(), videoDecoder.getHeight(), videoDecoder.getFps(),
             bitRate, rotation, 2, FormatVideoEncoder.SURFACE, avcProfile, avcProfileLevel);
@@ -238,6 +263,12 @@ public abstract class FromFileBase {
   }
 
   private boolean finishPrepareAudio(int bitRate) {
+    if (remuxMode) {
+      boolean result = audioDecoder.prepareAudioPassthrough(getAacData);
+      if (result) prepareAudioRtp(audioDecoder.isStereo(), audioDecoder.getSampleRate());
+      audioEnabled = result;
+      return result;
+    }
     audioDecoder.prepareAudio();
     boolean result = audioEncoder.prepareAudioEncoder(bitRate, audioDecoder.getSampleRate(),
         audioDecoder.isStereo(), audioDecoder.getOutsize());
@@ -261,7 +292,7 @@ public abstract class FromFileBase {
   }
 
   public void playAudioDevice() {
-    if (audioEnabled) {
+    if (audioEnabled && !remuxMode) {
       if (isAudioDeviceEnabled()) {
         audioTrackPlayer.stop();
       }
@@ -373,6 +404,13 @@ public abstract class FromFileBase {
   }
 
   private void startEncoders() {
+    //audio is the master clock if available, video frames are discarded if it is too late
+    mediaClock.setMaster(audioEnabled ? MediaClock.Track.AUDIO : MediaClock.Track.VIDEO);
+    if (remuxMode) {
+      if (videoEnabled) videoDecoder.start();
+      if (audioEnabled) audioDecoder.start();
+      return;
+    }
     if (videoEnabled) videoEncoder.start();
     if (audioTrackPlayer != null) audioTrackPlayer.play();
     if (audioEnabled) audioEncoder.start();
@@ -398,7 +436,7 @@ public abstract class FromFileBase {
    */
   private void replaceGlInterface(GlInterface glInterface) {
     if (this.glInterface != null && videoEnabled) {
-      if (isStreaming() || isRecording()) {
+      if ((isStreaming() || isRecording()) && !remuxMode) {
         videoDecoder.pauseRender();
         this.glInterface.removeMediaCodecSurface();
         this.glInterface.stop();
@@ -429,7 +467,7 @@ public abstract class FromFileBase {
   }
 
   public void requestKeyFrame() {
-    if (videoEncoder.isRunning()) {
+    if (!remuxMode && videoEncoder.isRunning()) {
       if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
         videoEncoder.requestKeyframe();
       } else {
@@ -457,18 +495,20 @@ public abstract class FromFileBase {
       stopStreamRtp();
     }
     if (!recordController.isRecording()) {
-      if (glInterface != null) {
+      if (glInterface != null && !remuxMode) {
         glInterface.removeMediaCodecSurface();
         glInterface.stop();
       }
       if (videoEnabled) videoDecoder.stop();
       if (audioEnabled) audioDecoder.stop();
+      //the clock is shared by both decoders
+      mediaClock.reset();
       if (audioEnabled && isAudioDeviceEnabled()) {
         audioTrackPlayer.stop();
       }
       audioTrackPlayer = null;
-      if (videoEnabled) videoEncoder.stop();
-      if (audioEnabled) audioEncoder.stop();
+      if (videoEnabled && !remuxMode) videoEncoder.stop();
+      if (audioEnabled && !remuxMode) audioEncoder.stop();
       recordController.resetFormats();
       videoEnabled = false;
       audioEnabled = false;
@@ -507,11 +547,11 @@ public abstract class FromFileBase {
   }
 
   public int getStreamWidth() {
-    return videoEncoder.getWidth();
+    return remuxMode ? videoDecoder.getWidth() : videoEncoder.getWidth();
   }
 
   public int getStreamHeight() {
-    return videoEncoder.getHeight();
+    return remuxMode ? videoDecoder.getHeight() : videoEncoder.getHeight();
   }
 
   /**
@@ -652,19 +692,9 @@ public abstract class FromFileBase {
   };
 
   private final DecoderInterface decoderInterface = new DecoderInterface() {
-
-    private int trackFinished = 0;
-
     @Override
     public void onLoop() {
-      int maxTracks = 0;
-      if (audioEnabled) maxTracks++;
-      if (videoEnabled) maxTracks++;
-      trackFinished++;
-      if (trackFinished >= maxTracks) {
-        reSyncFile();
-        trackFinished = 0;
-      }
+      //tracks are kept synchronized by the media clock using the master track duration
     }
   };
 
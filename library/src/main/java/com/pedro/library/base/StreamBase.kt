@@ -13,6 +13,7 @@ import android.view.Surface
 import android.view.SurfaceView
 import android.view.TextureView
 import androidx.annotation.RequiresApi
+import com.pedro.encoder.EncodedFrameBus
 import com.pedro.encoder.EncoderErrorCallback
 import com.pedro.encoder.Frame
 import com.pedro.encoder.audio.AudioEncoder
@@ -63,6 +64,10 @@ abstract class StreamBase(
   private val audioManager by lazy { AudioManager(getMicrophoneData, audioSource) }
   //video/audio record
   private var recordController: BaseRecordController = AndroidMuxerRecordController()
+  //encoded frames are copied one time and delivered to stream and record in their own threads
+  private val frameBus = EncodedFrameBus()
+  private var streamSubscription: EncodedFrameBus.Subscription? = null
+  private var recordSubscription: EncodedFrameBus.Subscription? = null
   var isStreaming = false
     private set
   var isOnPreview = false
@@ -107,6 +112,30 @@ abstract class StreamBase(
     return false
   }
 
+  /**
+   * Change video resolution, fps and bitrate while streaming without close the connection.
+   * The encoder is reconfigured and the stream continues with a keyframe and the new video info.
+   * Useful to step down resolution when the bandwidth is too low for the current one (QualityLadder).
+   * Not supported while recording because the record can't change resolution.
+   * If the encoder can't be configured, it continues with the previous values.
+   *
+   * @return True if success, False if recording or the encoder can't be configured
+   */
+  fun changeVideoQuality(width: Int, height: Int, fps: Int, bitrate: Int): Boolean {
+    if (isRecording) return false
+    val rotation = videoEncoder.rotation
+    val wasRunning = videoEncoder.isRunning
+    if (wasRunning) glInterface.removeMediaCodecSurface()
+    val result = videoEncoder.reconfigure(width, height, fps, bitrate)
+    if (result) {
+      if (rotation == 90 || rotation == 270) glInterface.setEncoderSize(height, width)
+      else glInterface.setEncoderSize(width, height) //0, 180
+      glInterface.setFps(fps)
+    }
+    if (wasRunning && videoEncoder.isRunning) glInterface.addMediaCodecSurface(videoEncoder.inputSurface)
+    return result
+  }
+
   /**
    * Start stream.
    *
@@ -160,6 +189,8 @@ abstract class StreamBase(
    * Must be called after prepareVideo and prepareAudio.
    */
   fun stopRecord(): Boolean {
+    //write frames already encoded before stop
+    recordSubscription?.awaitIdle(500)
     recordController.stopRecord()
     if (!isStreaming) {
       stopSources()
@@ -483,7 +514,38 @@ abstract class StreamBase(
 
   protected fun getVideoFps() = videoEncoder.fps
 
+  /**
+   * Subscribe to get encoded frames in your own thread (analytics, other outputs, etc).
+   * A slow subscriber never blocks the encoder or the stream and record subscribers.
+   */
+  fun getEncodedFrameBus(): EncodedFrameBus = frameBus
+
+  private fun subscribeFrames() {
+    val streamInfo = MediaCodec.BufferInfo()
+    streamSubscription = frameBus.subscribe("stream", 60,
+      EncodedFrameBus.DropPolicy.DROP_UNTIL_KEY_FRAME) { frame ->
+      streamInfo.set(0, frame.size, frame.timeStamp, frame.flags)
+      if (frame.isVideo) getH264DataRtp(frame.getBuffer(), streamInfo)
+      else getAacDataRtp(frame.getBuffer(), streamInfo)
+    }
+    val recordInfo = MediaCodec.BufferInfo()
+    recordSubscription = frameBus.subscribe("record", 120,
+      EncodedFrameBus.DropPolicy.DROP_UNTIL_KEY_FRAME) { frame ->
+      recordInfo.set(0, frame.size, frame.timeStamp, frame.flags)
+      if (frame.isVideo) recordController.recordVideo(frame.getBuffer(), recordInfo)
+      else recordController.recordAudio(frame.getBuffer(), recordInfo)
+    }
+  }
+
+  private fun unsubscribeFrames() {
+    streamSubscription?.let { frameBus.unsubscribe(it) }
+    recordSubscription?.let { frameBus.unsubscribe(it) }
+    streamSubscription = null
+    recordSubscription = null
+  }
+
   private fun startSources() {
+    subscribeFrames()
     if (!glInterface.running) glInterface.start()
     if (!videoManager.isRunning()) {
       videoManager.start(glInterface.getSurfaceTexture())
@@ -499,6 +561,7 @@ abstract class StreamBase(
     audioManager.stop()
     videoEncoder.stop()
     audioEncoder.stop()
+    unsubscribeFrames()
     glInterface.removeMediaCodecSurface()
     if (!isOnPreview) glInterface.stop()
     if (!isRecording) recordController.resetFormats()
@@ -510,8 +573,7 @@ abstract class StreamBase(
 
   private val getAacData: GetAacData = object : GetAacData {
     override fun getAacData(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
-      getAacDataRtp(aacBuffer, info)
-      recordController.recordAudio(aacBuffer, info)
+      frameBus.publish(aacBuffer, info, false)
     }
 
     override fun onAudioFormat(mediaFormat: MediaFormat) {
@@ -525,8 +587,7 @@ abstract class StreamBase(
     }
 
     override fun getVideoData(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo) {
-      getH264DataRtp(h264Buffer, info)
-      recordController.recordVideo(h264Buffer, info)
+      frameBus.publish(h264Buffer, info, true)
     }
 
     override fun onVideoFormat(mediaFormat: MediaFormat) {
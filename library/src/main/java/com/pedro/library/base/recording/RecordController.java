@@ -23,6 +23,11 @@ public interface RecordController {
 
     interface Listener {
         void onStatusChange(Status status);
+
+        /**
+         * Called if the record can't continue, for example a write error. Could be called from a background thread.
+         */
+        default void onError(Exception e) { }
     }
 
     enum Status {
@@ -35,6 +35,8 @@ import com.pedro.rtmp.rtmp.RtmpClient;
 import com.pedro.rtmp.utils.ConnectCheckerRtmp;
 import com.pedro.rtsp.rtsp.RtspClient;
 import com.pedro.rtsp.utils.ConnectCheckerRtsp;
+import com.pedro.srt.srt.SrtClient;
+import com.pedro.srt.utils.ConnectCheckerSrt;
 
 import java.nio.ByteBuffer;
 
@@ -43,7 +45,7 @@ import java.nio.ByteBuffer;
  *
  * Experiment class.
  *
- * Support multiple streams in rtmp and rtsp at same time.
+ * Support multiple streams in rtmp, rtsp and srt at same time.
  * You must set the same number of ConnectChecker that you want use.
  *
  * For example. 2 RTMP and 1 RTSP:
@@ -71,6 +73,9 @@ import java.nio.ByteBuffer;
  * multiRtpCamera2.retry(delay, reason, backUpUrl);
  *
  * The rest of methods without RtpType and index means that you will execute that command in all streams.
+ *
+ * Frames are packetized only one time per protocol and shared by all streams of the protocol,
+ * see StreamFanOut. Add a ConnectCheckerSrt array to the constructor to use SRT.
  * Read class code if you need info about any method.
  */
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
@@ -78,89 +83,95 @@ public class MultiRtpCamera2 extends Camera2Base {
 
   private final RtmpClient[] rtmpClients;
   private final RtspClient[] rtspClients;
+  private final SrtClient[] srtClients;
+  private final StreamFanOut streamFanOut;
 
   @Deprecated
   public MultiRtpCamera2(SurfaceView surfaceView, ConnectCheckerRtmp[] connectCheckerRtmpList,
       ConnectCheckerRtsp[] connectCheckerRtspList) {
+    this(surfaceView, connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  @Deprecated
+  public MultiRtpCamera2(SurfaceView surfaceView, ConnectCheckerRtmp[] connectCheckerRtmpList,
+      ConnectCheckerRtsp[] connectCheckerRtspList, ConnectCheckerSrt[] connectCheckerSrtList) {
     super(surfaceView);
-    int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
-    rtmpClients = new RtmpClient[rtmpSize];
-    for (int i = 0; i < rtmpClients.length; i++) {
-      rtmpClients[i] = new RtmpClient(connectCheckerRtmpList[i]);
-    }
-    int rtspSize = connectCheckerRtspList != null ? connectCheckerRtspList.length : 0;
-    rtspClients = new RtspClient[rtspSize];
-    for (int i = 0; i < rtspClients.length; i++) {
-      rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
-    }
+    streamFanOut = new StreamFanOut(connectCheckerRtmpList, connectCheckerRtspList, connectCheckerSrtList);
+    rtmpClients = streamFanOut.getRtmpClients();
+    rtspClients = streamFanOut.getRtspClients();
+    srtClients = streamFanOut.getSrtClients();
+    streamFanOut.setStreamClientListener(this::requestKeyFrame);
   }
 
   @Deprecated
   public MultiRtpCamera2(TextureView textureView, ConnectCheckerRtmp[] connectCheckerRtmpList,
       ConnectCheckerRtsp[] connectCheckerRtspList) {
+    this(textureView, connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  @Deprecated
+  public MultiRtpCamera2(TextureView textureView, ConnectCheckerRtmp[] connectCheckerRtmpList,
+      ConnectCheckerRtsp[] connectCheckerRtspList, ConnectCheckerSrt[] connectCheckerSrtList) {
     super(textureView);
-    int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
-    rtmpClients = new RtmpClient[rtmpSize];
-    for (int i = 0; i < rtmpClients.length; i++) {
-      rtmpClients[i] = new RtmpClient(connectCheckerRtmpList[i]);
-    }
-    int rtspSize = connectCheckerRtspList != null ? connectCheckerRtspList.length : 0;
-    rtspClients = new RtspClient[rtspSize];
-    for (int i = 0; i < rtspClients.length; i++) {
-      rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
-    }
+    streamFanOut = new StreamFanOut(connectCheckerRtmpList, connectCheckerRtspList, connectCheckerSrtList);
+    rtmpClients = streamFanOut.getRtmpClients();
+    rtspClients = streamFanOut.getRtspClients();
+    srtClients = streamFanOut.getSrtClients();
+    streamFanOut.setStreamClientListener(this::requestKeyFrame);
   }
 
   public MultiRtpCamera2(OpenGlView openGlView, ConnectCheckerRtmp[] connectCheckerRtmpList,
       ConnectCheckerRtsp[] connectCheckerRtspList) {
+    this(openGlView, connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  public MultiRtpCamera2(OpenGlView openGlView, ConnectCheckerRtmp[] connectCheckerRtmpList,
+      ConnectCheckerRtsp[] connectCheckerRtspList, ConnectCheckerSrt[] connectCheckerSrtList) {
     super(openGlView);
-    int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
-    rtmpClients = new RtmpClient[rtmpSize];
-    for (int i = 0; i < rtmpClients.length; i++) {
-      rtmpClients[i] = new RtmpClient(connectCheckerRtmpList[i]);
-    }
-    int rtspSize = connectCheckerRtspList != null ? connectCheckerRtspList.length : 0;
-    rtspClients = new RtspClient[rtspSize];
-    for (int i = 0; i < rtspClients.length; i++) {
-      rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
-    }
+    streamFanOut = new StreamFanOut(connectCheckerRtmpList, connectCheckerRtspList, connectCheckerSrtList);
+    rtmpClients = streamFanOut.getRtmpClients();
+    rtspClients = streamFanOut.getRtspClients();
+    srtClients = streamFanOut.getSrtClients();
+    streamFanOut.setStreamClientListener(this::requestKeyFrame);
   }
 
   public MultiRtpCamera2(LightOpenGlView lightOpenGlView, ConnectCheckerRtmp[] connectCheckerRtmpList,
       ConnectCheckerRtsp[] connectCheckerRtspList) {
+    this(lightOpenGlView, connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  public MultiRtpCamera2(LightOpenGlView lightOpenGlView, ConnectCheckerRtmp[] connectCheckerRtmpList,
+      ConnectCheckerRtsp[] connectCheckerRtspList, ConnectCheckerSrt[] connectCheckerSrtList) {
     super(lightOpenGlView);
-    int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
-    rtmpClients = new RtmpClient[rtmpSize];
-    for (int i = 0; i < rtmpClients.length; i++) {
-      rtmpClients[i] = new RtmpClient(connectCheckerRtmpList[i]);
-    }
-    int rtspSize = connectCheckerRtspList != null ? connectCheckerRtspList.length : 0;
-    rtspClients = new RtspClient[rtspSize];
-    for (int i = 0; i < rtspClients.length; i++) {
-      rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
-    }
+    streamFanOut = new StreamFanOut(connectCheckerRtmpList, connectCheckerRtspList, connectCheckerSrtList);
+    rtmpClients = streamFanOut.getRtmpClients();
+    rtspClients = streamFanOut.getRtspClients();
+    srtClients = streamFanOut.getSrtClients();
+    streamFanOut.setStreamClientListener(this::requestKeyFrame);
   }
 
   public MultiRtpCamera2(Context context, boolean useOpengl, ConnectCheckerRtmp[] connectCheckerRtmpList,
       ConnectCheckerRtsp[] connectCheckerRtspList) {
+    this(context, useOpengl, connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  public MultiRtpCamera2(Context context, boolean useOpengl, ConnectCheckerRtmp[] connectCheckerRtmpList,
+      ConnectCheckerRtsp[] connectCheckerRtspList, ConnectCheckerSrt[] connectCheckerSrtList) {
     super(context, useOpengl);
-    int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
-    rtmpClients = new RtmpClient[rtmpSize];
-    for (int i = 0; i < rtmpClients.length; i++) {
-      rtmpClients[i] = new RtmpClient(connectCheckerRtmpList[i]);
-    }
-    int rtspSize = connectCheckerRtspList != null ? connectCheckerRtspList.length : 0;
-    rtspClients = new RtspClient[rtspSize];
-    for (int i = 0; i < rtspClients.length; i++) {
-      rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
-    }
+    streamFanOut = new StreamFanOut(connectCheckerRtmpList, connectCheckerRtspList, connectCheckerSrtList);
+    rtmpClients = streamFanOut.getRtmpClients();
+    rtspClients = streamFanOut.getRtspClients();
+    srtClients = streamFanOut.getSrtClients();
+    streamFanOut.setStreamClientListener(this::requestKeyFrame);
   }
 
   public boolean isStreaming(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].isStreaming();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].isStreaming();
+    } else {
+      return srtClients[index].isStreaming();
     }
   }
 
@@ -171,13 +182,17 @@ public class MultiRtpCamera2 extends Camera2Base {
    */
   public void setProfileIop(ProfileIop profileIop, int index) {
     rtmpClients[index].setProfileIop(profileIop);
+    //used by all RTMP streams if packets are shared
+    streamFanOut.setProfileIop(profileIop);
   }
 
   public void resizeCache(RtpType rtpType, int index, int newSize) {
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].resizeCache(newSize);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].resizeCache(newSize);
+    } else {
+      srtClients[index].resizeCache(newSize);
     }
   }
 
@@ -188,13 +203,18 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resizeCache(newSize);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resizeCache(newSize);
+    }
   }
 
   public int getCacheSize(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].getCacheSize();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].getCacheSize();
+    } else {
+      return srtClients[index].getCacheSize();
     }
   }
 
@@ -206,6 +226,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getSentAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getSentAudioFrames();
+    }
     return number;
   }
 
@@ -217,6 +240,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getSentVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getSentVideoFrames();
+    }
     return number;
   }
 
@@ -228,6 +254,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getDroppedAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getDroppedAudioFrames();
+    }
     return number;
   }
 
@@ -239,6 +268,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getDroppedVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getDroppedVideoFrames();
+    }
     return number;
   }
 
@@ -249,6 +281,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetSentAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetSentAudioFrames();
+    }
   }
 
   public void resetSentVideoFrames() {
@@ -258,6 +293,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetSentVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetSentVideoFrames();
+    }
   }
 
   public void resetDroppedAudioFrames() {
@@ -267,6 +305,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetDroppedAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetDroppedAudioFrames();
+    }
   }
 
   public void resetDroppedVideoFrames() {
@@ -276,12 +317,15 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetDroppedVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetDroppedVideoFrames();
+    }
   }
 
   public void setAuthorization(RtpType rtpType, int index, String user, String password) {
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].setAuthorization(user, password);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].setAuthorization(user, password);
     }
   }
@@ -310,31 +354,17 @@ public class MultiRtpCamera2 extends Camera2Base {
 
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-      rtmpClient.setAudioInfo(sampleRate, isStereo);
-    }
-    for (RtspClient rtspClient: rtspClients) {
-      rtspClient.setAudioInfo(sampleRate, isStereo);
-    }
+    streamFanOut.setAudioInfo(sampleRate, isStereo);
   }
 
   public void startStream(RtpType rtpType, int index, String url) {
-    boolean shouldStarEncoder = true;
-    for (RtmpClient rtmpClient: rtmpClients) {
-      if (rtmpClient.isStreaming()) {
-        shouldStarEncoder = false;
-        break;
-      }
-    }
-    if (shouldStarEncoder) {
-      for (RtspClient rtspClient : rtspClients) {
-        if (rtspClient.isStreaming()) {
-          shouldStarEncoder = false;
-          break;
-        }
-      }
+    if (!streamFanOut.isStreaming()) {
+      streamFanOut.start(audioInitialized);
+      super.startStream("");
+    } else {
+      //encoder is running, the new stream need a key frame to start
+      requestKeyFrame();
     }
-    if (shouldStarEncoder) super.startStream("");
     if (rtpType == RtpType.RTMP) {
       if (videoEncoder.getRotation() == 90 || videoEncoder.getRotation() == 270) {
         rtmpClients[index].setVideoResolution(videoEncoder.getHeight(), videoEncoder.getWidth());
@@ -343,8 +373,11 @@ public class MultiRtpCamera2 extends Camera2Base {
       }
       rtmpClients[index].setFps(videoEncoder.getFps());
       rtmpClients[index].connect(url);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].connect(url);
+    } else {
+      srtClients[index].setOnlyVideo(!audioInitialized);
+      srtClients[index].connect(url);
     }
   }
 
@@ -353,27 +386,17 @@ public class MultiRtpCamera2 extends Camera2Base {
   }
 
   public void stopStream(RtpType rtpType, int index) {
-    boolean shouldStopEncoder = true;
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].disconnect();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].disconnect();
+    } else {
+      srtClients[index].disconnect();
     }
-    for (RtmpClient rtmpClient: rtmpClients) {
-      if (rtmpClient.isStreaming()) {
-        shouldStopEncoder = false;
-        break;
-      }
-    }
-    if (shouldStopEncoder) {
-      for (RtspClient rtspClient : rtspClients) {
-        if (rtspClient.isStreaming()) {
-          shouldStopEncoder = false;
-          break;
-        }
-      }
+    if (!streamFanOut.isStreaming()) {
+      super.stopStream();
+      streamFanOut.stop();
     }
-    if (shouldStopEncoder) super.stopStream();
   }
 
   @Override
@@ -387,6 +410,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setReTries(reTries);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setReTries(reTries);
+    }
   }
 
   public boolean reTry(RtpType rtpType, int index, long delay, String reason, @Nullable String backupUrl) {
@@ -397,11 +423,17 @@ public class MultiRtpCamera2 extends Camera2Base {
         requestKeyFrame();
         rtmpClients[index].reConnect(delay, backupUrl);
       }
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       result = rtspClients[index].shouldRetry(reason);
       if (result) {
         requestKeyFrame();
-        rtmpClients[index].reConnect(delay, backupUrl);
+        rtspClients[index].reConnect(delay, backupUrl);
+      }
+    } else {
+      result = srtClients[index].shouldRetry(reason);
+      if (result) {
+        requestKeyFrame();
+        srtClients[index].reConnect(delay, backupUrl);
       }
     }
     return result;
@@ -410,39 +442,26 @@ public class MultiRtpCamera2 extends Camera2Base {
   public boolean hasCongestion(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].hasCongestion();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].hasCongestion();
+    } else {
+      return srtClients[index].hasCongestion();
     }
   }
 
   @Override
   protected void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-      rtmpClient.sendAudio(aacBuffer.duplicate(), info);
-    }
-    for (RtspClient rtspClient: rtspClients) {
-      rtspClient.sendAudio(aacBuffer.duplicate(), info);
-    }
+    streamFanOut.sendAudio(aacBuffer, info);
   }
 
   @Override
   protected void onSpsPpsVpsRtp(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-      rtmpClient.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
-    }
-    for (RtspClient rtspClient: rtspClients) {
-      rtspClient.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
-    }
+    streamFanOut.setVideoInfo(sps, pps, vps);
   }
 
   @Override
   protected void getH264DataRtp(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-      rtmpClient.sendVideo(h264Buffer.duplicate(), info);
-    }
-    for (RtspClient rtspClient: rtspClients) {
-      rtspClient.sendVideo(h264Buffer.duplicate(), info);
-    }
+    streamFanOut.sendVideo(h264Buffer, info);
   }
 
   @Override
@@ -452,12 +471,7 @@ public class MultiRtpCamera2 extends Camera2Base {
 
   @Override
   protected void setVideoCodecImp(VideoCodec codec) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-      rtmpClient.setVideoCodec(codec == VideoCodec.H264 ? com.pedro.rtmp.rtmp.VideoCodec.H264 : com.pedro.rtmp.rtmp.VideoCodec.H265);
-    }
-    for (RtspClient rtspClient: rtspClients) {
-      rtspClient.setVideoCodec(codec == VideoCodec.H264 ? com.pedro.rtsp.rtsp.VideoCodec.H264 : com.pedro.rtsp.rtsp.VideoCodec.H265);
-    }
+    streamFanOut.setVideoCodec(codec);
   }
 
   public void setLogs(boolean enable) {
@@ -467,6 +481,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setLogs(enable);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setLogs(enable);
+    }
   }
 
   public void setCheckServerAlive(boolean enable) {
@@ -476,5 +493,8 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setCheckServerAlive(enable);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setCheckServerAlive(enable);
+    }
   }
 }
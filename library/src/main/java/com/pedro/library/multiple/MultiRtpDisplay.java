@@ -31,6 +31,8 @@ import com.pedro.rtmp.rtmp.RtmpClient;
 import com.pedro.rtmp.utils.ConnectCheckerRtmp;
 import com.pedro.rtsp.rtsp.RtspClient;
 import com.pedro.rtsp.utils.ConnectCheckerRtsp;
+import com.pedro.srt.srt.SrtClient;
+import com.pedro.srt.utils.ConnectCheckerSrt;
 
 import java.nio.ByteBuffer;
 
@@ -39,7 +41,7 @@ import java.nio.ByteBuffer;
  *
  * Experimental Class.
  *
- * It supports multiple streams of rtmp and rtsp at same time.
+ * It supports multiple streams of rtmp, rtsp and srt at same time.
  * You must set the same number of ConnectChecker that you want use.
  *
  * For example. 2 RTMP and 1 RTSP:
@@ -67,6 +69,9 @@ import java.nio.ByteBuffer;
  * multiRtpDisplay.retry(delay, reason, backUpUrl);
  *
  * The rest of methods without RtpType and index means that you will execute that command in all streams.
+ *
+ * Frames are packetized only one time per protocol and shared by all streams of the protocol,
+ * see StreamFanOut. Add a ConnectCheckerSrt array to the constructor to use SRT.
  * Read class code if you need info about any method.
  */
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
@@ -74,27 +79,31 @@ public class MultiRtpDisplay extends DisplayBase {
 
   private final RtmpClient[] rtmpClients;
   private final RtspClient[] rtspClients;
+  private final SrtClient[] srtClients;
+  private final StreamFanOut streamFanOut;
 
   public MultiRtpDisplay(Context context, boolean useOpenGL, ConnectCheckerRtmp[] connectCheckerRtmpList,
       ConnectCheckerRtsp[] connectCheckerRtspList) {
+    this(context, useOpenGL, connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  public MultiRtpDisplay(Context context, boolean useOpenGL, ConnectCheckerRtmp[] connectCheckerRtmpList,
+      ConnectCheckerRtsp[] connectCheckerRtspList, ConnectCheckerSrt[] connectCheckerSrtList) {
     super(context, useOpenGL);
-    int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
-    rtmpClients = new RtmpClient[rtmpSize];
-    for (int i = 0; i < rtmpClients.length; i++) {
-      rtmpClients[i] = new RtmpClient(connectCheckerRtmpList[i]);
-    }
-    int rtspSize = connectCheckerRtspList != null ? connectCheckerRtspList.length : 0;
-    rtspClients = new RtspClient[rtspSize];
-    for (int i = 0; i < rtspClients.length; i++) {
-      rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
-    }
+    streamFanOut = new StreamFanOut(connectCheckerRtmpList, connectCheckerRtspList, connectCheckerSrtList);
+    rtmpClients = streamFanOut.getRtmpClients();
+    rtspClients = streamFanOut.getRtspClients();
+    srtClients = streamFanOut.getSrtClients();
+    streamFanOut.setStreamClientListener(this::requestKeyFrame);
   }
 
   public boolean isStreaming(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].isStreaming();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].isStreaming();
+    } else {
+      return srtClients[index].isStreaming();
     }
   }
 
@@ -105,6 +114,8 @@ public class MultiRtpDisplay extends DisplayBase {
    */
   public void setProfileIop(ProfileIop profileIop, int index) {
     rtmpClients[index].setProfileIop(profileIop);
+    //used by all RTMP streams if packets are shared
+    streamFanOut.setProfileIop(profileIop);
   }
 
   /**
@@ -123,7 +134,7 @@ public class MultiRtpDisplay extends DisplayBase {
   public void setAuthorization(RtpType rtpType, int index, String user, String password) {
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].setAuthorization(user, password);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].setAuthorization(user, password);
     }
   }
@@ -139,31 +150,17 @@ public class MultiRtpDisplay extends DisplayBase {
 
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
-    for (RtmpClient rtmpClient : rtmpClients) {
-      rtmpClient.setAudioInfo(sampleRate, isStereo);
-    }
-    for (RtspClient rtspClient : rtspClients) {
-      rtspClient.setAudioInfo(sampleRate, isStereo);
-    }
+    streamFanOut.setAudioInfo(sampleRate, isStereo);
   }
 
   public void startStream(RtpType rtpType, int index, String url) {
-    boolean shouldStarEncoder = true;
-    for (RtmpClient rtmpClient : rtmpClients) {
-      if (rtmpClient.isStreaming()) {
-        shouldStarEncoder = false;
-        break;
-      }
-    }
-    if (shouldStarEncoder) {
-      for (RtspClient rtspClient : rtspClients) {
-        if (rtspClient.isStreaming()) {
-          shouldStarEncoder = false;
-          break;
-        }
-      }
+    if (!streamFanOut.isStreaming()) {
+      streamFanOut.start(audioInitialized);
+      super.startStream("");
+    } else {
+      //encoder is running, the new stream need a key frame to start
+      requestKeyFrame();
     }
-    if (shouldStarEncoder) super.startStream("");
     if (rtpType == RtpType.RTMP) {
       if (videoEncoder.getRotation() == 90 || videoEncoder.getRotation() == 270) {
         rtmpClients[index].setVideoResolution(videoEncoder.getHeight(), videoEncoder.getWidth());
@@ -172,33 +169,26 @@ public class MultiRtpDisplay extends DisplayBase {
       }
       rtmpClients[index].setFps(videoEncoder.getFps());
       rtmpClients[index].connect(url);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].connect(url);
+    } else {
+      srtClients[index].setOnlyVideo(!audioInitialized);
+      srtClients[index].connect(url);
     }
   }
 
   public void stopStream(RtpType rtpType, int index) {
-    boolean shouldStopEncoder = true;
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].disconnect();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].disconnect();
+    } else {
+      srtClients[index].disconnect();
     }
-    for (RtmpClient rtmpClient : rtmpClients) {
-      if (rtmpClient.isStreaming()) {
-        shouldStopEncoder = false;
-        break;
-      }
-    }
-    if (shouldStopEncoder) {
-      for (RtspClient rtspClient : rtspClients) {
-        if (rtspClient.isStreaming()) {
-          shouldStopEncoder = false;
-          break;
-        }
-      }
+    if (!streamFanOut.isStreaming()) {
+      super.stopStream();
+      streamFanOut.stop();
     }
-    if (shouldStopEncoder) super.stopStream();
   }
 
   @Override
@@ -217,11 +207,17 @@ public class MultiRtpDisplay extends DisplayBase {
         requestKeyFrame();
         rtmpClients[index].reConnect(delay, backupUrl);
       }
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       result = rtspClients[index].shouldRetry(reason);
       if (result) {
         requestKeyFrame();
-        rtmpClients[index].reConnect(delay, backupUrl);
+        rtspClients[index].reConnect(delay, backupUrl);
+      }
+    } else {
+      result = srtClients[index].shouldRetry(reason);
+      if (result) {
+        requestKeyFrame();
+        srtClients[index].reConnect(delay, backupUrl);
       }
     }
     return result;
@@ -234,30 +230,39 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.setReTries(reTries);
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.setReTries(reTries);
+    }
   }
 
 
   public boolean hasCongestion(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].hasCongestion();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].hasCongestion();
+    } else {
+      return srtClients[index].hasCongestion();
     }
   }
 
   public void resizeCache(RtpType rtpType, int index, int newSize) {
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].resizeCache(newSize);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].resizeCache(newSize);
+    } else {
+      srtClients[index].resizeCache(newSize);
     }
   }
 
   public int getCacheSize(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].getCacheSize();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].getCacheSize();
+    } else {
+      return srtClients[index].getCacheSize();
     }
   }
 
@@ -269,6 +274,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       number += rtspClient.getSentAudioFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      number += srtClient.getSentAudioFrames();
+    }
     return number;
   }
 
@@ -280,6 +288,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       number += rtspClient.getSentVideoFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      number += srtClient.getSentVideoFrames();
+    }
     return number;
   }
 
@@ -291,6 +302,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       number += rtspClient.getDroppedAudioFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      number += srtClient.getDroppedAudioFrames();
+    }
     return number;
   }
 
@@ -302,6 +316,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       number += rtspClient.getDroppedVideoFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      number += srtClient.getDroppedVideoFrames();
+    }
     return number;
   }
 
@@ -312,6 +329,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.resetSentAudioFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.resetSentAudioFrames();
+    }
   }
 
   public void resetSentVideoFrames() {
@@ -321,6 +341,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.resetSentVideoFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.resetSentVideoFrames();
+    }
   }
 
   public void resetDroppedAudioFrames() {
@@ -330,6 +353,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.resetDroppedAudioFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.resetDroppedAudioFrames();
+    }
   }
 
   public void resetDroppedVideoFrames() {
@@ -339,36 +365,24 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.resetDroppedVideoFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.resetDroppedVideoFrames();
+    }
   }
 
   @Override
   protected void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
-    for (RtmpClient rtmpClient : rtmpClients) {
-      rtmpClient.sendAudio(aacBuffer.duplicate(), info);
-    }
-    for (RtspClient rtspClient : rtspClients) {
-      rtspClient.sendAudio(aacBuffer.duplicate(), info);
-    }
+    streamFanOut.sendAudio(aacBuffer, info);
   }
 
   @Override
   protected void onSpsPpsVpsRtp(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps) {
-    for (RtmpClient rtmpClient : rtmpClients) {
-      rtmpClient.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
-    }
-    for (RtspClient rtspClient : rtspClients) {
-      rtspClient.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
-    }
+    streamFanOut.setVideoInfo(sps, pps, vps);
   }
 
   @Override
   protected void getH264DataRtp(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
-    for (RtmpClient rtmpClient : rtmpClients) {
-      rtmpClient.sendVideo(h264Buffer.duplicate(), info);
-    }
-    for (RtspClient rtspClient : rtspClients) {
-      rtspClient.sendVideo(h264Buffer.duplicate(), info);
-    }
+    streamFanOut.sendVideo(h264Buffer, info);
   }
 
   @Override
@@ -378,12 +392,7 @@ public class MultiRtpDisplay extends DisplayBase {
 
   @Override
   protected void setVideoCodecImp(VideoCodec codec) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-      rtmpClient.setVideoCodec(codec == VideoCodec.H264 ? com.pedro.rtmp.rtmp.VideoCodec.H264 : com.pedro.rtmp.rtmp.VideoCodec.H265);
-    }
-    for (RtspClient rtspClient: rtspClients) {
-      rtspClient.setVideoCodec(codec == VideoCodec.H264 ? com.pedro.rtsp.rtsp.VideoCodec.H264 : com.pedro.rtsp.rtsp.VideoCodec.H265);
-    }
+    streamFanOut.setVideoCodec(codec);
   }
 
   public void setLogs(boolean enable) {
@@ -393,6 +402,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.setLogs(enable);
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.setLogs(enable);
+    }
   }
 
   public void setCheckServerAlive(boolean enable) {
@@ -402,5 +414,8 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setCheckServerAlive(enable);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setCheckServerAlive(enable);
+    }
   }
 }
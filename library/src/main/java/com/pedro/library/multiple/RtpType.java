@@ -20,5 +20,5 @@ package com.pedro.library.multiple;
  * Created by pedro on 21/5/21.
  */
 public enum RtpType {
-  RTMP, RTSP
+  RTMP, RTSP, SRT
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.library.multiple
+
+import android.media.MediaCodec
+import com.pedro.library.util.VideoCodec
+import com.pedro.library.util.streamclient.StreamClientListener
+import com.pedro.rtmp.flv.SharedFlvPacketizer
+import com.pedro.rtmp.flv.video.ProfileIop
+import com.pedro.rtmp.rtmp.RtmpClient
+import com.pedro.rtmp.utils.ConnectCheckerRtmp
+import com.pedro.rtsp.rtp.packets.SharedRtpPacketizer
+import com.pedro.rtsp.rtsp.RtspClient
+import com.pedro.rtsp.utils.ConnectCheckerRtsp
+import com.pedro.srt.mpeg2ts.Codec
+import com.pedro.srt.mpeg2ts.SharedMpegTsPacketizer
+import com.pedro.srt.srt.SrtClient
+import com.pedro.srt.utils.ConnectCheckerSrt
+import java.nio.ByteBuffer
+
+/**
+ * Send encoded frames to multiple RTMP, RTSP and SRT clients.
+ *
+ * Each frame is packetized only one time per protocol and the packets are shared by all clients of the protocol.
+ * Clients keep its own queue, dropped frames and stats.
+ * A protocol with only one client packetize the frame inside the client like a single stream.
+ */
+class StreamFanOut(
+  connectCheckerRtmpList: Array<ConnectCheckerRtmp>?,
+  connectCheckerRtspList: Array<ConnectCheckerRtsp>?,
+  connectCheckerSrtList: Array<ConnectCheckerSrt>?
+) {
+
+  val rtmpClients = Array(connectCheckerRtmpList?.size ?: 0) { RtmpClient(connectCheckerRtmpList!![it]) }
+  val rtspClients = Array(connectCheckerRtspList?.size ?: 0) { RtspClient(connectCheckerRtspList!![it]) }
+  val srtClients = Array(connectCheckerSrtList?.size ?: 0) { SrtClient(connectCheckerSrtList!![it]) }
+  private val flvPacketizer = SharedFlvPacketizer()
+  private val rtpPacketizer = SharedRtpPacketizer()
+  private val mpegTsPacketizer = SharedMpegTsPacketizer()
+
+  fun isStreaming(): Boolean {
+    return rtmpClients.any { it.isStreaming } || rtspClients.any { it.isStreaming } || srtClients.any { it.isStreaming }
+  }
+
+  fun setVideoCodec(codec: VideoCodec) {
+    val rtmpCodec = if (codec == VideoCodec.H264) com.pedro.rtmp.rtmp.VideoCodec.H264 else com.pedro.rtmp.rtmp.VideoCodec.H265
+    rtmpClients.forEach { it.setVideoCodec(rtmpCodec) }
+    flvPacketizer.videoCodec = rtmpCodec
+    val rtspCodec = if (codec == VideoCodec.H264) com.pedro.rtsp.rtsp.VideoCodec.H264 else com.pedro.rtsp.rtsp.VideoCodec.H265
+    rtspClients.forEach { it.setVideoCodec(rtspCodec) }
+    val srtCodec = if (codec == VideoCodec.H264) com.pedro.srt.srt.VideoCodec.H264 else com.pedro.srt.srt.VideoCodec.H265
+    srtClients.forEach { it.setVideoCodec(srtCodec) }
+    mpegTsPacketizer.videoCodec = if (codec == VideoCodec.H264) Codec.AVC else Codec.HEVC
+  }
+
+  fun setProfileIop(profileIop: ProfileIop) {
+    flvPacketizer.setProfileIop(profileIop)
+  }
+
+  /**
+   * Called by the clients that drop video frames by congestion, the next video frames are discarded
+   * until a key frame.
+   */
+  fun setStreamClientListener(listener: StreamClientListener?) {
+    val callback: (() -> Unit)? = listener?.let { l -> { l.onRequestKeyframe() } }
+    rtmpClients.forEach { it.setKeyFrameRequestListener(callback) }
+    rtspClients.forEach { it.setKeyFrameRequestListener(callback) }
+    srtClients.forEach { it.setKeyFrameRequestListener(callback) }
+  }
+
+  fun setAudioInfo(sampleRate: Int, isStereo: Boolean) {
+    rtmpClients.forEach { it.setAudioInfo(sampleRate, isStereo) }
+    flvPacketizer.setAudioInfo(sampleRate, isStereo)
+    rtspClients.forEach { it.setAudioInfo(sampleRate, isStereo) }
+    rtpPacketizer.setAudioInfo(sampleRate)
+    srtClients.forEach { it.setAudioInfo(sampleRate, isStereo) }
+    mpegTsPacketizer.setAudioInfo(sampleRate, isStereo)
+  }
+
+  fun setVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
+    rtmpClients.forEach { it.setVideoInfo(sps.duplicate(), pps.duplicate(), vps?.duplicate()) }
+    flvPacketizer.setVideoInfo(sps.duplicate(), pps.duplicate(), vps?.duplicate())
+    rtspClients.forEach { it.setVideoInfo(sps.duplicate(), pps.duplicate(), vps?.duplicate()) }
+    rtpPacketizer.setVideoInfo(sps.duplicate(), pps.duplicate(), vps?.duplicate())
+    srtClients.forEach { it.setVideoInfo(sps.duplicate(), pps.duplicate(), vps?.duplicate()) }
+    mpegTsPacketizer.setVideoInfo(sps.duplicate(), pps.duplicate(), vps?.duplicate())
+  }
+
+  /**
+   * Called before start the encoders.
+   */
+  fun start(audioEnabled: Boolean) {
+    mpegTsPacketizer.setTrackConfig(true, audioEnabled)
+  }
+
+  /**
+   * Called after stop the encoders.
+   */
+  fun stop() {
+    flvPacketizer.reset()
+    rtpPacketizer.reset()
+    mpegTsPacketizer.reset()
+  }
+
+  fun sendVideo(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo) {
+    if (rtmpClients.size > 1) {
+      if (rtmpClients.any { it.isStreaming }) {
+        flvPacketizer.createVideoPackets(h264Buffer.duplicate(), info) { flvPacket ->
+          rtmpClients.forEach { it.sendSharedPacket(flvPacket, flvPacketizer) }
+        }
+      }
+    } else rtmpClients.forEach { it.sendVideo(h264Buffer.duplicate(), info) }
+    if (rtspClients.size > 1) {
+      if (rtspClients.any { it.isStreaming }) {
+        rtpPacketizer.createVideoPackets(h264Buffer.duplicate(), info) { rtpFrame ->
+          rtspClients.forEach { it.sendSharedFrame(rtpFrame, rtpPacketizer) }
+        }
+      }
+    } else rtspClients.forEach { it.sendVideo(h264Buffer.duplicate(), info) }
+    if (srtClients.size > 1) {
+      if (srtClients.any { it.isStreaming }) {
+        val isKeyFrame = info.flags and MediaCodec.BUFFER_FLAG_KEY_FRAME != 0
+        mpegTsPacketizer.createVideoPackets(h264Buffer.duplicate(), info) { mpegTsPackets ->
+          srtClients.forEach { it.sendSharedPackets(mpegTsPackets, isKeyFrame, info.presentationTimeUs, mpegTsPacketizer) }
+        }
+      }
+    } else srtClients.forEach { it.sendVideo(h264Buffer.duplicate(), info) }
+  }
+
+  fun sendAudio(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
+    if (rtmpClients.size > 1) {
+      if (rtmpClients.any { it.isStreaming }) {
+        flvPacketizer.createAudioPackets(aacBuffer.duplicate(), info) { flvPacket ->
+          rtmpClients.forEach { it.sendSharedPacket(flvPacket, flvPacketizer) }
+        }
+      }
+    } else rtmpClients.forEach { it.sendAudio(aacBuffer.duplicate(), info) }
+    if (rtspClients.size > 1) {
+      if (rtspClients.any { it.isStreaming }) {
+        rtpPacketizer.createAudioPackets(aacBuffer.duplicate(), info) { rtpFrame ->
+          rtspClients.forEach { it.sendSharedFrame(rtpFrame, rtpPacketizer) }
+        }
+      }
+    } else rtspClients.forEach { it.sendAudio(aacBuffer.duplicate(), info) }
+    if (srtClients.size > 1) {
+      if (srtClients.any { it.isStreaming }) {
+        mpegTsPacketizer.createAudioPackets(aacBuffer.duplicate(), info) { mpegTsPackets ->
+          srtClients.forEach { it.sendSharedPackets(mpegTsPackets, false, info.presentationTimeUs, mpegTsPacketizer) }
+        }
+      }
+    } else srtClients.forEach { it.sendAudio(aacBuffer.duplicate(), info) }
+  }
+}
@@ -33,7 +33,9 @@ class RtmpStream(
       requestKeyframe()
     }
   }
-  override fun getStreamClient(): RtmpStreamClient = RtmpStreamClient(rtmpClient, streamClientListener)
+  //created once, it set the key frame request listener of the client
+  private val streamClient = RtmpStreamClient(rtmpClient, streamClientListener)
+  override fun getStreamClient(): RtmpStreamClient = streamClient
 
   constructor(context: Context, connectCheckerRtmp: ConnectCheckerRtmp):
       this(context, connectCheckerRtmp, VideoManager.Source.CAMERA2, AudioManager.Source.MICROPHONE)
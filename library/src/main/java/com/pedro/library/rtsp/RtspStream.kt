@@ -33,7 +33,9 @@ class RtspStream(
       requestKeyframe()
     }
   }
-  override fun getStreamClient(): RtspStreamClient = RtspStreamClient(rtspClient, streamClientListener)
+  //created once, it set the key frame request listener of the client
+  private val streamClient = RtspStreamClient(rtspClient, streamClientListener)
+  override fun getStreamClient(): RtspStreamClient = streamClient
 
   constructor(context: Context, connectCheckerRtsp: ConnectCheckerRtsp):
       this(context, connectCheckerRtsp, VideoManager.Source.CAMERA2, AudioManager.Source.MICROPHONE)
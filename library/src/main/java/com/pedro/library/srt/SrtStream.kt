@@ -49,7 +49,9 @@ class SrtStream(
       requestKeyframe()
     }
   }
-  override fun getStreamClient(): SrtStreamClient = SrtStreamClient(srtClient, streamClientListener)
+  //created once, it set the key frame request listener of the client
+  private val streamClient = SrtStreamClient(srtClient, streamClientListener)
+  override fun getStreamClient(): SrtStreamClient = streamClient
 
   constructor(context: Context, connectCheckerRtmp: ConnectCheckerSrt):
       this(context, connectCheckerRtmp, VideoManager.Source.CAMERA2, AudioManager.Source.MICROPHONE)
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.library.util;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.pedro.library.base.recording.BaseRecordController;
+import com.pedro.srt.mpeg2ts.MpegTsPacket;
+import com.pedro.srt.mpeg2ts.MpegTsPacketListener;
+import com.pedro.srt.mpeg2ts.MpegTsPacketizer;
+import com.pedro.srt.mpeg2ts.MpegType;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record the MPEG-TS stream produced for SRT in a TS file without mux it again.
+ * A TS file has no index written at the end so the file is playable even if the app crash while recording.
+ *
+ * It must be set as record controller and as MpegTsPacketListener of the SrtClient
+ * (SrtStreamClient#setMpegTsPacketListener). TS packets are only produced while streaming.
+ *
+ * Packets are copied in big buffers (TS packets are reused after send) and written in a background thread.
+ * Files can be rotated in key frames using {@link #setSegmentDuration(long)}.
+ * If a file can't be written or created the record stops writing and {@link Listener#onError(Exception)} is called,
+ * stopRecord must be called after it.
+ */
+public class TsRecordController extends BaseRecordController implements MpegTsPacketListener {
+
+  private static final String TAG = "TsRecordController";
+  //multiple of TS packet size and storage block size so writes contain full TS packets aligned with blocks
+  public static final int WRITE_BUFFER_SIZE = MpegTsPacketizer.packetSize * 4096;
+  private static final int MAX_WRITE_BUFFERS = 4;
+
+  private final ArrayBlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(MAX_WRITE_BUFFERS);
+  private int allocatedBuffers = 0;
+  private ByteBuffer currentBuffer;
+  //null if not recording, a new one is created for each record
+  private TsWriter writer;
+  //last PSI tables, written at the start of each file
+  private byte[] psi;
+  //null if recording in a file descriptor, rotation is not possible
+  private String path;
+  private int segmentIndex = 0;
+  private long segmentDuration = 0;
+  private long segmentStartTs = 0;
+  //no buffers available, data is discarded until next sync point
+  private boolean discarding = false;
+
+  /**
+   * Start a new file in the first key frame after the duration. Files are named adding the index to the path,
+   * for example: record.ts, record_1.ts, record_2.ts...
+   * Only with path records. Must be called before start record.
+   *
+   * @param segmentDuration duration in milliseconds, 0 to disable it (default)
+   */
+  public void setSegmentDuration(long segmentDuration) {
+    this.segmentDuration = segmentDuration * 1000;
+  }
+
+  @Override
+  public synchronized void startRecord(@NonNull String path, @Nullable Listener listener) throws IOException {
+    this.path = path;
+    start(new FileOutputStream(path).getChannel(), listener);
+  }
+
+  @Override
+  public synchronized void startRecord(@NonNull FileDescriptor fd, @Nullable Listener listener) throws IOException {
+    this.path = null;
+    start(new FileOutputStream(fd).getChannel(), listener);
+  }
+
+  private void start(FileChannel fileChannel, @Nullable Listener listener) {
+    this.listener = listener;
+    segmentIndex = 0;
+    discarding = false;
+    currentBuffer = acquireBuffer();
+    writer = new TsWriter(fileChannel, listener);
+    status = Status.STARTED;
+    if (listener != null) listener.onStatusChange(status);
+  }
+
+  @Override
+  public void stopRecord() {
+    TsWriter writer;
+    synchronized (this) {
+      status = Status.STOPPED;
+      writer = this.writer;
+      if (writer != null) {
+        if (currentBuffer != null) submit(currentBuffer);
+        currentBuffer = null;
+        writer.executor.execute(writer::closeFile);
+        writer.executor.shutdown();
+        this.writer = null;
+      }
+      pauseMoment = 0;
+      pauseTime = 0;
+    }
+    //wait without the lock, onMpegTsPackets is called from the sender thread
+    if (writer != null) {
+      try {
+        if (!writer.executor.awaitTermination(2, TimeUnit.SECONDS)) Log.e(TAG, "Write not finished in time");
+      } catch (InterruptedException ignored) { }
+    }
+    if (listener != null) listener.onStatusChange(Status.STOPPED);
+  }
+
+  @Override
+  public void recordVideo(ByteBuffer videoBuffer, MediaCodec.BufferInfo videoInfo) {
+    //frames are received already muxed in onMpegTsPackets
+  }
+
+  @Override
+  public void recordAudio(ByteBuffer audioBuffer, MediaCodec.BufferInfo audioInfo) {
+    //frames are received already muxed in onMpegTsPackets
+  }
+
+  @Override
+  public synchronized void onMpegTsPackets(@NonNull List<MpegTsPacket> mpegTsPackets, boolean isKeyFrame, long ts) {
+    if (mpegTsPackets.isEmpty()) return;
+    //nothing else is written after a write error, the listener was notified
+    if (writer != null && writer.failed) return;
+    MpegType type = mpegTsPackets.get(0).getType();
+    if (type == MpegType.PSI) {
+      psi = copy(mpegTsPackets);
+      if (status == Status.RECORDING && !discarding) put(psi);
+      return;
+    }
+    //start files in a frame that can be decoded without previous frames
+    boolean syncPoint = isKeyFrame || (isOnlyAudio && type == MpegType.AUDIO);
+    if (!syncPoint || psi == null) {
+      if (status == Status.RECORDING && !discarding) write(mpegTsPackets);
+      return;
+    }
+    if (status == Status.STARTED || status == Status.RESUMED) {
+      status = Status.RECORDING;
+      segmentStartTs = ts;
+      put(psi);
+      if (listener != null) listener.onStatusChange(status);
+    } else if (status == Status.RECORDING && discarding) {
+      currentBuffer = acquireBuffer();
+      if (currentBuffer == null) return;
+      discarding = false;
+      put(psi);
+    } else if (status == Status.RECORDING && segmentDuration > 0 && path != null
+        && ts - segmentStartTs >= segmentDuration) {
+      rotate();
+      segmentStartTs = ts;
+      put(psi);
+    }
+    if (status == Status.RECORDING) write(mpegTsPackets);
+  }
+
+  @Override
+  public void setVideoFormat(MediaFormat videoFormat, boolean isOnlyVideo) {
+    this.isOnlyVideo = isOnlyVideo;
+  }
+
+  @Override
+  public void setAudioFormat(MediaFormat audioFormat, boolean isOnlyAudio) {
+    this.isOnlyAudio = isOnlyAudio;
+  }
+
+  @Override
+  public void resetFormats() {
+    psi = null;
+  }
+
+  private void write(List<MpegTsPacket> mpegTsPackets) {
+    for (MpegTsPacket mpegTsPacket : mpegTsPackets) {
+      if (!put(mpegTsPacket.getBuffer(), mpegTsPacket.getSize())) return;
+    }
+  }
+
+  private boolean put(byte[] data) {
+    return put(data, data.length);
+  }
+
+  /**
+   * Copy data in the current buffer and send it to the writer when it is full.
+   *
+   * @return false if data was discarded because there are no buffers available
+   */
+  private boolean put(byte[] data, int size) {
+    int offset = 0;
+    while (offset < size) {
+      if (currentBuffer == null) return false;
+      int length = Math.min(size - offset, currentBuffer.remaining());
+      currentBuffer.put(data, offset, length);
+      offset += length;
+      if (!currentBuffer.hasRemaining()) {
+        submit(currentBuffer);
+        currentBuffer = acquireBuffer();
+        if (currentBuffer == null) {
+          Log.e(TAG, "Write too slow, discarding data until next key frame");
+          discarding = true;
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  @Nullable
+  private ByteBuffer acquireBuffer() {
+    ByteBuffer buffer = freeBuffers.poll();
+    if (buffer == null && allocatedBuffers < MAX_WRITE_BUFFERS) {
+      allocatedBuffers++;
+      buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    }
+    return buffer;
+  }
+
+  private void submit(ByteBuffer buffer) {
+    buffer.flip();
+    TsWriter writer = this.writer;
+    writer.executor.execute(() -> {
+      try {
+        FileChannel fileChannel = writer.fileChannel;
+        if (fileChannel != null && !writer.failed) {
+          while (buffer.hasRemaining()) fileChannel.write(buffer);
+        }
+      } catch (IOException e) {
+        writer.onError(e);
+      } finally {
+        buffer.clear();
+        freeBuffers.offer(buffer);
+      }
+    });
+  }
+
+  private void rotate() {
+    if (currentBuffer != null && currentBuffer.position() > 0) {
+      submit(currentBuffer);
+      currentBuffer = acquireBuffer();
+      if (currentBuffer == null) discarding = true;
+    }
+    String segmentPath = getSegmentPath(path, ++segmentIndex);
+    TsWriter writer = this.writer;
+    writer.executor.execute(() -> {
+      writer.closeFile();
+      if (writer.failed) return;
+      try {
+        writer.fileChannel = new FileOutputStream(segmentPath).getChannel();
+      } catch (IOException e) {
+        writer.onError(e);
+      }
+    });
+  }
+
+  /**
+   * File and thread of a record. Tasks of a stopped record can't modify the file of the next one.
+   */
+  private static class TsWriter {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    @Nullable
+    private final Listener listener;
+    //only used in executor thread
+    private FileChannel fileChannel;
+    private volatile boolean failed = false;
+
+    private TsWriter(FileChannel fileChannel, @Nullable Listener listener) {
+      this.fileChannel = fileChannel;
+      this.listener = listener;
+    }
+
+    private void onError(Exception e) {
+      Log.e(TAG, "Write error", e);
+      if (failed) return;
+      failed = true;
+      closeFile();
+      if (listener != null) listener.onError(e);
+    }
+
+    private void closeFile() {
+      try {
+        if (fileChannel != null) fileChannel.close();
+      } catch (IOException e) {
+        Log.e(TAG, "Close file error", e);
+      }
+      fileChannel = null;
+    }
+  }
+
+  private static byte[] copy(List<MpegTsPacket> mpegTsPackets) {
+    int size = 0;
+    for (MpegTsPacket mpegTsPacket : mpegTsPackets) size += mpegTsPacket.getSize();
+    byte[] data = new byte[size];
+    int offset = 0;
+    for (MpegTsPacket mpegTsPacket : mpegTsPackets) {
+      System.arraycopy(mpegTsPacket.getBuffer(), 0, data, offset, mpegTsPacket.getSize());
+      offset += mpegTsPacket.getSize();
+    }
+    return data;
+  }
+
+  private static String getSegmentPath(String path, int index) {
+    int extension = path.lastIndexOf('.');
+    if (extension <= path.lastIndexOf('/')) return path + "_" + index;
+    return path.substring(0, extension) + "_" + index + path.substring(extension);
+  }
+}
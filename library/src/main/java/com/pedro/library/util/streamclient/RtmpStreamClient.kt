@@ -11,6 +11,12 @@ class RtmpStreamClient(
   streamClientListener: StreamClientListener?
 ): StreamBaseClient(streamClientListener) {
 
+  init {
+    streamClientListener?.let { listener ->
+      rtmpClient.setKeyFrameRequestListener { listener.onRequestKeyframe() }
+    }
+  }
+
   /**
    * H264 profile.
    *
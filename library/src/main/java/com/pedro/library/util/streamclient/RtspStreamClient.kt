@@ -11,6 +11,12 @@ class RtspStreamClient(
   streamClientListener: StreamClientListener?
 ): StreamBaseClient(streamClientListener) {
 
+  init {
+    streamClientListener?.let { listener ->
+      rtspClient.setKeyFrameRequestListener { listener.onRequestKeyframe() }
+    }
+  }
+
 
   /**
    * Internet protocol used.
@@ -1,6 +1,8 @@
 package com.pedro.library.util.streamclient
 
+import com.pedro.srt.mpeg2ts.MpegTsPacketListener
 import com.pedro.srt.srt.SrtClient
+import com.pedro.srt.srt.SrtStatsListener
 
 /**
  * Created by pedro on 12/10/23.
@@ -10,10 +12,30 @@ class SrtStreamClient(
   streamClientListener: StreamClientListener?
 ): StreamBaseClient(streamClientListener) {
 
+  init {
+    streamClientListener?.let { listener ->
+      srtClient.setKeyFrameRequestListener { listener.onRequestKeyframe() }
+    }
+  }
+
   override fun setAuthorization(user: String?, password: String?) {
     srtClient.setAuthorization(user, password)
   }
 
+  /**
+   * Receive the TS packets sent to the server, for example using a TsRecordController to record the stream.
+   */
+  fun setMpegTsPacketListener(listener: MpegTsPacketListener?) {
+    srtClient.setMpegTsPacketListener(listener)
+  }
+
+  /**
+   * Receive the connection statistics reported by the server periodically while streaming.
+   */
+  fun setStatsListener(listener: SrtStatsListener?) {
+    srtClient.setStatsListener(listener)
+  }
+
   override fun setReTries(reTries: Int) {
     srtClient.setReTries(reTries)
   }
@@ -16,8 +16,38 @@
 
 package com.pedro.rtmp.flv
 
+import com.pedro.rtmp.flv.audio.AacPacket
+import com.pedro.rtmp.flv.video.FourCCPacketType
+import com.pedro.rtmp.flv.video.H264Packet
+import com.pedro.rtmp.flv.video.VideoDataType
+import com.pedro.rtmp.utils.FrameQueue
+
 /**
  * Created by pedro on 8/04/21.
  */
 data class FlvPacket(val buffer: ByteArray = byteArrayOf(), var timeStamp: Long = 0,
-                     val length: Int = 0, val type: FlvType = FlvType.AUDIO)
\ No newline at end of file
+                     val length: Int = 0, val type: FlvType = FlvType.AUDIO) {
+
+  /**
+   * Read from the tag header, used by the send queue to know which packets can be dropped.
+   */
+  fun getFrameType(): FrameQueue.FrameType {
+    if (type == FlvType.AUDIO) {
+      val isSequence = buffer.size > 1 && buffer[1] == AacPacket.Type.SEQUENCE.mark
+      return if (isSequence) FrameQueue.FrameType.CONFIG else FrameQueue.FrameType.AUDIO
+    }
+    if (buffer.size < 2) return FrameQueue.FrameType.VIDEO
+    val header = buffer[0].toInt()
+    //enhanced rtmp use the 4 lower bits as packet type instead of codec id
+    val isSequence = if (header and 0x80 != 0) {
+      header and 0x0F == FourCCPacketType.SEQUENCE_START.value
+    } else {
+      buffer[1] == H264Packet.Type.SEQUENCE.value
+    }
+    return when {
+      isSequence -> FrameQueue.FrameType.CONFIG
+      (header shr 4) and 0x07 == VideoDataType.KEYFRAME.value -> FrameQueue.FrameType.KEY_FRAME
+      else -> FrameQueue.FrameType.VIDEO
+    }
+  }
+}
\ No newline at end of file
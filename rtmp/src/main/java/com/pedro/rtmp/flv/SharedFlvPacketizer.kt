@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.rtmp.flv
+
+import android.media.MediaCodec
+import com.pedro.rtmp.flv.audio.AacPacket
+import com.pedro.rtmp.flv.video.FourCCPacketType
+import com.pedro.rtmp.flv.video.H264Packet
+import com.pedro.rtmp.flv.video.H265Packet
+import com.pedro.rtmp.flv.video.ProfileIop
+import com.pedro.rtmp.rtmp.VideoCodec
+import java.nio.ByteBuffer
+
+/**
+ * Create the FLV packets of each frame only one time to send it to multiple RtmpSender.
+ *
+ * Packets are not modified after the callback so the same instance can be in the queue of all senders.
+ * The last video and audio sequence headers are saved to send it to senders started after them.
+ */
+class SharedFlvPacketizer {
+
+  private val aacPacket = AacPacket()
+  private val h264Packet = H264Packet()
+  private val h265Packet = H265Packet()
+  var videoCodec = VideoCodec.H264
+  @Volatile
+  var videoConfig: FlvPacket? = null
+    private set
+  @Volatile
+  var audioConfig: FlvPacket? = null
+    private set
+
+  fun setVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
+    if (videoCodec == VideoCodec.H265) {
+      if (vps == null) throw IllegalArgumentException("vps can't be null with h265")
+      h265Packet.sendVideoInfo(sps, pps, vps)
+    } else {
+      h264Packet.sendVideoInfo(sps, pps)
+    }
+  }
+
+  fun setProfileIop(profileIop: ProfileIop) {
+    h264Packet.profileIop = profileIop
+  }
+
+  fun setAudioInfo(sampleRate: Int, isStereo: Boolean) {
+    aacPacket.sendAudioInfo(sampleRate, isStereo)
+  }
+
+  fun createVideoPackets(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo, callback: (FlvPacket) -> Unit) {
+    val onPacket = { flvPacket: FlvPacket ->
+      if (isVideoConfig(flvPacket)) videoConfig = flvPacket
+      callback(flvPacket)
+    }
+    if (videoCodec == VideoCodec.H265) {
+      h265Packet.createFlvVideoPacket(h264Buffer, info, onPacket)
+    } else {
+      h264Packet.createFlvVideoPacket(h264Buffer, info, onPacket)
+    }
+  }
+
+  fun createAudioPackets(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo, callback: (FlvPacket) -> Unit) {
+    aacPacket.createFlvAudioPacket(aacBuffer, info) { flvPacket ->
+      if (flvPacket.length > 1 && flvPacket.buffer[1] == AacPacket.Type.SEQUENCE.mark) audioConfig = flvPacket
+      callback(flvPacket)
+    }
+  }
+
+  private fun isVideoConfig(flvPacket: FlvPacket): Boolean {
+    if (flvPacket.length < 2) return false
+    return if (videoCodec == VideoCodec.H265) {
+      //enhanced rtmp header, packet type in the 4 lower bits
+      flvPacket.buffer[0].toInt() and 0x0F == FourCCPacketType.SEQUENCE_START.value
+    } else {
+      flvPacket.buffer[1] == H264Packet.Type.SEQUENCE.value
+    }
+  }
+
+  fun reset(clear: Boolean = true) {
+    aacPacket.reset()
+    h264Packet.reset(clear)
+    h265Packet.reset(clear)
+    videoConfig = null
+    audioConfig = null
+  }
+}
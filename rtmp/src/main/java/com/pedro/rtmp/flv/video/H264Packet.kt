@@ -34,17 +34,20 @@ class H264Packet() {
 
   private val header = ByteArray(5)
   private val naluSize = 4
-  //first time we need send video config
-  private var configSend = false
-
-  private var sps: ByteArray? = null
-  private var pps: ByteArray? = null
+  //written by the encoder thread and read by the sender thread, sps and pps are replaced together
+  @Volatile
+  private var videoInfo: VideoInfo? = null
+  //video info of the last config sent, null if we need send video config
+  @Volatile
+  private var sentInfo: VideoInfo? = null
   var profileIop = ProfileIop.BASELINE
 
   enum class Type(val value: Byte) {
     SEQUENCE(0x00), NALU(0x01), EO_SEQ(0x02)
   }
 
+  private class VideoInfo(val sps: ByteArray, val pps: ByteArray)
+
   fun sendVideoInfo(sps: ByteBuffer, pps: ByteBuffer) {
     val mSps = removeHeader(sps)
     val mPps = removeHeader(pps)
@@ -54,8 +57,10 @@ class H264Packet() {
     mSps.get(spsBytes, 0, spsBytes.size)
     mPps.get(ppsBytes, 0, ppsBytes.size)
 
-    this.sps = spsBytes
-    this.pps = ppsBytes
+    val videoInfo = this.videoInfo
+    if (videoInfo != null && spsBytes.contentEquals(videoInfo.sps) && ppsBytes.contentEquals(videoInfo.pps)) return
+    //video info changed while streaming (resolution change), a new config is sent with the next keyframe
+    this.videoInfo = VideoInfo(spsBytes, ppsBytes)
   }
 
   fun createFlvVideoPacket(
@@ -74,41 +79,39 @@ class H264Packet() {
     header[3] = (cts shr 8).toByte()
     header[4] = cts.toByte()
 
-    var buffer: ByteArray
-    if (!configSend) {
-      header[0] = ((VideoDataType.KEYFRAME.value shl 4) or VideoFormat.AVC.value).toByte()
-      header[1] = Type.SEQUENCE.value
-
-      val sps = this.sps
-      val pps = this.pps
-      if (sps != null && pps != null) {
-        val config = VideoSpecificConfigAVC(sps, pps, profileIop)
-        buffer = ByteArray(config.size + header.size)
-        config.write(buffer, header.size)
-      } else {
-        Log.e(TAG, "waiting for a valid sps and pps")
-        return
-      }
-
-      System.arraycopy(header, 0, buffer, 0, header.size)
-      callback(FlvPacket(buffer, ts, buffer.size, FlvType.VIDEO))
-      configSend = true
+    val videoInfo = this.videoInfo
+    if (videoInfo == null) {
+      Log.e(TAG, "waiting for a valid sps and pps")
+      return
     }
-    val headerSize = getHeaderSize(byteBuffer)
-    if (headerSize == 0) return //invalid buffer or waiting for sps/pps
+    val headerSize = getHeaderSize(byteBuffer, videoInfo)
+    if (headerSize == 0) return //invalid buffer
     byteBuffer.rewind()
     val validBuffer = removeHeader(byteBuffer, headerSize)
     val size = validBuffer.remaining()
-    buffer = ByteArray(header.size + size + naluSize)
 
     val type: Int = (validBuffer.get(0) and 0x1F).toInt()
     var nalType = VideoDataType.INTER_FRAME.value
     if (type == VideoNalType.IDR.value || info.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
       nalType = VideoDataType.KEYFRAME.value
-    } else if (type == VideoNalType.SPS.value || type == VideoNalType.PPS.value) {
+    }
+    //first time we need send video config, if it changed the new config is sent with the keyframe
+    val sentInfo = this.sentInfo
+    if (sentInfo == null || (sentInfo !== videoInfo && nalType == VideoDataType.KEYFRAME.value)) {
+      header[0] = ((VideoDataType.KEYFRAME.value shl 4) or VideoFormat.AVC.value).toByte()
+      header[1] = Type.SEQUENCE.value
+      val config = VideoSpecificConfigAVC(videoInfo.sps, videoInfo.pps, profileIop)
+      val configBuffer = ByteArray(config.size + header.size)
+      config.write(configBuffer, header.size)
+      System.arraycopy(header, 0, configBuffer, 0, header.size)
+      callback(FlvPacket(configBuffer, ts, configBuffer.size, FlvType.VIDEO))
+      this.sentInfo = videoInfo
+    }
+    if (type == VideoNalType.SPS.value || type == VideoNalType.PPS.value) {
       // we don't need send it because we already do it in video config
       return
     }
+    val buffer = ByteArray(header.size + size + naluSize)
     header[0] = ((nalType shl 4) or VideoFormat.AVC.value).toByte()
     header[1] = Type.NALU.value
     writeNaluSize(buffer, header.size, size)
@@ -132,28 +135,23 @@ class H264Packet() {
     return byteBuffer.slice()
   }
 
-  private fun getHeaderSize(byteBuffer: ByteBuffer): Int {
+  private fun getHeaderSize(byteBuffer: ByteBuffer, videoInfo: VideoInfo): Int {
     if (byteBuffer.remaining() < 4) return 0
 
-    val sps = this.sps
-    val pps = this.pps
-    if (sps != null && pps != null) {
-      val startCodeSize = getStartCodeSize(byteBuffer)
-      if (startCodeSize == 0) return 0
-      val startCode = ByteArray(startCodeSize) { 0x00 }
-      startCode[startCodeSize - 1] = 0x01
-      val avcHeader = startCode.plus(sps).plus(startCode).plus(pps).plus(startCode)
-      if (byteBuffer.remaining() < avcHeader.size) return startCodeSize
-
-      val possibleAvcHeader = ByteArray(avcHeader.size)
-      byteBuffer.get(possibleAvcHeader, 0, possibleAvcHeader.size)
-      return if (avcHeader.contentEquals(possibleAvcHeader)) {
-        avcHeader.size
-      } else {
-        startCodeSize
-      }
+    val startCodeSize = getStartCodeSize(byteBuffer)
+    if (startCodeSize == 0) return 0
+    val startCode = ByteArray(startCodeSize) { 0x00 }
+    startCode[startCodeSize - 1] = 0x01
+    val avcHeader = startCode.plus(videoInfo.sps).plus(startCode).plus(videoInfo.pps).plus(startCode)
+    if (byteBuffer.remaining() < avcHeader.size) return startCodeSize
+
+    val possibleAvcHeader = ByteArray(avcHeader.size)
+    byteBuffer.get(possibleAvcHeader, 0, possibleAvcHeader.size)
+    return if (avcHeader.contentEquals(possibleAvcHeader)) {
+      avcHeader.size
+    } else {
+      startCodeSize
     }
-    return 0
   }
 
   private fun getStartCodeSize(byteBuffer: ByteBuffer): Int {
@@ -171,10 +169,7 @@ class H264Packet() {
   }
 
   fun reset(resetInfo: Boolean = true) {
-    if (resetInfo) {
-      sps = null
-      pps = null
-    }
-    configSend = false
+    if (resetInfo) videoInfo = null
+    sentInfo = null
   }
 }
\ No newline at end of file
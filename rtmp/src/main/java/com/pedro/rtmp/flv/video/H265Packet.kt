@@ -32,14 +32,16 @@ class H265Packet {
 
   private val header = ByteArray(8)
   private val naluSize = 4
-  //first time we need send video config
-  private var configSend = false
-
-  private var sps: ByteArray? = null
-  private var pps: ByteArray? = null
-  private var vps: ByteArray? = null
+  //written by the encoder thread and read by the sender thread, sps, pps and vps are replaced together
+  @Volatile
+  private var videoInfo: VideoInfo? = null
+  //video info of the last config sent, null if we need send video config
+  @Volatile
+  private var sentInfo: VideoInfo? = null
   var profileIop = ProfileIop.BASELINE
 
+  private class VideoInfo(val sps: ByteArray, val pps: ByteArray, val vps: ByteArray)
+
   fun sendVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer) {
     val mSps = removeHeader(sps)
     val mPps = removeHeader(pps)
@@ -52,9 +54,13 @@ class H265Packet {
     mPps.get(ppsBytes, 0, ppsBytes.size)
     mVps.get(vpsBytes, 0, vpsBytes.size)
 
-    this.sps = spsBytes
-    this.pps = ppsBytes
-    this.vps = vpsBytes
+    val videoInfo = this.videoInfo
+    if (videoInfo != null && spsBytes.contentEquals(videoInfo.sps) && ppsBytes.contentEquals(videoInfo.pps)
+      && vpsBytes.contentEquals(videoInfo.vps)) {
+      return
+    }
+    //video info changed while streaming (resolution change), a new config is sent with the next keyframe
+    this.videoInfo = VideoInfo(spsBytes, ppsBytes, vpsBytes)
   }
 
   fun createFlvVideoPacket(
@@ -80,41 +86,39 @@ class H265Packet {
     header[6] = (cts shr 8).toByte()
     header[7] = cts.toByte()
 
-    var buffer: ByteArray
-    if (!configSend) {
-      //avoid send cts on sequence start
-      header[0] = (0b10000000 or (VideoDataType.KEYFRAME.value shl 4) or FourCCPacketType.SEQUENCE_START.value).toByte()
-      val sps = this.sps
-      val pps = this.pps
-      val vps = this.vps
-      if (sps != null && pps != null && vps != null) {
-        val config = VideoSpecificConfigHEVC(sps, pps, vps)
-        buffer = ByteArray(config.size + header.size - ctsLength)
-        config.write(buffer, header.size - ctsLength)
-      } else {
-        Log.e(TAG, "waiting for a valid sps and pps")
-        return
-      }
-
-      System.arraycopy(header, 0, buffer, 0, header.size - ctsLength)
-      callback(FlvPacket(buffer, ts, buffer.size, FlvType.VIDEO))
-      configSend = true
+    val videoInfo = this.videoInfo
+    if (videoInfo == null) {
+      Log.e(TAG, "waiting for a valid sps and pps")
+      return
     }
-    val headerSize = getHeaderSize(byteBuffer)
-    if (headerSize == 0) return //invalid buffer or waiting for sps/pps
+    val headerSize = getHeaderSize(byteBuffer, videoInfo)
+    if (headerSize == 0) return //invalid buffer
     byteBuffer.rewind()
     val validBuffer = removeHeader(byteBuffer, headerSize)
     val size = validBuffer.remaining()
-    buffer = ByteArray(header.size + size + naluSize)
 
     val type: Int = validBuffer.get(0).toInt().shr(1 and 0x3f)
     var nalType = VideoDataType.INTER_FRAME.value
     if (type == VideoNalType.IDR_N_LP.value || type == VideoNalType.IDR_W_DLP.value || info.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
       nalType = VideoDataType.KEYFRAME.value
-    } else if (type == VideoNalType.HEVC_VPS.value || type == VideoNalType.HEVC_SPS.value || type == VideoNalType.HEVC_PPS.value) {
+    }
+    //first time we need send video config, if it changed the new config is sent with the keyframe
+    val sentInfo = this.sentInfo
+    if (sentInfo == null || (sentInfo !== videoInfo && nalType == VideoDataType.KEYFRAME.value)) {
+      //avoid send cts on sequence start
+      header[0] = (0b10000000 or (VideoDataType.KEYFRAME.value shl 4) or FourCCPacketType.SEQUENCE_START.value).toByte()
+      val config = VideoSpecificConfigHEVC(videoInfo.sps, videoInfo.pps, videoInfo.vps)
+      val configBuffer = ByteArray(config.size + header.size - ctsLength)
+      config.write(configBuffer, header.size - ctsLength)
+      System.arraycopy(header, 0, configBuffer, 0, header.size - ctsLength)
+      callback(FlvPacket(configBuffer, ts, configBuffer.size, FlvType.VIDEO))
+      this.sentInfo = videoInfo
+    }
+    if (type == VideoNalType.HEVC_VPS.value || type == VideoNalType.HEVC_SPS.value || type == VideoNalType.HEVC_PPS.value) {
       // we don't need send it because we already do it in video config
       return
     }
+    val buffer = ByteArray(header.size + size + naluSize)
     header[0] = (0b10000000 or (nalType shl 4) or FourCCPacketType.CODED_FRAMES.value).toByte()
     writeNaluSize(buffer, header.size, size)
     validBuffer.get(buffer, header.size + naluSize, size)
@@ -137,29 +141,24 @@ class H265Packet {
     return byteBuffer.slice()
   }
 
-  private fun getHeaderSize(byteBuffer: ByteBuffer): Int {
+  private fun getHeaderSize(byteBuffer: ByteBuffer, videoInfo: VideoInfo): Int {
     if (byteBuffer.remaining() < 4) return 0
 
-    val sps = this.sps
-    val pps = this.pps
-    val vps = this.vps
-    if (sps != null && pps != null && vps != null) {
-      val startCodeSize = getStartCodeSize(byteBuffer)
-      if (startCodeSize == 0) return 0
-      val startCode = ByteArray(startCodeSize) { 0x00 }
-      startCode[startCodeSize - 1] = 0x01
-      val avcHeader = startCode.plus(vps).plus(startCode).plus(sps).plus(startCode).plus(pps).plus(startCode)
-      if (byteBuffer.remaining() < avcHeader.size) return startCodeSize
-
-      val possibleAvcHeader = ByteArray(avcHeader.size)
-      byteBuffer.get(possibleAvcHeader, 0, possibleAvcHeader.size)
-      return if (avcHeader.contentEquals(possibleAvcHeader)) {
-        avcHeader.size
-      } else {
-        startCodeSize
-      }
+    val startCodeSize = getStartCodeSize(byteBuffer)
+    if (startCodeSize == 0) return 0
+    val startCode = ByteArray(startCodeSize) { 0x00 }
+    startCode[startCodeSize - 1] = 0x01
+    val avcHeader = startCode.plus(videoInfo.vps).plus(startCode).plus(videoInfo.sps).plus(startCode)
+      .plus(videoInfo.pps).plus(startCode)
+    if (byteBuffer.remaining() < avcHeader.size) return startCodeSize
+
+    val possibleAvcHeader = ByteArray(avcHeader.size)
+    byteBuffer.get(possibleAvcHeader, 0, possibleAvcHeader.size)
+    return if (avcHeader.contentEquals(possibleAvcHeader)) {
+      avcHeader.size
+    } else {
+      startCodeSize
     }
-    return 0
   }
 
   private fun getStartCodeSize(byteBuffer: ByteBuffer): Int {
@@ -177,11 +176,7 @@ class H265Packet {
   }
 
   fun reset(resetInfo: Boolean = true) {
-    if (resetInfo) {
-      sps = null
-      pps = null
-      vps = null
-    }
-    configSend = false
+    if (resetInfo) videoInfo = null
+    sentInfo = null
   }
 }
\ No newline at end of file
@@ -200,10 +200,11 @@ abstract class CommandsManager {
   suspend fun sendVideoPacket(flvPacket: FlvPacket, socket: RtmpSocket): Int {
     writeSync.withLock {
       val output = socket.getOutStream()
-      if (akamaiTs) {
-        flvPacket.timeStamp = ((TimeUtils.getCurrentTimeNano() / 1000 - startTs) / 1000)
-      }
-      val video = Video(flvPacket, streamId)
+      //packet can be shared with other senders, don't modify it
+      val packet = if (akamaiTs) {
+        flvPacket.copy(timeStamp = ((TimeUtils.getCurrentTimeNano() / 1000 - startTs) / 1000))
+      } else flvPacket
+      val video = Video(packet, streamId)
       video.writeHeader(output)
       video.writeBody(output)
       socket.flush(true)
@@ -215,10 +216,11 @@ abstract class CommandsManager {
   suspend fun sendAudioPacket(flvPacket: FlvPacket, socket: RtmpSocket): Int {
     writeSync.withLock {
       val output = socket.getOutStream()
-      if (akamaiTs) {
-        flvPacket.timeStamp = ((TimeUtils.getCurrentTimeNano() / 1000 - startTs) / 1000)
-      }
-      val audio = Audio(flvPacket, streamId)
+      //packet can be shared with other senders, don't modify it
+      val packet = if (akamaiTs) {
+        flvPacket.copy(timeStamp = ((TimeUtils.getCurrentTimeNano() / 1000 - startTs) / 1000))
+      } else flvPacket
+      val audio = Audio(packet, streamId)
       audio.writeHeader(output)
       audio.writeBody(output)
       socket.flush(true)
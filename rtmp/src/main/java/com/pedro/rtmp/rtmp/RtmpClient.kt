@@ -19,12 +19,16 @@ package com.pedro.rtmp.rtmp
 import android.media.MediaCodec
 import android.util.Log
 import com.pedro.rtmp.amf.AmfVersion
+import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.flv.FlvType
+import com.pedro.rtmp.flv.SharedFlvPacketizer
 import com.pedro.rtmp.flv.video.ProfileIop
 import com.pedro.rtmp.rtmp.message.*
 import com.pedro.rtmp.rtmp.message.command.Command
 import com.pedro.rtmp.rtmp.message.control.Type
 import com.pedro.rtmp.rtmp.message.control.UserControl
 import com.pedro.rtmp.utils.AuthUtil
+import com.pedro.rtmp.utils.ComfortFrameFilter
 import com.pedro.rtmp.utils.ConnectCheckerRtmp
 import com.pedro.rtmp.utils.RtmpConfig
 import com.pedro.rtmp.utils.TimeUtils
@@ -543,6 +547,16 @@ class RtmpClient(private val connectCheckerRtmp: ConnectCheckerRtmp) {
     }
   }
 
+  /**
+   * Send a packet created by a [SharedFlvPacketizer] instead of packetize the frame in this client.
+   */
+  fun sendSharedPacket(flvPacket: FlvPacket, packetizer: SharedFlvPacketizer) {
+    val disabled = if (flvPacket.type == FlvType.VIDEO) commandsManager.videoDisabled else commandsManager.audioDisabled
+    if (!disabled) {
+      rtmpSender.sendSharedPacket(flvPacket, packetizer)
+    }
+  }
+
   @JvmOverloads
   @Throws(IllegalArgumentException::class)
   fun hasCongestion(percentUsed: Float = 20f): Boolean {
@@ -570,10 +584,33 @@ class RtmpClient(private val connectCheckerRtmp: ConnectCheckerRtmp) {
     rtmpSender.resizeCache(newSize)
   }
 
+  /**
+   * Audio DTX. Use it with AudioEncoder.setSilenceDetector, while the encoder input is digital
+   * silence only 1 of each comfortInterval audio frames is sent keeping original timestamps.
+   * Disabled by default.
+   */
+  @JvmOverloads
+  @Throws(IllegalArgumentException::class)
+  fun setAudioDtx(enabled: Boolean, comfortInterval: Int = ComfortFrameFilter.DEFAULT_COMFORT_INTERVAL) {
+    rtmpSender.setAudioDtx(enabled, comfortInterval)
+  }
+
+  fun getSkippedAudioFrames(): Long = rtmpSender.getSkippedAudioFrames()
+
+  fun getSkippedAudioBytes(): Long = rtmpSender.getSkippedAudioBytes()
+
   fun setLogs(enable: Boolean) {
     rtmpSender.setLogs(enable)
   }
 
+  /**
+   * Called when video frames are dropped by congestion. The next video frames are discarded
+   * until a key frame so the encoder should produce one as soon as possible.
+   */
+  fun setKeyFrameRequestListener(listener: (() -> Unit)?) {
+    rtmpSender.keyFrameRequestListener = listener
+  }
+
   fun clearCache() {
     rtmpSender.clearCache()
   }
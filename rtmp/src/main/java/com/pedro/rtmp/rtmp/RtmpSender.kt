@@ -20,15 +20,17 @@ import android.media.MediaCodec
 import android.util.Log
 import com.pedro.rtmp.flv.FlvPacket
 import com.pedro.rtmp.flv.FlvType
+import com.pedro.rtmp.flv.SharedFlvPacketizer
 import com.pedro.rtmp.flv.audio.AacPacket
 import com.pedro.rtmp.flv.video.H264Packet
 import com.pedro.rtmp.flv.video.H265Packet
 import com.pedro.rtmp.flv.video.ProfileIop
 import com.pedro.rtmp.utils.BitrateManager
+import com.pedro.rtmp.utils.ComfortFrameFilter
 import com.pedro.rtmp.utils.ConnectCheckerRtmp
+import com.pedro.rtmp.utils.FrameQueue
 import com.pedro.rtmp.utils.onMainThread
 import com.pedro.rtmp.utils.socket.RtmpSocket
-import com.pedro.rtmp.utils.trySend
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
@@ -39,8 +41,6 @@ import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runInterruptible
 import java.nio.ByteBuffer
-import java.util.concurrent.BlockingQueue
-import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.TimeUnit
 
 /**
@@ -60,8 +60,18 @@ class RtmpSender(
 
   private var job: Job? = null
   private val scope = CoroutineScope(Dispatchers.IO)
-  @Volatile
-  private var queue: BlockingQueue<FlvPacket> = LinkedBlockingQueue(cacheSize)
+  private val queue = FrameQueue<FlvPacket>(cacheSize).apply {
+    onFrameDiscarded = { flvPacket, _ ->
+      if (flvPacket.type == FlvType.VIDEO) {
+        Log.i(TAG, "Video frame discarded")
+        droppedVideoFrames++
+      } else {
+        Log.i(TAG, "Audio frame discarded")
+        droppedAudioFrames++
+      }
+    }
+    onKeyFrameRequired = { keyFrameRequestListener?.invoke() }
+  }
   private var audioFramesSent: Long = 0
   private var videoFramesSent: Long = 0
   var socket: RtmpSocket? = null
@@ -70,6 +80,13 @@ class RtmpSender(
   var droppedVideoFrames: Long = 0
     private set
   var videoCodec = VideoCodec.H264
+  //called when video is dropped, next frames are discarded until a key frame
+  @Volatile
+  var keyFrameRequestListener: (() -> Unit)? = null
+  //last sequence headers enqueued from a SharedFlvPacketizer
+  private var sharedVideoConfig: FlvPacket? = null
+  private var sharedAudioConfig: FlvPacket? = null
+  private val comfortFrameFilter = ComfortFrameFilter()
   private val bitrateManager: BitrateManager = BitrateManager(connectCheckerRtmp)
   private var isEnableLogs = true
 
@@ -94,37 +111,53 @@ class RtmpSender(
     aacPacket.sendAudioInfo(sampleRate, isStereo)
   }
 
-  private fun enqueueVideoFrame(flvPacket: FlvPacket) {
-    val result = queue.trySend(flvPacket)
-    if (!result) {
-      Log.i(TAG, "Video frame discarded")
-      droppedVideoFrames++
-    }
+  private fun enqueueFrame(flvPacket: FlvPacket) {
+    queue.offer(flvPacket, flvPacket.getFrameType())
   }
 
   fun sendVideoFrame(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo) {
     if (running) {
       if (videoCodec == VideoCodec.H265) {
         h265Packet.createFlvVideoPacket(h264Buffer, info) { flvPacket ->
-          enqueueVideoFrame(flvPacket)
+          enqueueFrame(flvPacket)
         }
       } else {
         h264Packet.createFlvVideoPacket(h264Buffer, info) { flvPacket ->
-          enqueueVideoFrame(flvPacket)
+          enqueueFrame(flvPacket)
         }
       }
     }
   }
 
   fun sendAudioFrame(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
-    if (running) {
+    if (running && comfortFrameFilter.shouldSend(aacBuffer, info)) {
       aacPacket.createFlvAudioPacket(aacBuffer, info) { flvPacket ->
-        val result = queue.trySend(flvPacket)
-        if (!result) {
-          Log.i(TAG, "Audio frame discarded")
-          droppedAudioFrames++
-        }
+        enqueueFrame(flvPacket)
+      }
+    }
+  }
+
+  /**
+   * Enqueue a packet created by a [SharedFlvPacketizer] used by multiple senders.
+   * The packet is not modified. If this sender didn't send the current sequence header yet
+   * (started after the packetizer), it is enqueued before the packet.
+   */
+  fun sendSharedPacket(flvPacket: FlvPacket, packetizer: SharedFlvPacketizer) {
+    if (!running) return
+    if (flvPacket.type == FlvType.VIDEO) {
+      val config = packetizer.videoConfig
+      if (config != null && config !== sharedVideoConfig) {
+        if (config !== flvPacket) enqueueFrame(config)
+        sharedVideoConfig = config
+      }
+      enqueueFrame(flvPacket)
+    } else {
+      val config = packetizer.audioConfig
+      if (config != null && config !== sharedAudioConfig) {
+        if (config !== flvPacket) enqueueFrame(config)
+        sharedAudioConfig = config
       }
+      enqueueFrame(flvPacket)
     }
   }
 
@@ -190,6 +223,9 @@ class RtmpSender(
     resetSentVideoFrames()
     resetDroppedAudioFrames()
     resetDroppedVideoFrames()
+    comfortFrameFilter.reset()
+    sharedVideoConfig = null
+    sharedAudioConfig = null
     job?.cancelAndJoin()
     job = null
     queue.clear()
@@ -208,9 +244,7 @@ class RtmpSender(
     if (newSize < queue.size - queue.remainingCapacity()) {
       throw RuntimeException("Can't fit current cache inside new cache size")
     }
-    val tempQueue: BlockingQueue<FlvPacket> = LinkedBlockingQueue(newSize)
-    queue.drainTo(tempQueue)
-    queue = tempQueue
+    queue.resize(newSize)
   }
 
   fun getCacheSize(): Int {
@@ -247,6 +281,22 @@ class RtmpSender(
     droppedVideoFrames = 0
   }
 
+  /**
+   * Send only comfort frames while the audio encoder produce repeated silence frames.
+   *
+   * @param comfortInterval send 1 of each comfortInterval silence frames
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setAudioDtx(enabled: Boolean, comfortInterval: Int = ComfortFrameFilter.DEFAULT_COMFORT_INTERVAL) {
+    if (comfortInterval < 1) throw IllegalArgumentException("comfortInterval must be 1 or more")
+    comfortFrameFilter.comfortInterval = comfortInterval
+    comfortFrameFilter.enabled = enabled
+  }
+
+  fun getSkippedAudioFrames(): Long = comfortFrameFilter.skippedFrames
+
+  fun getSkippedAudioBytes(): Long = comfortFrameFilter.skippedBytes
+
   fun setLogs(enable: Boolean) {
     isEnableLogs = enable
   }
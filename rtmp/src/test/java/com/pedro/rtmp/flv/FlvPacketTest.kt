@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.flv
+
+import com.pedro.rtmp.utils.FrameQueue
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class FlvPacketTest {
+
+  private fun packet(type: FlvType, vararg header: Int): FlvPacket {
+    val buffer = ByteArray(8)
+    header.forEachIndexed { i, b -> buffer[i] = b.toByte() }
+    return FlvPacket(buffer, type = type)
+  }
+
+  @Test
+  fun `GIVEN flv packets WHEN get frame type THEN sequence headers are config and key frames are detected`() {
+    //avc: frame type (4 bits), codec id 7, avc packet type
+    assertEquals(FrameQueue.FrameType.CONFIG, packet(FlvType.VIDEO, 0x17, 0x00).getFrameType())
+    assertEquals(FrameQueue.FrameType.KEY_FRAME, packet(FlvType.VIDEO, 0x17, 0x01).getFrameType())
+    assertEquals(FrameQueue.FrameType.VIDEO, packet(FlvType.VIDEO, 0x27, 0x01).getFrameType())
+    //enhanced rtmp: ex header bit, frame type (3 bits), packet type
+    assertEquals(FrameQueue.FrameType.CONFIG, packet(FlvType.VIDEO, 0x90).getFrameType())
+    assertEquals(FrameQueue.FrameType.KEY_FRAME, packet(FlvType.VIDEO, 0x91).getFrameType())
+    assertEquals(FrameQueue.FrameType.VIDEO, packet(FlvType.VIDEO, 0xA1).getFrameType())
+    assertEquals(FrameQueue.FrameType.CONFIG, packet(FlvType.AUDIO, 0xAF, 0x00).getFrameType())
+    assertEquals(FrameQueue.FrameType.AUDIO, packet(FlvType.AUDIO, 0xAF, 0x01).getFrameType())
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.rtmp.flv
+
+import android.media.MediaCodec
+import com.pedro.rtmp.flv.video.H264Packet
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.util.concurrent.LinkedBlockingQueue
+
+class SharedFlvPacketizerTest {
+
+  private val sps = byteArrayOf(103, 100, 0, 30, -84, -76, 15, 2, -115, 53, 2, 2, 2, 7, -117, 23, 8)
+  private val pps = byteArrayOf(104, -18, 13, -117)
+  private val frames = List(30) { index ->
+    val size = if (index == 0) 120_000 else 25_000
+    val nalType: Byte = if (index == 0) 0x65 else 0x41
+    byteArrayOf(0x00, 0x00, 0x00, 0x01, nalType).plus(ByteArray(size) { (it * 31 + index).toByte() })
+  }
+
+  private fun createInfo(frame: ByteArray, index: Int) = MediaCodec.BufferInfo().apply {
+    presentationTimeUs = index * 33_333L
+    offset = 0
+    size = frame.size
+    flags = if (index == 0) MediaCodec.BUFFER_FLAG_KEY_FRAME else 0
+  }
+
+  @Test
+  fun `GIVEN a shared packetizer WHEN create packets THEN save the last sequence headers`() {
+    val packetizer = SharedFlvPacketizer()
+    packetizer.setVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps), null)
+    packetizer.setAudioInfo(44100, true)
+    val packets = mutableListOf<FlvPacket>()
+    frames.take(2).forEachIndexed { index, frame ->
+      packetizer.createVideoPackets(ByteBuffer.wrap(frame), createInfo(frame, index)) { packets.add(it) }
+    }
+    //config, key frame and inter frame
+    assertEquals(3, packets.size)
+    assertSame(packets[0], packetizer.videoConfig)
+    val aac = ByteArray(300)
+    val audioInfo = MediaCodec.BufferInfo().apply { size = aac.size }
+    packetizer.createAudioPackets(ByteBuffer.wrap(aac), audioInfo) { packets.add(it) }
+    packetizer.createAudioPackets(ByteBuffer.wrap(aac), audioInfo) { packets.add(it) }
+    assertSame(packets[3], packetizer.audioConfig)
+    assertEquals(FlvType.AUDIO, packets[4].type)
+    //info changed, a new sequence header is created with the next frame
+    packetizer.setVideoInfo(ByteBuffer.wrap(sps.copyOf(sps.size - 1)), ByteBuffer.wrap(pps), null)
+    packetizer.createVideoPackets(ByteBuffer.wrap(frames[0]), createInfo(frames[0], 0)) { packets.add(it) }
+    assertSame(packets[5], packetizer.videoConfig)
+    packetizer.reset()
+    assertEquals(null, packetizer.videoConfig)
+  }
+
+  /**
+   * Compare a packetizer per destination (previous multi stream) with a shared packetizer.
+   * Sender queues are used as stand-in sockets and drained after each frame. Times are only printed.
+   */
+  @Test
+  fun `GIVEN 1 and 6 destinations WHEN packetize once THEN all destinations receive the same packet of each frame`() {
+    val iterations = 20
+    listOf(1, 6).forEach { destinations ->
+      val queues = List(destinations) { LinkedBlockingQueue<FlvPacket>() }
+      val h264Packets = List(destinations) {
+        H264Packet().apply { sendVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps)) }
+      }
+      var bytes = 0L
+      val perDestination = measure(iterations) {
+        frames.forEachIndexed { index, frame ->
+          h264Packets.forEachIndexed { i, h264Packet ->
+            h264Packet.createFlvVideoPacket(ByteBuffer.wrap(frame), createInfo(frame, index)) { queues[i].offer(it) }
+          }
+          queues.forEach { queue -> while (true) bytes += (queue.poll() ?: break).length }
+        }
+      }
+      val packetizer = SharedFlvPacketizer()
+      packetizer.setVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps), null)
+      val shared = measure(iterations) {
+        frames.forEachIndexed { index, frame ->
+          packetizer.createVideoPackets(ByteBuffer.wrap(frame), createInfo(frame, index)) { flvPacket ->
+            queues.forEach { it.offer(flvPacket) }
+          }
+          queues.forEach { queue -> while (true) bytes += (queue.poll() ?: break).length }
+        }
+      }
+      val frameCount = frames.size * iterations
+      println("$destinations destinations, packetizer per destination: ${perDestination.first / frameCount} ns/frame, " +
+          "${perDestination.second / frameCount} bytes/frame, shared: ${shared.first / frameCount} ns/frame, ${shared.second / frameCount} bytes/frame")
+      assertTrue(bytes > 0)
+    }
+    //each frame is packetized once and the same instance is queued in all destinations
+    val queues = List(6) { LinkedBlockingQueue<FlvPacket>() }
+    val packetizer = SharedFlvPacketizer()
+    packetizer.setVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps), null)
+    frames.forEachIndexed { index, frame ->
+      var framePackets = 0
+      packetizer.createVideoPackets(ByteBuffer.wrap(frame), createInfo(frame, index)) { flvPacket ->
+        if (flvPacket !== packetizer.videoConfig) framePackets++
+        queues.forEach { it.offer(flvPacket) }
+      }
+      assertEquals(1, framePackets)
+      val sent = queues[0].toList()
+      queues.forEach { queue -> sent.forEach { assertSame(it, queue.poll()) } }
+    }
+  }
+
+  /**
+   * @return time in nanoseconds and bytes allocated (-1 if not supported by the JVM)
+   */
+  private inline fun measure(iterations: Int, block: () -> Unit): Pair<Long, Long> {
+    //warm up
+    repeat(iterations) { block() }
+    val startAllocated = allocatedBytes()
+    val start = System.nanoTime()
+    repeat(iterations) { block() }
+    val time = System.nanoTime() - start
+    val allocated = if (startAllocated < 0) -1 else allocatedBytes() - startAllocated
+    return Pair(time, allocated)
+  }
+
+  private fun allocatedBytes(): Long {
+    val bean = ManagementFactory.getThreadMXBean()
+    return if (bean is com.sun.management.ThreadMXBean) bean.getThreadAllocatedBytes(Thread.currentThread().id) else -1
+  }
+}
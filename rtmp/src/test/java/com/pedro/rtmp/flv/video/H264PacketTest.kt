@@ -41,4 +41,38 @@ class H264PacketTest {
     assertArrayEquals(expectedConfig, frames[0].buffer)
     assertArrayEquals(expectedFlvPacket, frames[1].buffer)
   }
-}
\ No newline at end of file
+
+  @Test
+  fun `GIVEN video info changed while streaming WHEN create packets THEN new config is sent with the next keyframe`() {
+    val sps = byteArrayOf(103, 100, 0, 30, -84, -76, 15, 2, -115, 53, 2, 2, 2, 7, -117, 23, 8)
+    val pps = byteArrayOf(104, -18, 13, -117)
+    val newPps = byteArrayOf(104, -18, 13, -116)
+    val keyFrame = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x65).plus(ByteArray(100))
+    val frame = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x41).plus(ByteArray(100))
+    val h264Packet = H264Packet()
+    val frames = mutableListOf<FlvPacket>()
+    fun send(buffer: ByteArray, isKeyFrame: Boolean) {
+      val info = MediaCodec.BufferInfo()
+      info.size = buffer.size
+      info.flags = if (isKeyFrame) MediaCodec.BUFFER_FLAG_KEY_FRAME else 0
+      h264Packet.createFlvVideoPacket(ByteBuffer.wrap(buffer), info) { frames.add(it) }
+    }
+    fun isConfig(flvPacket: FlvPacket) = flvPacket.buffer[1] == H264Packet.Type.SEQUENCE.value
+
+    h264Packet.sendVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps))
+    send(keyFrame, true)
+    send(frame, false)
+    //same info again, nothing to send
+    h264Packet.sendVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps))
+    send(frame, false)
+    assertEquals(listOf(true, false, false, false), frames.map { isConfig(it) })
+
+    frames.clear()
+    h264Packet.sendVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(newPps))
+    send(frame, false)
+    send(keyFrame, true)
+    send(frame, false)
+    assertEquals(listOf(false, true, false, false), frames.map { isConfig(it) })
+    assertEquals(newPps.last(), frames[1].buffer.last())
+  }
+}
@@ -124,11 +124,11 @@ class H264Packet(
     }
   }
 
-  private fun setSpsPps(sps: ByteArray, pps: ByteArray) {
+  fun setSpsPps(sps: ByteArray, pps: ByteArray) {
     this.sps = sps
     this.pps = pps
-    stapA = ByteArray(sps.size + pps.size + 5)
-    stapA?.let {
+    //filled before assign it, the packet can be in use by the sender thread
+    ByteArray(sps.size + pps.size + 5).let {
       // STAP-A NAL header is 24
       it[0] = 24
 
@@ -143,6 +143,7 @@ class H264Packet(
       // Write NALU 1 into the array, then write NALU 2 into the array.
       System.arraycopy(sps, 0, it, 3, sps.size)
       System.arraycopy(pps, 0, it, 5 + sps.size, pps.size)
+      stapA = it
     }
   }
 
@@ -127,9 +127,9 @@ class H265Packet(
     }
   }
 
-  private fun setSpsPpsVps(sps: ByteArray, pps: ByteArray, vps: ByteArray) {
-    stapA = ByteArray(sps.size + pps.size + 6)
-    stapA?.let {
+  fun setSpsPpsVps(sps: ByteArray, pps: ByteArray, vps: ByteArray) {
+    //filled before assign it, the packet can be in use by the sender thread
+    ByteArray(sps.size + pps.size + 6).let {
       it[0] = (48 shl 1).toByte()
       it[1] = 1
 
@@ -144,6 +144,7 @@ class H265Packet(
       // Write NALU 1 into the array, then write NALU 2 into the array.
       System.arraycopy(sps, 0, it, 4, sps.size)
       System.arraycopy(pps, 0, it, 6 + sps.size, pps.size)
+      stapA = it
     }
   }
 
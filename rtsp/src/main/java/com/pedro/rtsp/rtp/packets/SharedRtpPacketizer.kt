@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.rtsp.rtp.packets
+
+import android.media.MediaCodec
+import com.pedro.rtsp.rtsp.RtpFrame
+import com.pedro.rtsp.utils.getData
+import java.nio.ByteBuffer
+import java.util.Random
+
+/**
+ * Create the RTP packets of each frame only one time to send it to multiple RtspSender.
+ *
+ * All senders use the same SSRC and sequence numbers. Frames are created without ports,
+ * each sender set its own ports before enqueue it so the buffer is never modified.
+ */
+class SharedRtpPacketizer {
+
+  @Volatile
+  private var videoPacket: BasePacket? = null
+  @Volatile
+  private var aacPacket: AacPacket? = null
+  val ssrcVideo = Random().nextInt().toLong()
+  val ssrcAudio = Random().nextInt().toLong()
+
+  fun setVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
+    val spsBytes = sps.getData()
+    val ppsBytes = pps.getData()
+    val vpsBytes = vps?.getData()
+    val packet = videoPacket
+    //keep rtp sequence if video info changed while streaming
+    if (vpsBytes == null && packet is H264Packet) packet.setSpsPps(spsBytes, ppsBytes)
+    else if (vpsBytes != null && packet is H265Packet) packet.setSpsPpsVps(spsBytes, ppsBytes, vpsBytes)
+    else {
+      val newPacket = if (vpsBytes == null) H264Packet(spsBytes, ppsBytes) else H265Packet(spsBytes, ppsBytes, vpsBytes)
+      newPacket.setSSRC(ssrcVideo)
+      videoPacket = newPacket
+    }
+  }
+
+  fun setAudioInfo(sampleRate: Int) {
+    aacPacket = AacPacket(sampleRate).apply { setSSRC(ssrcAudio) }
+  }
+
+  fun createVideoPackets(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo, callback: (RtpFrame) -> Unit) {
+    videoPacket?.createAndSendPacket(h264Buffer, info, callback)
+  }
+
+  fun createAudioPackets(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo, callback: (RtpFrame) -> Unit) {
+    aacPacket?.createAndSendPacket(aacBuffer, info, callback)
+  }
+
+  fun reset() {
+    videoPacket?.let {
+      it.reset()
+      it.setSSRC(ssrcVideo)
+    }
+    aacPacket?.let {
+      it.reset()
+      it.setSSRC(ssrcAudio)
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.pedro.rtsp.rtsp
 
+import com.pedro.rtsp.utils.FrameQueue
 import com.pedro.rtsp.utils.RtpConstants
 
 /**
@@ -26,6 +27,19 @@ data class RtpFrame(val buffer: ByteArray, val timeStamp: Long, val length: Int,
 
   fun isVideoFrame(): Boolean = channelIdentifier == RtpConstants.trackVideo
 
+  /**
+   * Used by the send queue to know which packets can be dropped. Only the first packet of a key frame
+   * is a key frame, the parameter sets aggregated packet (STAP-A in H264, AP in H265) sent before it.
+   * The rest of packets of the frame are removed with it because they have the same timestamp.
+   */
+  fun getFrameType(isH265: Boolean): FrameQueue.FrameType {
+    if (!isVideoFrame()) return FrameQueue.FrameType.AUDIO
+    if (length <= RtpConstants.RTP_HEADER_LENGTH) return FrameQueue.FrameType.VIDEO
+    val nalHeader = buffer[RtpConstants.RTP_HEADER_LENGTH].toInt()
+    val isAggregation = if (isH265) (nalHeader shr 1) and 0x3F == 48 else nalHeader and 0x1F == 24
+    return if (isAggregation) FrameQueue.FrameType.KEY_FRAME else FrameQueue.FrameType.VIDEO
+  }
+
   override fun equals(other: Any?): Boolean {
     if (this === other) return true
     if (javaClass != other?.javaClass) return false
@@ -18,8 +18,10 @@ package com.pedro.rtsp.rtsp
 
 import android.media.MediaCodec
 import android.util.Log
+import com.pedro.rtsp.rtp.packets.SharedRtpPacketizer
 import com.pedro.rtsp.rtsp.commands.CommandsManager
 import com.pedro.rtsp.rtsp.commands.Method
+import com.pedro.rtsp.utils.ComfortFrameFilter
 import com.pedro.rtsp.utils.ConnectCheckerRtsp
 import com.pedro.rtsp.utils.CreateSSLSocket.createSSlSocket
 import com.pedro.rtsp.utils.RtpConstants
@@ -140,6 +142,10 @@ class RtspClient(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     Log.i(TAG, "send sps and pps")
     commandsManager.setVideoInfo(sps, pps, vps)
     if (mutex.isLocked) runCatching { mutex.unlock() }
+    //video info changed while streaming, sent with the next keyframe
+    if (rtspSender.isRunning()) {
+      rtspSender.setVideoInfo(commandsManager.sps!!, commandsManager.pps!!, commandsManager.vps)
+    }
   }
 
   fun setAudioInfo(sampleRate: Int, isStereo: Boolean) {
@@ -427,6 +433,16 @@ class RtspClient(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     }
   }
 
+  /**
+   * Send a frame created by a [SharedRtpPacketizer] instead of packetize the frame in this client.
+   */
+  fun sendSharedFrame(rtpFrame: RtpFrame, packetizer: SharedRtpPacketizer) {
+    val disabled = if (rtpFrame.isVideoFrame()) commandsManager.videoDisabled else commandsManager.audioDisabled
+    if (!disabled) {
+      rtspSender.sendSharedFrame(rtpFrame, packetizer)
+    }
+  }
+
   @JvmOverloads
   @Throws(IllegalArgumentException::class)
   fun hasCongestion(percentUsed: Float = 20f): Boolean {
@@ -465,10 +481,33 @@ class RtspClient(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     rtspSender.resizeCache(newSize)
   }
 
+  /**
+   * Audio DTX. Use it with AudioEncoder.setSilenceDetector, while the encoder input is digital
+   * silence only 1 of each comfortInterval audio frames is sent keeping original timestamps.
+   * Disabled by default.
+   */
+  @JvmOverloads
+  @Throws(IllegalArgumentException::class)
+  fun setAudioDtx(enabled: Boolean, comfortInterval: Int = ComfortFrameFilter.DEFAULT_COMFORT_INTERVAL) {
+    rtspSender.setAudioDtx(enabled, comfortInterval)
+  }
+
+  fun getSkippedAudioFrames(): Long = rtspSender.getSkippedAudioFrames()
+
+  fun getSkippedAudioBytes(): Long = rtspSender.getSkippedAudioBytes()
+
   fun setLogs(enable: Boolean) {
     rtspSender.setLogs(enable)
   }
 
+  /**
+   * Called when video frames are dropped by congestion. The next video frames are discarded
+   * until a key frame so the encoder should produce one as soon as possible.
+   */
+  fun setKeyFrameRequestListener(listener: (() -> Unit)?) {
+    rtspSender.keyFrameRequestListener = listener
+  }
+
   fun clearCache() {
     rtspSender.clearCache()
   }
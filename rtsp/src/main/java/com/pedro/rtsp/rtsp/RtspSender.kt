@@ -23,10 +23,11 @@ import com.pedro.rtsp.rtp.packets.*
 import com.pedro.rtsp.rtp.sockets.BaseRtpSocket
 import com.pedro.rtsp.rtp.sockets.RtpSocketTcp
 import com.pedro.rtsp.utils.BitrateManager
+import com.pedro.rtsp.utils.ComfortFrameFilter
 import com.pedro.rtsp.utils.ConnectCheckerRtsp
+import com.pedro.rtsp.utils.FrameQueue
 import com.pedro.rtsp.utils.RtpConstants
 import com.pedro.rtsp.utils.onMainThread
-import com.pedro.rtsp.utils.trySend
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
@@ -59,9 +60,26 @@ class RtspSender(private val connectCheckerRtsp: ConnectCheckerRtsp) {
   private var running = false
 
   private var job: Job? = null
+  private var lastDroppedVideoTs = -1L
   private val scope = CoroutineScope(Dispatchers.IO)
-  @Volatile
-  private var queue: BlockingQueue<RtpFrame> = LinkedBlockingQueue(cacheSize)
+  private val queue = FrameQueue<RtpFrame>(cacheSize).apply {
+    onFrameDiscarded = { rtpFrame, _ ->
+      if (rtpFrame.isVideoFrame()) {
+        //a video frame is discarded in multiple rtp packets, count it only once
+        if (rtpFrame.timeStamp != lastDroppedVideoTs) {
+          lastDroppedVideoTs = rtpFrame.timeStamp
+          Log.i(TAG, "Video frame discarded")
+          droppedVideoFrames++
+        }
+      } else {
+        Log.i(TAG, "Audio frame discarded")
+        droppedAudioFrames++
+      }
+    }
+    onKeyFrameRequired = { keyFrameRequestListener?.invoke() }
+    //a video frame is sent in multiple rtp packets with the same timestamp, drop all of them
+    isSameFrame = { a, b -> a.isVideoFrame() && b.isVideoFrame() && a.timeStamp == b.timeStamp }
+  }
 
   private var audioFramesSent: Long = 0
   private var videoFramesSent: Long = 0
@@ -69,6 +87,16 @@ class RtspSender(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     private set
   var droppedVideoFrames: Long = 0
     private set
+  private var videoRtpPort = 0
+  private var videoRtcpPort = 0
+  private var audioRtpPort = 0
+  private var audioRtcpPort = 0
+  //called when video is dropped, next frames are discarded until a key frame
+  @Volatile
+  var keyFrameRequestListener: (() -> Unit)? = null
+  //packetizer used to set the SSRC of sender reports
+  private var sharedPacketizer: SharedRtpPacketizer? = null
+  private val comfortFrameFilter = ComfortFrameFilter()
   private val bitrateManager: BitrateManager = BitrateManager(connectCheckerRtsp)
   private var isEnableLogs = true
 
@@ -83,9 +111,15 @@ class RtspSender(private val connectCheckerRtsp: ConnectCheckerRtsp) {
   }
 
   fun setVideoInfo(sps: ByteArray, pps: ByteArray, vps: ByteArray?) {
-    videoPacket = if (vps == null) H264Packet(sps, pps) else H265Packet(sps, pps, vps)
+    val packet = videoPacket
+    //video info changed while streaming (resolution change), keep rtp sequence and ssrc
+    if (running && vps == null && packet is H264Packet) packet.setSpsPps(sps, pps)
+    else if (running && vps != null && packet is H265Packet) packet.setSpsPpsVps(sps, pps, vps)
+    else videoPacket = if (vps == null) H264Packet(sps, pps) else H265Packet(sps, pps, vps)
   }
 
+  fun isRunning(): Boolean = running
+
   fun setAudioInfo(sampleRate: Int) {
     aacPacket = AacPacket(sampleRate)
   }
@@ -97,46 +131,65 @@ class RtspSender(private val connectCheckerRtsp: ConnectCheckerRtsp) {
   }
 
   fun setVideoPorts(rtpPort: Int, rtcpPort: Int) {
+    videoRtpPort = rtpPort
+    videoRtcpPort = rtcpPort
     videoPacket?.setPorts(rtpPort, rtcpPort)
   }
 
   fun setAudioPorts(rtpPort: Int, rtcpPort: Int) {
+    audioRtpPort = rtpPort
+    audioRtcpPort = rtcpPort
     aacPacket?.setPorts(rtpPort, rtcpPort)
   }
 
+  private fun enqueueFrame(rtpFrame: RtpFrame) {
+    queue.offer(rtpFrame, rtpFrame.getFrameType(videoPacket is H265Packet))
+  }
+
   fun sendVideoFrame(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo) {
     if (running) {
       videoPacket?.createAndSendPacket(h264Buffer, info) { rtpFrame ->
-        val result = queue.trySend(rtpFrame)
-        if (!result) {
-          Log.i(TAG, "Video frame discarded")
-          droppedVideoFrames++
-        }
+        enqueueFrame(rtpFrame)
       }
     }
   }
 
   fun sendAudioFrame(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
-    if (running) {
+    if (running && comfortFrameFilter.shouldSend(aacBuffer, info)) {
       aacPacket?.createAndSendPacket(aacBuffer, info) { rtpFrame ->
-        val result = queue.trySend(rtpFrame)
-        if (!result) {
-          Log.i(TAG, "Audio frame discarded")
-          droppedAudioFrames++
-        }
+        enqueueFrame(rtpFrame)
       }
     }
   }
 
+  /**
+   * Enqueue a frame created by a [SharedRtpPacketizer] used by multiple senders.
+   * The buffer is shared, only the ports of this sender are changed in a copy of the frame.
+   */
+  fun sendSharedFrame(rtpFrame: RtpFrame, packetizer: SharedRtpPacketizer) {
+    if (!running) return
+    if (sharedPacketizer !== packetizer) {
+      sharedPacketizer = packetizer
+      baseSenderReport?.setSSRC(packetizer.ssrcVideo, packetizer.ssrcAudio)
+    }
+    val isVideo = rtpFrame.isVideoFrame()
+    val rtpPort = if (isVideo) videoRtpPort else audioRtpPort
+    val rtcpPort = if (isVideo) videoRtcpPort else audioRtcpPort
+    val frame = if (rtpFrame.rtpPort == rtpPort && rtpFrame.rtcpPort == rtcpPort) rtpFrame
+    else rtpFrame.copy(rtpPort = rtpPort, rtcpPort = rtcpPort)
+    enqueueFrame(frame)
+  }
+
   fun start() {
     queue.clear()
+    //set before launch, sendSharedFrame can replace it after start
+    val ssrcVideo = Random().nextInt().toLong()
+    val ssrcAudio = Random().nextInt().toLong()
+    baseSenderReport?.setSSRC(ssrcVideo, ssrcAudio)
+    videoPacket?.setSSRC(ssrcVideo)
+    aacPacket?.setSSRC(ssrcAudio)
     running = true
     job = scope.launch {
-      val ssrcVideo = Random().nextInt().toLong()
-      val ssrcAudio = Random().nextInt().toLong()
-      baseSenderReport?.setSSRC(ssrcVideo, ssrcAudio)
-      videoPacket?.setSSRC(ssrcVideo)
-      aacPacket?.setSSRC(ssrcAudio)
       val isTcp = rtpSocket is RtpSocketTcp
       var bytesSend = 0L
       val bitrateTask = async {
@@ -191,6 +244,8 @@ class RtspSender(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     resetSentVideoFrames()
     resetDroppedAudioFrames()
     resetDroppedVideoFrames()
+    comfortFrameFilter.reset()
+    sharedPacketizer = null
     job?.cancelAndJoin()
     job = null
     queue.clear()
@@ -209,9 +264,7 @@ class RtspSender(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     if (newSize < queue.size - queue.remainingCapacity()) {
       throw RuntimeException("Can't fit current cache inside new cache size")
     }
-    val tempQueue: BlockingQueue<RtpFrame> = LinkedBlockingQueue(newSize)
-    queue.drainTo(tempQueue)
-    queue = tempQueue
+    queue.resize(newSize)
   }
 
   fun getCacheSize(): Int {
@@ -248,6 +301,22 @@ class RtspSender(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     droppedVideoFrames = 0
   }
 
+  /**
+   * Send only comfort frames while the audio encoder produce repeated silence frames.
+   *
+   * @param comfortInterval send 1 of each comfortInterval silence frames
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setAudioDtx(enabled: Boolean, comfortInterval: Int = ComfortFrameFilter.DEFAULT_COMFORT_INTERVAL) {
+    if (comfortInterval < 1) throw IllegalArgumentException("comfortInterval must be 1 or more")
+    comfortFrameFilter.comfortInterval = comfortInterval
+    comfortFrameFilter.enabled = enabled
+  }
+
+  fun getSkippedAudioFrames(): Long = comfortFrameFilter.skippedFrames
+
+  fun getSkippedAudioBytes(): Long = comfortFrameFilter.skippedBytes
+
   fun setLogs(enable: Boolean) {
     isEnableLogs = enable
   }
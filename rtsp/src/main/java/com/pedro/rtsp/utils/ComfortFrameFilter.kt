@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.rtsp.utils
+
+import android.media.MediaCodec
+import java.nio.ByteBuffer
+
+/**
+ * Audio discontinuous transmission (DTX).
+ *
+ * Encoders produce identical frames when the input is digital silence (see
+ * AudioEncoder.setSilenceDetector). After hangoverFrames repeated frames only 1 of each
+ * comfortInterval frames is sent, with its original timestamp so the timeline is continuous.
+ * The first different frame ends the silence and is always sent.
+ */
+class ComfortFrameFilter(private val maxFrameSize: Int = 2048) {
+
+  companion object {
+    const val DEFAULT_COMFORT_INTERVAL = 4
+    const val DEFAULT_HANGOVER_FRAMES = 2
+  }
+
+  @Volatile
+  var enabled = false
+  @Volatile
+  var comfortInterval = DEFAULT_COMFORT_INTERVAL
+  @Volatile
+  var hangoverFrames = DEFAULT_HANGOVER_FRAMES
+  var skippedFrames = 0L
+    private set
+  var skippedBytes = 0L
+    private set
+  private val previous = ByteArray(maxFrameSize)
+  private var previousSize = -1
+  private var repeated = 0
+
+  /**
+   * @return false if the frame is a repeated silence frame that should not be sent
+   */
+  fun shouldSend(buffer: ByteBuffer, info: MediaCodec.BufferInfo): Boolean {
+    if (!enabled) return true
+    val size = info.size
+    val offset = info.offset
+    if (size <= 0 || size > maxFrameSize) {
+      previousSize = -1
+      repeated = 0
+      return true
+    }
+    if (isRepeated(buffer, offset, size)) {
+      repeated++
+    } else {
+      for (i in 0 until size) previous[i] = buffer.get(offset + i)
+      previousSize = size
+      repeated = 0
+    }
+    if (repeated < hangoverFrames || (repeated - hangoverFrames) % comfortInterval == 0) return true
+    skippedFrames++
+    skippedBytes += size
+    return false
+  }
+
+  fun reset() {
+    previousSize = -1
+    repeated = 0
+    skippedFrames = 0
+    skippedBytes = 0
+  }
+
+  private fun isRepeated(buffer: ByteBuffer, offset: Int, size: Int): Boolean {
+    if (size != previousSize) return false
+    for (i in 0 until size) {
+      if (previous[i] != buffer.get(offset + i)) return false
+    }
+    return true
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtsp
+
+import android.media.MediaCodec
+import com.pedro.rtsp.rtp.packets.H264Packet
+import com.pedro.rtsp.utils.FrameQueue
+import com.pedro.rtsp.utils.RtpConstants
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class RtpFrameTest {
+
+  @Test
+  fun `GIVEN a big h264 key frame WHEN get frame type of rtp packets THEN only the first packet is a key frame`() {
+    val header = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x05)
+    val fakeH264 = header.plus(ByteArray(2500) { 0x00 })
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = 123456789L
+    info.size = fakeH264.size
+    info.flags = MediaCodec.BUFFER_FLAG_KEY_FRAME
+    val h264Packet = H264Packet(byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x02), byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x0A))
+    val frames = mutableListOf<RtpFrame>()
+    h264Packet.createAndSendPacket(ByteBuffer.wrap(fakeH264), info) { frames.add(it) }
+    //stap-a with sps and pps followed by fu-a packets
+    assertTrue(frames.size > 2)
+    assertEquals(FrameQueue.FrameType.KEY_FRAME, frames[0].getFrameType(false))
+    frames.drop(1).forEach { assertEquals(FrameQueue.FrameType.VIDEO, it.getFrameType(false)) }
+    //all packets of the frame have the same timestamp so the send queue can drop the whole frame
+    assertTrue(frames.all { it.timeStamp == frames[0].timeStamp })
+    val audio = RtpFrame(ByteArray(20), 0, 20, 1, 2, RtpConstants.trackAudio)
+    assertEquals(FrameQueue.FrameType.AUDIO, audio.getFrameType(false))
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+import java.util.PriorityQueue
+import kotlin.math.abs
+
+/**
+ * Generate decoding timestamps for video.
+ *
+ * Encoders output frames in decoding order so a frame with a PTS lower than a previous frame means that
+ * the stream has B-frames. The reorder depth is the max number of previous frames with a greater PTS.
+ * With a reorder depth of N, the DTS of a frame is the lowest PTS not used yet while N frames are pending,
+ * so DTS is N frames behind PTS.
+ *
+ * B-frames are only detected when the first reordered frame arrives, so the reorder depth used starts
+ * with [initialReorderDepth] and the DTS and PTS timelines are shifted from the first frame with a fixed
+ * [ptsOffset] (reorder depth x frame duration). That way DTS always increase and is never greater than PTS.
+ * The same offset must be added to the PTS of all tracks to keep sync.
+ * If the stream has a deeper reorder than expected the offset grows to keep DTS <= PTS.
+ * Without B-frames (initial reorder depth 0) DTS is the same that PTS.
+ */
+class DtsGenerator {
+
+  companion object {
+    private const val MAX_REORDER_DEPTH = 16
+    //I P B B and hierarchical B-frames (I P B B B)
+    const val DEFAULT_REORDER_DEPTH = 2
+    private const val DEFAULT_FRAME_DURATION = 33_333L //microseconds
+    private const val MIN_FRAME_DURATION = 1_000L //microseconds
+    //more than 1 tick of the 90 kHz clock, so DTS written always increase
+    private const val MIN_DTS_INCREMENT = 12L //microseconds
+  }
+
+  private val pendingPts = PriorityQueue<Long>()
+  private val recentPts = LongArray(MAX_REORDER_DEPTH)
+  private var recentCount = 0
+  private var recentIndex = 0
+  private var lastPts = -1L
+  private var lastDts = -1L
+  private var frameDuration = DEFAULT_FRAME_DURATION
+  /**
+   * Reorder depth expected from the first frame. Use 0 if the stream can't have B-frames (like H264 baseline)
+   * to avoid delay the PTS. Applied in the next first frame.
+   */
+  var initialReorderDepth = DEFAULT_REORDER_DEPTH
+  //reorder depth detected
+  var reorderDepth = 0
+    private set
+  //microseconds to add to the PTS of all tracks, fixed after the first frame
+  var ptsOffset = 0L
+    private set
+
+  fun hasBFrames(): Boolean = reorderDepth > 0
+
+  /**
+   * @param pts presentation timestamp in microseconds of frames in decoding order
+   * @return DTS, never greater than pts + [ptsOffset]
+   */
+  fun getDts(pts: Long): Long {
+    if (lastDts < 0) ptsOffset = initialReorderDepth * frameDuration
+    var reordered = 0
+    for (i in 0 until recentCount) {
+      if (recentPts[i] > pts) reordered++
+    }
+    if (reordered > reorderDepth) reorderDepth = reordered
+    if (lastPts >= 0) {
+      val delta = abs(pts - lastPts)
+      if (delta in MIN_FRAME_DURATION until frameDuration) frameDuration = delta
+    }
+    lastPts = pts
+    recentPts[recentIndex] = pts
+    recentIndex = (recentIndex + 1) % MAX_REORDER_DEPTH
+    recentCount = minOf(recentCount + 1, MAX_REORDER_DEPTH)
+
+    val depth = maxOf(reorderDepth, initialReorderDepth)
+    pendingPts.add(pts)
+    val dts = if (pendingPts.size > depth) {
+      pendingPts.poll() ?: pts
+    } else { //not enough frames to fill the reorder depth, use the frame duration to go back
+      (pendingPts.peek() ?: pts) - frameDuration * (depth - pendingPts.size + 1)
+    }
+    val shiftedDts = dts + ptsOffset
+    lastDts = if (lastDts < 0) maxOf(shiftedDts, 0) else maxOf(shiftedDts, lastDts + MIN_DTS_INCREMENT)
+    //reorder deeper than expected, delay presentation instead of write DTS > PTS
+    if (lastDts > pts + ptsOffset) ptsOffset = lastDts - pts
+    return lastDts
+  }
+
+  fun reset() {
+    pendingPts.clear()
+    recentCount = 0
+    recentIndex = 0
+    lastPts = -1
+    lastDts = -1
+    frameDuration = DEFAULT_FRAME_DURATION
+    reorderDepth = 0
+    ptsOffset = 0
+  }
+}
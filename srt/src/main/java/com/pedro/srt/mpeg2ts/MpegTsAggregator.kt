@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.BufferPool
+
+/**
+ * Join TS packets of different frames and PIDs (audio, video and PSI) in full SRT payloads.
+ *
+ * Without aggregation the last payload of each frame is usually partially filled, mainly with audio,
+ * so we pay the IP/UDP/SRT headers for a few TS packets. TS packets keep the input order so the
+ * continuity of each PID is not affected. A partial payload is sent after [maxWait] even if it is not full.
+ *
+ * A payload could contain the end of a frame and the start of the next one so all payloads are
+ * sent as PacketPosition.SINGLE (each SRT packet is a message), like live mode with TS.
+ *
+ * Not thread safe, used only by the SrtSender send loop.
+ */
+class MpegTsAggregator(
+  private val packetsPerPayload: Int,
+  private val bufferPool: BufferPool? = null,
+  maxWait: Long = DEFAULT_MAX_WAIT
+) {
+
+  companion object {
+    const val DEFAULT_MAX_WAIT = 25_000L //microseconds, more than an AAC frame duration
+  }
+
+  /**
+   * Max time in microseconds that a partially filled payload wait for more TS packets
+   */
+  @Volatile
+  var maxWait = maxWait
+  private val payloadSize = packetsPerPayload * MpegTsPacketizer.packetSize
+  private val output = ArrayList<MpegTsPacket>()
+  private var buffer: ByteArray? = null
+  private var size = 0
+  private var type = MpegType.PSI
+  private var firstPacketTs = 0L
+
+  /**
+   * Add the payloads of a frame (or null if there is nothing new) and get the full payloads to send.
+   * A partial payload is also returned if the max wait time expired.
+   *
+   * @return payloads to send, the list is reused in the next call
+   */
+  fun aggregate(packets: List<MpegTsPacket>?, ts: Long): List<MpegTsPacket> {
+    output.clear()
+    packets?.forEach { packet ->
+      var offset = 0
+      while (offset < packet.size) {
+        val buffer = this.buffer ?: newBuffer(packet.type, ts)
+        val length = minOf(packet.size - offset, payloadSize - size)
+        System.arraycopy(packet.buffer, offset, buffer, size, length)
+        size += length
+        offset += length
+        if (size == payloadSize) flush()
+      }
+      //the content was copied so the input buffer can be reused
+      bufferPool?.release(packet.buffer)
+    }
+    if (size > 0 && getWaitTime(ts) == 0L) flush()
+    return output
+  }
+
+  /**
+   * @return time in microseconds until the partial payload must be sent, -1 if there is no partial payload
+   */
+  fun getWaitTime(ts: Long): Long {
+    if (size == 0) return -1
+    return maxOf(firstPacketTs + maxWait - ts, 0)
+  }
+
+  fun reset() {
+    buffer = null
+    size = 0
+    output.clear()
+  }
+
+  private fun newBuffer(type: MpegType, ts: Long): ByteArray {
+    val buffer = bufferPool?.acquire()?.takeIf { it.size >= payloadSize } ?: ByteArray(payloadSize)
+    this.buffer = buffer
+    this.type = type
+    firstPacketTs = ts
+    return buffer
+  }
+
+  private fun flush() {
+    val buffer = this.buffer ?: return
+    output.add(MpegTsPacket(buffer, type, PacketPosition.SINGLE, size))
+    this.buffer = null
+    size = 0
+  }
+}
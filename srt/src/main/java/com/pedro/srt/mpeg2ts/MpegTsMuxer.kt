@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.BufferPool
+import com.pedro.srt.utils.toInt
+import java.nio.ByteBuffer
+
+/**
+ * Single pass PES muxer.
+ *
+ * TS packets (header, adaptation field, PES header, stuffing and data) are written directly in the payload
+ * of the SRT packets, [packetsPerPayload] TS packets per payload (7 with the default MTU, 1316 bytes).
+ * Frame data is copied only once, from the encoder buffer to the payload.
+ *
+ * Payload buffers are taken from [bufferPool] if provided. The owner of the MpegTsPacket should release it
+ * when it is no longer needed (CommandsManager do it when the packet leaves the retransmission buffer).
+ *
+ * PCR is generated from the media timeline (decoding timestamp - [pcrOffset]) so the PCR - PTS distance is
+ * constant and receivers don't need extra buffer to absorb the jitter of the wall clock.
+ * It is written in the first TS packet of keyframes and each [pcrInterval] at least.
+ *
+ * Each PID needs its own muxer to keep the continuity counter.
+ */
+class MpegTsMuxer(
+  packetsPerPayload: Int,
+  private val bufferPool: BufferPool? = null
+) {
+
+  companion object {
+    private const val headerSize = 4
+    private const val tsPayloadSize = MpegTsPacketizer.packetSize - headerSize
+    const val DEFAULT_PCR_OFFSET = 100_000L //microseconds
+    const val DEFAULT_PCR_INTERVAL = 40_000L //microseconds
+  }
+
+  /**
+   * Time in microseconds between PCR and the decoding timestamp of the frame that contain it.
+   * Receivers wait this time before decode a frame so it must be enough to receive big frames (keyframes).
+   */
+  @Volatile
+  var pcrOffset = DEFAULT_PCR_OFFSET
+  /**
+   * Max time in microseconds between 2 PCR. 0 to write PCR in all frames.
+   */
+  @Volatile
+  var pcrInterval = DEFAULT_PCR_INTERVAL
+
+  var packetsPerPayload = maxOf(packetsPerPayload, 1)
+    set(value) {
+      field = maxOf(value, 1)
+    }
+  private var continuity = 0
+  private var lastPcr = -1L
+  private var lastPcrTs = -1L
+  private var lastDecodingTs = -1L
+
+  /**
+   * Consume the pes data and return it as payloads of SRT data packets.
+   *
+   * @param isPcrPid true if the PID of the pes is the PCR PID of the PMT
+   */
+  fun write(pes: Pes, type: MpegType, isPcrPid: Boolean = true): List<MpegTsPacket> {
+    val prefix = pes.prefix
+    val data = pes.bufferData
+    var prefixOffset = 0
+    var remaining = prefix.size + data.remaining()
+    val pcr = if (isPcrPid) getPcr(pes) else null
+    //adaptation field length + flags + PCR, only flags to indicate random access or nothing
+    val adaptationFieldSize = if (pcr != null) 8 else if (pes.isKeyFrame) 2 else 0
+    val firstPacketCapacity = tsPayloadSize - adaptationFieldSize - pes.headerLength
+    val tsPackets = if (remaining <= firstPacketCapacity) 1 else {
+      1 + (remaining - firstPacketCapacity + tsPayloadSize - 1) / tsPayloadSize
+    }
+    val packetsPerPayload = packetsPerPayload
+    val payloads = (tsPackets + packetsPerPayload - 1) / packetsPerPayload
+    val packets = ArrayList<MpegTsPacket>(payloads)
+    var tsPacketsLeft = tsPackets
+    for (index in 0 until payloads) {
+      val tsInPayload = minOf(packetsPerPayload, tsPacketsLeft)
+      val array = bufferPool?.acquire()?.takeIf { it.size >= packetsPerPayload * MpegTsPacketizer.packetSize }
+        ?: ByteArray(tsInPayload * MpegTsPacketizer.packetSize)
+      val buffer = ByteBuffer.wrap(array)
+      repeat(tsInPayload) {
+        val size: Int
+        if (tsPacketsLeft == tsPackets) {
+          size = minOf(remaining, firstPacketCapacity)
+          val stuffingSize = firstPacketCapacity - size
+          if (adaptationFieldSize > 0) {
+            writeHeader(buffer, true, pes.pid, AdaptationFieldControl.ADAPTATION_PAYLOAD)
+            val adaptationField = AdaptationField(
+              discontinuityIndicator = false,
+              randomAccessIndicator = pes.isKeyFrame, //only video can be true
+              pcr = pcr,
+              stuffingBytes = if (stuffingSize > 0) ByteArray(stuffingSize) { 0xFF.toByte() } else null
+            )
+            buffer.put(adaptationField.getData())
+          } else if (stuffingSize > 0) {
+            writeHeader(buffer, true, pes.pid, AdaptationFieldControl.ADAPTATION_PAYLOAD)
+            writeStuffingBytes(buffer, stuffingSize)
+          } else {
+            writeHeader(buffer, true, pes.pid, AdaptationFieldControl.PAYLOAD)
+          }
+          pes.writeHeader(buffer)
+        } else {
+          size = minOf(remaining, tsPayloadSize)
+          val stuffingSize = tsPayloadSize - size
+          if (stuffingSize > 0) {
+            writeHeader(buffer, false, pes.pid, AdaptationFieldControl.ADAPTATION_PAYLOAD)
+            writeStuffingBytes(buffer, stuffingSize)
+          } else {
+            writeHeader(buffer, false, pes.pid, AdaptationFieldControl.PAYLOAD)
+          }
+        }
+        //copy prefix first and then data
+        val prefixSize = minOf(size, prefix.size - prefixOffset)
+        if (prefixSize > 0) {
+          buffer.put(prefix, prefixOffset, prefixSize)
+          prefixOffset += prefixSize
+        }
+        val dataSize = size - prefixSize
+        if (dataSize > 0) {
+          data.get(array, buffer.position(), dataSize)
+          buffer.position(buffer.position() + dataSize)
+        }
+        remaining -= size
+        tsPacketsLeft--
+      }
+      val packetPosition = if (payloads == 1) {
+        PacketPosition.SINGLE
+      } else if (index == 0) {
+        PacketPosition.FIRST
+      } else if (index == payloads - 1) {
+        PacketPosition.LAST
+      } else {
+        PacketPosition.MIDDLE
+      }
+      packets.add(MpegTsPacket(array, type, packetPosition, buffer.position()))
+    }
+    return packets
+  }
+
+  fun reset() {
+    continuity = 0
+    lastPcr = -1
+    lastPcrTs = -1
+    lastDecodingTs = -1
+  }
+
+  /**
+   * @return PCR in microseconds or null if it is not needed in this frame
+   */
+  private fun getPcr(pes: Pes): Long? {
+    val ts = pes.getDecodingTs()
+    val frameDuration = if (lastDecodingTs < 0) 0 else maxOf(ts - lastDecodingTs, 0)
+    lastDecodingTs = ts
+    //write it if wait to the next frame exceed the interval
+    val needed = lastPcrTs < 0 || pes.isKeyFrame || pcrInterval <= 0 || ts - lastPcrTs + frameDuration > pcrInterval
+    if (!needed) return null
+    lastPcrTs = ts
+    //PCR must never go back
+    val pcr = maxOf(ts - pcrOffset, lastPcr, 0)
+    lastPcr = pcr
+    return pcr
+  }
+
+  //4 bytes header
+  private fun writeHeader(buffer: ByteBuffer, startIndicator: Boolean, pid: Int, adaptationFieldControl: AdaptationFieldControl) {
+    buffer.put(0x47) //sync byte
+    buffer.putShort(((startIndicator.toInt() shl 14) or pid).toShort())
+    buffer.put(((adaptationFieldControl.value.toInt() and 0x3 shl 4) or (continuity and 0xF)).toByte())
+    continuity = (continuity + 1) and 0xF
+  }
+
+  /**
+   * Adaptation field without flags used only to fill the last TS packet
+   */
+  private fun writeStuffingBytes(buffer: ByteBuffer, size: Int) {
+    buffer.put((size - 1).toByte()) //this byte is not included in the size
+    if (size > 1) {
+      buffer.put(0x00)
+      repeat(size - 2) { buffer.put(0xFF.toByte()) }
+    }
+  }
+}
@@ -22,9 +22,11 @@ import com.pedro.srt.srt.packets.data.PacketPosition
  * Created by pedro on 20/8/23.
  *
  * Contains multiple TS packets in a buffer no longer to MTU - data header size
+ * Only the first [size] bytes of the buffer are valid, the buffer could be bigger if it was taken from a pool.
  */
 data class MpegTsPacket(
   val buffer: ByteArray,
   val type: MpegType,
-  val packetPosition: PacketPosition
+  val packetPosition: PacketPosition,
+  val size: Int = buffer.size
 )
\ No newline at end of file
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+/**
+ * Receive the TS packets produced for SRT before send it, for example to record the stream.
+ *
+ * Called from the threads that send the frames, audio and video could be called at the same time.
+ * Buffers could be taken from a pool and reused after send so data must be copied before return.
+ */
+interface MpegTsPacketListener {
+  /**
+   * @param mpegTsPackets packets of a frame or PSI tables
+   * @param isKeyFrame true if packets are a video key frame
+   * @param ts presentation timestamp of the frame in microseconds, 0 for PSI tables
+   */
+  fun onMpegTsPackets(mpegTsPackets: List<MpegTsPacket>, isKeyFrame: Boolean, ts: Long)
+}
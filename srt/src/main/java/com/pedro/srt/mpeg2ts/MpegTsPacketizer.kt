@@ -32,7 +32,8 @@ class MpegTsPacketizer {
     const val packetSize = 188
   }
 
-  private var pesContinuity = 0
+  //continuity counter of each PID
+  private val continuityCounters = mutableMapOf<Int, Int>()
 
   //4 bytes header
   private fun writeHeader(buffer: ByteBuffer, startIndicator: Boolean, pid: Int, adaptationFieldControl: AdaptationFieldControl, continuity: Int) {
@@ -58,11 +59,10 @@ class MpegTsPacketizer {
     payload.forEachIndexed { index, mpegTsPayload ->
       var buffer = ByteBuffer.allocate(packetSize)
       var isFirstPacket = index == 0
-      val continuity = 0 and 0xF
 
       when (mpegTsPayload) {
         is Psi -> {
-          writeHeader(buffer, true, mpegTsPayload.pid, AdaptationFieldControl.PAYLOAD, continuity)
+          writeHeader(buffer, true, mpegTsPayload.pid, AdaptationFieldControl.PAYLOAD, getContinuity(mpegTsPayload.pid))
           val psi = mpegTsPayload
           psi.write(buffer)
           val stuffingSize = buffer.remaining()
@@ -72,7 +72,7 @@ class MpegTsPacketizer {
         is Pes -> {
           val pes = mpegTsPayload
           var adaptationFieldControl = AdaptationFieldControl.ADAPTATION_PAYLOAD
-          writeHeader(buffer, true, mpegTsPayload.pid, adaptationFieldControl, pesContinuity)
+          writeHeader(buffer, true, mpegTsPayload.pid, adaptationFieldControl, getContinuity(mpegTsPayload.pid))
           val adaptationField = AdaptationField(
             discontinuityIndicator = false,
             randomAccessIndicator = mpegTsPayload.isKeyFrame, //only video can be true
@@ -81,13 +81,15 @@ class MpegTsPacketizer {
           buffer.put(adaptationField.getData())
           pes.writeHeader(buffer)
 
-          val data = pes.bufferData
+          val data = if (pes.prefix.isEmpty()) pes.bufferData else {
+            ByteBuffer.allocate(pes.prefix.size + pes.bufferData.remaining()).put(pes.prefix).put(pes.bufferData).apply { flip() }
+          }
           while (data.hasRemaining()) {
             if (isFirstPacket) {
               isFirstPacket = false
               adaptationFieldControl = AdaptationFieldControl.PAYLOAD
             } else {
-              writeHeader(buffer, false, mpegTsPayload.pid, adaptationFieldControl, pesContinuity)
+              writeHeader(buffer, false, mpegTsPayload.pid, adaptationFieldControl, getContinuity(mpegTsPayload.pid))
             }
             val size = minOf(data.remaining(), buffer.remaining())
             if (size < buffer.remaining()) { //last packet
@@ -101,7 +103,6 @@ class MpegTsPacketizer {
             buffer.put(data.array(), data.position(), size)
             data.position(data.position() + size)
             packets.add(buffer.toByteArray())
-            pesContinuity = (pesContinuity + 1) and 0xF
             buffer = ByteBuffer.allocate(packetSize)
           }
         }
@@ -126,7 +127,17 @@ class MpegTsPacketizer {
     }
   }
 
+  /**
+   * @return continuity counter to use in the next TS packet of the PID
+   */
+  @Synchronized
+  private fun getContinuity(pid: Int): Int {
+    val continuity = continuityCounters[pid] ?: 0
+    continuityCounters[pid] = (continuity + 1) and 0xF
+    return continuity
+  }
+
   fun reset() {
-    pesContinuity = 0
+    continuityCounters.clear()
   }
 }
\ No newline at end of file
@@ -24,27 +24,36 @@ import kotlin.math.pow
 
 /**
  * Created by pedro on 28/8/23.
+ *
+ * @param prefix optional bytes sent before bufferData (like ADTS header or video info) to avoid join both in a new buffer
+ * @param dts decoding timestamp, only needed if it is different than pts (video with B-frames)
  */
 class Pes(
   pid: Int,
   isKeyFrame: Boolean,
   private val streamId: PesType,
   private val pts: Long,
-  val bufferData: ByteBuffer
+  val bufferData: ByteBuffer,
+  val prefix: ByteArray = EMPTY_PREFIX,
+  val dts: Long? = null
 ): MpegTsPayload(pid, isKeyFrame) {
 
-  private val headerLength = 14
+  companion object {
+    private val EMPTY_PREFIX = ByteArray(0)
+  }
 
-  private val length = headerLength + bufferData.remaining()
+  private val hasDts = dts != null && dts != pts
+  private val pesHeaderLength = if (hasDts) 10 else 5 //pts and dts size
+  val headerLength = 9 + pesHeaderLength
+  private val length = headerLength + prefix.size + bufferData.remaining()
   private val markerBits = 2
   private val scramblingControl = 0
   private val priority = false
   private val dataAlignmentIndicator = false
   private val copyright = false
   private val originalOrCopy = true
-  private val ptsdtsIndicator = 2 //(only pts)
+  private val ptsdtsIndicator = if (hasDts) 3 else 2 //pts and dts or only pts
   private val otherFlags = 0 // ESCR flag, ES rate flag, DSM trick mode flag, Additional copy info flag, CRC flag, extension flag
-  private val pesHeaderLength = 5 //pts size
 
   fun writeHeader(buffer: ByteBuffer) {
     buffer.putShort(0)
@@ -58,9 +67,19 @@ class Pes(
     val flags = ((ptsdtsIndicator shl 6) or otherFlags).toByte()
     buffer.put(flags)
     buffer.put(pesHeaderLength.toByte())
-    addTimestamp(buffer, pts, 0b0010) //indicate no dts
+    if (hasDts && dts != null) {
+      addTimestamp(buffer, pts, 0b0011)
+      addTimestamp(buffer, dts, 0b0001)
+    } else {
+      addTimestamp(buffer, pts, 0b0010) //indicate no dts
+    }
   }
 
+  /**
+   * Timestamp used to decode the frame, used as reference to calculate the PCR
+   */
+  fun getDecodingTs(): Long = dts ?: pts
+
   private fun addTimestamp(buffer: ByteBuffer, timestamp: Long, fourBits: Byte) {
     val pts =
       (Constants.SYSTEM_CLOCK_FREQ * timestamp / 1000000 /* µs -> s */ / 300) % 2.toDouble()
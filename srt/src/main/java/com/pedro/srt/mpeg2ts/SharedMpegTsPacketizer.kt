@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.srt.mpeg2ts
+
+import android.media.MediaCodec
+import com.pedro.srt.mpeg2ts.packets.AacPacket
+import com.pedro.srt.mpeg2ts.packets.H26XPacket
+import com.pedro.srt.mpeg2ts.psi.PsiManager
+import com.pedro.srt.mpeg2ts.service.Mpeg2TsService
+import com.pedro.srt.srt.packets.SrtPacket
+import com.pedro.srt.utils.BufferPool
+import com.pedro.srt.utils.Constants
+import java.nio.ByteBuffer
+
+/**
+ * Create the TS packets of each frame only one time to send it to multiple SrtSender.
+ *
+ * Packets are only valid inside the callback, senders copy it to its own pool because
+ * the payload is encrypted in place and recycled after acknowledge, so buffers are reused after the callback.
+ * Senders use the service of this packetizer to write PSI tables with the same PIDs.
+ * Video info is added to all keyframes so senders started later can decode from its first keyframe.
+ *
+ * @param limitSize max payload size, it must fit in the MTU of all senders
+ */
+class SharedMpegTsPacketizer(limitSize: Int = Constants.MTU - SrtPacket.headerSize) {
+
+  val service = Mpeg2TsService()
+  private val psiManager = PsiManager(service)
+  private val bufferPool = BufferPool(limitSize / MpegTsPacketizer.packetSize * MpegTsPacketizer.packetSize)
+  private val aacPacket = AacPacket(limitSize, psiManager, bufferPool)
+  //senders can start or reconnect after the first keyframe
+  private val h26XPacket = H26XPacket(limitSize, psiManager, bufferPool).also { video ->
+    video.configOnKeyFrames = true
+    //audio is delayed like video if it has B-frames
+    aacPacket.ptsOffset = { video.ptsOffset }
+  }
+  var videoCodec = Codec.AVC
+    set(value) {
+      h26XPacket.setVideoCodec(value)
+      field = value
+    }
+
+  /**
+   * Create the tracks of the service. Must be called before create packets.
+   */
+  fun setTrackConfig(videoEnabled: Boolean, audioEnabled: Boolean) {
+    service.clear()
+    Pid.reset()
+    if (videoEnabled) service.addTrack(videoCodec)
+    if (audioEnabled) service.addTrack(Codec.AAC)
+    psiManager.updateService(service)
+  }
+
+  fun setVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
+    h26XPacket.sendVideoInfo(sps, pps, vps)
+  }
+
+  fun setAudioInfo(sampleRate: Int, isStereo: Boolean) {
+    aacPacket.sendAudioInfo(sampleRate, isStereo)
+  }
+
+  fun createVideoPackets(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo, callback: (List<MpegTsPacket>) -> Unit) {
+    h26XPacket.createAndSendPacket(h264Buffer, info) { mpegTsPackets ->
+      callback(mpegTsPackets)
+      mpegTsPackets.forEach { bufferPool.release(it.buffer) }
+    }
+  }
+
+  fun createAudioPackets(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo, callback: (List<MpegTsPacket>) -> Unit) {
+    aacPacket.createAndSendPacket(aacBuffer, info) { mpegTsPackets ->
+      callback(mpegTsPackets)
+      mpegTsPackets.forEach { bufferPool.release(it.buffer) }
+    }
+  }
+
+  fun reset(clear: Boolean = true) {
+    aacPacket.reset(clear)
+    h26XPacket.reset(clear)
+  }
+}
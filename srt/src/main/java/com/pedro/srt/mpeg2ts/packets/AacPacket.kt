@@ -22,7 +22,7 @@ import com.pedro.srt.mpeg2ts.MpegType
 import com.pedro.srt.mpeg2ts.Pes
 import com.pedro.srt.mpeg2ts.PesType
 import com.pedro.srt.mpeg2ts.psi.PsiManager
-import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.BufferPool
 import java.nio.ByteBuffer
 
 /**
@@ -31,11 +31,16 @@ import java.nio.ByteBuffer
 class AacPacket(
   limitSize: Int,
   psiManager: PsiManager,
-): BasePacket(psiManager, limitSize) {
+  bufferPool: BufferPool? = null
+): BasePacket(psiManager, limitSize, bufferPool) {
 
   private val header = ByteArray(7) //ADTS header
   private var sampleRate = 44100
   private var isStereo = true
+  /**
+   * Offset added to the PTS to keep sync with the video track, see [H26XPacket.ptsOffset]
+   */
+  var ptsOffset: () -> Long = { 0L }
 
   override fun createAndSendPacket(
     byteBuffer: ByteBuffer,
@@ -45,32 +50,15 @@ class AacPacket(
     val length = info.size
     if (length < 0) return
     byteBuffer.rewind()
+    val data = byteBuffer.duplicate()
+    data.limit(length)
 
-    val payload = ByteArray(length + header.size)
-    writeAdts(payload, payload.size, 0)
-    byteBuffer.get(payload, header.size, length)
-
-    val pes = Pes(psiManager.getAudioPid().toInt(), false, PesType.AUDIO, info.presentationTimeUs, ByteBuffer.wrap(payload))
-    val mpeg2tsPackets = mpegTsPacketizer.write(listOf(pes))
-    val chunked = mpeg2tsPackets.chunked(chunkSize)
-    val packets = mutableListOf<MpegTsPacket>()
-    chunked.forEachIndexed { index, chunks ->
-      val size = chunks.sumOf { it.size }
-      val buffer = ByteBuffer.allocate(size)
-      chunks.forEach {
-        buffer.put(it)
-      }
-      val packetPosition = if (index == 0 && chunked.size == 1) {
-        PacketPosition.SINGLE
-      } else if (index == 0) {
-        PacketPosition.FIRST
-      } else if (index == chunked.size - 1) {
-        PacketPosition.LAST
-      } else {
-        PacketPosition.MIDDLE
-      }
-      packets.add(MpegTsPacket(buffer.array(), MpegType.AUDIO, packetPosition))
-    }
+    //ADTS header is written as PES prefix so the frame is copied only once
+    writeAdts(header, length + header.size, 0)
+    val pid = psiManager.getAudioPid().toInt()
+    val pes = Pes(pid, false, PesType.AUDIO, info.presentationTimeUs + ptsOffset(), data, header)
+    //PCR is only in audio packets if there is no video track
+    val packets = mpegTsMuxer.write(pes, MpegType.AUDIO, isPcrPid(pid))
     callback(packets)
   }
 
@@ -17,9 +17,11 @@
 package com.pedro.srt.mpeg2ts.packets
 
 import android.media.MediaCodec
+import com.pedro.srt.mpeg2ts.MpegTsMuxer
 import com.pedro.srt.mpeg2ts.MpegTsPacket
 import com.pedro.srt.mpeg2ts.MpegTsPacketizer
 import com.pedro.srt.mpeg2ts.psi.PsiManager
+import com.pedro.srt.utils.BufferPool
 import java.nio.ByteBuffer
 
 /**
@@ -45,10 +47,11 @@ import java.nio.ByteBuffer
 abstract class BasePacket(
   val psiManager: PsiManager,
   private var limitSize: Int,
+  bufferPool: BufferPool? = null
 ) {
 
-  protected val mpegTsPacketizer =  MpegTsPacketizer()
   protected var chunkSize = limitSize / MpegTsPacketizer.packetSize //max number of ts packets per srtpacket
+  protected val mpegTsMuxer = MpegTsMuxer(chunkSize, bufferPool)
 
   abstract fun createAndSendPacket(
     byteBuffer: ByteBuffer,
@@ -59,12 +62,24 @@ abstract class BasePacket(
   abstract fun resetPacket(resetInfo: Boolean)
 
   fun reset(resetInfo: Boolean) {
-    mpegTsPacketizer.reset()
+    mpegTsMuxer.reset()
     resetPacket(resetInfo)
   }
 
+  /**
+   * @param pcrOffset time in microseconds between PCR and decoding timestamp
+   * @param pcrInterval max time in microseconds between 2 PCR
+   */
+  fun setPcrConfig(pcrOffset: Long, pcrInterval: Long) {
+    mpegTsMuxer.pcrOffset = pcrOffset
+    mpegTsMuxer.pcrInterval = pcrInterval
+  }
+
+  protected fun isPcrPid(pid: Int): Boolean = psiManager.getPcrPid().toInt() == pid
+
   fun setLimitSize(limitSize: Int) {
     this.limitSize = limitSize
     chunkSize = limitSize / MpegTsPacketizer.packetSize
+    mpegTsMuxer.packetsPerPayload = chunkSize
   }
 }
\ No newline at end of file
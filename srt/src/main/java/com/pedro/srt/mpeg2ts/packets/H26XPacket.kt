@@ -20,12 +20,13 @@ import android.media.MediaCodec
 import android.os.Build
 import android.util.Log
 import com.pedro.srt.mpeg2ts.Codec
+import com.pedro.srt.mpeg2ts.DtsGenerator
 import com.pedro.srt.mpeg2ts.MpegTsPacket
 import com.pedro.srt.mpeg2ts.MpegType
 import com.pedro.srt.mpeg2ts.Pes
 import com.pedro.srt.mpeg2ts.PesType
 import com.pedro.srt.mpeg2ts.psi.PsiManager
-import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.BufferPool
 import com.pedro.srt.utils.startWith
 import com.pedro.srt.utils.toByteArray
 import java.nio.ByteBuffer
@@ -38,15 +39,31 @@ import java.nio.ByteBuffer
 class H26XPacket(
   limitSize: Int,
   psiManager: PsiManager,
-): BasePacket(psiManager, limitSize) {
+  bufferPool: BufferPool? = null
+): BasePacket(psiManager, limitSize, bufferPool) {
 
   private val TAG = "H26XPacket"
+  private val AVC_BASELINE_PROFILE = 66
 
   private var sps: ByteArray? = null
   private var pps: ByteArray? = null
   private var vps: ByteArray? = null
   private var codec = Codec.AVC
   private var configSend = false
+  /**
+   * Add video info to all keyframes instead of only the first one.
+   * Needed if the packets are sent to destinations that can start after the first keyframe.
+   */
+  var configOnKeyFrames = false
+  private val dtsGenerator = DtsGenerator()
+  /**
+   * Microseconds added to PTS if the stream can have B-frames so DTS is never greater than PTS.
+   * Audio track must use the same offset.
+   */
+  val ptsOffset: Long
+    get() = dtsGenerator.ptsOffset
+  private val startCode = byteArrayOf(0x00, 0x00, 0x00, 0x01)
+  private val emptyPrefix = byteArrayOf()
 
   override fun createAndSendPacket(
     byteBuffer: ByteBuffer,
@@ -79,31 +96,15 @@ class H26XPacket(
     }
 
     byteBuffer.rewind()
-    val validBuffer = fixHeader(byteBuffer, isKeyFrame)
-    val payload = ByteArray(validBuffer.remaining())
-    validBuffer.get(payload, 0, validBuffer.remaining())
-
-    val pes = Pes(psiManager.getVideoPid().toInt(), isKeyFrame, PesType.VIDEO, info.presentationTimeUs, ByteBuffer.wrap(payload))
-    val mpeg2tsPackets = mpegTsPacketizer.write(listOf(pes))
-    val chunked = mpeg2tsPackets.chunked(chunkSize)
-    val packets = mutableListOf<MpegTsPacket>()
-    chunked.forEachIndexed { index, chunks ->
-      val size = chunks.sumOf { it.size }
-      val buffer = ByteBuffer.allocate(size)
-      chunks.forEach {
-        buffer.put(it)
-      }
-      val packetPosition = if (index == 0 && chunked.size == 1) {
-        PacketPosition.SINGLE
-      } else if (index == 0) {
-        PacketPosition.FIRST
-      } else if (index == chunked.size - 1) {
-        PacketPosition.LAST
-      } else {
-        PacketPosition.MIDDLE
-      }
-      packets.add(MpegTsPacket(buffer.array(), MpegType.VIDEO, packetPosition))
-    }
+    val noHeaderBuffer = removeHeader(byteBuffer, isKeyFrame) //remove video info header
+    val prefix = getPrefix(noHeaderBuffer, isKeyFrame)
+
+    val pid = psiManager.getVideoPid().toInt()
+    //DTS is only written if it is different than PTS (video that can have B-frames)
+    val dts = dtsGenerator.getDts(info.presentationTimeUs)
+    val pts = info.presentationTimeUs + dtsGenerator.ptsOffset
+    val pes = Pes(pid, isKeyFrame, PesType.VIDEO, pts, noHeaderBuffer, prefix, dts)
+    val packets = mpegTsMuxer.write(pes, MpegType.VIDEO, isPcrPid(pid))
     callback(packets)
   }
 
@@ -114,6 +115,7 @@ class H26XPacket(
       pps = null
     }
     configSend = false
+    dtsGenerator.reset()
   }
 
   fun setVideoCodec(codec: Codec) {
@@ -121,40 +123,40 @@ class H26XPacket(
   }
 
   fun sendVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
-    this.sps = getVideoInfoData(sps)
-    this.pps = getVideoInfoData(pps)
-    this.vps = if (vps != null) getVideoInfoData(vps) else null
+    val newSps = getVideoInfoData(sps)
+    val newPps = getVideoInfoData(pps)
+    val newVps = if (vps != null) getVideoInfoData(vps) else null
+    //video info changed while streaming (resolution change), add it to the next keyframe
+    if (!newSps.contentEquals(this.sps) || !newPps.contentEquals(this.pps)
+      || !newVps.contentEquals(this.vps)) {
+      configSend = false
+    }
+    this.sps = newSps
+    this.pps = newPps
+    this.vps = newVps
+    //H264 baseline profile has no B-frames so PTS is not delayed
+    val profileIndex = getStartCodeSize(ByteBuffer.wrap(newSps)) + 1
+    val isBaseline = codec == Codec.AVC && newSps.size > profileIndex && newSps[profileIndex].toInt() == AVC_BASELINE_PROFILE
+    dtsGenerator.initialReorderDepth = if (isBaseline) 0 else DtsGenerator.DEFAULT_REORDER_DEPTH
   }
 
   /**
    * Doing video header check sanity.
    *
-   * Remove all header video info if necessary, make sure buffer start with prefix and add video info to first keyframe
+   * Make sure buffer start with prefix and add video info to first keyframe.
+   * Returned bytes are written before the frame by the muxer so the frame is not copied to a new buffer.
    */
-  private fun fixHeader(byteBuffer: ByteBuffer, isKeyFrame: Boolean): ByteBuffer {
-    var noHeaderBuffer = removeHeader(byteBuffer, isKeyFrame) //remove video info header
+  private fun getPrefix(noHeaderBuffer: ByteBuffer, isKeyFrame: Boolean): ByteArray {
     val startCodeSize = getStartCodeSize(noHeaderBuffer)
-    if (startCodeSize == 0) { //make sure buffer start with prefix
-      val bufferWithPrefix = ByteBuffer.allocate(noHeaderBuffer.remaining() + 4)
-      bufferWithPrefix.putInt(0x00000001)
-      bufferWithPrefix.put(noHeaderBuffer)
-      noHeaderBuffer = bufferWithPrefix
-    }
-    return if (isKeyFrame && !configSend) { //add video info to first keyframe
+    val prefix = if (startCodeSize == 0) startCode else emptyPrefix
+    return if (isKeyFrame && (!configSend || configOnKeyFrames)) { //add video info to first keyframe
       val vps = this.vps ?: byteArrayOf()
       val sps = this.sps ?: byteArrayOf()
       val pps = this.pps ?: byteArrayOf()
-      val keyExtraSize = vps.size + sps.size + pps.size
-      val validBuffer = ByteBuffer.allocate(noHeaderBuffer.remaining() + keyExtraSize)
-      val videoHeader = vps.plus(sps).plus(pps)
-      validBuffer.put(videoHeader)
-      validBuffer.put(noHeaderBuffer.toByteArray())
-      validBuffer.rewind()
       configSend = true
-      validBuffer
+      vps.plus(sps).plus(pps).plus(prefix)
     } else {
-      noHeaderBuffer.rewind()
-      noHeaderBuffer
+      prefix
     }
   }
 
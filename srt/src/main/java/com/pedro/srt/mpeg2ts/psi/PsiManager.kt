@@ -81,6 +81,10 @@ class PsiManager(
     return service.tracks.find { it.codec != Codec.AAC }?.pid ?: 0
   }
 
+  fun getPcrPid(): Short {
+    return service.pcrPid ?: 0
+  }
+
   fun getSdt(): Sdt = sdt
   fun getPat(): Pat = pat
   fun getPmt(): Pmt = service.pmt!!
@@ -18,18 +18,32 @@ package com.pedro.srt.srt
 
 import android.util.Log
 import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegTsPacketizer
+import com.pedro.srt.srt.encryption.EncryptionManager
+import com.pedro.srt.srt.fec.FecFilter
+import com.pedro.srt.srt.group.GroupMember
 import com.pedro.srt.srt.packets.DataPacket
 import com.pedro.srt.srt.packets.SrtPacket
+import com.pedro.srt.srt.packets.control.Ack
 import com.pedro.srt.srt.packets.control.Ack2
+import com.pedro.srt.srt.packets.control.DropReq
+import com.pedro.srt.srt.packets.control.KeepAlive
+import com.pedro.srt.srt.packets.control.KeyMaterialMessage
+import com.pedro.srt.srt.packets.control.Nak
 import com.pedro.srt.srt.packets.control.Shutdown
 import com.pedro.srt.srt.packets.control.handshake.Handshake
+import com.pedro.srt.srt.packets.control.handshake.extension.KeyMaterial
+import com.pedro.srt.utils.BufferPool
 import com.pedro.srt.utils.Constants
+import com.pedro.srt.utils.SequenceNumber
 import com.pedro.srt.utils.SrtSocket
 import com.pedro.srt.utils.TimeUtils
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import java.io.IOException
 import java.net.NetworkInterface
+import kotlin.math.max
 import kotlin.random.Random
 
 /**
@@ -38,8 +52,12 @@ import kotlin.random.Random
 class CommandsManager {
 
   private val TAG = "CommandsManager"
+  //payloads of video and audio packets, recycled when the packet leaves the retransmission buffer
+  val bufferPool = BufferPool((Constants.MTU - SrtPacket.headerSize) / MpegTsPacketizer.packetSize * MpegTsPacketizer.packetSize)
   //used for packet lost
-  private val packetHandlingQueue = mutableListOf<DataPacket>()
+  private val retransmissionBuffer = RetransmissionBuffer(onRemove = { bufferPool.release(it.payload) })
+  val congestionControl = LiveCongestionControl()
+  val statsManager = StatsManager()
 
   var sequenceNumber: Int = generateInitialSequence()
   var messageNumber = 1
@@ -48,6 +66,18 @@ class CommandsManager {
   var startTS = 0L //microSeconds
   var audioDisabled = false
   var videoDisabled = false
+  var latency = Constants.LATENCY //milliseconds
+  //TSBPD delay agreed by the server in handshake, milliseconds. 0 if unknown
+  var peerLatency = 0
+  //packets older than drop threshold are discarded instead of send it again
+  var tooLatePacketDrop = true
+  //null if encryption is disabled
+  var encryptionManager: EncryptionManager? = null
+  //null if FEC is disabled
+  var fecFilter: FecFilter? = null
+  //members of a broadcast group, empty if the connection doesn't use a group
+  @Volatile
+  var groupMembers: List<GroupMember> = emptyList()
   //Avoid write a packet in middle of other.
   private val writeSync = Mutex(locked = false)
 
@@ -84,44 +114,219 @@ class CommandsManager {
 
   @Throws(IOException::class)
   suspend fun writeData(packet: MpegTsPacket, socket: SrtSocket?): Int {
+    awaitSendTime()
     writeSync.withLock {
-      if (sequenceNumber.toUInt() > 0x7FFFFFFFu) sequenceNumber = 0
+      val ts = getTs()
+      if (tooLatePacketDrop) dropTooLatePackets(ts, socket)
       val dataPacket = DataPacket(
-        sequenceNumber = sequenceNumber++,
+        sequenceNumber = sequenceNumber,
         packetPosition = packet.packetPosition,
         messageNumber = messageNumber++,
         payload = packet.buffer,
-        ts = getTs(),
+        payloadSize = packet.size,
+        ts = ts,
         socketId = socketId
       )
-      packetHandlingQueue.add(dataPacket)
-      dataPacket.write()
-      socket?.write(dataPacket)
+      //payload is encrypted in place so retransmissions send it without encrypt again
+      val keyMaterial = encryptionManager?.encrypt(dataPacket)
+      sequenceNumber = SequenceNumber.next(sequenceNumber)
+      retransmissionBuffer.add(dataPacket)
+      statsManager.packetsInFlight = retransmissionBuffer.size
+      congestionControl.onPacketSent(dataPacket.getSize(), TimeUtils.getCurrentTimeMicro())
+      sendData(dataPacket, socket)
+      fecFilter?.let { writeFec(it, dataPacket, socket) }
+      if (keyMaterial != null) writeKeyMaterial(keyMaterial, ts, socket)
       return dataPacket.getSize()
     }
   }
 
   @Throws(IOException::class)
-  suspend fun reSendPackets(packetsLost: List<Int>, socket: SrtSocket?) {
-    writeSync.withLock {
-      val dataPackets = packetHandlingQueue.filter { packetsLost.contains(it.sequenceNumber) }
-      dataPackets.forEach { packet ->
-        packet.messageNumber = messageNumber++
+  suspend fun reSendPackets(nak: Nak, socket: SrtSocket?) {
+    reSendPackets(nak, socket, socketId, null)
+  }
+
+  /**
+   * Resend packets lost only to the group member that reported it.
+   * Packets acknowledged by other member are already removed from the buffer so they are not sent again,
+   * the receiver got them from other connection.
+   */
+  @Throws(IOException::class)
+  suspend fun reSendPackets(nak: Nak, member: GroupMember) {
+    reSendPackets(nak, member.socket, member.socketId, member)
+  }
+
+  private suspend fun reSendPackets(nak: Nak, socket: SrtSocket?, socketId: Int, member: GroupMember?) {
+    val packets = writeSync.withLock {
+      if (tooLatePacketDrop) dropTooLatePackets(getTs(), socket)
+      val packets = mutableListOf<DataPacket>()
+      var lostPackets = 0
+      nak.forEachLostRange { min, max ->
+        lostPackets += SequenceNumber.offset(min, max) + 1
+        retransmissionBuffer.forEachInRange(min, max) { packets.add(it) }
+      }
+      statsManager.onNak(lostPackets)
+      member?.statsManager?.onNak(lostPackets)
+      packets
+    }
+    packets.forEach { packet ->
+      awaitSendTime()
+      writeSync.withLock {
+        //acknowledged or dropped while waiting
+        if (retransmissionBuffer.get(packet.sequenceNumber) !== packet) return@forEach
         packet.retransmitted = true
-        packet.write()
+        packet.socketId = socketId
+        congestionControl.onPacketSent(packet.getSize(), TimeUtils.getCurrentTimeMicro())
         socket?.write(packet)
+        statsManager.onPacketRetransmitted(packet.getSize())
+        member?.statsManager?.onPacketRetransmitted(packet.getSize())
       }
     }
   }
 
   suspend fun updateHandlingQueue(lastPacketSequence: Int) {
     writeSync.withLock {
-      packetHandlingQueue.removeAll { it.sequenceNumber < lastPacketSequence }
+      retransmissionBuffer.acknowledge(lastPacketSequence)
+      statsManager.packetsInFlight = retransmissionBuffer.size
+    }
+  }
+
+  /**
+   * Remove packets acknowledged, update stats and reply with Ack2.
+   * Light ACKs are not acknowledged with Ack2.
+   *
+   * @return true if stats should be reported
+   */
+  @Throws(IOException::class)
+  suspend fun handleAck(ack: Ack, socket: SrtSocket?): Boolean {
+    updateHandlingQueue(ack.lastAcknowledgedPacketSequenceNumber)
+    if (!ack.isLightAck()) writeAck2(ack.typeSpecificInformation, socket)
+    return statsManager.onAck(ack, TimeUtils.getCurrentTimeMicro())
+  }
+
+  /**
+   * Same as handleAck but using the connection of a group member.
+   * Packets are removed from the shared buffer with the first member that acknowledge it.
+   * Group stats (RTT, bandwidth) are from the first active member only, mixing the ACKs of all
+   * members would produce values of none of the paths.
+   *
+   * @return true if group stats should be reported
+   */
+  @Throws(IOException::class)
+  suspend fun handleAck(ack: Ack, member: GroupMember): Boolean {
+    updateHandlingQueue(ack.lastAcknowledgedPacketSequenceNumber)
+    if (!ack.isLightAck()) writeAck2(ack.typeSpecificInformation, member.socket, member.socketId)
+    val ts = TimeUtils.getCurrentTimeMicro()
+    member.statsManager.onAck(ack, ts)
+    if (groupMembers.firstOrNull { it.isActive } !== member) return false
+    return statsManager.onAck(ack, ts)
+  }
+
+  /**
+   * Wait until the congestion control allow send the next packet.
+   * Retransmissions use the same pacing so they share the bandwidth limit with new packets.
+   * Must be called without writeSync locked so other writes are not blocked while waiting,
+   * the packet is scheduled with onPacketSent after take the lock.
+   */
+  private suspend fun awaitSendTime() {
+    val waitTime = congestionControl.getWaitTime(TimeUtils.getCurrentTimeMicro())
+    if (waitTime >= LiveCongestionControl.MAX_BURST_TIME) delay(waitTime / 1000)
+  }
+
+  /**
+   * Same threshold that libsrt use. The receiver play packets after the TSBPD delay agreed (the max of both sides)
+   * so wait a bit more to avoid drop packets that still can be played, with 1 second as min.
+   *
+   * @return threshold in microseconds
+   */
+  fun getDropThreshold(): Int {
+    val delay = max(latency, peerLatency)
+    return max(delay + delay / 4, Constants.MIN_DROP_THRESHOLD) * 1000
+  }
+
+  /**
+   * Too late packet drop (TLPKTDROP).
+   * Remove packets that the receiver can't play anymore and notify it with a DropReq.
+   * Must be called with writeSync locked.
+   */
+  @Throws(IOException::class)
+  private fun dropTooLatePackets(ts: Int, socket: SrtSocket?) {
+    val firstPacket = retransmissionBuffer.getAt(0) ?: return
+    val dropped = retransmissionBuffer.dropOlderThan(ts, getDropThreshold())
+    if (dropped > 0) {
+      statsManager.onPacketsDropped(dropped)
+      forEachLink(socket) { linkSocket, linkSocketId, _ ->
+        val dropReq = DropReq(
+          messageNumber = firstPacket.messageNumber,
+          firstPacketSequenceNumber = firstPacket.sequenceNumber,
+          lastPacketSequenceNumber = SequenceNumber.add(firstPacket.sequenceNumber, dropped - 1)
+        )
+        dropReq.write(ts, linkSocketId)
+        linkSocket?.write(dropReq)
+      }
     }
   }
 
+  /**
+   * Send FEC packets of groups completed with the packet. FEC packets are not stored for retransmission
+   * and are counted as input so the bandwidth calculated include them.
+   * FEC packets are not delayed, they are scheduled so the next packet wait for them.
+   * Must be called with writeSync locked.
+   */
   @Throws(IOException::class)
-  suspend fun writeAck2(ackSequence: Int, socket: SrtSocket?) {
+  private fun writeFec(fecFilter: FecFilter, dataPacket: DataPacket, socket: SrtSocket?) {
+    fecFilter.feed(dataPacket).forEach { fecPacket ->
+      congestionControl.onInput(fecPacket.payloadSize, TimeUtils.getCurrentTimeMicro())
+      congestionControl.onPacketSent(fecPacket.getSize(), TimeUtils.getCurrentTimeMicro())
+      sendData(fecPacket, socket)
+    }
+  }
+
+  /**
+   * Send a data packet to the socket or to all members of the group using the socket id of each connection.
+   * Must be called with writeSync locked.
+   */
+  @Throws(IOException::class)
+  private fun sendData(dataPacket: DataPacket, socket: SrtSocket?) {
+    forEachLink(socket) { linkSocket, linkSocketId, member ->
+      dataPacket.socketId = linkSocketId
+      linkSocket?.write(dataPacket)
+      member?.statsManager?.onPacketSent(dataPacket.getSize())
+    }
+    statsManager.onPacketSent(dataPacket.getSize())
+  }
+
+  /**
+   * Run a write in the socket or in each active member of the group.
+   * A member that fails is disabled and the rest of the group continue.
+   */
+  @Throws(IOException::class)
+  private inline fun forEachLink(socket: SrtSocket?, write: (SrtSocket?, Int, GroupMember?) -> Unit) {
+    val members = groupMembers
+    if (members.isEmpty()) {
+      write(socket, socketId, null)
+      return
+    }
+    members.forEach { member ->
+      if (member.isActive) member.write { write(it, member.socketId, member) }
+    }
+    if (members.none { it.isActive }) throw IOException("all group members disconnected")
+  }
+
+  /**
+   * Announce keys changed.
+   * Must be called with writeSync locked.
+   */
+  @Throws(IOException::class)
+  private fun writeKeyMaterial(keyMaterial: KeyMaterial, ts: Int, socket: SrtSocket?) {
+    forEachLink(socket) { linkSocket, linkSocketId, _ ->
+      val keyMaterialMessage = KeyMaterialMessage(keyMaterial = keyMaterial)
+      keyMaterialMessage.write(ts, linkSocketId)
+      linkSocket?.write(keyMaterialMessage)
+    }
+  }
+
+  @Throws(IOException::class)
+  suspend fun writeAck2(ackSequence: Int, socket: SrtSocket?, socketId: Int = this.socketId) {
     writeSync.withLock {
       val ack2 = Ack2(ackSequence)
       ack2.write(getTs(), socketId)
@@ -129,12 +334,29 @@ class CommandsManager {
     }
   }
 
+  /**
+   * Keep the connection of a group member alive if nothing was sent to it recently.
+   */
+  @Throws(IOException::class)
+  suspend fun writeKeepAlive(member: GroupMember) {
+    writeSync.withLock {
+      if (!member.isActive) return
+      member.write { socket ->
+        val keepAlive = KeepAlive()
+        keepAlive.write(getTs(), member.socketId)
+        socket.write(keepAlive)
+      }
+    }
+  }
+
   @Throws(IOException::class)
   suspend fun writeShutdown(socket: SrtSocket?) {
     writeSync.withLock {
-      val shutdown = Shutdown()
-      shutdown.write(getTs(), socketId)
-      socket?.write(shutdown)
+      forEachLink(socket) { linkSocket, linkSocketId, _ ->
+        val shutdown = Shutdown()
+        shutdown.write(getTs(), linkSocketId)
+        linkSocket?.write(shutdown)
+      }
     }
   }
 
@@ -143,8 +365,14 @@ class CommandsManager {
     messageNumber = 1
     MTU = Constants.MTU
     socketId = 0
+    peerLatency = 0
     startTS = 0L
-    packetHandlingQueue.clear()
+    retransmissionBuffer.clear()
+    congestionControl.reset()
+    statsManager.reset()
+    encryptionManager = null
+    fecFilter = null
+    groupMembers = emptyList()
   }
 
   private fun generateInitialSequence(): Int {
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+/**
+ * SRT live congestion control (LiveCC).
+ *
+ * Packets are paced using a send period calculated from the max bandwidth allowed.
+ * If max bandwidth is not configured it is calculated as input rate + overhead percent,
+ * so retransmissions can only use the overhead on top of the stream bitrate.
+ *
+ * All values are in bytes per second and timestamps in microseconds.
+ */
+class LiveCongestionControl {
+
+  companion object {
+    const val DEFAULT_OVERHEAD = 25 //percent
+    const val UDP_IP_HEADER = 28
+    //UDP + IP + SRT header
+    const val PACKET_OVERHEAD = UDP_IP_HEADER + 16
+    private const val INPUT_RATE_FAST_START = 500_000L
+    private const val INPUT_RATE_PERIOD = 1_000_000L
+    //allow send up to 1 ms in advance, coroutine delay precision is 1 ms
+    const val MAX_BURST_TIME = 1000L
+  }
+
+  /**
+   * Fixed bandwidth limit. 0 to use input rate + overhead
+   */
+  @Volatile
+  var maxBandwidth = 0L
+  @Volatile
+  var overheadPercent = DEFAULT_OVERHEAD
+  var inputRate = 0L
+    private set
+  private var inputBytes = 0L
+  private var inputStartTs = 0L
+  private var inputPeriod = INPUT_RATE_FAST_START
+  private var avgPacketSize = 1316 + PACKET_OVERHEAD
+  private var nextSendTs = 0L
+
+  /**
+   * Called each time a packet is added to the send queue to measure the input rate.
+   *
+   * @param size payload size without SRT header
+   */
+  @Synchronized
+  fun onInput(size: Int, ts: Long) {
+    if (inputStartTs == 0L) inputStartTs = ts
+    inputBytes += size + PACKET_OVERHEAD
+    val elapsed = ts - inputStartTs
+    if (elapsed >= inputPeriod) {
+      inputRate = inputBytes * 1_000_000 / elapsed
+      inputBytes = 0
+      inputStartTs = ts
+      inputPeriod = INPUT_RATE_PERIOD
+    }
+  }
+
+  /**
+   * @return bandwidth used to pace packets in bytes per second or 0 if unknown (no pacing)
+   */
+  @Synchronized
+  fun getBandwidth(): Long {
+    val maxBandwidth = this.maxBandwidth
+    if (maxBandwidth > 0) return maxBandwidth
+    return inputRate * (100 + overheadPercent) / 100
+  }
+
+  /**
+   * @return time between packets of average size in microseconds, 0 if there is no pacing
+   */
+  fun getSendPeriod(): Long {
+    val bandwidth = getBandwidth()
+    return if (bandwidth <= 0) 0 else avgPacketSize * 1_000_000L / bandwidth
+  }
+
+  /**
+   * @return time to wait before send the next packet in microseconds
+   */
+  @Synchronized
+  fun getWaitTime(ts: Long): Long {
+    return maxOf(nextSendTs - ts, 0)
+  }
+
+  /**
+   * Called after send a packet (original or retransmission) to schedule the next one.
+   *
+   * @param size packet size including SRT header
+   */
+  @Synchronized
+  fun onPacketSent(size: Int, ts: Long) {
+    val packetSize = size + UDP_IP_HEADER
+    avgPacketSize = (avgPacketSize * 7 + packetSize) / 8
+    val bandwidth = getBandwidth()
+    nextSendTs = if (bandwidth <= 0) {
+      ts
+    } else {
+      maxOf(nextSendTs, ts - MAX_BURST_TIME) + packetSize * 1_000_000L / bandwidth
+    }
+  }
+
+  @Synchronized
+  fun reset() {
+    inputRate = 0
+    inputBytes = 0
+    inputStartTs = 0
+    inputPeriod = INPUT_RATE_FAST_START
+    avgPacketSize = 1316 + PACKET_OVERHEAD
+    nextSendTs = 0
+  }
+}
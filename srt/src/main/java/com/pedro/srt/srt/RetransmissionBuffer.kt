@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.srt.srt.packets.DataPacket
+import com.pedro.srt.utils.SequenceNumber
+
+/**
+ * Fixed capacity ring of sent data packets indexed by sequence number.
+ *
+ * Packets are stored until acknowledged, dropped by too late packet drop or overwritten when the ring is full.
+ * The capacity is rounded to a power of 2 so a sequence number maps to the same slot across the 31 bits wrap.
+ * This class is not thread safe, CommandsManager access it with the write lock.
+ *
+ * @param onRemove called with each packet that leaves the buffer, used to recycle payloads
+ */
+class RetransmissionBuffer(
+  capacity: Int = DEFAULT_CAPACITY,
+  private val onRemove: ((DataPacket) -> Unit)? = null
+) {
+
+  companion object {
+    const val DEFAULT_CAPACITY = 8192
+  }
+
+  private val capacity = Integer.highestOneBit(maxOf(capacity, 2) * 2 - 1)
+  private val mask = this.capacity - 1
+  private val packets = arrayOfNulls<DataPacket>(this.capacity)
+  /**
+   * Sequence number of the oldest packet stored. Only valid if size > 0
+   */
+  var firstSequenceNumber = 0
+    private set
+  var size = 0
+    private set
+
+  fun getCapacity(): Int = capacity
+
+  fun isEmpty(): Boolean = size == 0
+
+  /**
+   * Store a packet. Sequence numbers must be consecutive, if not the buffer is cleared first.
+   *
+   * @return the packet overwritten if the buffer was full, null otherwise
+   */
+  fun add(packet: DataPacket): DataPacket? {
+    var overwritten: DataPacket? = null
+    if (size > 0 && packet.sequenceNumber != SequenceNumber.add(firstSequenceNumber, size)) {
+      clear()
+    }
+    if (size == 0) {
+      firstSequenceNumber = packet.sequenceNumber
+    } else if (size == capacity) {
+      overwritten = removeFirst()
+    }
+    packets[packet.sequenceNumber and mask] = packet
+    size++
+    return overwritten
+  }
+
+  /**
+   * O(1) lookup of a stored packet
+   */
+  fun get(sequenceNumber: Int): DataPacket? {
+    val offset = SequenceNumber.offset(firstSequenceNumber, sequenceNumber)
+    if (offset < 0 || offset >= size) return null
+    return packets[sequenceNumber and mask]
+  }
+
+  /**
+   * Call action for each stored packet between [from] and [to] (both included).
+   * Values out of the buffer are ignored so a range never need to be expanded.
+   */
+  inline fun forEachInRange(from: Int, to: Int, action: (DataPacket) -> Unit) {
+    if (isEmpty()) return
+    val start = maxOf(SequenceNumber.offset(firstSequenceNumber, from), 0)
+    val end = minOf(SequenceNumber.offset(firstSequenceNumber, to), size - 1)
+    for (i in start..end) {
+      getAt(i)?.let(action)
+    }
+  }
+
+  /**
+   * @param index position relative to the oldest packet stored
+   */
+  fun getAt(index: Int): DataPacket? = packets[(firstSequenceNumber + index) and mask]
+
+  /**
+   * Remove all packets before [sequenceNumber] (not included). Used when an ACK is received.
+   *
+   * @return number of packets removed
+   */
+  fun acknowledge(sequenceNumber: Int): Int {
+    val toRemove = SequenceNumber.offset(firstSequenceNumber, sequenceNumber).coerceIn(0, size)
+    repeat(toRemove) { removeFirst() }
+    return toRemove
+  }
+
+  /**
+   * Too late packet drop. Remove packets sent before [ts] - [threshold]. Both values in microseconds.
+   * The receiver can't use this packets anymore so we shouldn't send it again.
+   *
+   * @return number of packets removed from the start of the buffer
+   */
+  fun dropOlderThan(ts: Int, threshold: Int): Int {
+    var dropped = 0
+    while (size > 0) {
+      val packet = packets[firstSequenceNumber and mask] ?: break
+      //int subtraction to support timestamp wrap
+      if (ts - packet.ts <= threshold) break
+      removeFirst()
+      dropped++
+    }
+    return dropped
+  }
+
+  fun clear() {
+    if (onRemove != null) {
+      while (size > 0) removeFirst()
+    }
+    packets.fill(null)
+    size = 0
+  }
+
+  private fun removeFirst(): DataPacket? {
+    val index = firstSequenceNumber and mask
+    val packet = packets[index]
+    packets[index] = null
+    firstSequenceNumber = SequenceNumber.next(firstSequenceNumber)
+    size--
+    packet?.let { onRemove?.invoke(it) }
+    return packet
+  }
+}
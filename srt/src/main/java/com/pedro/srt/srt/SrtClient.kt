@@ -19,6 +19,15 @@ package com.pedro.srt.srt
 import android.media.MediaCodec
 import android.util.Log
 import com.pedro.srt.mpeg2ts.Codec
+import com.pedro.srt.mpeg2ts.MpegTsAggregator
+import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegTsPacketListener
+import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.mpeg2ts.SharedMpegTsPacketizer
+import com.pedro.srt.srt.encryption.EncryptionManager
+import com.pedro.srt.srt.fec.FecConfig
+import com.pedro.srt.srt.fec.FecFilter
+import com.pedro.srt.srt.group.GroupMember
 import com.pedro.srt.srt.packets.ControlPacket
 import com.pedro.srt.srt.packets.DataPacket
 import com.pedro.srt.srt.packets.SrtPacket
@@ -27,22 +36,28 @@ import com.pedro.srt.srt.packets.control.Ack2
 import com.pedro.srt.srt.packets.control.CongestionWarning
 import com.pedro.srt.srt.packets.control.DropReq
 import com.pedro.srt.srt.packets.control.KeepAlive
+import com.pedro.srt.srt.packets.control.KeyMaterialMessage
 import com.pedro.srt.srt.packets.control.Nak
 import com.pedro.srt.srt.packets.control.PeerError
 import com.pedro.srt.srt.packets.control.Shutdown
+import com.pedro.srt.srt.packets.control.handshake.EncryptionType
 import com.pedro.srt.srt.packets.control.handshake.ExtensionField
 import com.pedro.srt.srt.packets.control.handshake.Handshake
 import com.pedro.srt.srt.packets.control.handshake.HandshakeType
 import com.pedro.srt.srt.packets.control.handshake.extension.ExtensionContentFlag
+import com.pedro.srt.srt.packets.control.handshake.extension.GroupType
 import com.pedro.srt.srt.packets.control.handshake.extension.HandshakeExtension
+import com.pedro.srt.utils.ComfortFrameFilter
 import com.pedro.srt.utils.ConnectCheckerSrt
 import com.pedro.srt.utils.SrtSocket
+import com.pedro.srt.utils.TimeUtils
 import com.pedro.srt.utils.onMainThread
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
@@ -50,6 +65,7 @@ import java.io.IOException
 import java.net.SocketTimeoutException
 import java.nio.ByteBuffer
 import java.util.regex.Pattern
+import kotlin.random.Random
 
 /**
  * Created by pedro on 20/8/23.
@@ -75,6 +91,13 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
   private var doingRetry = false
   private var numRetry = 0
   private var reTries = 0
+  private var passphrase: String? = null
+  private var encryptionType = EncryptionType.AES128
+  private var fecConfig: FecConfig? = null
+  private var groupLocalAddresses: List<String> = emptyList()
+  private var groupId = 0
+  @Volatile
+  private var statsListener: SrtStatsListener? = null
 
   val droppedAudioFrames: Long
     get() = srtSender.droppedAudioFrames
@@ -87,6 +110,28 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
     get() = srtSender.getSentAudioFrames()
   val sentVideoFrames: Long
     get() = srtSender.getSentVideoFrames()
+  /**
+   * Bandwidth used to pace packets in bits per second. 0 if it is not estimated yet.
+   */
+  val estimatedBandwidth: Long
+    get() = commandsManager.congestionControl.getBandwidth() * 8
+
+  /**
+   * Connection statistics updated with each ACK received from the server.
+   */
+  fun getStats(): SrtStats = commandsManager.statsManager.getStats()
+
+  /**
+   * Statistics of each connection of the broadcast group. Empty if group is not used.
+   */
+  fun getGroupStats(): List<SrtStats> = commandsManager.groupMembers.map { it.statsManager.getStats() }
+
+  /**
+   * Min time in milliseconds between [SrtStatsListener.onStatsSrt] calls. 1000ms by default, 0 to disable it.
+   */
+  fun setStatsReportInterval(interval: Long) {
+    commandsManager.statsManager.reportInterval = interval
+  }
 
   fun setVideoCodec(videoCodec: VideoCodec) {
     if (!isStreaming) {
@@ -114,6 +159,117 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
     commandsManager.audioDisabled = onlyVideo
   }
 
+  /**
+   * Latency in milliseconds requested to the server.
+   * Packets not acknowledged after 1.25 times the latency agreed with the server (min 1 second) are dropped
+   * instead of retransmitted.
+   *
+   * Must be called before connect
+   */
+  fun setLatency(latency: Int) {
+    commandsManager.latency = latency
+  }
+
+  /**
+   * Max bandwidth used to send packets, including retransmissions, in bits per second.
+   * Use 0 (default) to calculate it using the input bitrate + overhead percent.
+   */
+  fun setMaxBandwidth(bandwidth: Long) {
+    commandsManager.congestionControl.maxBandwidth = bandwidth / 8
+  }
+
+  /**
+   * Percent of bandwidth over the input bitrate reserved for retransmissions. 25% by default.
+   * Ignored if max bandwidth is configured.
+   */
+  fun setOverheadBandwidth(percent: Int) {
+    commandsManager.congestionControl.overheadPercent = percent
+  }
+
+  /**
+   * PCR is generated from frames timestamps. Receivers wait pcrOffset before decode a frame so it must be enough
+   * to receive a keyframe. By default 100ms of offset and 40ms of interval.
+   *
+   * @param pcrOffset time in milliseconds between PCR and the decoding timestamp of the frames
+   * @param pcrInterval max time in milliseconds between 2 PCR
+   */
+  fun setPcrConfig(pcrOffset: Long, pcrInterval: Long) {
+    srtSender.setPcrConfig(pcrOffset, pcrInterval)
+  }
+
+  /**
+   * Fill SRT packets with TS packets of audio and video frames instead of send partially filled packets.
+   * Disabled by default.
+   *
+   * @param maxWait max time in milliseconds that a partially filled packet wait for more data
+   */
+  fun setPacketAggregation(enabled: Boolean, maxWait: Long = MpegTsAggregator.DEFAULT_MAX_WAIT / 1000) {
+    srtSender.setPacketAggregation(enabled, maxWait)
+  }
+
+  /**
+   * Encrypt payloads with AES-CTR using keys derived from the passphrase. The server must use the same passphrase.
+   * Use null to disable encryption (default).
+   *
+   * Must be called before connect
+   *
+   * @param passphrase between 10 and 79 characters
+   * @param type key size used
+   */
+  @JvmOverloads
+  @Throws(IllegalArgumentException::class)
+  fun setPassphrase(passphrase: String?, type: EncryptionType = EncryptionType.AES128) {
+    if (passphrase != null) {
+      require(passphrase.length in EncryptionManager.MIN_PASSPHRASE_LENGTH..EncryptionManager.MAX_PASSPHRASE_LENGTH) {
+        "passphrase length must be between ${EncryptionManager.MIN_PASSPHRASE_LENGTH} and ${EncryptionManager.MAX_PASSPHRASE_LENGTH}"
+      }
+      require(type != EncryptionType.NONE) { "encryption type not allowed: $type" }
+    }
+    this.passphrase = passphrase
+    encryptionType = type
+  }
+
+  /**
+   * Send FEC packets (row/column XOR) so the server can recover lost packets without retransmissions.
+   * The server must support the SRT packet filter. If server doesn't accept it, the stream is sent without FEC.
+   * Use null to disable FEC (default).
+   *
+   * Must be called before connect
+   */
+  fun setFec(config: FecConfig?) {
+    fecConfig = config
+  }
+
+  /**
+   * Send the stream using a broadcast group with a connection per local address, for example one per network interface.
+   * All connections send the same packets and the server use the first copy received, so the stream continue
+   * if a connection fails. A failed connection try to join the group again every few seconds.
+   * The server must support socket groups.
+   * Use null or empty list to use a single connection (default).
+   *
+   * Must be called before connect
+   *
+   * @param localAddresses local address of each connection
+   */
+  fun setBroadcastGroup(localAddresses: List<String>?) {
+    groupLocalAddresses = localAddresses ?: emptyList()
+  }
+
+  /**
+   * Receive the TS packets of each frame before send it, for example to record the stream in a TS file.
+   * Packets are only produced while streaming. Use null to remove it.
+   */
+  fun setMpegTsPacketListener(listener: MpegTsPacketListener?) {
+    srtSender.mpegTsPacketListener = listener
+  }
+
+  /**
+   * Receive the connection statistics periodically while streaming. Use null to remove it.
+   */
+  fun setStatsListener(listener: SrtStatsListener?) {
+    statsListener = listener
+  }
+
   /**
    * Check periodically if server is alive using Echo protocol.
    */
@@ -164,38 +320,40 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
         val path = "${srtMatcher.group(3)}$streamName".trim()
 
         val error = runCatching {
-          socket = SrtSocket(host, port)
-          socket?.connect()
           commandsManager.loadStartTs()
+          val encryptionManager = passphrase?.let { EncryptionManager(it, encryptionType) }
+          commandsManager.encryptionManager = encryptionManager
 
-          commandsManager.writeHandshake(socket)
-          val response = commandsManager.readHandshake(socket)
-
-          commandsManager.writeHandshake(socket, response.copy(
-            extensionField = ExtensionField.HS_REQ.value or ExtensionField.CONFIG.value,
-            handshakeType = HandshakeType.CONCLUSION,
-            handshakeExtension = HandshakeExtension(
-              flags = ExtensionContentFlag.TSBPDSND.value or ExtensionContentFlag.TSBPDRCV.value or
-                  ExtensionContentFlag.CRYPT.value or ExtensionContentFlag.TLPKTDROP.value or
-                  ExtensionContentFlag.PERIODICNAK.value or ExtensionContentFlag.REXMITFLG.value,
-              path = path
-            )))
-          val responseConclusion = commandsManager.readHandshake(socket)
-          if (responseConclusion.isErrorType()) {
-            onMainThread {
-              connectCheckerSrt.onConnectionFailedSrt("Error configure stream, ${responseConclusion.handshakeType.name}")
-            }
-            return@launch
+          val responseConclusion = if (groupLocalAddresses.isEmpty()) {
+            socket = SrtSocket(host, port)
+            socket?.connect()
+            handshake(socket, path, encryptionManager)
           } else {
-            commandsManager.socketId = responseConclusion.srtSocketId
-            commandsManager.MTU = responseConclusion.MTU
-            commandsManager.sequenceNumber = responseConclusion.initialPacketSequence
-            onMainThread {
-              connectCheckerSrt.onConnectionSuccessSrt()
-            }
-            srtSender.socket = socket
-            srtSender.start()
+            connectGroup(host, port, path, encryptionManager)
+          }
+          commandsManager.socketId = responseConclusion.srtSocketId
+          commandsManager.MTU = responseConclusion.MTU
+          commandsManager.peerLatency = responseConclusion.tsbpdDelayResponse ?: 0
+          commandsManager.sequenceNumber = responseConclusion.initialPacketSequence
+          //server reply with the filter agreed
+          val agreedFec = responseConclusion.filterResponse?.let { FecConfig.parse(it) }
+          if (fecConfig != null && agreedFec == null) Log.i(TAG, "FEC not accepted by server, disabled")
+          commandsManager.fecFilter = agreedFec?.let {
+            FecFilter(it, commandsManager.bufferPool.bufferSize)
+          }
+          onMainThread {
+            connectCheckerSrt.onConnectionSuccessSrt()
+          }
+          srtSender.socket = socket
+          srtSender.start()
+          val members = commandsManager.groupMembers
+          if (members.isEmpty()) {
             handleServerPackets()
+          } else {
+            coroutineScope {
+              members.forEach { member -> launch { handleServerPackets(member) } }
+              launch { superviseGroup(host, port, path, encryptionManager) }
+            }
           }
         }.exceptionOrNull()
         if (error != null) {
@@ -209,6 +367,123 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
     }
   }
 
+  /**
+   * Do the induction and conclusion handshake.
+   *
+   * @param groupId id of the group if the socket is a member of a broadcast group
+   * @return conclusion response of the server
+   */
+  @Throws(IOException::class)
+  private suspend fun handshake(socket: SrtSocket?, path: String, encryptionManager: EncryptionManager?,
+    groupId: Int? = null): Handshake {
+    commandsManager.writeHandshake(socket)
+    val response = commandsManager.readHandshake(socket)
+
+    val keyMaterialField = if (encryptionManager != null) ExtensionField.KM_REQ.value else 0
+    val filterFlag = if (fecConfig != null) ExtensionContentFlag.PACKET_FILTER.value else 0
+    commandsManager.writeHandshake(socket, response.copy(
+      extensionField = ExtensionField.HS_REQ.value or ExtensionField.CONFIG.value or keyMaterialField,
+      handshakeType = HandshakeType.CONCLUSION,
+      handshakeExtension = HandshakeExtension(
+        flags = ExtensionContentFlag.TSBPDSND.value or ExtensionContentFlag.TSBPDRCV.value or
+            ExtensionContentFlag.CRYPT.value or ExtensionContentFlag.TLPKTDROP.value or
+            ExtensionContentFlag.PERIODICNAK.value or ExtensionContentFlag.REXMITFLG.value or filterFlag,
+        receiverDelay = commandsManager.latency,
+        //the server use the max of his latency and our sender delay to play packets
+        senderDelay = commandsManager.latency,
+        path = path,
+        keyMaterial = encryptionManager?.getKeyMaterial(),
+        filter = fecConfig?.toString(),
+        groupId = groupId,
+        groupType = GroupType.BROADCAST
+      )))
+    val responseConclusion = commandsManager.readHandshake(socket)
+    if (responseConclusion.isErrorType()) {
+      throw IOException(responseConclusion.handshakeType.name)
+    } else if (encryptionManager != null && responseConclusion.keyMaterialResponse == null) {
+      val state = responseConclusion.keyMaterialState
+      throw IOException("encryption rejected: ${state?.name ?: "no key material response"}")
+    }
+    return responseConclusion
+  }
+
+  /**
+   * Connect a member of the broadcast group per local address using the same group id and initial sequence number.
+   * Members that fail to connect are disabled and they will try to join the group later.
+   *
+   * @return conclusion response of the first member connected
+   */
+  @Throws(IOException::class)
+  private suspend fun connectGroup(host: String, port: Int, path: String,
+    encryptionManager: EncryptionManager?): Handshake {
+    //group ids use bit 30 to be different than socket ids
+    groupId = Random.nextInt(1, 0x3FFFFFFF) or 0x40000000
+    val members = mutableListOf<GroupMember>()
+    var firstResponse: Handshake? = null
+    var lastError: Throwable? = null
+    groupLocalAddresses.forEach { localAddress ->
+      val memberSocket = SrtSocket(host, port, localAddress)
+      val member = GroupMember(memberSocket, localAddress)
+      members.add(member)
+      val error = runCatching {
+        val response = connectMember(memberSocket, path, encryptionManager)
+        member.socketId = response.srtSocketId
+        if (firstResponse == null) {
+          firstResponse = response
+          //all members must use the same sequence numbers
+          commandsManager.sequenceNumber = response.initialPacketSequence
+        }
+      }.exceptionOrNull()
+      if (error != null) {
+        memberSocket.close()
+        member.disable(error)
+        lastError = error
+      }
+    }
+    val response = firstResponse ?: throw IOException("all group members failed, ${lastError?.message}")
+    commandsManager.groupMembers = members
+    socket = members.first { it.isActive }.socket
+    return response
+  }
+
+  @Throws(IOException::class)
+  private suspend fun connectMember(memberSocket: SrtSocket, path: String,
+    encryptionManager: EncryptionManager?): Handshake {
+    memberSocket.connect()
+    return handshake(memberSocket, path, encryptionManager, groupId)
+  }
+
+  /**
+   * Send keep alive to idle members, disable members without response from server
+   * and try to join the group again with disabled members.
+   */
+  private suspend fun superviseGroup(host: String, port: Int, path: String,
+    encryptionManager: EncryptionManager?) = coroutineScope {
+    while (scope.isActive && isStreaming) {
+      delay(GroupMember.KEEPALIVE_INTERVAL / 2)
+      commandsManager.groupMembers.forEach { member ->
+        val ts = TimeUtils.getCurrentTimeMillis()
+        if (member.isTimedOut(ts)) {
+          onMemberFailed(member, IOException("no response from server in ${GroupMember.PEER_IDLE_TIMEOUT}ms"))
+        } else if (member.needKeepAlive(ts)) {
+          commandsManager.writeKeepAlive(member)
+        } else if (member.canRejoin(ts)) {
+          val memberSocket = SrtSocket(host, port, member.localAddress)
+          val error = runCatching {
+            val response = connectMember(memberSocket, path, encryptionManager)
+            member.rejoin(memberSocket, response.srtSocketId, TimeUtils.getCurrentTimeMillis())
+            launch { handleServerPackets(member) }
+          }.exceptionOrNull()
+          if (error != null) {
+            Log.e(TAG, "group member ${member.localAddress} rejoin failed", error)
+            memberSocket.close()
+            member.onRejoinFailed(TimeUtils.getCurrentTimeMillis())
+          }
+        }
+      }
+    }
+  }
+
   fun disconnect() {
     CoroutineScope(Dispatchers.IO).launch {
       disconnect(true)
@@ -221,6 +496,7 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
       commandsManager.writeShutdown(socket)
     }
     socket?.close()
+    commandsManager.groupMembers.forEach { it.socket.close() }
     if (clear) {
       reTries = numRetry
       doingRetry = false
@@ -251,13 +527,21 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
     }
   }
 
+  /**
+   * @param member group member connection to read, null if group is not used
+   */
   @Throws(IOException::class)
-  private suspend fun handleServerPackets() {
-    while (scope.isActive && isStreaming) {
+  private suspend fun handleServerPackets(member: GroupMember? = null) {
+    val readSocket = member?.socket ?: socket
+    //stop reading if the member is disabled or joined again with other socket
+    while (scope.isActive && isStreaming && (member == null || member.isActive && member.socket === readSocket)) {
       val error = runCatching {
-        if (isAlive()) {
+        if (isAlive(readSocket)) {
           //ignore packet after connect if tunneled to avoid spam idle
-          handleMessages()
+          handleMessages(readSocket, member)
+          member?.onPacketReceived(TimeUtils.getCurrentTimeMillis())
+        } else if (member != null) {
+          onMemberFailed(member, null)
         } else {
           onMainThread {
             connectCheckerSrt.onConnectionFailedSrt("No response from server")
@@ -266,8 +550,24 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
         }
       }.exceptionOrNull()
       if (error != null && error !is SocketTimeoutException) {
-        scope.cancel()
+        if (member != null) {
+          if (member.socket === readSocket) onMemberFailed(member, error)
+        } else scope.cancel()
+      }
+    }
+  }
+
+  /**
+   * Disable a member of the group. The stream continue while other member is active.
+   */
+  private suspend fun onMemberFailed(member: GroupMember, error: Throwable?) {
+    member.disable(error)
+    member.socket.close()
+    if (commandsManager.groupMembers.none { it.isActive }) {
+      onMainThread {
+        connectCheckerSrt.onConnectionFailedSrt("No response from server in any group member")
       }
+      scope.cancel()
     }
   }
 
@@ -275,7 +575,7 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
   Send a heartbeat to know if server is alive using Echo Protocol.
   Your firewall could block it.
  */
-  private fun isAlive(): Boolean {
+  private fun isAlive(socket: SrtSocket?): Boolean {
     val connected = socket?.isConnected() ?: false
     if (!checkServerAlive) {
       return connected
@@ -285,7 +585,7 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
   }
 
   @Throws(IOException::class)
-  private suspend fun handleMessages() {
+  private suspend fun handleMessages(socket: SrtSocket?, member: GroupMember?) {
     val responseBufferConclusion = socket?.readBuffer() ?: throw IOException("read buffer failed, socket disconnected")
     val srtPacket = SrtPacket.getSrtPacket(responseBufferConclusion)
     when(srtPacket) {
@@ -301,22 +601,37 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
 
           }
           is Ack -> {
-            val ackSequence = srtPacket.typeSpecificInformation
-            val lastPacketSequence = srtPacket.lastAcknowledgedPacketSequenceNumber
-            commandsManager.updateHandlingQueue(lastPacketSequence)
-            commandsManager.writeAck2(ackSequence, socket)
+            val report = if (member != null) {
+              commandsManager.handleAck(srtPacket, member)
+            } else {
+              commandsManager.handleAck(srtPacket, socket)
+            }
+            val listener = statsListener
+            if (report && listener != null) {
+              val stats = commandsManager.statsManager.getStats()
+              onMainThread {
+                listener.onStatsSrt(stats)
+              }
+            }
           }
           is Nak -> {
             //packet lost reported, we should resend it
-            val packetsLost = srtPacket.getNakPacketsLostList()
-            commandsManager.reSendPackets(packetsLost, socket)
+            if (member != null) {
+              commandsManager.reSendPackets(srtPacket, member)
+            } else {
+              commandsManager.reSendPackets(srtPacket, socket)
+            }
           }
           is CongestionWarning -> {
 
           }
           is Shutdown -> {
-            onMainThread {
-              connectCheckerSrt.onConnectionFailedSrt("Shutdown received from server")
+            if (member != null) {
+              onMemberFailed(member, null)
+            } else {
+              onMainThread {
+                connectCheckerSrt.onConnectionFailedSrt("Shutdown received from server")
+              }
             }
           }
           is Ack2 -> {
@@ -324,6 +639,10 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
           }
           is DropReq -> {
 
+          }
+          is KeyMaterialMessage -> {
+            //KMRSP of keys announced, only log rejected keys
+            if (srtPacket.keyMaterial == null) Log.e(TAG, "key material rejected: ${srtPacket.keyMaterialState}")
           }
           is PeerError -> {
             val reason = srtPacket.errorCode
@@ -355,6 +674,19 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
     }
   }
 
+  /**
+   * Send the packets of a frame created by a [SharedMpegTsPacketizer] instead of packetize the frame in this client.
+   *
+   * @param ts presentation timestamp of the frame in microseconds
+   */
+  fun sendSharedPackets(mpegTsPackets: List<MpegTsPacket>, isKeyFrame: Boolean, ts: Long, packetizer: SharedMpegTsPacketizer) {
+    val isAudio = mpegTsPackets.firstOrNull()?.type == MpegType.AUDIO
+    val disabled = if (isAudio) commandsManager.audioDisabled else commandsManager.videoDisabled
+    if (!disabled) {
+      srtSender.sendSharedPackets(mpegTsPackets, isKeyFrame, ts, packetizer)
+    }
+  }
+
   @JvmOverloads
   @Throws(IllegalArgumentException::class)
   fun hasCongestion(percentUsed: Float = 20f): Boolean {
@@ -382,10 +714,33 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
     srtSender.resizeCache(newSize)
   }
 
+  /**
+   * Audio DTX. Use it with AudioEncoder.setSilenceDetector, while the encoder input is digital
+   * silence only 1 of each comfortInterval audio frames is sent keeping original timestamps.
+   * Disabled by default.
+   */
+  @JvmOverloads
+  @Throws(IllegalArgumentException::class)
+  fun setAudioDtx(enabled: Boolean, comfortInterval: Int = ComfortFrameFilter.DEFAULT_COMFORT_INTERVAL) {
+    srtSender.setAudioDtx(enabled, comfortInterval)
+  }
+
+  fun getSkippedAudioFrames(): Long = srtSender.getSkippedAudioFrames()
+
+  fun getSkippedAudioBytes(): Long = srtSender.getSkippedAudioBytes()
+
   fun setLogs(enable: Boolean) {
     srtSender.setLogs(enable)
   }
 
+  /**
+   * Called when video frames are dropped by congestion. The next video frames are discarded
+   * until a key frame so the encoder should produce one as soon as possible.
+   */
+  fun setKeyFrameRequestListener(listener: (() -> Unit)?) {
+    srtSender.keyFrameRequestListener = listener
+  }
+
   fun clearCache() {
     srtSender.clearCache()
   }
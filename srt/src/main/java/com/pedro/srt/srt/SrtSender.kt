@@ -19,10 +19,13 @@ package com.pedro.srt.srt
 import android.media.MediaCodec
 import android.util.Log
 import com.pedro.srt.mpeg2ts.Codec
+import com.pedro.srt.mpeg2ts.MpegTsAggregator
 import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegTsPacketListener
 import com.pedro.srt.mpeg2ts.MpegTsPacketizer
 import com.pedro.srt.mpeg2ts.MpegType
 import com.pedro.srt.mpeg2ts.Pid
+import com.pedro.srt.mpeg2ts.SharedMpegTsPacketizer
 import com.pedro.srt.mpeg2ts.packets.AacPacket
 import com.pedro.srt.mpeg2ts.packets.H26XPacket
 import com.pedro.srt.mpeg2ts.psi.PsiManager
@@ -31,10 +34,12 @@ import com.pedro.srt.mpeg2ts.service.Mpeg2TsService
 import com.pedro.srt.srt.packets.SrtPacket
 import com.pedro.srt.srt.packets.data.PacketPosition
 import com.pedro.srt.utils.BitrateManager
+import com.pedro.srt.utils.ComfortFrameFilter
 import com.pedro.srt.utils.ConnectCheckerSrt
+import com.pedro.srt.utils.FrameQueue
 import com.pedro.srt.utils.SrtSocket
+import com.pedro.srt.utils.TimeUtils
 import com.pedro.srt.utils.onMainThread
-import com.pedro.srt.utils.trySend
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
@@ -45,8 +50,6 @@ import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runInterruptible
 import java.nio.ByteBuffer
-import java.util.concurrent.BlockingQueue
-import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.TimeUnit
 
 /**
@@ -65,8 +68,14 @@ class SrtSender(
   }
 
   private val mpegTsPacketizer = MpegTsPacketizer()
-  private val aacPacket = AacPacket(commandsManager.MTU - SrtPacket.headerSize, psiManager)
-  private val h26XPacket = H26XPacket(commandsManager.MTU - SrtPacket.headerSize, psiManager)
+  private val aacPacket = AacPacket(commandsManager.MTU - SrtPacket.headerSize, psiManager, commandsManager.bufferPool)
+  private val h26XPacket = H26XPacket(commandsManager.MTU - SrtPacket.headerSize, psiManager, commandsManager.bufferPool).also { video ->
+    //audio is delayed like video if it has B-frames
+    aacPacket.ptsOffset = { video.ptsOffset }
+  }
+  //null if TS packets aggregation is disabled
+  @Volatile
+  private var aggregator: MpegTsAggregator? = null
 
   @Volatile
   private var running = false
@@ -74,11 +83,26 @@ class SrtSender(
 
   private var job: Job? = null
   private val scope = CoroutineScope(Dispatchers.IO)
-  @Volatile
-  private var queue: BlockingQueue<List<MpegTsPacket>> = LinkedBlockingQueue(cacheSize)
+  private val queue = FrameQueue<List<MpegTsPacket>>(cacheSize).apply {
+    onFrameDiscarded = { _, type ->
+      if (type.isVideo()) {
+        Log.i(TAG, "Video frame discarded")
+        droppedVideoFrames++
+      } else if (type == FrameQueue.FrameType.AUDIO) {
+        Log.i(TAG, "Audio frame discarded")
+        droppedAudioFrames++
+      }
+    }
+    onKeyFrameRequired = { keyFrameRequestListener?.invoke() }
+  }
   private var audioFramesSent: Long = 0
   private var videoFramesSent: Long = 0
   var socket: SrtSocket? = null
+  @Volatile
+  var mpegTsPacketListener: MpegTsPacketListener? = null
+  //called when video is dropped, next frames are discarded until a key frame
+  @Volatile
+  var keyFrameRequestListener: (() -> Unit)? = null
   var droppedAudioFrames: Long = 0
     private set
   var droppedVideoFrames: Long = 0
@@ -94,18 +118,34 @@ class SrtSender(
       field = value
     }
 
+  //packetizer whose service is used to write PSI tables, kept after stop
+  @Volatile
+  private var sharedPacketizer: SharedMpegTsPacketizer? = null
+  private val comfortFrameFilter = ComfortFrameFilter()
   private val bitrateManager: BitrateManager = BitrateManager(connectCheckerSrt)
   private var isEnableLogs = true
 
   companion object {
     private const val TAG = "SrtSender"
+
+    /**
+     * Type used by the send queue for the packets of a frame.
+     */
+    internal fun getFrameType(mpegTsPackets: List<MpegTsPacket>, isKeyFrame: Boolean): FrameQueue.FrameType {
+      return when {
+        mpegTsPackets.firstOrNull()?.type == MpegType.AUDIO -> FrameQueue.FrameType.AUDIO
+        isKeyFrame -> FrameQueue.FrameType.KEY_FRAME
+        else -> FrameQueue.FrameType.VIDEO
+      }
+    }
   }
 
   private fun setTrackConfig(videoEnabled: Boolean, audioEnabled: Boolean) {
     Pid.reset()
     if (videoEnabled) service.addTrack(videoCodec)
     if (audioEnabled) service.addTrack(Codec.AAC)
-    psiManager.updateService(service)
+    //keep PIDs of the shared packets after restart
+    psiManager.updateService(sharedPacketizer?.service ?: service)
   }
 
   fun setVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
@@ -120,28 +160,47 @@ class SrtSender(
     if (running) {
       checkSendInfo()
       h26XPacket.createAndSendPacket(h264Buffer, info) { mpegTsPackets ->
-        val result = queue.trySend(mpegTsPackets)
-        if (!result) {
-          Log.i(TAG, "Video frame discarded")
-          droppedVideoFrames++
-        }
+        val isKeyFrame = info.flags and MediaCodec.BUFFER_FLAG_KEY_FRAME != 0
+        mpegTsPacketListener?.onMpegTsPackets(mpegTsPackets, isKeyFrame, info.presentationTimeUs)
+        if (queue.offer(mpegTsPackets, getFrameType(mpegTsPackets, isKeyFrame))) updateInputRate(mpegTsPackets)
       }
     }
   }
 
   fun sendAudioFrame(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
-    if (running) {
+    if (running && comfortFrameFilter.shouldSend(aacBuffer, info)) {
       checkSendInfo()
       aacPacket.createAndSendPacket(aacBuffer, info) { mpegTsPackets ->
-        val result = queue.trySend(mpegTsPackets)
-        if (!result) {
-          Log.i(TAG, "Audio frame discarded")
-          droppedAudioFrames++
-        }
+        mpegTsPacketListener?.onMpegTsPackets(mpegTsPackets, false, info.presentationTimeUs)
+        if (queue.offer(mpegTsPackets, FrameQueue.FrameType.AUDIO)) updateInputRate(mpegTsPackets)
       }
     }
   }
 
+  /**
+   * Enqueue the packets of a frame created by a [SharedMpegTsPacketizer] used by multiple senders.
+   * Packets are copied to buffers of this sender pool, the shared buffers are not modified or kept after return.
+   *
+   * @param ts presentation timestamp of the frame in microseconds
+   */
+  fun sendSharedPackets(mpegTsPackets: List<MpegTsPacket>, isKeyFrame: Boolean, ts: Long, packetizer: SharedMpegTsPacketizer) {
+    if (!running) return
+    if (sharedPacketizer !== packetizer) {
+      sharedPacketizer = packetizer
+      //PSI tables must use the PIDs of the shared packets
+      psiManager.updateService(packetizer.service)
+      val psiPackets = mpegTsPacketizer.write(listOf(psiManager.getPmt(), psiManager.getSdt(), psiManager.getPat())).map { b ->
+        MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE)
+      }
+      sendPsi(psiPackets)
+    } else {
+      checkSendInfo()
+    }
+    val packets = mpegTsPackets.map { it.copy(buffer = commandsManager.bufferPool.copyOf(it.buffer, it.size)) }
+    mpegTsPacketListener?.onMpegTsPackets(packets, isKeyFrame, ts)
+    if (queue.offer(packets, getFrameType(packets, isKeyFrame))) updateInputRate(packets)
+  }
+
   fun start() {
     queue.clear()
     setTrackConfig(!commandsManager.videoDisabled, !commandsManager.audioDisabled)
@@ -151,7 +210,7 @@ class SrtSender(
       val psiPackets = mpegTsPacketizer.write(listOf(psiManager.getPmt(), psiManager.getSdt(), psiManager.getPat())).map { b ->
         MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE)
       }
-      queue.trySend(psiPackets)
+      sendPsi(psiPackets)
       var bytesSend = 0L
       val bitrateTask = async {
         while (scope.isActive && running) {
@@ -163,10 +222,15 @@ class SrtSender(
       }
       while (scope.isActive && running) {
         val error = runCatching {
+          val aggregator = this@SrtSender.aggregator
+          //wake up to send a partial payload when the aggregation max wait expire
+          val waitTime = aggregator?.getWaitTime(TimeUtils.getCurrentTimeMicro()) ?: -1
           val mpegTsPackets = runInterruptible {
-            queue.poll(1, TimeUnit.SECONDS)
+            if (waitTime >= 0) queue.poll(waitTime, TimeUnit.MICROSECONDS)
+            else queue.poll(1, TimeUnit.SECONDS)
           }
-          mpegTsPackets.forEach { mpegTsPacket ->
+          val packets = aggregator?.aggregate(mpegTsPackets, TimeUtils.getCurrentTimeMicro()) ?: mpegTsPackets
+          packets?.forEach { mpegTsPacket ->
             var size = 0
             size += commandsManager.writeData(mpegTsPacket, socket)
             if (isEnableLogs) {
@@ -186,26 +250,36 @@ class SrtSender(
     }
   }
 
+  private fun updateInputRate(mpegTsPackets: List<MpegTsPacket>) {
+    val ts = TimeUtils.getCurrentTimeMicro()
+    mpegTsPackets.forEach { commandsManager.congestionControl.onInput(it.size, ts) }
+  }
+
+  private fun sendPsi(psiPackets: List<MpegTsPacket>) {
+    mpegTsPacketListener?.onMpegTsPackets(psiPackets, false, 0)
+    queue.offer(psiPackets, FrameQueue.FrameType.CONFIG)
+  }
+
   private fun checkSendInfo() {
     when (psiManager.shouldSend(false)) {
       TableToSend.PAT_PMT -> {
         val psiPackets = mpegTsPacketizer.write(listOf(psiManager.getPmt(), psiManager.getPat())).map { b ->
           MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE)
         }
-        queue.trySend(psiPackets)
+        sendPsi(psiPackets)
       }
       TableToSend.SDT -> {
         val psiPackets = mpegTsPacketizer.write(listOf(psiManager.getSdt())).map { b ->
           MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE)
         }
-        queue.trySend(psiPackets)
+        sendPsi(psiPackets)
       }
       TableToSend.NONE -> {}
       TableToSend.ALL -> {
         val psiPackets = mpegTsPacketizer.write(listOf(psiManager.getPmt(), psiManager.getSdt(), psiManager.getPat())).map { b ->
           MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE)
         }
-        queue.trySend(psiPackets)
+        sendPsi(psiPackets)
       }
     }
   }
@@ -221,9 +295,33 @@ class SrtSender(
     resetSentVideoFrames()
     resetDroppedAudioFrames()
     resetDroppedVideoFrames()
+    comfortFrameFilter.reset()
     job?.cancelAndJoin()
     job = null
     queue.clear()
+    aggregator?.reset()
+  }
+
+  /**
+   * @param pcrOffset time in milliseconds between PCR and the decoding timestamp of the frames
+   * @param pcrInterval max time in milliseconds between 2 PCR
+   */
+  fun setPcrConfig(pcrOffset: Long, pcrInterval: Long) {
+    aacPacket.setPcrConfig(pcrOffset * 1000, pcrInterval * 1000)
+    h26XPacket.setPcrConfig(pcrOffset * 1000, pcrInterval * 1000)
+  }
+
+  /**
+   * Join TS packets of audio, video and PSI in full payloads instead of send the end of each frame
+   * in a partially filled packet. Reduce packets per second and header overhead.
+   *
+   * @param maxWait max time in milliseconds that TS packets wait to fill a payload
+   */
+  fun setPacketAggregation(enabled: Boolean, maxWait: Long = MpegTsAggregator.DEFAULT_MAX_WAIT / 1000) {
+    aggregator = if (enabled) {
+      val packetsPerPayload = (commandsManager.MTU - SrtPacket.headerSize) / MpegTsPacketizer.packetSize
+      MpegTsAggregator(packetsPerPayload, commandsManager.bufferPool, maxWait * 1000)
+    } else null
   }
 
   @Throws(IllegalArgumentException::class)
@@ -239,9 +337,7 @@ class SrtSender(
     if (newSize < queue.size - queue.remainingCapacity()) {
       throw RuntimeException("Can't fit current cache inside new cache size")
     }
-    val tempQueue: BlockingQueue<List<MpegTsPacket>> = LinkedBlockingQueue(newSize)
-    queue.drainTo(tempQueue)
-    queue = tempQueue
+    queue.resize(newSize)
   }
 
   fun getCacheSize(): Int {
@@ -278,6 +374,22 @@ class SrtSender(
     droppedVideoFrames = 0
   }
 
+  /**
+   * Send only comfort frames while the audio encoder produce repeated silence frames.
+   *
+   * @param comfortInterval send 1 of each comfortInterval silence frames
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setAudioDtx(enabled: Boolean, comfortInterval: Int = ComfortFrameFilter.DEFAULT_COMFORT_INTERVAL) {
+    if (comfortInterval < 1) throw IllegalArgumentException("comfortInterval must be 1 or more")
+    comfortFrameFilter.comfortInterval = comfortInterval
+    comfortFrameFilter.enabled = enabled
+  }
+
+  fun getSkippedAudioFrames(): Long = comfortFrameFilter.skippedFrames
+
+  fun getSkippedAudioBytes(): Long = comfortFrameFilter.skippedBytes
+
   fun setLogs(enable: Boolean) {
     isEnableLogs = enable
   }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.srt.utils.Constants
+
+/**
+ * Snapshot of SRT connection statistics.
+ *
+ * RTT values, buffer and rates are reported by the receiver in full ACK packets and smoothed by the sender.
+ * Counters are accumulated since connect.
+ *
+ * @param rtt smoothed round trip time in microseconds
+ * @param rttVariance smoothed round trip time variance in microseconds
+ * @param availableBuffer free space in the receiver buffer in packets
+ * @param packetReceiveRate packets per second received by the receiver
+ * @param estimatedLinkCapacity link capacity estimated by the receiver in packets per second
+ * @param receiveRate bytes per second received by the receiver
+ * @param packetsInFlight packets sent and not acknowledged yet
+ */
+data class SrtStats(
+  val rtt: Int = 0,
+  val rttVariance: Int = 0,
+  val availableBuffer: Int = 0,
+  val packetReceiveRate: Int = 0,
+  val estimatedLinkCapacity: Int = 0,
+  val receiveRate: Long = 0,
+  val packetsInFlight: Int = 0,
+  val packetsSent: Long = 0,
+  val bytesSent: Long = 0,
+  val packetsRetransmitted: Long = 0,
+  val bytesRetransmitted: Long = 0,
+  val packetsLost: Long = 0,
+  val packetsDropped: Long = 0,
+  val acksReceived: Long = 0,
+  val naksReceived: Long = 0
+) {
+
+  /**
+   * Link capacity estimated by the receiver in bits per second using MTU size packets.
+   */
+  val linkCapacity: Long
+    get() = estimatedLinkCapacity.toLong() * Constants.MTU * 8
+
+  /**
+   * Percent of packets sent again of all packets sent.
+   */
+  val retransmissionPercent: Float
+    get() = if (packetsSent == 0L) 0f else packetsRetransmitted * 100f / packetsSent
+}
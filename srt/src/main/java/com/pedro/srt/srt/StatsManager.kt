@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.srt.srt.packets.control.Ack
+import kotlin.math.abs
+
+/**
+ * Collect SRT connection statistics using ACK packets received and packets sent.
+ *
+ * RTT is smoothed with the same filters used by libsrt sender (1/8 for RTT and 1/4 for variance).
+ * Rates reported in full ACKs are smoothed with a 1/8 filter because the link capacity estimation is noisy.
+ *
+ * Timestamps in microseconds.
+ */
+class StatsManager {
+
+  companion object {
+    const val DEFAULT_REPORT_INTERVAL = 1000L //milliseconds
+  }
+
+  /**
+   * Min time in milliseconds between stats reports. 0 to disable reports.
+   */
+  @Volatile
+  var reportInterval = DEFAULT_REPORT_INTERVAL
+  @Volatile
+  var packetsInFlight = 0
+  private var rtt = 0
+  private var rttVariance = 0
+  private var availableBuffer = 0
+  private var packetReceiveRate = 0
+  private var estimatedLinkCapacity = 0
+  private var receiveRate = 0
+  private var packetsSent = 0L
+  private var bytesSent = 0L
+  private var packetsRetransmitted = 0L
+  private var bytesRetransmitted = 0L
+  private var packetsLost = 0L
+  private var packetsDropped = 0L
+  private var acksReceived = 0L
+  private var naksReceived = 0L
+  private var lastReportTs = 0L
+
+  /**
+   * @return true if stats should be reported
+   */
+  @Synchronized
+  fun onAck(ack: Ack, ts: Long): Boolean {
+    acksReceived++
+    if (!ack.isLightAck()) {
+      if (ack.rtt > 0) {
+        if (rtt == 0) {
+          rtt = ack.rtt
+          rttVariance = ack.rttVariance
+        } else {
+          rttVariance = (rttVariance * 3 + abs(rtt - ack.rtt)) / 4
+          rtt = (rtt * 7 + ack.rtt) / 8
+        }
+      }
+      availableBuffer = ack.availableBufferSize
+    }
+    if (ack.isFullAck()) {
+      if (ack.packetReceivingRate > 0) packetReceiveRate = smooth(packetReceiveRate, ack.packetReceivingRate)
+      if (ack.estimatedLinkCapacity > 0) estimatedLinkCapacity = smooth(estimatedLinkCapacity, ack.estimatedLinkCapacity)
+      if (ack.receivingRate > 0) receiveRate = smooth(receiveRate, ack.receivingRate)
+    }
+    val reportInterval = this.reportInterval
+    if (reportInterval <= 0 || ts - lastReportTs < reportInterval * 1000) return false
+    lastReportTs = ts
+    return true
+  }
+
+  /**
+   * @param lostPackets packets reported as lost in the NAK
+   */
+  @Synchronized
+  fun onNak(lostPackets: Int) {
+    naksReceived++
+    packetsLost += lostPackets
+  }
+
+  /**
+   * @param size packet size including SRT header
+   */
+  @Synchronized
+  fun onPacketSent(size: Int) {
+    packetsSent++
+    bytesSent += size
+  }
+
+  /**
+   * @param size packet size including SRT header
+   */
+  @Synchronized
+  fun onPacketRetransmitted(size: Int) {
+    packetsRetransmitted++
+    bytesRetransmitted += size
+  }
+
+  @Synchronized
+  fun onPacketsDropped(packets: Int) {
+    packetsDropped += packets
+  }
+
+  @Synchronized
+  fun getStats(): SrtStats {
+    return SrtStats(
+      rtt = rtt,
+      rttVariance = rttVariance,
+      availableBuffer = availableBuffer,
+      packetReceiveRate = packetReceiveRate,
+      estimatedLinkCapacity = estimatedLinkCapacity,
+      receiveRate = receiveRate.toLong(),
+      packetsInFlight = packetsInFlight,
+      packetsSent = packetsSent,
+      bytesSent = bytesSent,
+      packetsRetransmitted = packetsRetransmitted,
+      bytesRetransmitted = bytesRetransmitted,
+      packetsLost = packetsLost,
+      packetsDropped = packetsDropped,
+      acksReceived = acksReceived,
+      naksReceived = naksReceived
+    )
+  }
+
+  private fun smooth(value: Int, sample: Int): Int {
+    return if (value == 0) sample else ((value.toLong() * 7 + sample) / 8).toInt()
+  }
+
+  @Synchronized
+  fun reset() {
+    packetsInFlight = 0
+    rtt = 0
+    rttVariance = 0
+    availableBuffer = 0
+    packetReceiveRate = 0
+    estimatedLinkCapacity = 0
+    receiveRate = 0
+    packetsSent = 0
+    bytesSent = 0
+    packetsRetransmitted = 0
+    bytesRetransmitted = 0
+    packetsLost = 0
+    packetsDropped = 0
+    acksReceived = 0
+    naksReceived = 0
+    lastReportTs = 0
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.encryption
+
+import java.nio.ByteBuffer
+import javax.crypto.Cipher
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * AES-CTR cipher that process data in place without allocations.
+ *
+ * Counter blocks are encrypted in a single call using a reused AES-ECB cipher and the key stream is
+ * xored with the data, so a new IV per packet doesn't need init the cipher again.
+ * CTR mode is symmetric so the same method is used to encrypt and decrypt.
+ *
+ * Not thread safe.
+ */
+class AesCtrCipher(key: ByteArray) {
+
+  companion object {
+    const val BLOCK_SIZE = 16
+    //enough to process a MTU size payload in a single call
+    private const val MAX_BLOCKS = 94
+  }
+
+  private val cipher = Cipher.getInstance("AES/ECB/NoPadding").apply {
+    init(Cipher.ENCRYPT_MODE, SecretKeySpec(key, "AES"))
+  }
+  private val counterBlocks = ByteArray(MAX_BLOCKS * BLOCK_SIZE)
+  //write counters as longs, faster than write it byte by byte
+  private val counterBuffer = ByteBuffer.wrap(counterBlocks)
+  private val keyStream = ByteArray(MAX_BLOCKS * BLOCK_SIZE)
+
+  /**
+   * @param iv initial counter block (16 bytes), incremented as 128 bits big endian number per block
+   */
+  fun process(iv: ByteArray, data: ByteArray, offset: Int, length: Int) {
+    var counterHigh = readLong(iv, 0)
+    var counterLow = readLong(iv, 8)
+    var position = offset
+    val end = offset + length
+    while (position < end) {
+      val size = minOf(end - position, counterBlocks.size)
+      val blocksSize = (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE
+      var blockOffset = 0
+      while (blockOffset < blocksSize) {
+        counterBuffer.putLong(blockOffset, counterHigh)
+        counterBuffer.putLong(blockOffset + 8, counterLow)
+        counterLow++
+        if (counterLow == 0L) counterHigh++
+        blockOffset += BLOCK_SIZE
+      }
+      cipher.doFinal(counterBlocks, 0, blocksSize, keyStream, 0)
+      for (i in 0 until size) {
+        data[position + i] = (data[position + i].toInt() xor keyStream[i].toInt()).toByte()
+      }
+      position += size
+    }
+  }
+
+  private fun readLong(data: ByteArray, offset: Int): Long {
+    var value = 0L
+    for (i in 0 until 8) value = (value shl 8) or (data[offset + i].toLong() and 0xFF)
+    return value
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.encryption
+
+import com.pedro.srt.srt.packets.DataPacket
+import com.pedro.srt.srt.packets.control.handshake.EncryptionType
+import com.pedro.srt.srt.packets.control.handshake.extension.KeyMaterial
+import com.pedro.srt.srt.packets.data.KeyBasedEncryption
+import java.security.SecureRandom
+
+/**
+ * SRT payload encryption using a passphrase.
+ *
+ * The KEK is derived from the passphrase and the salt with PBKDF2 and used to wrap the stream encrypting keys
+ * sent to the receiver in the key material. Payloads are encrypted with AES-CTR in place, the IV is the salt
+ * xored with the packet sequence number so a retransmitted packet is sent with the same encrypted payload.
+ *
+ * Keys are rotated after refreshRate packets using even and odd keys. The new key is announced preAnnounce
+ * packets before use it and the old key is decommissioned preAnnounce packets after the switch.
+ *
+ * Not thread safe, packets must be encrypted in send order.
+ */
+class EncryptionManager @JvmOverloads constructor(
+  passphrase: String,
+  val type: EncryptionType = EncryptionType.AES128,
+  private val refreshRate: Int = DEFAULT_REFRESH_RATE,
+  private val preAnnounce: Int = DEFAULT_PRE_ANNOUNCE
+) {
+
+  companion object {
+    const val DEFAULT_REFRESH_RATE = 0x1000000 //packets
+    const val DEFAULT_PRE_ANNOUNCE = 0x1000 //packets
+    const val MIN_PASSPHRASE_LENGTH = 10
+    const val MAX_PASSPHRASE_LENGTH = 79
+    private const val PBKDF2_ITERATIONS = 2048
+    //PBKDF2 use only the last 64 bits of the salt
+    private const val PBKDF2_SALT_LENGTH = 8
+    //IV use the first 112 bits of the salt
+    private const val IV_SALT_LENGTH = 14
+
+    @JvmStatic
+    fun getKeyLength(type: EncryptionType): Int {
+      return when (type) {
+        EncryptionType.AES128 -> 16
+        EncryptionType.AES192 -> 24
+        EncryptionType.AES256 -> 32
+        EncryptionType.NONE -> throw IllegalArgumentException("encryption type not allowed: $type")
+      }
+    }
+
+    /**
+     * Counter block of the first AES block of a packet
+     */
+    @JvmStatic
+    fun createIv(salt: ByteArray, sequenceNumber: Int, iv: ByteArray = ByteArray(AesCtrCipher.BLOCK_SIZE)): ByteArray {
+      iv.fill(0)
+      iv[10] = (sequenceNumber ushr 24).toByte()
+      iv[11] = (sequenceNumber ushr 16).toByte()
+      iv[12] = (sequenceNumber ushr 8).toByte()
+      iv[13] = sequenceNumber.toByte()
+      for (i in 0 until IV_SALT_LENGTH) iv[i] = (iv[i].toInt() xor salt[i].toInt()).toByte()
+      return iv
+    }
+
+    @JvmStatic
+    fun deriveKek(passphrase: String, salt: ByteArray, keyLength: Int): ByteArray {
+      return KeyDerivation.pbkdf2(
+        passphrase.toByteArray(Charsets.UTF_8),
+        salt.copyOfRange(salt.size - PBKDF2_SALT_LENGTH, salt.size), PBKDF2_ITERATIONS, keyLength
+      )
+    }
+  }
+
+  val keyLength = getKeyLength(type)
+  private val random = SecureRandom()
+  private val salt = ByteArray(KeyMaterial.SALT_LENGTH).also { random.nextBytes(it) }
+  private val kek: ByteArray
+  //index 0 even key and index 1 odd key
+  private val keys = arrayOfNulls<ByteArray>(2)
+  private val ciphers = arrayOfNulls<AesCtrCipher>(2)
+  private var activeKey = KeyBasedEncryption.PAIR_KEY
+  private var packets = 0
+  private var decommissionPending = false
+  private val iv = ByteArray(AesCtrCipher.BLOCK_SIZE)
+
+  init {
+    require(passphrase.length in MIN_PASSPHRASE_LENGTH..MAX_PASSPHRASE_LENGTH) {
+      "passphrase length must be between $MIN_PASSPHRASE_LENGTH and $MAX_PASSPHRASE_LENGTH"
+    }
+    require(preAnnounce > 0 && refreshRate > preAnnounce * 2) { "invalid refresh rate: $refreshRate, pre announce: $preAnnounce" }
+    kek = deriveKek(passphrase, salt, keyLength)
+    createKey(0)
+  }
+
+  /**
+   * @return key material with the keys in use, sent in the handshake
+   */
+  fun getKeyMaterial(): KeyMaterial {
+    val even = keys[0]
+    val odd = keys[1]
+    return when {
+      even != null && odd != null -> createKeyMaterial(KeyBasedEncryption.BOTH_KEYS, even + odd)
+      even != null -> createKeyMaterial(KeyBasedEncryption.PAIR_KEY, even)
+      else -> createKeyMaterial(KeyBasedEncryption.ODD_KEY, odd!!)
+    }
+  }
+
+  /**
+   * Encrypt the payload in place and set the key used in the packet.
+   *
+   * @return key material that must be sent to the receiver if the keys changed or null
+   */
+  fun encrypt(packet: DataPacket): KeyMaterial? {
+    val index = activeKey.value - 1
+    createIv(salt, packet.sequenceNumber and 0x7FFFFFFF, iv)
+    ciphers[index]?.process(iv, packet.payload, 0, packet.payloadSize)
+    packet.encryption = activeKey
+    return rotate()
+  }
+
+  private fun rotate(): KeyMaterial? {
+    packets++
+    val inactiveIndex = 2 - activeKey.value
+    return when {
+      packets == refreshRate - preAnnounce -> {
+        createKey(inactiveIndex)
+        getKeyMaterial()
+      }
+      packets >= refreshRate -> {
+        activeKey = if (activeKey == KeyBasedEncryption.PAIR_KEY) KeyBasedEncryption.ODD_KEY else KeyBasedEncryption.PAIR_KEY
+        packets = 0
+        decommissionPending = true
+        null
+      }
+      packets == preAnnounce && decommissionPending -> {
+        decommissionPending = false
+        keys[inactiveIndex]?.fill(0)
+        keys[inactiveIndex] = null
+        ciphers[inactiveIndex] = null
+        getKeyMaterial()
+      }
+      else -> null
+    }
+  }
+
+  private fun createKey(index: Int) {
+    val key = ByteArray(keyLength)
+    random.nextBytes(key)
+    keys[index] = key
+    ciphers[index] = AesCtrCipher(key)
+  }
+
+  private fun createKeyMaterial(keyBasedEncryption: KeyBasedEncryption, keys: ByteArray): KeyMaterial {
+    return KeyMaterial(keyBasedEncryption, keyLength, salt.copyOf(), KeyDerivation.wrap(kek, keys))
+  }
+}
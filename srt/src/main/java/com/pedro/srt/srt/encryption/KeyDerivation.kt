@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.encryption
+
+import java.io.IOException
+import javax.crypto.Cipher
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * Key derivation and key wrap used by SRT key material.
+ *
+ * The key encrypting key (KEK) is derived from the passphrase with PBKDF2-HMAC-SHA1 (RFC 8018) and
+ * stream encrypting keys (SEK) are sent wrapped with AES key wrap (RFC 3394).
+ */
+object KeyDerivation {
+
+  private val DEFAULT_IV = byteArrayOf(
+    0xA6.toByte(), 0xA6.toByte(), 0xA6.toByte(), 0xA6.toByte(),
+    0xA6.toByte(), 0xA6.toByte(), 0xA6.toByte(), 0xA6.toByte()
+  )
+
+  @JvmStatic
+  fun pbkdf2(passphrase: ByteArray, salt: ByteArray, iterations: Int, length: Int): ByteArray {
+    val mac = Mac.getInstance("HmacSHA1")
+    mac.init(SecretKeySpec(passphrase, "HmacSHA1"))
+    val macLength = mac.macLength
+    val result = ByteArray(length)
+    val block = ByteArray(macLength)
+    val u = ByteArray(macLength)
+    var blockIndex = 1
+    var offset = 0
+    while (offset < length) {
+      mac.update(salt)
+      mac.update((blockIndex ushr 24).toByte())
+      mac.update((blockIndex ushr 16).toByte())
+      mac.update((blockIndex ushr 8).toByte())
+      mac.update(blockIndex.toByte())
+      mac.doFinal(u, 0)
+      System.arraycopy(u, 0, block, 0, macLength)
+      for (i in 1 until iterations) {
+        mac.update(u)
+        mac.doFinal(u, 0)
+        for (j in 0 until macLength) block[j] = (block[j].toInt() xor u[j].toInt()).toByte()
+      }
+      val size = minOf(macLength, length - offset)
+      System.arraycopy(block, 0, result, offset, size)
+      offset += size
+      blockIndex++
+    }
+    u.fill(0)
+    return result
+  }
+
+  /**
+   * AES key wrap with default IV.
+   *
+   * @param data keys to wrap, multiple of 8 bytes
+   * @return wrapped keys, 8 bytes more than data
+   */
+  @JvmStatic
+  fun wrap(kek: ByteArray, data: ByteArray): ByteArray {
+    require(data.size >= 16 && data.size % 8 == 0) { "invalid key size: ${data.size}" }
+    val cipher = Cipher.getInstance("AES/ECB/NoPadding")
+    cipher.init(Cipher.ENCRYPT_MODE, SecretKeySpec(kek, "AES"))
+    val n = data.size / 8
+    val result = ByteArray(data.size + 8)
+    System.arraycopy(DEFAULT_IV, 0, result, 0, 8)
+    System.arraycopy(data, 0, result, 8, data.size)
+    val block = ByteArray(16)
+    for (j in 0..5) {
+      for (i in 1..n) {
+        System.arraycopy(result, 0, block, 0, 8)
+        System.arraycopy(result, i * 8, block, 8, 8)
+        cipher.doFinal(block, 0, 16, block, 0)
+        System.arraycopy(block, 0, result, 0, 8)
+        xorCounter(result, n * j + i)
+        System.arraycopy(block, 8, result, i * 8, 8)
+      }
+    }
+    return result
+  }
+
+  /**
+   * @throws IOException if the integrity check fails, normally because the passphrase is wrong
+   */
+  @JvmStatic
+  @Throws(IOException::class)
+  fun unwrap(kek: ByteArray, data: ByteArray): ByteArray {
+    require(data.size >= 24 && data.size % 8 == 0) { "invalid wrapped key size: ${data.size}" }
+    val cipher = Cipher.getInstance("AES/ECB/NoPadding")
+    cipher.init(Cipher.DECRYPT_MODE, SecretKeySpec(kek, "AES"))
+    val n = data.size / 8 - 1
+    val buffer = data.copyOf()
+    val block = ByteArray(16)
+    for (j in 5 downTo 0) {
+      for (i in n downTo 1) {
+        xorCounter(buffer, n * j + i)
+        System.arraycopy(buffer, 0, block, 0, 8)
+        System.arraycopy(buffer, i * 8, block, 8, 8)
+        cipher.doFinal(block, 0, 16, block, 0)
+        System.arraycopy(block, 0, buffer, 0, 8)
+        System.arraycopy(block, 8, buffer, i * 8, 8)
+      }
+    }
+    for (i in 0 until 8) {
+      if (buffer[i] != DEFAULT_IV[i]) throw IOException("key unwrap failed, integrity check error")
+    }
+    return buffer.copyOfRange(8, buffer.size)
+  }
+
+  /**
+   * Xor the first 8 bytes (A register) with t as 64 bits big endian
+   */
+  private fun xorCounter(data: ByteArray, t: Int) {
+    for (k in 0 until 4) {
+      data[7 - k] = (data[7 - k].toInt() xor (t ushr (8 * k))).toByte()
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.fec
+
+import kotlin.math.abs
+
+/**
+ * Configuration of the SRT built-in FEC packet filter, sent in the filter handshake extension
+ * with the same format used by libsrt, for example: fec,cols:10,rows:5,layout:staircase,arq:onreq
+ *
+ * @param cols packets in a row group
+ * @param rows packets in a column group. 1 to use only row groups and negative to use only column groups
+ * @param layout position of the column groups
+ * @param arq when the receiver request retransmissions of packets that can't be recovered
+ */
+data class FecConfig(
+  val cols: Int,
+  val rows: Int = 1,
+  val layout: Layout = Layout.STAIRCASE,
+  val arq: Arq = Arq.ONREQ
+) {
+
+  enum class Layout(val value: String) {
+    //column groups start in the same row
+    EVEN("even"),
+    //each column group start one row below the previous column, column packets are not sent in bursts
+    STAIRCASE("staircase")
+  }
+
+  enum class Arq(val value: String) {
+    ALWAYS("always"), ONREQ("onreq"), NEVER("never")
+  }
+
+  init {
+    require(cols >= 1 && rows != 0 && rows != -1 && !(cols == 1 && rows == 1)) { "invalid FEC size, cols: $cols, rows: $rows" }
+  }
+
+  val columnSize: Int
+    get() = abs(rows)
+
+  fun hasRows(): Boolean = rows > 0
+
+  fun hasColumns(): Boolean = abs(rows) > 1
+
+  override fun toString(): String {
+    return "fec,cols:$cols,rows:$rows,layout:${layout.value},arq:${arq.value}"
+  }
+
+  companion object {
+    /**
+     * @return config of the string or null if it is not a valid FEC config
+     */
+    @JvmStatic
+    fun parse(value: String): FecConfig? {
+      val parts = value.split(",")
+      if (parts.firstOrNull()?.trim() != "fec") return null
+      val values = parts.drop(1).mapNotNull {
+        val keyValue = it.split(":")
+        if (keyValue.size == 2) keyValue[0].trim() to keyValue[1].trim() else null
+      }.toMap()
+      return runCatching {
+        FecConfig(
+          cols = values["cols"]?.toInt() ?: return null,
+          rows = values["rows"]?.toInt() ?: 1,
+          layout = Layout.values().firstOrNull { it.value == values["layout"] } ?: Layout.STAIRCASE,
+          arq = Arq.values().firstOrNull { it.value == values["arq"] } ?: Arq.ONREQ
+        )
+      }.getOrNull()
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.fec
+
+import com.pedro.srt.srt.packets.DataPacket
+import com.pedro.srt.srt.packets.data.KeyBasedEncryption
+import com.pedro.srt.srt.packets.data.PacketPosition
+
+/**
+ * Sender side of the SRT built-in FEC packet filter (row/column XOR).
+ *
+ * Packets are grouped in rows of cols consecutive packets and in columns of rows packets with a step of cols.
+ * Each group generates a FEC packet with the XOR of timestamps, encryption flags, payload lengths and payloads,
+ * so the receiver can rebuild 1 lost packet per group. Payloads are xored from the packets sent without copy them.
+ *
+ * FEC packets are data packets with message number 0 and the sequence number of the last packet of the group.
+ * Payload: group index (1 byte, -1 for rows or column index), flag clip (1 byte), length clip (2 bytes), payload clip.
+ *
+ * The first packet fed must be the first packet sent in the connection so groups are aligned with the receiver.
+ * Not thread safe, FEC packets returned are reused so they must be sent before feed the next packet.
+ *
+ * @param payloadSize max payload size of data packets
+ */
+class FecFilter(val config: FecConfig, payloadSize: Int) {
+
+  companion object {
+    const val HEADER_SIZE = 4
+    const val ROW_GROUP_INDEX = -1
+  }
+
+  private val cols = config.cols
+  private val columnSize = config.columnSize
+  private val rowGroup = Group(ROW_GROUP_INDEX, payloadSize)
+  private val columnGroups = Array(cols) { Group(it, payloadSize) }
+  //position of the first packet of each column group
+  private val columnStarts = LongArray(cols) {
+    if (config.layout == FecConfig.Layout.STAIRCASE) it + (it % columnSize).toLong() * cols else it.toLong()
+  }
+  private val fecPackets = ArrayList<DataPacket>(2)
+  private var position = 0L
+
+  /**
+   * @return FEC packets of the groups completed with this packet, empty list if none
+   */
+  fun feed(packet: DataPacket): List<DataPacket> {
+    fecPackets.clear()
+    val column = (position % cols).toInt()
+    if (config.hasRows()) {
+      rowGroup.add(packet)
+      if (column == cols - 1) fecPackets.add(rowGroup.build(packet))
+    }
+    if (config.hasColumns()) {
+      val offset = position - columnStarts[column]
+      if (offset >= 0) {
+        val group = columnGroups[column]
+        group.add(packet)
+        if ((offset / cols) % columnSize == columnSize - 1L) fecPackets.add(group.build(packet))
+      }
+    }
+    position++
+    return fecPackets
+  }
+
+  /**
+   * @return FEC packets sent per data packet
+   */
+  fun getOverhead(): Float {
+    val rows = if (config.hasRows()) 1f / cols else 0f
+    val columns = if (config.hasColumns()) 1f / columnSize else 0f
+    return rows + columns
+  }
+
+  fun reset() {
+    position = 0
+    rowGroup.reset()
+    columnGroups.forEach { it.reset() }
+  }
+
+  private class Group(private val index: Int, payloadSize: Int) {
+
+    private val fecPacket = DataPacket(
+      packetPosition = PacketPosition.SINGLE,
+      messageNumber = 0,
+      payload = ByteArray(HEADER_SIZE + payloadSize)
+    )
+    private var timestampClip = 0
+    private var flagClip = 0
+    private var lengthClip = 0
+    //reset in the next add because the FEC packet of the last build could be in use
+    private var completed = false
+
+    fun add(packet: DataPacket) {
+      if (completed) reset()
+      timestampClip = timestampClip xor packet.ts
+      flagClip = flagClip xor packet.encryption.value
+      lengthClip = lengthClip xor packet.payloadSize
+      val clip = fecPacket.payload
+      val payload = packet.payload
+      val size = minOf(packet.payloadSize, clip.size - HEADER_SIZE)
+      for (i in 0 until size) {
+        clip[HEADER_SIZE + i] = (clip[HEADER_SIZE + i].toInt() xor payload[i].toInt()).toByte()
+      }
+    }
+
+    fun build(lastPacket: DataPacket): DataPacket {
+      completed = true
+      val clip = fecPacket.payload
+      clip[0] = index.toByte()
+      clip[1] = flagClip.toByte()
+      clip[2] = (lengthClip ushr 8).toByte()
+      clip[3] = lengthClip.toByte()
+      fecPacket.sequenceNumber = lastPacket.sequenceNumber
+      fecPacket.socketId = lastPacket.socketId
+      fecPacket.ts = timestampClip
+      fecPacket.encryption = KeyBasedEncryption.NONE
+      fecPacket.retransmitted = false
+      return fecPacket
+    }
+
+    fun reset() {
+      completed = false
+      timestampClip = 0
+      flagClip = 0
+      lengthClip = 0
+      fecPacket.payload.fill(0)
+    }
+  }
+}
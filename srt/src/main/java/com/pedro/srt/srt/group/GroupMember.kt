@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.group
+
+import android.util.Log
+import com.pedro.srt.srt.StatsManager
+import com.pedro.srt.utils.SrtSocket
+import com.pedro.srt.utils.TimeUtils
+import java.io.IOException
+
+/**
+ * Connection of a broadcast group. Each member has his own socket, handshake, ACK/NAK handling and stats
+ * but all members send the same data packets with the same sequence numbers.
+ *
+ * A member that fails or doesn't receive anything from the server in [PEER_IDLE_TIMEOUT] is disabled, and
+ * it can join the group again with a new connection after [REJOIN_INTERVAL].
+ * Timestamps are in milliseconds.
+ */
+class GroupMember(socket: SrtSocket, val localAddress: String? = null) {
+
+  companion object {
+    private const val TAG = "GroupMember"
+    //same values that libsrt use by default
+    const val KEEPALIVE_INTERVAL = 1000L
+    const val PEER_IDLE_TIMEOUT = 5000L
+    const val REJOIN_INTERVAL = 2000L
+  }
+
+  @Volatile
+  var socket = socket
+    private set
+  //socket id of the server for this connection
+  @Volatile
+  var socketId = 0
+  var statsManager = StatsManager()
+    private set
+  //false if the connection failed, the rest of the group keep working
+  @Volatile
+  var isActive = true
+    private set
+  @Volatile
+  private var lastReceivedTs = TimeUtils.getCurrentTimeMillis()
+  @Volatile
+  private var lastSentTs = TimeUtils.getCurrentTimeMillis()
+  @Volatile
+  private var disabledTs = 0L
+
+  /**
+   * Run a write in this connection and disable the member if it fails.
+   */
+  inline fun write(write: (SrtSocket) -> Unit) {
+    try {
+      write(socket)
+      onPacketSent(TimeUtils.getCurrentTimeMillis())
+    } catch (e: IOException) {
+      disable(e)
+    }
+  }
+
+  fun onPacketSent(ts: Long) {
+    lastSentTs = ts
+  }
+
+  fun onPacketReceived(ts: Long) {
+    lastReceivedTs = ts
+  }
+
+  /**
+   * @return true if nothing was sent in [KEEPALIVE_INTERVAL] and a keep alive is needed
+   */
+  fun needKeepAlive(ts: Long): Boolean = isActive && ts - lastSentTs >= KEEPALIVE_INTERVAL
+
+  /**
+   * @return true if the server doesn't reply in [PEER_IDLE_TIMEOUT]. The socket is connected
+   * even if the server is gone (UDP), so this is the only way to detect a broken path.
+   */
+  fun isTimedOut(ts: Long): Boolean = isActive && ts - lastReceivedTs >= PEER_IDLE_TIMEOUT
+
+  /**
+   * @return true if the member is disabled and can try to join the group again
+   */
+  fun canRejoin(ts: Long): Boolean = !isActive && ts - disabledTs >= REJOIN_INTERVAL
+
+  fun disable(error: Throwable? = null, ts: Long = TimeUtils.getCurrentTimeMillis()) {
+    if (isActive) {
+      Log.e(TAG, "group member disabled", error)
+      disabledTs = ts
+    }
+    isActive = false
+  }
+
+  /**
+   * Wait [REJOIN_INTERVAL] again before the next rejoin.
+   */
+  fun onRejoinFailed(ts: Long) {
+    disabledTs = ts
+  }
+
+  /**
+   * Use a new connection after handshake it with the same group id.
+   * Stats are reset because they are from other connection.
+   */
+  fun rejoin(socket: SrtSocket, socketId: Int, ts: Long) {
+    this.socket = socket
+    this.socketId = socketId
+    statsManager = StatsManager()
+    lastReceivedTs = ts
+    lastSentTs = ts
+    isActive = true
+    Log.i(TAG, "group member joined again")
+  }
+}
@@ -25,6 +25,7 @@ import com.pedro.srt.utils.toInt
 import com.pedro.srt.utils.writeUInt32
 import java.io.IOException
 import java.io.InputStream
+import java.nio.ByteBuffer
 
 /**
  * Created by pedro on 21/8/23.
@@ -38,21 +39,35 @@ class DataPacket(
   var messageNumber: Int = 0,
   var ts: Int = 0,
   var socketId: Int = 0,
-  var payload: ByteArray = byteArrayOf()
+  var payload: ByteArray = byteArrayOf(),
+  //bytes of payload used, payload could be a bigger buffer taken from a pool
+  var payloadSize: Int = payload.size
 ): SrtPacket() {
 
   fun write() {
     resetBuffer()
-    val headerData = (PacketType.DATA.value shl 31) or (sequenceNumber and 0x7FFFFFFF)
-    val info = (packetPosition.value shl 30) or (order.toInt() shl 29) or
-        (encryption.value shl 27) or (retransmitted.toInt() shl 26) or messageNumber
-    buffer.writeUInt32(headerData)
-    buffer.writeUInt32(info)
+    buffer.writeUInt32(getHeaderData())
+    buffer.writeUInt32(getInfo())
     buffer.writeUInt32(ts)
     buffer.writeUInt32(socketId)
-    buffer.write(payload)
+    buffer.write(payload, 0, payloadSize)
   }
 
+  /**
+   * Write only the header (16 bytes). Used to send header and payload without copy it in the same buffer
+   */
+  fun writeHeader(byteBuffer: ByteBuffer) {
+    byteBuffer.putInt(getHeaderData())
+    byteBuffer.putInt(getInfo())
+    byteBuffer.putInt(ts)
+    byteBuffer.putInt(socketId)
+  }
+
+  private fun getHeaderData(): Int = (PacketType.DATA.value shl 31) or (sequenceNumber and 0x7FFFFFFF)
+
+  private fun getInfo(): Int = (packetPosition.value shl 30) or (order.toInt() shl 29) or
+      (encryption.value shl 27) or (retransmitted.toInt() shl 26) or messageNumber
+
   fun read(input: InputStream) {
     sequenceNumber = input.readUInt32()
     val packetType = PacketType.from((sequenceNumber ushr 31) and 0x01)
@@ -62,7 +77,7 @@ class DataPacket(
     val info = input.readUInt32()
     packetPosition = PacketPosition.from((info ushr 30) and 0x03)
     order = ((info ushr 29) and 0x01).toBoolean()
-    encryption = KeyBasedEncryption.from((info ushr 28) and 0x03)
+    encryption = KeyBasedEncryption.from((info ushr 27) and 0x03)
     retransmitted = ((info ushr 26) and 0x01).toBoolean()
     messageNumber = info and 0x03FFFFFF
     ts = input.readUInt32()
@@ -70,9 +85,10 @@ class DataPacket(
     val payload = ByteArray(input.available())
     input.readUntil(payload)
     this.payload = payload
+    this.payloadSize = payload.size
   }
 
-  fun getSize(): Int = buffer.size()
+  fun getSize(): Int = headerSize + payloadSize
 
   override fun toString(): String {
     return "DataPacket(sequenceNumber=$sequenceNumber, packetPosition=$packetPosition, order=$order, encryption=$encryption, retransmitted=$retransmitted, messageNumber=$messageNumber, ts=$ts, socketId=$socketId, payload=${payload.contentToString()})"
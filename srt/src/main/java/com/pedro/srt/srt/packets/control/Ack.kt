@@ -34,6 +34,10 @@ class Ack(
   var receivingRate: Int = 0
 ): ControlPacket(ControlType.ACK) {
 
+  //number of CIF fields received. Light ACK only has the sequence number and small ACK has no rates
+  var fieldsCount = FULL_ACK_FIELDS
+    private set
+
   fun write(ts: Int, socketId: Int) {
     super.writeHeader(ts, socketId)
     writeBody()
@@ -55,16 +59,29 @@ class Ack(
   }
 
   private fun readBody(input: InputStream) {
-    lastAcknowledgedPacketSequenceNumber = input.readUInt32() and 0x7FFFFFFF //31 bits
-    rtt = input.readUInt32()
-    rttVariance = input.readUInt32()
-    availableBufferSize = input.readUInt32()
-    packetReceivingRate = input.readUInt32()
-    estimatedLinkCapacity = input.readUInt32()
-    receivingRate = input.readUInt32()
+    fieldsCount = minOf(input.available() / 4, FULL_ACK_FIELDS)
+    lastAcknowledgedPacketSequenceNumber = input.readField(0) and 0x7FFFFFFF //31 bits
+    rtt = input.readField(1)
+    rttVariance = input.readField(2)
+    availableBufferSize = input.readField(3)
+    packetReceivingRate = input.readField(4)
+    estimatedLinkCapacity = input.readField(5)
+    receivingRate = input.readField(6)
   }
 
+  private fun InputStream.readField(index: Int): Int = if (index < fieldsCount) readUInt32() else 0
+
+  fun isLightAck(): Boolean = fieldsCount == LIGHT_ACK_FIELDS
+
+  fun isFullAck(): Boolean = fieldsCount == FULL_ACK_FIELDS
+
   override fun toString(): String {
-    return "${super.toString()}, Ack(lastAcknowledgedPacketSequenceNumber=$lastAcknowledgedPacketSequenceNumber, rtt=$rtt, rttVariance=$rttVariance, availableBufferSize=$availableBufferSize, packetReceivingRate=$packetReceivingRate, estimatedLinkCapacity=$estimatedLinkCapacity, receivingRate=$receivingRate)"
+    return "${super.toString()}, Ack(fieldsCount=$fieldsCount, lastAcknowledgedPacketSequenceNumber=$lastAcknowledgedPacketSequenceNumber, rtt=$rtt, rttVariance=$rttVariance, availableBufferSize=$availableBufferSize, packetReceivingRate=$packetReceivingRate, estimatedLinkCapacity=$estimatedLinkCapacity, receivingRate=$receivingRate)"
+  }
+
+  companion object {
+    const val LIGHT_ACK_FIELDS = 1
+    const val SMALL_ACK_FIELDS = 4
+    const val FULL_ACK_FIELDS = 7
   }
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.packets.control
+
+import com.pedro.srt.srt.packets.ControlPacket
+import com.pedro.srt.srt.packets.control.handshake.extension.ExtensionType
+import com.pedro.srt.srt.packets.control.handshake.extension.KeyMaterial
+import com.pedro.srt.srt.packets.control.handshake.extension.KeyMaterialState
+import com.pedro.srt.utils.readUInt32
+import com.pedro.srt.utils.writeUInt32
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * User defined control packet with a KMREQ or KMRSP, used to announce new keys after the handshake.
+ * A KMRSP only contains the key material state if the key material was rejected.
+ */
+class KeyMaterialMessage(
+  var extensionType: ExtensionType = ExtensionType.SRT_CMD_KM_REQ,
+  var keyMaterial: KeyMaterial? = null,
+  var keyMaterialState: KeyMaterialState = KeyMaterialState.SECURED
+): ControlPacket(ControlType.USER_DEFINED) {
+
+  fun write(ts: Int, socketId: Int) {
+    super.writeHeader(ts, socketId)
+    val keyMaterial = keyMaterial
+    if (keyMaterial != null) {
+      keyMaterial.write()
+      buffer.write(keyMaterial.getData())
+    } else {
+      buffer.writeUInt32(keyMaterialState.value)
+    }
+  }
+
+  fun read(input: InputStream) {
+    super.readHeader(input)
+    if (input.available() == 4) {
+      keyMaterialState = KeyMaterialState.from(input.readUInt32())
+    } else {
+      val keyMaterial = KeyMaterial()
+      keyMaterial.read(input)
+      this.keyMaterial = keyMaterial
+    }
+  }
+
+  override fun getSubtypeValue(): Int = extensionType.value
+
+  override fun readSubtype(value: Int) {
+    extensionType = when (value) {
+      ExtensionType.SRT_CMD_KM_REQ.value -> ExtensionType.SRT_CMD_KM_REQ
+      ExtensionType.SRT_CMD_KM_RSP.value -> ExtensionType.SRT_CMD_KM_RSP
+      else -> throw IOException("unsupported user defined subtype: $value")
+    }
+  }
+
+  override fun toString(): String {
+    return "KeyMaterialMessage(extensionType=$extensionType, keyMaterial=$keyMaterial, keyMaterialState=$keyMaterialState)"
+  }
+}
@@ -20,6 +20,7 @@ import com.pedro.srt.srt.packets.ControlPacket
 import com.pedro.srt.utils.readUInt32
 import com.pedro.srt.utils.writeUInt32
 import java.io.InputStream
+import java.util.Collections
 
 /**
  * Created by pedro on 22/8/23.
@@ -90,6 +91,20 @@ class Nak: ControlPacket(ControlType.NAK) {
     return values
   }
 
+  /**
+   * Iterate packets lost as ranges (min and max included) without expand it
+   */
+  inline fun forEachLostRange(action: (min: Int, max: Int) -> Unit) {
+    val ranges = getLostRanges()
+    var i = 0
+    while (i + 1 < ranges.size) {
+      action(ranges[i] and 0x7FFFFFFF, ranges[i + 1] and 0x7FFFFFFF)
+      i += 2
+    }
+  }
+
+  fun getLostRanges(): List<Int> = Collections.unmodifiableList(cifLostList)
+
   override fun toString(): String {
     return "Nak(cifLostList=$cifLostList)"
   }
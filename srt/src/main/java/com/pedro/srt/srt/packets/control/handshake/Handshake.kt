@@ -18,10 +18,14 @@ package com.pedro.srt.srt.packets.control.handshake
 
 import com.pedro.srt.srt.packets.ControlPacket
 import com.pedro.srt.srt.packets.control.ControlType
+import com.pedro.srt.srt.packets.control.handshake.extension.ExtensionType
 import com.pedro.srt.srt.packets.control.handshake.extension.HandshakeExtension
+import com.pedro.srt.srt.packets.control.handshake.extension.KeyMaterial
+import com.pedro.srt.srt.packets.control.handshake.extension.KeyMaterialState
 import com.pedro.srt.utils.Constants
 import com.pedro.srt.utils.readUInt16
 import com.pedro.srt.utils.readUInt32
+import com.pedro.srt.utils.readUntil
 import com.pedro.srt.utils.writeUInt16
 import com.pedro.srt.utils.writeUInt32
 import java.io.InputStream
@@ -78,6 +82,18 @@ data class Handshake(
   var handshakeExtension: HandshakeExtension? = null
 ): ControlPacket(ControlType.HANDSHAKE) {
 
+  //KMRSP extension received, key material accepted or state if it was rejected
+  var keyMaterialResponse: KeyMaterial? = null
+    private set
+  var keyMaterialState: KeyMaterialState? = null
+    private set
+  //packet filter configuration agreed by the server
+  var filterResponse: String? = null
+    private set
+  //TSBPD delay in milliseconds that the server use to play our packets, from HSRSP extension
+  var tsbpdDelayResponse: Int? = null
+    private set
+
   fun write(ts: Int, socketId: Int) {
     //control packet header (16 bytes)
     super.writeHeader(ts, socketId)
@@ -125,6 +141,36 @@ data class Handshake(
     srtSocketId = input.readUInt32()
     synCookie = input.readUInt32()
     readAddress(input)
+    readExtensions(input)
+  }
+
+  private fun readExtensions(input: InputStream) {
+    while (input.available() >= 4) {
+      val type = input.readUInt16()
+      val length = input.readUInt16() * 4
+      if (input.available() < length) return
+      if (type == ExtensionType.SRT_CMD_HS_RSP.value && length >= 12) {
+        input.skip(8) //version and flags
+        //receive delay agreed by the server, sender delay is only used if the server send data
+        tsbpdDelayResponse = input.readUInt16()
+        input.skip(length - 10L)
+      } else if (type == ExtensionType.SRT_CMD_KM_RSP.value) {
+        if (length == 4) {
+          keyMaterialState = KeyMaterialState.from(input.readUInt32())
+        } else {
+          val keyMaterial = KeyMaterial()
+          keyMaterial.read(input)
+          keyMaterialResponse = keyMaterial
+          keyMaterialState = KeyMaterialState.SECURED
+        }
+      } else if (type == ExtensionType.SRT_CMD_FILTER.value) {
+        val data = ByteArray(length)
+        input.readUntil(data)
+        filterResponse = HandshakeExtension.readPathData(data)
+      } else {
+        input.skip(length.toLong())
+      }
+    }
   }
 
   private fun readAddress(input: InputStream): String {
@@ -17,6 +17,7 @@
 package com.pedro.srt.srt.packets.control.handshake.extension
 
 import com.pedro.srt.srt.packets.SrtPacket
+import com.pedro.srt.utils.Constants
 import com.pedro.srt.utils.writeUInt16
 import com.pedro.srt.utils.writeUInt32
 
@@ -27,11 +28,53 @@ import com.pedro.srt.utils.writeUInt32
 data class HandshakeExtension(
   private val version: String = "1.4.4",
   private val flags: Int = ExtensionContentFlag.REXMITFLG.value or ExtensionContentFlag.CRYPT.value,
-  private val receiverDelay: Int = 120,
+  private val receiverDelay: Int = Constants.LATENCY,
   private val senderDelay: Int = 0,
-  private val path: String = ""
+  private val path: String = "",
+  //KMREQ sent if encryption is enabled
+  private val keyMaterial: KeyMaterial? = null,
+  //packet filter configuration, like FEC
+  private val filter: String? = null,
+  //id of the socket group if the connection is a member of a group
+  private val groupId: Int? = null,
+  private val groupType: GroupType = GroupType.BROADCAST,
+  private val groupWeight: Int = 0
 ): SrtPacket() {
 
+  companion object {
+    /**
+     * Fill array with 0 if length is not enough to fill blocks of 4 bytes
+     * and convert it to little endian 32-bits
+     */
+    fun fixPathData(data: ByteArray): ByteArray {
+      val mod = data.size % 4
+      return if (mod == 0) {
+        reverseBlocks(data.asList())
+      } else {
+        val bytesToAdd = ByteArray(4 - mod) { 0x00 }.asList()
+        val list = data.asList().toMutableList()
+        list.addAll(bytesToAdd)
+        reverseBlocks(list)
+      }
+    }
+
+    /**
+     * Inverse of [fixPathData], used to read string extensions
+     */
+    fun readPathData(data: ByteArray): String {
+      return String(reverseBlocks(data.asList()), Charsets.UTF_8).trimEnd('\u0000')
+    }
+
+    private fun reverseBlocks(bytes: List<Byte>): ByteArray {
+      val blocks = bytes.chunked(4)
+      val result = mutableListOf<Byte>()
+      blocks.map { it.reversed() }.forEach {
+        result.addAll(it)
+      }
+      return result.toByteArray()
+    }
+  }
+
   fun write() {
     buffer.writeUInt16(ExtensionType.SRT_CMD_HS_REQ.value)
     //this extension contain a length of 3 with 4 bytes size block
@@ -45,6 +88,29 @@ data class HandshakeExtension(
     val data = fixPathData(path.toByteArray(Charsets.UTF_8))
     buffer.writeUInt16(data.size / 4)
     buffer.write(data)
+
+    keyMaterial?.let {
+      it.write()
+      val keyMaterialData = it.getData()
+      buffer.writeUInt16(ExtensionType.SRT_CMD_KM_REQ.value)
+      buffer.writeUInt16(keyMaterialData.size / 4)
+      buffer.write(keyMaterialData)
+    }
+
+    filter?.let {
+      val filterData = fixPathData(it.toByteArray(Charsets.UTF_8))
+      buffer.writeUInt16(ExtensionType.SRT_CMD_FILTER.value)
+      buffer.writeUInt16(filterData.size / 4)
+      buffer.write(filterData)
+    }
+
+    groupId?.let {
+      buffer.writeUInt16(ExtensionType.SRT_CMD_GROUP.value)
+      buffer.writeUInt16(2)
+      buffer.writeUInt32(it)
+      //type (8 bits), flags (8 bits) and weight (16 bits)
+      buffer.writeUInt32((groupType.value shl 24) or (groupWeight and 0xFFFF))
+    }
   }
 
   private fun getVersionData(version: String): ByteArray {
@@ -58,29 +124,4 @@ data class HandshakeExtension(
     bytes[3] = (versionValue and 0xFF).toByte()
     return bytes
   }
-
-  /**
-   * Fill array with 0 if length is not enough to fill blocks of 4 bytes
-   * and convert it to little endian 32-bits
-   */
-  private fun fixPathData(data: ByteArray): ByteArray {
-    val mod = data.size % 4
-    return if (mod == 0) {
-      reverseBlocks(data.asList())
-    } else {
-      val bytesToAdd = ByteArray(4 - mod) { 0x00 }.asList()
-      val list = data.asList().toMutableList()
-      list.addAll(bytesToAdd)
-      reverseBlocks(list)
-    }
-  }
-
-  private fun reverseBlocks(bytes: List<Byte>): ByteArray {
-    val blocks = bytes.chunked(4)
-    val result = mutableListOf<Byte>()
-    blocks.map { it.reversed() }.forEach {
-      result.addAll(it)
-    }
-    return result.toByteArray()
-  }
 }
\ No newline at end of file
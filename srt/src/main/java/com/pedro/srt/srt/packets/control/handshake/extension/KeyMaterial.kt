@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.packets.control.handshake.extension
+
+import com.pedro.srt.srt.packets.SrtPacket
+import com.pedro.srt.srt.packets.data.KeyBasedEncryption
+import com.pedro.srt.utils.readUInt16
+import com.pedro.srt.utils.readUInt32
+import com.pedro.srt.utils.readUntil
+import com.pedro.srt.utils.writeUInt16
+import com.pedro.srt.utils.writeUInt32
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Key material message, sent in KMREQ/KMRSP handshake extension and control packets.
+ *
+ * 0                   1                   2                   3
+ * 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |S|  V  |   PT  |              Sign             |   Resv1   | KK|
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                              KEKI                             |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |     Cipher    |      Auth     |       SE      |     Resv2     |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |             Resv3             |     SLen/4    |     KLen/4    |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                              Salt                             |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                          Wrapped Key                          |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *
+ * Wrapped key contains the even key, the odd key or both (even first) if keys are rotating.
+ */
+class KeyMaterial(
+  var keyBasedEncryption: KeyBasedEncryption = KeyBasedEncryption.PAIR_KEY,
+  var keyLength: Int = 16,
+  var salt: ByteArray = ByteArray(SALT_LENGTH),
+  var wrappedKey: ByteArray = ByteArray(0)
+): SrtPacket() {
+
+  companion object {
+    const val SALT_LENGTH = 16
+    private const val VERSION_AND_PACKET_TYPE = 0x12 //version 1, packet type 2 (key material)
+    private const val SIGN = 0x2029 //HAI in PnP vendor ID
+    private const val CIPHER_AES_CTR = 2
+    private const val STREAM_ENCAPSULATION_SRT = 2
+  }
+
+  fun write() {
+    resetBuffer()
+    buffer.write(VERSION_AND_PACKET_TYPE)
+    buffer.writeUInt16(SIGN)
+    buffer.write(keyBasedEncryption.value and 0x03)
+    buffer.writeUInt32(0) //KEKI, default key
+    buffer.write(CIPHER_AES_CTR)
+    buffer.write(0) //no authentication
+    buffer.write(STREAM_ENCAPSULATION_SRT)
+    buffer.write(0)
+    buffer.writeUInt16(0)
+    buffer.write(salt.size / 4)
+    buffer.write(keyLength / 4)
+    buffer.write(salt)
+    buffer.write(wrappedKey)
+  }
+
+  fun read(input: InputStream) {
+    val versionAndType = input.read()
+    val sign = input.readUInt16()
+    if (versionAndType != VERSION_AND_PACKET_TYPE || sign != SIGN) {
+      throw IOException("invalid key material, version: $versionAndType, sign: $sign")
+    }
+    keyBasedEncryption = KeyBasedEncryption.from(input.read() and 0x03)
+    input.readUInt32() //KEKI
+    val cipher = input.read()
+    if (cipher != CIPHER_AES_CTR) throw IOException("unsupported cipher: $cipher")
+    input.read() //auth
+    input.read() //stream encapsulation
+    input.read()
+    input.readUInt16()
+    val saltLength = input.read() * 4
+    keyLength = input.read() * 4
+    val keys = if (keyBasedEncryption == KeyBasedEncryption.BOTH_KEYS) 2 else 1
+    val wrappedKeyLength = 8 + keyLength * keys
+    if (input.available() < saltLength + wrappedKeyLength) throw IOException("invalid key material, size too small")
+    salt = ByteArray(saltLength)
+    input.readUntil(salt)
+    wrappedKey = ByteArray(wrappedKeyLength)
+    input.readUntil(wrappedKey)
+  }
+
+  override fun toString(): String {
+    return "KeyMaterial(keyBasedEncryption=$keyBasedEncryption, keyLength=$keyLength)"
+  }
+}
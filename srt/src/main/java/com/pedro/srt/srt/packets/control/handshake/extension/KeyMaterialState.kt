@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.packets.control.handshake.extension
+
+import java.io.IOException
+
+/**
+ * Key material state sent in a KMRSP with only 4 bytes if the key material can't be used
+ */
+enum class KeyMaterialState(val value: Int) {
+  UNSECURED(0), SECURING(1), SECURED(2), NO_SECRET(3), BAD_SECRET(4);
+
+  companion object {
+    infix fun from(value: Int): KeyMaterialState = KeyMaterialState.values().firstOrNull { it.value == value } ?: throw IOException("unknown key material state: $value")
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.utils
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+
+/**
+ * Thread safe pool of byte arrays with the same size.
+ *
+ * If the pool is empty a new array is created and arrays released when the pool is full are discarded,
+ * so a buffer that is never released is only collected by the GC.
+ */
+class BufferPool(val bufferSize: Int, maxBuffers: Int = DEFAULT_MAX_BUFFERS) {
+
+  companion object {
+    const val DEFAULT_MAX_BUFFERS = 1024
+  }
+
+  private val buffers: BlockingQueue<ByteArray> = ArrayBlockingQueue(maxBuffers)
+
+  fun acquire(): ByteArray = buffers.poll() ?: ByteArray(bufferSize)
+
+  /**
+   * Copy the first [size] bytes of data in a buffer of the pool or in a new array if it doesn't fit.
+   */
+  fun copyOf(data: ByteArray, size: Int): ByteArray {
+    val buffer = if (size <= bufferSize) acquire() else ByteArray(size)
+    System.arraycopy(data, 0, buffer, 0, size)
+    return buffer
+  }
+
+  /**
+   * Return a buffer to the pool. The buffer can't be used after call it.
+   * Buffers with a different size are ignored.
+   */
+  fun release(buffer: ByteArray) {
+    if (buffer.size == bufferSize) buffers.offer(buffer)
+  }
+
+  fun size(): Int = buffers.size
+
+  fun clear() {
+    buffers.clear()
+  }
+}
@@ -22,4 +22,7 @@ package com.pedro.srt.utils
 object Constants {
   const val MTU = 1500
   const val SYSTEM_CLOCK_FREQ = 27000000
+  const val LATENCY = 120 //ms
+  //min time to drop a packet not acknowledged, same as libsrt
+  const val MIN_DROP_THRESHOLD = 1000 //ms
 }
\ No newline at end of file
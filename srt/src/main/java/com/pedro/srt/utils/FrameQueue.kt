@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.utils
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+
+/**
+ * Bounded send queue that drop frames following the dependencies between them instead of discard
+ * the frame that arrives when the queue is full:
+ *
+ * - Audio and config frames are never dropped while there is video in the queue, the newest video
+ * frame is removed to make room.
+ * - When a video frame is dropped, the next video frames are dropped too until a key frame because
+ * they can't be decoded without it, and a key frame is requested with [onKeyFrameRequired].
+ * Requests are limited to one each [keyFrameRequestInterval] so a congested link doesn't make the
+ * encoder produce a key frame for each drop, that would increase the bitrate even more.
+ * - A key frame that doesn't fit remove the video frames in the queue, they are older than it.
+ * - If a frame is split in multiple items (RTP packets), [isSameFrame] is used to remove all items
+ * of the frame, a partial frame can't be decoded.
+ *
+ * Frames can be offered from audio and video threads at the same time that the sender thread poll it.
+ */
+class FrameQueue<T: Any>(
+  capacity: Int,
+  private val nanoTime: () -> Long = System::nanoTime
+) {
+
+  enum class FrameType {
+    //sequence headers or tables needed to decode the stream
+    CONFIG, AUDIO, KEY_FRAME, VIDEO;
+
+    fun isVideo(): Boolean = this == KEY_FRAME || this == VIDEO
+  }
+
+  private class Entry<T>(val item: T, val type: FrameType)
+
+  private val lock = ReentrantLock()
+  private val notEmpty = lock.newCondition()
+  private val entries = ArrayDeque<Entry<T>>()
+  @Volatile
+  var capacity = capacity
+    private set
+  //video frames are discarded until the next key frame
+  private var waitingKeyFrame = false
+  //a key frame is needed but the request was not sent yet because of the interval
+  private var keyFrameRequestPending = false
+  private var lastKeyFrameRequestTs = 0L
+  private var keyFrameRequested = false
+  /**
+   * Min time in nanoseconds between key frame requests. If a request is skipped it is sent when
+   * a frame is offered after the interval, unless a key frame arrives before.
+   */
+  @Volatile
+  var keyFrameRequestInterval = TimeUnit.SECONDS.toNanos(1)
+
+  /**
+   * Called with the lock held for each frame discarded or removed from the queue.
+   */
+  var onFrameDiscarded: ((item: T, type: FrameType) -> Unit)? = null
+  /**
+   * Return true if both video items are part of the same frame. Null if each item is a frame.
+   */
+  var isSameFrame: ((a: T, b: T) -> Boolean)? = null
+  /**
+   * Called from the thread that offer the frame when video starts to be discarded.
+   */
+  var onKeyFrameRequired: (() -> Unit)? = null
+
+  /**
+   * @return false if the frame was discarded
+   */
+  fun offer(item: T, type: FrameType): Boolean {
+    var requestKeyFrame = false
+    val result: Boolean
+    lock.lock()
+    try {
+      result = when (type) {
+        FrameType.VIDEO -> {
+          if (!waitingKeyFrame && entries.size < capacity) {
+            add(item, type)
+          } else {
+            if (!waitingKeyFrame) {
+              requestKeyFrame = true
+              removeQueuedParts(item)
+            }
+            waitingKeyFrame = true
+            discard(item, type)
+          }
+        }
+        FrameType.KEY_FRAME -> {
+          if (entries.size >= capacity) removeVideo()
+          if (entries.size < capacity) {
+            waitingKeyFrame = false
+            keyFrameRequestPending = false
+            add(item, type)
+          } else {
+            requestKeyFrame = true
+            waitingKeyFrame = true
+            discard(item, type)
+          }
+        }
+        else -> {
+          if (entries.size >= capacity && removeNewestVideo()) {
+            if (!waitingKeyFrame) requestKeyFrame = true
+            waitingKeyFrame = true
+          }
+          if (entries.size < capacity) add(item, type) else discard(item, type)
+        }
+      }
+      if (requestKeyFrame) keyFrameRequestPending = true
+      requestKeyFrame = keyFrameRequestPending && canRequestKeyFrame()
+    } finally {
+      lock.unlock()
+    }
+    if (requestKeyFrame) onKeyFrameRequired?.invoke()
+    return result
+  }
+
+  @Throws(InterruptedException::class)
+  fun poll(timeout: Long, unit: TimeUnit): T? {
+    var nanos = unit.toNanos(timeout)
+    lock.lockInterruptibly()
+    try {
+      while (entries.isEmpty()) {
+        if (nanos <= 0) return null
+        nanos = notEmpty.awaitNanos(nanos)
+      }
+      return entries.removeFirst().item
+    } finally {
+      lock.unlock()
+    }
+  }
+
+  val size: Int
+    get() {
+      lock.lock()
+      try {
+        return entries.size
+      } finally {
+        lock.unlock()
+      }
+    }
+
+  fun remainingCapacity(): Int = maxOf(capacity - size, 0)
+
+  fun resize(newSize: Int) {
+    lock.lock()
+    try {
+      capacity = newSize
+    } finally {
+      lock.unlock()
+    }
+  }
+
+  fun clear() {
+    lock.lock()
+    try {
+      entries.clear()
+      waitingKeyFrame = false
+      keyFrameRequestPending = false
+      keyFrameRequested = false
+    } finally {
+      lock.unlock()
+    }
+  }
+
+  private fun canRequestKeyFrame(): Boolean {
+    val ts = nanoTime()
+    if (keyFrameRequested && ts - lastKeyFrameRequestTs < keyFrameRequestInterval) return false
+    keyFrameRequested = true
+    keyFrameRequestPending = false
+    lastKeyFrameRequestTs = ts
+    return true
+  }
+
+  private fun add(item: T, type: FrameType): Boolean {
+    entries.addLast(Entry(item, type))
+    notEmpty.signal()
+    return true
+  }
+
+  private fun discard(item: T, type: FrameType): Boolean {
+    onFrameDiscarded?.invoke(item, type)
+    return false
+  }
+
+  private fun removeNewestVideo(): Boolean {
+    val iterator = entries.listIterator(entries.size)
+    while (iterator.hasPrevious()) {
+      val entry = iterator.previous()
+      if (entry.type.isVideo()) {
+        iterator.remove()
+        discard(entry.item, entry.type)
+        removeQueuedParts(entry.item)
+        return true
+      }
+    }
+    return false
+  }
+
+  /**
+   * Remove the items of the same frame that are in the queue
+   */
+  private fun removeQueuedParts(item: T) {
+    val isSameFrame = isSameFrame ?: return
+    entries.removeAll { entry ->
+      (entry.type.isVideo() && isSameFrame(entry.item, item)).also { remove ->
+        if (remove) discard(entry.item, entry.type)
+      }
+    }
+  }
+
+  private fun removeVideo() {
+    entries.removeAll { entry ->
+      entry.type.isVideo().also { isVideo -> if (isVideo) discard(entry.item, entry.type) }
+    }
+  }
+}
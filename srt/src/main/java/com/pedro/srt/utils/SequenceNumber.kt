@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.utils
+
+/**
+ * SRT packet sequence numbers are 31 bits and wrap to 0 after 0x7FFFFFFF.
+ * All comparisons must be done using the distance between values instead of raw values.
+ */
+object SequenceNumber {
+
+  const val MAX_VALUE = 0x7FFFFFFF
+
+  @JvmStatic
+  fun next(value: Int): Int = (value + 1) and MAX_VALUE
+
+  @JvmStatic
+  fun add(value: Int, increment: Int): Int = (value + increment) and MAX_VALUE
+
+  /**
+   * Signed distance from [from] to [to] in the 31 bits space.
+   * Positive if [to] is after [from], negative if it is before.
+   */
+  @JvmStatic
+  fun offset(from: Int, to: Int): Int = ((to - from) shl 1) shr 1
+
+  /**
+   * @return negative if [a] is before [b], 0 if equals and positive if [a] is after [b]
+   */
+  @JvmStatic
+  fun compare(a: Int, b: Int): Int = offset(b, a)
+}
@@ -16,42 +16,53 @@
 
 package com.pedro.srt.utils
 
+import com.pedro.srt.srt.packets.DataPacket
 import com.pedro.srt.srt.packets.SrtPacket
 import java.net.DatagramPacket
-import java.net.DatagramSocket
 import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
 
 /**
  * Created by pedro on 22/8/23.
+ *
+ * @param localAddress local address used to send packets, null to let the system choose it.
+ * Used to send the stream using a specific network interface.
  */
-class SrtSocket(private val host: String, private val port: Int) {
+class SrtSocket(private val host: String, private val port: Int, private val localAddress: String? = null) {
 
   private val TAG = "SrtSocket"
-  private var socket: DatagramSocket? = null
+  private var channel: DatagramChannel? = null
   private var packetSize = Constants.MTU
   private val timeout = 5000
+  //reused to send data packets, header is written in a direct buffer and payload is sent without copy
+  private val headerBuffer = ByteBuffer.allocateDirect(SrtPacket.headerSize)
+  private val dataBuffers = arrayOf(headerBuffer, ByteBuffer.allocate(0))
 
   fun connect() {
     val address = InetAddress.getByName(host)
-    socket = DatagramSocket()
-    socket?.connect(address, port)
-    socket?.soTimeout = timeout
+    channel = DatagramChannel.open()
+    localAddress?.let { channel?.bind(InetSocketAddress(InetAddress.getByName(it), 0)) }
+    channel?.connect(InetSocketAddress(address, port))
+    //only used by receive, write never block with UDP
+    channel?.socket()?.soTimeout = timeout
   }
 
   fun close() {
-    if (socket?.isClosed == false) {
-      socket?.disconnect()
-      socket?.close()
-      socket = null
+    if (channel?.isOpen == true) {
+      channel?.disconnect()
+      channel?.close()
+      channel = null
     }
   }
 
   fun isConnected(): Boolean {
-    return socket?.isConnected ?: false
+    return channel?.isConnected ?: false
   }
 
   fun isReachable(): Boolean {
-    return socket?.inetAddress?.isReachable(5000) ?: false
+    return channel?.socket()?.inetAddress?.isReachable(5000) ?: false
   }
 
   fun setPacketSize(size: Int) {
@@ -59,15 +70,33 @@ class SrtSocket(private val host: String, private val port: Int) {
   }
 
   fun write(srtPacket: SrtPacket) {
-    val buffer = srtPacket.getData()
-    val udpPacket = DatagramPacket(buffer, buffer.size)
-    socket?.send(udpPacket)
+    channel?.write(ByteBuffer.wrap(srtPacket.getData()))
+  }
+
+  /**
+   * Send header and payload of a data packet in a gathering write.
+   * The packet is not written in his buffer so we avoid copy the payload before send it.
+   */
+  fun write(dataPacket: DataPacket) {
+    val channel = channel ?: return
+    headerBuffer.clear()
+    dataPacket.writeHeader(headerBuffer)
+    headerBuffer.flip()
+    val payloadBuffer = dataBuffers[1]
+    if (payloadBuffer.hasArray() && payloadBuffer.array() === dataPacket.payload) {
+      payloadBuffer.clear()
+      payloadBuffer.limit(dataPacket.payloadSize)
+    } else {
+      dataBuffers[1] = ByteBuffer.wrap(dataPacket.payload, 0, dataPacket.payloadSize)
+    }
+    channel.write(dataBuffers)
   }
 
   fun readBuffer(): ByteArray {
     val buffer = ByteArray(packetSize)
     val udpPacket = DatagramPacket(buffer, buffer.size)
-    socket?.receive(udpPacket)
+    //use the socket adaptor to read with timeout
+    channel?.socket()?.receive(udpPacket)
     return udpPacket.data.sliceArray(0 until udpPacket.length)
   }
-}
\ No newline at end of file
+}
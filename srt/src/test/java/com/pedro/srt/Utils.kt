@@ -27,6 +27,10 @@ object Utils {
     assertEquals(actual.toString(), expected.toString())
   }
 
+  fun hex(value: String): ByteArray {
+    return ByteArray(value.length / 2) { value.substring(it * 2, it * 2 + 2).toInt(16).toByte() }
+  }
+
   suspend fun useStatics(statics: List<MockedStatic<out Any>>, callback: suspend () -> Unit) {
     val list = statics.toMutableList()
     if (list.isEmpty()) callback()
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class DtsGeneratorTest {
+
+  private val frameDuration = 33_333L
+
+  @Test
+  fun `GIVEN frames without B-frames WHEN get dts THEN dts is the same that pts`() {
+    val dtsGenerator = DtsGenerator()
+    dtsGenerator.initialReorderDepth = 0
+    for (i in 0 until 100) {
+      val pts = 1_000_000 + i * frameDuration
+      assertEquals(pts, dtsGenerator.getDts(pts))
+    }
+    assertEquals(0, dtsGenerator.ptsOffset)
+    assertFalse(dtsGenerator.hasBFrames())
+  }
+
+  @Test
+  fun `GIVEN frames without B-frames and default reorder depth WHEN get dts THEN pts is delayed with a fixed offset`() {
+    val dtsGenerator = DtsGenerator()
+    val timestamps = getTimestamps(dtsGenerator, List(100) { 1_000_000 + it * frameDuration })
+    assertEquals(DtsGenerator.DEFAULT_REORDER_DEPTH * frameDuration, dtsGenerator.ptsOffset)
+    timestamps.forEachIndexed { index, (pts, dts) ->
+      assertEquals(1_000_000 + index * frameDuration, dts)
+      assertEquals(dts + dtsGenerator.ptsOffset, pts)
+    }
+    assertFalse(dtsGenerator.hasBFrames())
+  }
+
+  @Test
+  fun `GIVEN frames with B-frames WHEN get dts THEN dts increase and is not greater than pts with a fixed offset`() {
+    //IPBB and hierarchical B-frames (I P B B B with reorder depth 2)
+    val patterns = listOf(
+      Pair(listOf(3, 1, 2), 1),
+      Pair(listOf(4, 2, 1, 3), 2)
+    )
+    patterns.forEach { (pattern, depth) ->
+      val dtsGenerator = DtsGenerator()
+      val gop = pattern.size
+      val displayOrder = mutableListOf(0)
+      for (group in 0 until 50) displayOrder.addAll(pattern.map { group * gop + it })
+      val ptsList = displayOrder.map { 1_000_000 + it * frameDuration }
+      val timestamps = getTimestamps(dtsGenerator, ptsList)
+      assertEquals(depth, dtsGenerator.reorderDepth)
+      timestamps.zipWithNext().forEach { (previous, next) -> assertTrue(next.second > previous.second) }
+      timestamps.forEach { (pts, dts) -> assertTrue(dts <= pts) }
+      //same offset in all frames, so display order is not changed
+      assertEquals(1, timestamps.zip(ptsList).map { it.first.first - it.second }.distinct().size)
+    }
+  }
+
+  @Test
+  fun `GIVEN an I P B B gop WHEN get dts THEN dts is never greater than pts in any frame`() {
+    val dtsGenerator = DtsGenerator()
+    val displayOrder = listOf(0, 3, 1, 2, 6, 4, 5, 9, 7, 8)
+    val timestamps = getTimestamps(dtsGenerator, displayOrder.map { it * frameDuration })
+    timestamps.forEach { (pts, dts) -> assertTrue("dts $dts, pts $pts", dts <= pts) }
+    timestamps.zipWithNext().forEach { (previous, next) -> assertTrue(next.second > previous.second) }
+  }
+
+  @Test
+  fun `GIVEN B-frames from the first timestamp WHEN get dts THEN dts always increase and is never negative`() {
+    val dtsGenerator = DtsGenerator()
+    val displayOrder = mutableListOf(0)
+    for (group in 0 until 20) displayOrder.addAll(listOf(4, 2, 1, 3).map { group * 4 + it })
+    val timestamps = getTimestamps(dtsGenerator, displayOrder.map { it * frameDuration })
+    assertTrue(timestamps.all { it.second >= 0 })
+    timestamps.zipWithNext().forEach { (previous, next) -> assertTrue(next.second > previous.second) }
+    timestamps.forEach { (pts, dts) -> assertTrue(dts <= pts) }
+  }
+
+  @Test
+  fun `GIVEN a reorder deeper than expected WHEN get dts THEN pts offset grows and dts is not greater than pts`() {
+    val dtsGenerator = DtsGenerator()
+    val displayOrder = mutableListOf(0)
+    for (group in 0 until 20) displayOrder.addAll(listOf(8, 4, 2, 1, 3, 6, 5, 7).map { group * 8 + it })
+    val timestamps = getTimestamps(dtsGenerator, displayOrder.map { it * frameDuration })
+    assertEquals(3, dtsGenerator.reorderDepth)
+    assertTrue(dtsGenerator.ptsOffset > DtsGenerator.DEFAULT_REORDER_DEPTH * frameDuration)
+    timestamps.zipWithNext().forEach { (previous, next) -> assertTrue(next.second > previous.second) }
+    timestamps.forEach { (pts, dts) -> assertTrue(dts <= pts) }
+  }
+
+  /**
+   * @return PTS with the offset of the generator and DTS of each frame
+   */
+  private fun getTimestamps(dtsGenerator: DtsGenerator, ptsList: List<Long>): List<Pair<Long, Long>> {
+    return ptsList.map { pts ->
+      val dts = dtsGenerator.getDts(pts)
+      Pair(pts + dtsGenerator.ptsOffset, dts)
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+import com.pedro.srt.srt.LiveCongestionControl
+import com.pedro.srt.srt.packets.data.PacketPosition
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+
+class MpegTsAggregatorTest {
+
+  private val packetsPerPayload = 7
+  private val payloadSize = packetsPerPayload * MpegTsPacketizer.packetSize
+
+  private fun createFrame(size: Int, pid: Int, muxer: MpegTsMuxer, type: MpegType): List<MpegTsPacket> {
+    val pesType = if (type == MpegType.AUDIO) PesType.AUDIO else PesType.VIDEO
+    return muxer.write(Pes(pid, false, pesType, 0, ByteBuffer.wrap(ByteArray(size) { it.toByte() })), type)
+  }
+
+  @Test
+  fun `GIVEN a partial payload WHEN max wait expire THEN send it as single packet`() {
+    val aggregator = MpegTsAggregator(packetsPerPayload, maxWait = 10_000)
+    val audio = createFrame(300, 257, MpegTsMuxer(packetsPerPayload), MpegType.AUDIO)
+    assertTrue(aggregator.aggregate(audio, 1_000_000).isEmpty())
+    assertEquals(5_000, aggregator.getWaitTime(1_005_000))
+    assertTrue(aggregator.aggregate(null, 1_005_000).isEmpty())
+    val result = aggregator.aggregate(null, 1_010_000)
+    assertEquals(1, result.size)
+    assertEquals(PacketPosition.SINGLE, result[0].packetPosition)
+    assertEquals(MpegType.AUDIO, result[0].type)
+    assertEquals(audio[0].size, result[0].size)
+    assertEquals(-1, aggregator.getWaitTime(1_010_000))
+  }
+
+  @Test
+  fun `GIVEN audio and video frames WHEN aggregate THEN payloads are full and TS packets keep the order`() {
+    val aggregator = MpegTsAggregator(packetsPerPayload, maxWait = 1_000_000)
+    val frames = listOf(
+      createFrame(5000, 256, MpegTsMuxer(packetsPerPayload), MpegType.VIDEO),
+      createFrame(372, 257, MpegTsMuxer(packetsPerPayload), MpegType.AUDIO),
+      createFrame(9000, 256, MpegTsMuxer(packetsPerPayload), MpegType.VIDEO),
+    )
+    val result = mutableListOf<MpegTsPacket>()
+    frames.forEach { result.addAll(aggregator.aggregate(it, 0)) }
+    result.forEach {
+      assertEquals(payloadSize, it.size)
+      assertEquals(PacketPosition.SINGLE, it.packetPosition)
+    }
+    val pending = aggregator.aggregate(null, 1_000_000)
+    assertEquals(1, pending.size)
+    result.addAll(pending)
+    assertArrayEquals(join(frames.flatten()), join(result))
+  }
+
+  /**
+   * 10 seconds of video at 30 fps (keyframe each 2 seconds, 4 times bigger) and 128 kbps AAC at 44100 Hz.
+   */
+  @Test
+  fun `GIVEN realistic audio and video frames WHEN aggregate THEN send less packets with less overhead`() {
+    val highBitrate = simulate(2_500_000)
+    val lowBitrate = simulate(800_000)
+    assertTrue(highBitrate < 95)
+    assertTrue(lowBitrate < 85)
+  }
+
+  /**
+   * @return percent of packets sent with aggregation compared with the original packets
+   */
+  private fun simulate(videoBitrate: Int): Long {
+    val duration = 10_000_000L
+    val videoMuxer = MpegTsMuxer(packetsPerPayload)
+    val audioMuxer = MpegTsMuxer(packetsPerPayload)
+    val frames = mutableListOf<Pair<Long, List<MpegTsPacket>>>()
+    //59 frames of normal size and 1 keyframe 4 times bigger per GOP
+    val frameSize = videoBitrate / 8 * 2 / 63
+    var videoTs = 0L
+    var videoFrame = 0
+    while (videoTs < duration) {
+      val size = if (videoFrame % 60 == 0) frameSize * 4 else frameSize
+      frames.add(Pair(videoTs, createFrame(size, 256, videoMuxer, MpegType.VIDEO)))
+      videoFrame++
+      videoTs = videoFrame * 1_000_000L / 30
+    }
+    var audioTs = 0L
+    var audioFrame = 0
+    while (audioTs < duration) {
+      frames.add(Pair(audioTs, createFrame(372, 257, audioMuxer, MpegType.AUDIO)))
+      audioFrame++
+      audioTs = audioFrame * 1024 * 1_000_000L / 44100
+    }
+    frames.sortBy { it.first }
+
+    val original = frames.flatMap { it.second }
+    val aggregator = MpegTsAggregator(packetsPerPayload)
+    val aggregated = mutableListOf<MpegTsPacket>()
+    frames.forEach { (ts, packets) ->
+      //simulate the send loop waking up when max wait expire
+      if (aggregator.getWaitTime(ts) == 0L) aggregated.addAll(aggregator.aggregate(null, ts))
+      aggregated.addAll(aggregator.aggregate(packets, ts))
+    }
+    aggregated.addAll(aggregator.aggregate(null, Long.MAX_VALUE))
+
+    val originalOverhead = original.size.toLong() * LiveCongestionControl.PACKET_OVERHEAD
+    val aggregatedOverhead = aggregated.size.toLong() * LiveCongestionControl.PACKET_OVERHEAD
+    val tsBytes = original.sumOf { it.size.toLong() }
+    println("video ${videoBitrate / 1000} kbps, packets/s original: ${original.size * 1_000_000L / duration}, aggregated: ${aggregated.size * 1_000_000L / duration}")
+    println("video ${videoBitrate / 1000} kbps, overhead original: ${originalOverhead * 1000 / tsBytes / 10.0}%, aggregated: ${aggregatedOverhead * 1000 / tsBytes / 10.0}%")
+    assertEquals(tsBytes, aggregated.sumOf { it.size.toLong() })
+    assertArrayEquals(join(original), join(aggregated))
+    return aggregated.size * 100L / original.size
+  }
+
+  private fun join(packets: List<MpegTsPacket>): ByteArray {
+    val output = ByteArrayOutputStream()
+    packets.forEach { output.write(it.buffer, 0, it.size) }
+    return output.toByteArray()
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+import com.pedro.srt.Utils
+import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.BufferPool
+import com.pedro.srt.utils.TimeUtils
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito
+import java.nio.ByteBuffer
+
+class MpegTsMuxerTest {
+
+  private val packetsPerPayload = 7
+  private val pid = 256
+
+  /**
+   * Previous implementation used by AacPacket and H26XPacket.
+   * Create all TS packets with MpegTsPacketizer and join it in groups of packetsPerPayload.
+   */
+  private fun legacyWrite(packetizer: MpegTsPacketizer, pes: Pes, type: MpegType): List<MpegTsPacket> {
+    val chunked = packetizer.write(listOf(pes)).chunked(packetsPerPayload)
+    return chunked.mapIndexed { index, chunks ->
+      val buffer = ByteBuffer.allocate(chunks.sumOf { it.size })
+      chunks.forEach { buffer.put(it) }
+      val packetPosition = if (index == 0 && chunked.size == 1) {
+        PacketPosition.SINGLE
+      } else if (index == 0) {
+        PacketPosition.FIRST
+      } else if (index == chunked.size - 1) {
+        PacketPosition.LAST
+      } else {
+        PacketPosition.MIDDLE
+      }
+      MpegTsPacket(buffer.array(), type, packetPosition)
+    }
+  }
+
+  private fun createData(size: Int, seed: Int): ByteArray = ByteArray(size) { (it * 31 + seed).toByte() }
+
+  @Test
+  fun `GIVEN frames of multiple sizes WHEN mux with single pass muxer THEN get the same bytes that previous implementation`() = runTest {
+    val timeUtilsMock = Mockito.mockStatic(TimeUtils::class.java)
+    timeUtilsMock.`when`<Long>(TimeUtils::getCurrentTimeMicro).thenReturn(700000)
+    Utils.useStatics(listOf(timeUtilsMock)) {
+      val packetizer = MpegTsPacketizer()
+      val muxer = MpegTsMuxer(packetsPerPayload, BufferPool(packetsPerPayload * MpegTsPacketizer.packetSize))
+      //previous implementation write PCR in all frames using the clock (700000 mocked)
+      muxer.pcrOffset = 0
+      muxer.pcrInterval = 0
+      val sizes = listOf(162, 163, 188, 346, 347, 1000, 1150, 1151, 1316, 4096, 30000, 65535, 100000)
+      sizes.forEachIndexed { index, size ->
+        val isKeyFrame = index % 3 == 0
+        val pts = 700000L
+        val data = createData(size, index)
+        val expected = legacyWrite(packetizer, Pes(pid, isKeyFrame, PesType.VIDEO, pts, ByteBuffer.wrap(data)), MpegType.VIDEO)
+        //split data in prefix and buffer like H26XPacket and AacPacket do
+        val prefixSize = minOf(index * 7, size)
+        val prefix = data.copyOfRange(0, prefixSize)
+        val buffer = ByteBuffer.wrap(data, prefixSize, size - prefixSize).slice()
+        val result = muxer.write(Pes(pid, isKeyFrame, PesType.VIDEO, pts, buffer, prefix), MpegType.VIDEO)
+        assertEquals(expected.size, result.size)
+        expected.zip(result).forEach { (e, r) ->
+          assertEquals(e.packetPosition, r.packetPosition)
+          assertEquals(e.type, r.type)
+          assertArrayEquals(e.buffer, r.buffer.copyOf(r.size))
+        }
+      }
+    }
+  }
+
+  @Test
+  fun `GIVEN a frame smaller than a TS packet WHEN mux THEN adaptation field is used as stuffing`() {
+    val muxer = MpegTsMuxer(packetsPerPayload)
+    val data = createData(100, 0)
+    val result = muxer.write(Pes(pid, false, PesType.AUDIO, 0, ByteBuffer.wrap(data)), MpegType.AUDIO)
+    assertEquals(1, result.size)
+    assertEquals(PacketPosition.SINGLE, result[0].packetPosition)
+    val packet = result[0].buffer
+    assertEquals(MpegTsPacketizer.packetSize, result[0].size)
+    assertEquals(0x47, packet[0].toInt())
+    //adaptation field + payload
+    assertEquals(0x30, packet[3].toInt() and 0x30)
+    val adaptationFieldLength = packet[4].toInt() and 0xFF
+    //184 bytes - length byte - PES header - data
+    assertEquals(184 - 1 - 14 - data.size, adaptationFieldLength)
+    assertTrue(packet.copyOfRange(12, 5 + adaptationFieldLength).all { it == 0xFF.toByte() })
+    //PES start code after the adaptation field
+    assertArrayEquals(byteArrayOf(0, 0, 1), packet.copyOfRange(5 + adaptationFieldLength, 8 + adaptationFieldLength))
+    assertArrayEquals(data, packet.copyOfRange(188 - data.size, 188))
+  }
+
+  @Test
+  fun `GIVEN consecutive frames WHEN mux THEN continuity counter increase in each TS packet`() {
+    val muxer = MpegTsMuxer(packetsPerPayload)
+    var expectedContinuity = 0
+    repeat(5) {
+      val result = muxer.write(Pes(pid, false, PesType.VIDEO, 0, ByteBuffer.wrap(createData(2000, it))), MpegType.VIDEO)
+      result.forEach { packet ->
+        for (offset in 0 until packet.size step MpegTsPacketizer.packetSize) {
+          assertEquals(expectedContinuity, packet.buffer[offset + 3].toInt() and 0x0F)
+          expectedContinuity = (expectedContinuity + 1) and 0x0F
+        }
+      }
+    }
+  }
+
+  @Test
+  fun `GIVEN a buffer pool WHEN release payloads THEN muxer reuse it`() {
+    val bufferPool = BufferPool(packetsPerPayload * MpegTsPacketizer.packetSize)
+    val muxer = MpegTsMuxer(packetsPerPayload, bufferPool)
+    val first = muxer.write(Pes(pid, false, PesType.VIDEO, 0, ByteBuffer.wrap(createData(3000, 0))), MpegType.VIDEO)
+    first.forEach { bufferPool.release(it.buffer) }
+    assertEquals(first.size, bufferPool.size())
+    val second = muxer.write(Pes(pid, false, PesType.VIDEO, 0, ByteBuffer.wrap(createData(3000, 0))), MpegType.VIDEO)
+    assertEquals(0, bufferPool.size())
+    assertSame(first[0].buffer, second[0].buffer)
+  }
+
+  /**
+   * Compare the throughput of the previous implementation (a ByteArray per TS packet and per payload)
+   * with the single pass muxer using a pool.
+   */
+  @Test
+  fun `GIVEN video frames WHEN mux with single pass muxer and previous implementation THEN print throughput`() {
+    val frames = List(30) { createData(if (it == 0) 120_000 else 25_000, it) }
+    val totalBytes = frames.sumOf { it.size.toLong() }
+    val iterations = 100
+    val packetizer = MpegTsPacketizer()
+    val legacyTime = measure(iterations) {
+      frames.forEach { frame ->
+        legacyWrite(packetizer, Pes(pid, false, PesType.VIDEO, 0, ByteBuffer.wrap(frame)), MpegType.VIDEO)
+      }
+    }
+    val bufferPool = BufferPool(packetsPerPayload * MpegTsPacketizer.packetSize)
+    val muxer = MpegTsMuxer(packetsPerPayload, bufferPool)
+    val muxerTime = measure(iterations) {
+      frames.forEach { frame ->
+        val packets = muxer.write(Pes(pid, false, PesType.VIDEO, 0, ByteBuffer.wrap(frame)), MpegType.VIDEO)
+        //simulate the release done by the retransmission buffer
+        packets.forEach { bufferPool.release(it.buffer) }
+      }
+    }
+    val legacySpeed = totalBytes * iterations * 1000 / legacyTime
+    val muxerSpeed = totalBytes * iterations * 1000 / muxerTime
+    println("mux speed, previous: $legacySpeed MB/s, single pass: $muxerSpeed MB/s")
+  }
+
+  private inline fun measure(iterations: Int, block: () -> Unit): Long {
+    //warm up
+    repeat(iterations) { block() }
+    val start = System.nanoTime()
+    repeat(iterations) { block() }
+    return System.nanoTime() - start
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+import com.pedro.srt.mpeg2ts.psi.PsiManager
+import com.pedro.srt.mpeg2ts.service.Mpeg2TsService
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+class MpegTsTimingTest {
+
+  private val packetsPerPayload = 7
+  private val startPts = 5_000_000L
+  private val frameDuration = 33_333L
+  private val analyzer = TsAnalyzer()
+
+  @Before
+  fun setup() {
+    Pid.reset()
+  }
+
+  private fun analyze(packets: List<MpegTsPacket>) {
+    packets.forEach { analyzer.analyze(it.buffer, 0, it.size) }
+  }
+
+  private fun createPes(pid: Short, isKeyFrame: Boolean, type: PesType, pts: Long, size: Int, dts: Long? = null): Pes {
+    return Pes(pid.toInt(), isKeyFrame, type, pts, ByteBuffer.wrap(ByteArray(size)), dts = dts)
+  }
+
+  /**
+   * Video in decoding order with IPBB pattern (display index 0, 3, 1, 2, 6, 4, 5...) and audio.
+   */
+  @Test
+  fun `GIVEN audio and video with B-frames WHEN mux THEN PCR follow the media clock and continuity is valid`() {
+    val service = Mpeg2TsService()
+    service.addTrack(Codec.AVC)
+    service.addTrack(Codec.AAC)
+    val psiManager = PsiManager(service)
+    val packetizer = MpegTsPacketizer()
+    val videoMuxer = MpegTsMuxer(packetsPerPayload)
+    val audioMuxer = MpegTsMuxer(packetsPerPayload)
+    val dtsGenerator = DtsGenerator()
+    val videoPid = psiManager.getVideoPid()
+    val audioPid = psiManager.getAudioPid()
+    assertEquals(videoPid, psiManager.getPcrPid())
+
+    val random = Random(1)
+    val displayOrder = mutableListOf(0)
+    for (group in 0 until 100) displayOrder.addAll(listOf(group * 3 + 3, group * 3 + 1, group * 3 + 2))
+    var audioIndex = 0
+    displayOrder.forEachIndexed { index, displayIndex ->
+      //encoder output time of the frame
+      val ts = startPts + index * frameDuration
+      var audioPts = startPts + audioIndex * 23_220L
+      while (audioPts <= ts) {
+        val pes = createPes(audioPid, false, PesType.AUDIO, audioPts + dtsGenerator.ptsOffset, 372)
+        analyze(audioMuxer.write(pes, MpegType.AUDIO, false))
+        audioIndex++
+        audioPts = startPts + audioIndex * 23_220L
+      }
+      if (index % 40 == 0) {
+        packetizer.write(listOf(psiManager.getPmt(), psiManager.getPat())).forEach { analyzer.analyze(it) }
+      }
+      val pts = startPts + displayIndex * frameDuration + random.nextLong(-1500, 1500)
+      val dts = dtsGenerator.getDts(pts)
+      val pes = createPes(videoPid, displayIndex % 60 == 0, PesType.VIDEO, pts + dtsGenerator.ptsOffset, 6000, dts)
+      analyze(videoMuxer.write(pes, MpegType.VIDEO, true))
+    }
+
+    assertTrue(analyzer.continuityErrors.toString(), analyzer.continuityErrors.isEmpty())
+    assertTrue(dtsGenerator.hasBFrames())
+    //PCR only in PCR PID
+    assertTrue(analyzer.pcrs.all { it.pid == videoPid.toInt() })
+    val maxInterval = MpegTsMuxer.DEFAULT_PCR_INTERVAL * 90 / 1000
+    analyzer.pcrs.zipWithNext().forEach { (previous, next) -> assertTrue(next.value >= previous.value) }
+    analyzer.pcrs.zipWithNext().forEach { (previous, next) ->
+      assertTrue(next.value - previous.value <= maxInterval)
+    }
+    //distance between PCR and DTS of the same frame is the configured offset, there is no jitter
+    val offset = MpegTsMuxer.DEFAULT_PCR_OFFSET * 90 / 1000
+    val distances = analyzer.pcrs.map { pcr ->
+      val timestamp = analyzer.timestamps.first { it.packetIndex == pcr.packetIndex }
+      (timestamp.dts ?: timestamp.pts) - pcr.value
+    }
+    println("PCR to DTS distance, min: ${distances.min()}, max: ${distances.max()}, expected: $offset")
+    assertTrue(distances.all { kotlin.math.abs(it - offset) <= 1 })
+
+    val videoTimestamps = analyzer.timestamps.filter { it.pid == videoPid.toInt() }
+    //DTS never go back and it is never greater than PTS, even before detect B-frames
+    videoTimestamps.forEach { assertTrue((it.dts ?: it.pts) <= it.pts) }
+    videoTimestamps.zipWithNext().forEach { (previous, next) ->
+      assertTrue((next.dts ?: next.pts) > (previous.dts ?: previous.pts))
+    }
+    analyzer.timestamps.filter { it.pid == audioPid.toInt() }.forEach { assertNull(it.dts) }
+  }
+
+  @Test
+  fun `GIVEN a PCR interval bigger than frame duration WHEN mux THEN PCR is not in all frames and never exceed the interval`() {
+    val muxer = MpegTsMuxer(packetsPerPayload)
+    muxer.pcrInterval = 40_000
+    val duration = 16_667L
+    for (i in 0 until 120) {
+      val pes = createPes(256, i % 60 == 0, PesType.VIDEO, startPts + i * duration, 3000)
+      analyze(muxer.write(pes, MpegType.VIDEO))
+    }
+    assertTrue(analyzer.pcrs.size < 120)
+    analyzer.pcrs.zipWithNext().forEach { (previous, next) ->
+      assertTrue(next.value - previous.value <= 40_000 * 90 / 1000)
+    }
+    //keyframes always contain PCR
+    val keyFrames = analyzer.timestamps.filterIndexed { index, _ -> index % 60 == 0 }
+    keyFrames.forEach { timestamp -> assertTrue(analyzer.pcrs.any { it.packetIndex == timestamp.packetIndex }) }
+  }
+
+  @Test
+  fun `GIVEN PSI tables sent multiple times WHEN write THEN continuity counter increase per PID`() {
+    val service = Mpeg2TsService()
+    service.addTrack(Codec.AVC)
+    val psiManager = PsiManager(service)
+    val packetizer = MpegTsPacketizer()
+    repeat(20) {
+      packetizer.write(listOf(psiManager.getPmt(), psiManager.getSdt(), psiManager.getPat())).forEach { analyzer.analyze(it) }
+    }
+    assertEquals(60, analyzer.packets)
+    assertTrue(analyzer.continuityErrors.toString(), analyzer.continuityErrors.isEmpty())
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.srt.mpeg2ts
+
+import android.media.MediaCodec
+import com.pedro.srt.mpeg2ts.packets.H26XPacket
+import com.pedro.srt.mpeg2ts.psi.PsiManager
+import com.pedro.srt.mpeg2ts.service.Mpeg2TsService
+import com.pedro.srt.srt.packets.SrtPacket
+import com.pedro.srt.utils.BufferPool
+import com.pedro.srt.utils.Constants
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+
+class SharedMpegTsPacketizerTest {
+
+  private val limitSize = Constants.MTU - SrtPacket.headerSize
+  private val sps = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x67, 0x64, 0x00, 0x1E, 0xAC.toByte(), 0xB4.toByte(), 0x0F, 0x02)
+  private val pps = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x68, 0xEE.toByte(), 0x0D, 0x8B.toByte())
+  private val frames = List(30) { index ->
+    val size = if (index == 0) 120_000 else 25_000
+    val nalType: Byte = if (index == 0) 0x65 else 0x41
+    byteArrayOf(0x00, 0x00, 0x00, 0x01, nalType).plus(ByteArray(size) { (it * 31 + index).toByte() })
+  }
+
+  private fun createInfo(frame: ByteArray, index: Int) = MediaCodec.BufferInfo().apply {
+    presentationTimeUs = index * 33_333L
+    offset = 0
+    size = frame.size
+    flags = if (index == 0) MediaCodec.BUFFER_FLAG_KEY_FRAME else 0
+  }
+
+  private fun createSenderPacket(bufferPool: BufferPool?): H26XPacket {
+    val service = Mpeg2TsService()
+    Pid.reset()
+    service.addTrack(Codec.AVC)
+    val h26XPacket = H26XPacket(limitSize, PsiManager(service), bufferPool)
+    h26XPacket.sendVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps), null)
+    return h26XPacket
+  }
+
+  private fun createSharedPacketizer(): SharedMpegTsPacketizer {
+    val packetizer = SharedMpegTsPacketizer(limitSize)
+    packetizer.setTrackConfig(videoEnabled = true, audioEnabled = false)
+    packetizer.setVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps), null)
+    return packetizer
+  }
+
+  @Test
+  fun `GIVEN a shared packetizer WHEN create packets THEN get the same bytes that a sender packetizer`() {
+    val senderPacket = createSenderPacket(null)
+    val packetizer = createSharedPacketizer()
+    frames.forEachIndexed { index, frame ->
+      val expected = mutableListOf<MpegTsPacket>()
+      senderPacket.createAndSendPacket(ByteBuffer.wrap(frame), createInfo(frame, index)) { expected.addAll(it) }
+      val shared = mutableListOf<MpegTsPacket>()
+      //buffers are reused after the callback
+      packetizer.createVideoPackets(ByteBuffer.wrap(frame), createInfo(frame, index)) { packets ->
+        packets.forEach { shared.add(it.copy(buffer = it.buffer.copyOf(it.size))) }
+      }
+      assertEquals(expected.size, shared.size)
+      expected.zip(shared).forEach { (e, s) ->
+        assertEquals(e.size, s.size)
+        assertArrayEquals(e.buffer.copyOf(e.size), s.buffer.copyOf(s.size))
+      }
+    }
+  }
+
+  @Test
+  fun `GIVEN a shared packetizer WHEN create keyframes THEN all keyframes contain video info`() {
+    val packetizer = createSharedPacketizer()
+    val keyFrame = frames[0]
+    repeat(3) { index ->
+      var firstPacket = byteArrayOf()
+      packetizer.createVideoPackets(ByteBuffer.wrap(keyFrame), createInfo(keyFrame, 0).apply { presentationTimeUs = index * 1_000_000L }) { packets ->
+        firstPacket = packets[0].buffer.copyOf(packets[0].size)
+      }
+      assertTrue(contains(firstPacket, sps))
+      assertTrue(contains(firstPacket, pps))
+    }
+  }
+
+  private fun contains(data: ByteArray, value: ByteArray): Boolean {
+    return (0..data.size - value.size).any { i -> value.indices.all { data[i + it] == value[it] } }
+  }
+
+  @Test
+  fun `GIVEN a buffer pool WHEN copy a buffer bigger than pool buffers THEN a new array with the same data is created`() {
+    val bufferPool = BufferPool(188)
+    val small = ByteArray(100) { it.toByte() }
+    val copy = bufferPool.copyOf(small, small.size)
+    assertEquals(188, copy.size)
+    assertArrayEquals(small, copy.copyOf(small.size))
+    val big = ByteArray(376) { it.toByte() }
+    assertArrayEquals(big, bufferPool.copyOf(big, big.size))
+  }
+
+  /**
+   * Compare a packetizer per destination (previous multi stream) with a shared packetizer that
+   * copy packets to the pool of each destination. Queues are drained releasing buffers like the retransmission buffer.
+   * Times are only printed.
+   */
+  @Test
+  fun `GIVEN 1 and 6 destinations WHEN packetize once THEN each frame is packetized only once for all destinations`() {
+    val iterations = 20
+    listOf(1, 6).forEach { destinations ->
+      val pools = List(destinations) { BufferPool(limitSize / MpegTsPacketizer.packetSize * MpegTsPacketizer.packetSize) }
+      val senderPackets = pools.map { createSenderPacket(it) }
+      val perDestination = measure(iterations) {
+        frames.forEachIndexed { index, frame ->
+          senderPackets.forEachIndexed { i, h26XPacket ->
+            h26XPacket.createAndSendPacket(ByteBuffer.wrap(frame), createInfo(frame, index)) { packets ->
+              packets.forEach { pools[i].release(it.buffer) }
+            }
+          }
+        }
+      }
+      val packetizer = createSharedPacketizer()
+      val shared = measure(iterations) {
+        frames.forEachIndexed { index, frame ->
+          packetizer.createVideoPackets(ByteBuffer.wrap(frame), createInfo(frame, index)) { packets ->
+            pools.forEach { pool ->
+              packets.map { it.copy(buffer = pool.copyOf(it.buffer, it.size)) }.forEach { pool.release(it.buffer) }
+            }
+          }
+        }
+      }
+      val frameCount = frames.size * iterations
+      println("$destinations destinations, packetizer per destination: ${perDestination.first / frameCount} ns/frame, " +
+          "${perDestination.second / frameCount} bytes/frame, shared: ${shared.first / frameCount} ns/frame, ${shared.second / frameCount} bytes/frame")
+    }
+    //one packetization per frame, all destinations copy from the same packets
+    val packetizer = createSharedPacketizer()
+    frames.forEachIndexed { index, frame ->
+      val received = mutableListOf<List<MpegTsPacket>>()
+      packetizer.createVideoPackets(ByteBuffer.wrap(frame), createInfo(frame, index)) { packets ->
+        repeat(6) { received.add(packets) }
+      }
+      assertEquals(6, received.size)
+      received.forEach { assertSame(received[0], it) }
+    }
+  }
+
+  /**
+   * @return time in nanoseconds and bytes allocated (-1 if not supported by the JVM)
+   */
+  private inline fun measure(iterations: Int, block: () -> Unit): Pair<Long, Long> {
+    //warm up
+    repeat(iterations) { block() }
+    val startAllocated = allocatedBytes()
+    val start = System.nanoTime()
+    repeat(iterations) { block() }
+    val time = System.nanoTime() - start
+    val allocated = if (startAllocated < 0) -1 else allocatedBytes() - startAllocated
+    return Pair(time, allocated)
+  }
+
+  private fun allocatedBytes(): Long {
+    val bean = ManagementFactory.getThreadMXBean()
+    return if (bean is com.sun.management.ThreadMXBean) bean.getThreadAllocatedBytes(Thread.currentThread().id) else -1
+  }
+}
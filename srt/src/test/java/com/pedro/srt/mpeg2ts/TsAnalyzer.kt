@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+/**
+ * Minimal MPEG-TS analyzer used to validate muxer output.
+ *
+ * Check sync byte and continuity counter of each PID and extract PCR, PTS and DTS.
+ * Timestamps are in 90 kHz units.
+ */
+class TsAnalyzer {
+
+  data class Pcr(val pid: Int, val value: Long, val packetIndex: Int)
+  data class PesTimestamp(val pid: Int, val pts: Long, val dts: Long?, val packetIndex: Int)
+
+  val pcrs = mutableListOf<Pcr>()
+  val timestamps = mutableListOf<PesTimestamp>()
+  val continuityErrors = mutableListOf<String>()
+  var packets = 0
+    private set
+  private val continuity = mutableMapOf<Int, Int>()
+
+  fun analyze(data: ByteArray, offset: Int = 0, size: Int = data.size) {
+    if (size % MpegTsPacketizer.packetSize != 0) throw IllegalArgumentException("size must be a multiple of 188")
+    for (i in offset until offset + size step MpegTsPacketizer.packetSize) {
+      analyzePacket(data, i)
+    }
+  }
+
+  private fun analyzePacket(data: ByteArray, offset: Int) {
+    val packetIndex = packets++
+    if (data[offset].toInt() != 0x47) throw IllegalArgumentException("sync byte not found in packet $packetIndex")
+    val startIndicator = (data[offset + 1].toInt() shr 6) and 0x01 == 1
+    val pid = ((data[offset + 1].toInt() and 0x1F) shl 8) or (data[offset + 2].toInt() and 0xFF)
+    val adaptationFieldControl = (data[offset + 3].toInt() shr 4) and 0x03
+    val counter = data[offset + 3].toInt() and 0x0F
+    val hasPayload = adaptationFieldControl and 0x01 == 1
+    //counter only increase in packets with payload
+    if (hasPayload) {
+      val previous = continuity[pid]
+      if (previous != null && (previous + 1) and 0x0F != counter) {
+        continuityErrors.add("pid $pid, packet $packetIndex, expected ${(previous + 1) and 0x0F}, found $counter")
+      }
+      continuity[pid] = counter
+    }
+    var payloadOffset = offset + 4
+    if (adaptationFieldControl and 0x02 != 0) {
+      val length = data[payloadOffset].toInt() and 0xFF
+      if (length > 0) {
+        val pcrFlag = (data[payloadOffset + 1].toInt() shr 4) and 0x01 == 1
+        if (pcrFlag) pcrs.add(Pcr(pid, readPcr(data, payloadOffset + 2), packetIndex))
+      }
+      payloadOffset += 1 + length
+    }
+    val isPes = data[payloadOffset].toInt() == 0 && data[payloadOffset + 1].toInt() == 0 && data[payloadOffset + 2].toInt() == 1
+    if (hasPayload && startIndicator && isPes) {
+      val flags = (data[payloadOffset + 7].toInt() shr 6) and 0x03
+      val pts = readTimestamp(data, payloadOffset + 9)
+      val dts = if (flags == 3) readTimestamp(data, payloadOffset + 14) else null
+      timestamps.add(PesTimestamp(pid, pts, dts, packetIndex))
+    }
+  }
+
+  /**
+   * @return PCR base (90 kHz), extension is ignored
+   */
+  private fun readPcr(data: ByteArray, offset: Int): Long {
+    return ((data[offset].toLong() and 0xFF) shl 25) or ((data[offset + 1].toLong() and 0xFF) shl 17) or
+        ((data[offset + 2].toLong() and 0xFF) shl 9) or ((data[offset + 3].toLong() and 0xFF) shl 1) or
+        ((data[offset + 4].toLong() and 0xFF) shr 7)
+  }
+
+  private fun readTimestamp(data: ByteArray, offset: Int): Long {
+    return (((data[offset].toLong() shr 1) and 0x07) shl 30) or ((data[offset + 1].toLong() and 0xFF) shl 22) or
+        (((data[offset + 2].toLong() and 0xFF) shr 1) shl 15) or ((data[offset + 3].toLong() and 0xFF) shl 7) or
+        ((data[offset + 4].toLong() and 0xFF) shr 1)
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.SrtSocket
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.net.SocketTimeoutException
+import kotlin.concurrent.thread
+
+class LiveCongestionControlTest {
+
+  private val payloadSize = 1316
+  private val packetSize = payloadSize + LiveCongestionControl.PACKET_OVERHEAD
+
+  @Test
+  fun `GIVEN no input rate WHEN send packets THEN there is no pacing`() {
+    val congestionControl = LiveCongestionControl()
+    congestionControl.onPacketSent(payloadSize + 16, 1000)
+    assertEquals(0, congestionControl.getBandwidth())
+    assertEquals(0, congestionControl.getSendPeriod())
+    assertEquals(0, congestionControl.getWaitTime(1000))
+  }
+
+  @Test
+  fun `GIVEN a measured input rate WHEN calculate bandwidth THEN add overhead percent`() {
+    val congestionControl = LiveCongestionControl()
+    //1000 packets per second
+    for (ts in 0L..500_000L step 1000L) congestionControl.onInput(payloadSize, ts + 1)
+    val expectedInput = packetSize * 1000L
+    val marginError = expectedInput / 100
+    assertTrue(kotlin.math.abs(congestionControl.inputRate - expectedInput) <= marginError)
+    assertTrue(kotlin.math.abs(congestionControl.getBandwidth() - expectedInput * 125 / 100) <= marginError)
+    congestionControl.overheadPercent = 50
+    assertTrue(kotlin.math.abs(congestionControl.getBandwidth() - expectedInput * 150 / 100) <= marginError)
+    congestionControl.maxBandwidth = 100_000
+    assertEquals(100_000, congestionControl.getBandwidth())
+  }
+
+  @Test
+  fun `GIVEN a max bandwidth WHEN send packets in a burst THEN schedule packets using send period`() {
+    val congestionControl = LiveCongestionControl()
+    congestionControl.maxBandwidth = packetSize * 500L //2 ms per packet
+    val period = congestionControl.getSendPeriod()
+    assertEquals(2000, period)
+    var ts = 1_000_000L
+    //first packets can use the burst allowance
+    congestionControl.onPacketSent(payloadSize + 16, ts)
+    assertEquals(period - LiveCongestionControl.MAX_BURST_TIME, congestionControl.getWaitTime(ts))
+    repeat(100) {
+      ts += congestionControl.getWaitTime(ts)
+      congestionControl.onPacketSent(payloadSize + 16, ts)
+    }
+    //100 packets more after the first take 100 periods minus the burst allowance
+    assertEquals(1_000_000L + 100 * period - LiveCongestionControl.MAX_BURST_TIME, ts)
+    //idle time is not accumulated as credit
+    ts += 1_000_000
+    congestionControl.onPacketSent(payloadSize + 16, ts)
+    assertEquals(period - LiveCongestionControl.MAX_BURST_TIME, congestionControl.getWaitTime(ts))
+  }
+
+  /**
+   * Send a burst of packets to a local UDP receiver and check the arrival times.
+   */
+  @Test
+  fun `GIVEN a local receiver WHEN write packets with max bandwidth THEN packets arrive paced`() = runBlocking {
+    val packets = 200
+    val bandwidth = packetSize * 400L //2.5 ms per packet
+    val arrivals = receivePackets(packets) { socket ->
+      val commandsManager = CommandsManager()
+      commandsManager.congestionControl.maxBandwidth = bandwidth
+      repeat(packets) {
+        commandsManager.writeData(MpegTsPacket(ByteArray(payloadSize), MpegType.VIDEO, PacketPosition.SINGLE), socket)
+      }
+    }
+    assertEquals(packets, arrivals.size)
+    val duration = arrivals.last() - arrivals.first()
+    val expectedDuration = (packets - 1) * 2_500_000L
+    val burst = maxPacketsInWindow(arrivals, 5_000_000)
+    println("paced: duration ${duration / 1_000_000} ms, expected ${expectedDuration / 1_000_000} ms, max packets in 5 ms: $burst")
+    assertTrue(duration >= expectedDuration * 9 / 10)
+    //2 packets expected in 5 ms, allow 1 ms burst and scheduler jitter
+    assertTrue(burst <= 5)
+  }
+
+  @Test
+  fun `GIVEN a local receiver WHEN write packets without input rate THEN packets are not paced`() = runBlocking {
+    val packets = 200
+    val arrivals = receivePackets(packets) { socket ->
+      val commandsManager = CommandsManager()
+      repeat(packets) {
+        commandsManager.writeData(MpegTsPacket(ByteArray(payloadSize), MpegType.VIDEO, PacketPosition.SINGLE), socket)
+      }
+    }
+    val duration = arrivals.last() - arrivals.first()
+    val burst = maxPacketsInWindow(arrivals, 5_000_000)
+    println("not paced: duration ${duration / 1_000_000} ms, max packets in 5 ms: $burst")
+    assertTrue(duration < 199 * 2_500_000L)
+  }
+
+  private suspend fun receivePackets(amount: Int, send: suspend (SrtSocket) -> Unit): List<Long> {
+    val receiver = DatagramSocket(0, InetAddress.getLoopbackAddress())
+    receiver.soTimeout = 2000
+    val arrivals = mutableListOf<Long>()
+    val receiverThread = thread {
+      val buffer = ByteArray(1500)
+      try {
+        while (arrivals.size < amount) {
+          receiver.receive(DatagramPacket(buffer, buffer.size))
+          //ignore control packets like DropReq
+          val isDataPacket = (buffer[0].toInt() ushr 7) and 0x01 == 0
+          if (isDataPacket) arrivals.add(System.nanoTime())
+        }
+      } catch (ignored: SocketTimeoutException) { }
+    }
+    val socket = SrtSocket(InetAddress.getLoopbackAddress().hostAddress ?: "127.0.0.1", receiver.localPort)
+    socket.connect()
+    send(socket)
+    receiverThread.join()
+    socket.close()
+    receiver.close()
+    return arrivals
+  }
+
+  private fun maxPacketsInWindow(arrivals: List<Long>, window: Long): Int {
+    var max = 0
+    var start = 0
+    arrivals.forEachIndexed { index, ts ->
+      while (ts - arrivals[start] > window) start++
+      max = maxOf(max, index - start + 1)
+    }
+    return max
+  }
+}
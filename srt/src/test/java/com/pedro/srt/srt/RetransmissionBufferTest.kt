@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.srt.srt.packets.DataPacket
+import com.pedro.srt.srt.packets.control.Nak
+import com.pedro.srt.utils.SequenceNumber
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class RetransmissionBufferTest {
+
+  private fun fillBuffer(buffer: RetransmissionBuffer, firstSequence: Int, amount: Int, ts: Int = 0) {
+    var sequence = firstSequence
+    repeat(amount) {
+      buffer.add(DataPacket(sequenceNumber = sequence, ts = ts + it))
+      sequence = SequenceNumber.next(sequence)
+    }
+  }
+
+  @Test
+  fun `GIVEN sequence numbers near max value WHEN compare THEN wrap is handled`() {
+    assertEquals(0, SequenceNumber.next(0x7FFFFFFF))
+    assertEquals(1, SequenceNumber.offset(0x7FFFFFFF, 0))
+    assertEquals(-1, SequenceNumber.offset(0, 0x7FFFFFFF))
+    assertEquals(10, SequenceNumber.offset(0x7FFFFFFA, 4))
+    assertTrue(SequenceNumber.compare(2, 0x7FFFFFF0) > 0)
+    assertTrue(SequenceNumber.compare(0x7FFFFFF0, 2) < 0)
+  }
+
+  @Test
+  fun `GIVEN a buffer with packets crossing sequence wrap WHEN get packets THEN found all of them`() {
+    val buffer = RetransmissionBuffer(16)
+    val firstSequence = 0x7FFFFFFA
+    fillBuffer(buffer, firstSequence, 12)
+    assertEquals(12, buffer.size)
+    var sequence = firstSequence
+    repeat(12) {
+      assertEquals(sequence, buffer.get(sequence)?.sequenceNumber)
+      sequence = SequenceNumber.next(sequence)
+    }
+    assertNull(buffer.get(sequence))
+    assertNull(buffer.get(SequenceNumber.add(firstSequence, -1)))
+  }
+
+  @Test
+  fun `GIVEN a buffer with packets crossing sequence wrap WHEN acknowledge THEN remove only previous packets`() {
+    val buffer = RetransmissionBuffer(16)
+    fillBuffer(buffer, 0x7FFFFFFA, 12)
+    //ack sequence is the next packet expected by the receiver
+    val removed = buffer.acknowledge(2)
+    assertEquals(8, removed)
+    assertEquals(4, buffer.size)
+    assertEquals(2, buffer.firstSequenceNumber)
+    assertNull(buffer.get(1))
+    assertNotNull(buffer.get(2))
+    //old ack received after a newer one
+    assertEquals(0, buffer.acknowledge(0x7FFFFFFF))
+    assertEquals(4, buffer.size)
+  }
+
+  @Test
+  fun `GIVEN a nak with ranges crossing sequence wrap WHEN iterate ranges in buffer THEN get only lost packets`() {
+    val buffer = RetransmissionBuffer(16)
+    fillBuffer(buffer, 0x7FFFFFFA, 12)
+    val nak = Nak()
+    nak.addLostPacket(0x7FFFFFFB)
+    nak.addLostPacketsRange(0x7FFFFFFE, 1)
+    //out of buffer values are ignored
+    nak.addLostPacketsRange(4, 20)
+    val found = mutableListOf<Int>()
+    nak.forEachLostRange { min, max ->
+      buffer.forEachInRange(min, max) { found.add(it.sequenceNumber) }
+    }
+    assertEquals(listOf(0x7FFFFFFB, 0x7FFFFFFE, 0x7FFFFFFF, 0, 1, 4, 5), found)
+  }
+
+  @Test
+  fun `GIVEN a full buffer WHEN add a packet THEN oldest packet is overwritten`() {
+    val buffer = RetransmissionBuffer(8)
+    fillBuffer(buffer, 0x7FFFFFFC, 8)
+    val overwritten = buffer.add(DataPacket(sequenceNumber = 4))
+    assertEquals(0x7FFFFFFC, overwritten?.sequenceNumber)
+    assertEquals(8, buffer.size)
+    assertEquals(0x7FFFFFFD, buffer.firstSequenceNumber)
+    assertNotNull(buffer.get(4))
+  }
+
+  @Test
+  fun `GIVEN packets sent at different time WHEN drop too late packets THEN remove packets older than latency`() {
+    val buffer = RetransmissionBuffer(16)
+    fillBuffer(buffer, 0x7FFFFFFA, 10, ts = 1_000_000)
+    val latency = 120_000
+    //packets ts from 1_000_000 to 1_000_009
+    val dropped = buffer.dropOlderThan(1_000_005 + latency, latency)
+    assertEquals(5, dropped)
+    assertEquals(0x7FFFFFFF, buffer.firstSequenceNumber)
+    assertEquals(0, buffer.dropOlderThan(1_000_005 + latency, latency))
+  }
+
+  @Test
+  fun `GIVEN packets with timestamp crossing int wrap WHEN drop too late packets THEN remove packets older than latency`() {
+    val buffer = RetransmissionBuffer(16)
+    fillBuffer(buffer, 1, 10, ts = Int.MAX_VALUE - 4)
+    val dropped = buffer.dropOlderThan(Int.MAX_VALUE + 100, 100)
+    assertEquals(4, dropped)
+  }
+
+  @Test
+  fun `GIVEN a buffer with remove callback WHEN packets leave the buffer THEN callback is called once per packet`() {
+    val removed = mutableListOf<Int>()
+    val buffer = RetransmissionBuffer(8) { removed.add(it.sequenceNumber) }
+    fillBuffer(buffer, 0, 8)
+    buffer.acknowledge(2)
+    assertEquals(listOf(0, 1), removed)
+    fillBuffer(buffer, 8, 3)
+    //buffer full, packet 2 overwritten
+    assertEquals(listOf(0, 1, 2), removed)
+    buffer.clear()
+    assertEquals((0..10).toList(), removed)
+  }
+
+  /**
+   * Compare the cost of resolve a nak with the buffer against the old list filter approach.
+   * 8 Mbps with 200 ms of latency is near 150 packets in flight, use a bigger window to see the difference.
+   */
+  @Test
+  fun `GIVEN a full buffer WHEN process nak bursts THEN find the same packets than list filter`() {
+    val packetsInFlight = 4096
+    val firstSequence = 0x7FFFFFFF - packetsInFlight / 2
+    val buffer = RetransmissionBuffer(packetsInFlight)
+    val list = mutableListOf<DataPacket>()
+    var sequence = firstSequence
+    repeat(packetsInFlight) {
+      val packet = DataPacket(sequenceNumber = sequence)
+      buffer.add(packet)
+      list.add(packet)
+      sequence = SequenceNumber.next(sequence)
+    }
+    val nak = Nak()
+    for (i in 0 until 200 step 2) nak.addLostPacket(SequenceNumber.add(firstSequence, i * 10))
+    nak.addLostPacketsRange(SequenceNumber.add(firstSequence, 3000), SequenceNumber.add(firstSequence, 3100))
+    val iterations = 200
+
+    var foundBuffer = 0
+    val bufferTime = measure(iterations) {
+      foundBuffer = 0
+      nak.forEachLostRange { min, max ->
+        buffer.forEachInRange(min, max) { foundBuffer++ }
+      }
+    }
+    var foundList = 0
+    val listTime = measure(iterations) {
+      val lost = nak.getNakPacketsLostList()
+      foundList = list.count { lost.contains(it.sequenceNumber) }
+    }
+    println("nak processing, buffer: ${bufferTime / iterations} ns, list: ${listTime / iterations} ns")
+    assertEquals(201, foundBuffer)
+    assertEquals(foundList, foundBuffer)
+  }
+
+  private inline fun measure(iterations: Int, block: () -> Unit): Long {
+    //warm up
+    repeat(iterations) { block() }
+    val start = System.nanoTime()
+    repeat(iterations) { block() }
+    return System.nanoTime() - start
+  }
+}
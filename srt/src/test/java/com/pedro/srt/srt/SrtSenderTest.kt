@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.FrameQueue
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class SrtSenderTest {
+
+  private fun packets(type: MpegType) = listOf(
+    MpegTsPacket(ByteArray(188), type, PacketPosition.FIRST),
+    MpegTsPacket(ByteArray(188), type, PacketPosition.LAST)
+  )
+
+  @Test
+  fun `GIVEN mpeg ts packets of a frame WHEN get frame type THEN audio is detected and video use the key frame flag`() {
+    assertEquals(FrameQueue.FrameType.AUDIO, SrtSender.getFrameType(packets(MpegType.AUDIO), false))
+    assertEquals(FrameQueue.FrameType.AUDIO, SrtSender.getFrameType(packets(MpegType.AUDIO), true))
+    assertEquals(FrameQueue.FrameType.KEY_FRAME, SrtSender.getFrameType(packets(MpegType.VIDEO), true))
+    assertEquals(FrameQueue.FrameType.VIDEO, SrtSender.getFrameType(packets(MpegType.VIDEO), false))
+  }
+}
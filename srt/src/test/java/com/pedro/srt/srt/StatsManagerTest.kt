@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.srt.packets.DataPacket
+import com.pedro.srt.srt.packets.SrtPacket
+import com.pedro.srt.srt.packets.control.Ack
+import com.pedro.srt.srt.packets.control.Ack2
+import com.pedro.srt.srt.packets.control.DropReq
+import com.pedro.srt.srt.packets.control.Nak
+import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.Constants
+import com.pedro.srt.utils.SequenceNumber
+import com.pedro.srt.utils.SrtSocket
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.net.SocketAddress
+
+class StatsManagerTest {
+
+  private val host = InetAddress.getLoopbackAddress()
+  //local stand-in for the SRT server, receive packets and reply with crafted control packets
+  private lateinit var peer: DatagramSocket
+  private lateinit var socket: SrtSocket
+  private var clientAddress: SocketAddress? = null
+
+  @Before
+  fun setup() {
+    peer = DatagramSocket(0, host)
+    peer.soTimeout = 2000
+    socket = SrtSocket(host.hostAddress ?: "127.0.0.1", peer.localPort)
+    socket.connect()
+  }
+
+  @After
+  fun teardown() {
+    socket.close()
+    peer.close()
+  }
+
+  @Test
+  fun `GIVEN light, small and full acks WHEN read THEN only fields received are parsed`() {
+    val full = createAck(ackSequence = 3, lastSequence = 0x7FFFFFFF, rtt = 20_000, rttVariance = 5_000)
+    val fullAck = SrtPacket.getSrtPacket(full) as Ack
+    assertTrue(fullAck.isFullAck())
+    assertEquals(3, fullAck.typeSpecificInformation)
+    assertEquals(0x7FFFFFFF, fullAck.lastAcknowledgedPacketSequenceNumber)
+    assertEquals(20_000, fullAck.rtt)
+    assertEquals(8000, fullAck.estimatedLinkCapacity)
+
+    val smallAck = SrtPacket.getSrtPacket(full.sliceArray(0 until 16 + Ack.SMALL_ACK_FIELDS * 4)) as Ack
+    assertFalse(smallAck.isFullAck())
+    assertFalse(smallAck.isLightAck())
+    assertEquals(20_000, smallAck.rtt)
+    assertEquals(0, smallAck.estimatedLinkCapacity)
+
+    val lightAck = SrtPacket.getSrtPacket(full.sliceArray(0 until 16 + Ack.LIGHT_ACK_FIELDS * 4)) as Ack
+    assertTrue(lightAck.isLightAck())
+    assertEquals(0x7FFFFFFF, lightAck.lastAcknowledgedPacketSequenceNumber)
+    assertEquals(0, lightAck.rtt)
+  }
+
+  @Test
+  fun `GIVEN acks with different rtt and rates WHEN update stats THEN values are smoothed`() {
+    val statsManager = StatsManager()
+    statsManager.onAck(readAck(createAck(1, 0, rtt = 40_000, rttVariance = 10_000, linkCapacity = 8000)), 0)
+    var stats = statsManager.getStats()
+    //first values are used as is
+    assertEquals(40_000, stats.rtt)
+    assertEquals(10_000, stats.rttVariance)
+    assertEquals(8000, stats.estimatedLinkCapacity)
+    assertEquals(8000L * Constants.MTU * 8, stats.linkCapacity)
+
+    statsManager.onAck(readAck(createAck(2, 0, rtt = 80_000, rttVariance = 10_000, linkCapacity = 16000)), 0)
+    stats = statsManager.getStats()
+    assertEquals(45_000, stats.rtt)
+    assertEquals((10_000 * 3 + 40_000) / 4, stats.rttVariance)
+    assertEquals(9000, stats.estimatedLinkCapacity)
+
+    //rates of small acks and values of light acks are ignored
+    val small = createAck(3, 0, rtt = 45_000, rttVariance = 0, linkCapacity = 100)
+    statsManager.onAck(readAck(small.sliceArray(0 until 16 + Ack.SMALL_ACK_FIELDS * 4)), 0)
+    statsManager.onAck(readAck(small.sliceArray(0 until 16 + Ack.LIGHT_ACK_FIELDS * 4)), 0)
+    stats = statsManager.getStats()
+    assertEquals(45_000, stats.rtt)
+    assertEquals(9000, stats.estimatedLinkCapacity)
+    assertEquals(4, stats.acksReceived)
+  }
+
+  @Test
+  fun `GIVEN a report interval WHEN receive acks THEN report only after interval`() {
+    val statsManager = StatsManager()
+    val ack = readAck(createAck(1, 0))
+    assertTrue(statsManager.onAck(ack, 1_000_000))
+    assertFalse(statsManager.onAck(ack, 1_500_000))
+    assertTrue(statsManager.onAck(ack, 2_000_000))
+    statsManager.reportInterval = 0
+    assertFalse(statsManager.onAck(ack, 5_000_000))
+  }
+
+  /**
+   * Send packets to a local peer that acknowledge them, report packets lost and check
+   * that stats follow the values sent by the peer and the packets sent again or dropped.
+   */
+  @Test
+  fun `GIVEN a local peer sending crafted acks and naks WHEN send packets THEN stats are updated`() = runBlocking {
+    val commandsManager = CommandsManager()
+    commandsManager.tooLatePacketDrop = false
+    commandsManager.loadStartTs()
+    val firstSequence = commandsManager.sequenceNumber
+    repeat(20) {
+      commandsManager.writeData(MpegTsPacket(ByteArray(1316), MpegType.VIDEO, PacketPosition.SINGLE), socket)
+    }
+    repeat(20) { assertTrue(peerReceive() is DataPacket) }
+    var stats = commandsManager.statsManager.getStats()
+    assertEquals(20, stats.packetsSent)
+    assertEquals(20L * (SrtPacket.headerSize + 1316), stats.bytesSent)
+    assertEquals(20, stats.packetsInFlight)
+
+    //acknowledge first 10 packets
+    peerSend(createAck(ackSequence = 1, lastSequence = SequenceNumber.add(firstSequence, 10), rtt = 30_000, rttVariance = 2_000))
+    assertTrue(commandsManager.handleAck(clientReceive() as Ack, socket))
+    val ack2 = peerReceive() as Ack2
+    assertEquals(1, ack2.acknowledgementNumber)
+    stats = commandsManager.statsManager.getStats()
+    assertEquals(10, stats.packetsInFlight)
+    assertEquals(30_000, stats.rtt)
+    assertEquals(2_000, stats.rttVariance)
+    assertEquals(8000, stats.estimatedLinkCapacity)
+    assertEquals(1000, stats.availableBuffer)
+
+    //packet 12 and 14 to 16 lost
+    val nak = Nak()
+    nak.addLostPacket(SequenceNumber.add(firstSequence, 12))
+    nak.addLostPacketsRange(SequenceNumber.add(firstSequence, 14), SequenceNumber.add(firstSequence, 16))
+    nak.write(0, 0)
+    peerSend(nak.getData())
+    commandsManager.reSendPackets(clientReceive() as Nak, socket)
+    repeat(4) {
+      val packet = peerReceive() as DataPacket
+      assertTrue(packet.retransmitted)
+    }
+    stats = commandsManager.statsManager.getStats()
+    assertEquals(4, stats.packetsLost)
+    assertEquals(4, stats.packetsRetransmitted)
+    assertEquals(1, stats.naksReceived)
+    assertEquals(20f, stats.retransmissionPercent)
+
+    //light ack only remove packets
+    peerSend(createAck(0, SequenceNumber.add(firstSequence, 18)).sliceArray(0 until 16 + Ack.LIGHT_ACK_FIELDS * 4))
+    commandsManager.handleAck(clientReceive() as Ack, socket)
+    assertEquals(2, commandsManager.statsManager.getStats().packetsInFlight)
+
+    //packets not acknowledged before drop threshold are dropped
+    commandsManager.tooLatePacketDrop = true
+    commandsManager.startTS -= commandsManager.getDropThreshold() + 10_000
+    commandsManager.writeData(MpegTsPacket(ByteArray(1316), MpegType.VIDEO, PacketPosition.SINGLE), socket)
+    //light ack is not acknowledged so next packet is the drop request
+    assertTrue(peerReceive() is DropReq)
+    stats = commandsManager.statsManager.getStats()
+    assertEquals(2, stats.packetsDropped)
+    assertEquals(1, stats.packetsInFlight)
+    assertEquals(21, stats.packetsSent)
+  }
+
+  @Test
+  fun `GIVEN latency of both sides WHEN get drop threshold THEN use the max latency with margin and 1 second as min`() {
+    val commandsManager = CommandsManager()
+    commandsManager.latency = 120
+    assertEquals(1_000_000, commandsManager.getDropThreshold())
+    commandsManager.peerLatency = 2000
+    assertEquals(2_500_000, commandsManager.getDropThreshold())
+    commandsManager.latency = 4000
+    assertEquals(5_000_000, commandsManager.getDropThreshold())
+  }
+
+  private fun createAck(
+    ackSequence: Int, lastSequence: Int, rtt: Int = 0, rttVariance: Int = 0, linkCapacity: Int = 8000
+  ): ByteArray {
+    val ack = Ack(
+      lastAcknowledgedPacketSequenceNumber = lastSequence,
+      rtt = rtt,
+      rttVariance = rttVariance,
+      availableBufferSize = 1000,
+      packetReceivingRate = 500,
+      estimatedLinkCapacity = linkCapacity,
+      receivingRate = 500 * 1316
+    )
+    ack.typeSpecificInformation = ackSequence
+    ack.write(0, 0)
+    return ack.getData()
+  }
+
+  private fun readAck(data: ByteArray): Ack = SrtPacket.getSrtPacket(data) as Ack
+
+  private fun peerSend(data: ByteArray) {
+    peer.send(DatagramPacket(data, data.size, clientAddress))
+  }
+
+  private fun peerReceive(): SrtPacket {
+    val buffer = ByteArray(Constants.MTU)
+    val udpPacket = DatagramPacket(buffer, buffer.size)
+    peer.receive(udpPacket)
+    clientAddress = udpPacket.socketAddress
+    val data = buffer.sliceArray(0 until udpPacket.length)
+    val packet = SrtPacket.getSrtPacket(data)
+    if (packet is DataPacket) packet.read(ByteArrayInputStream(data))
+    return packet
+  }
+
+  private fun clientReceive(): SrtPacket = SrtPacket.getSrtPacket(socket.readBuffer())
+}
@@ -21,8 +21,10 @@ import com.pedro.srt.srt.packets.control.handshake.ExtensionField
 import com.pedro.srt.srt.packets.control.handshake.Handshake
 import com.pedro.srt.srt.packets.control.handshake.HandshakeType
 import com.pedro.srt.srt.packets.control.handshake.extension.ExtensionContentFlag
+import com.pedro.srt.srt.packets.control.handshake.extension.ExtensionType
 import com.pedro.srt.srt.packets.control.handshake.extension.HandshakeExtension
 import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
 import org.junit.Test
 import java.io.ByteArrayInputStream
 
@@ -49,6 +51,22 @@ class HandshakeTest {
     assertArrayEquals(expectedData, packetHandshake)
   }
 
+  @Test
+  fun `GIVEN a handshake response with HSRSP extension WHEN read it THEN get the TSBPD delay of the server`() {
+    val handshake = Handshake(
+      extensionField = ExtensionField.HS_REQ.value,
+      handshakeType = HandshakeType.CONCLUSION,
+      handshakeExtension = HandshakeExtension(receiverDelay = 400, senderDelay = 120, path = "test")
+    )
+    handshake.write(2500, 0x40)
+    val data = handshake.getData()
+    //same layout than HSREQ, header (16 bytes) and body (48 bytes) before the extension type
+    data[65] = ExtensionType.SRT_CMD_HS_RSP.value.toByte()
+    val packet = Handshake()
+    packet.read(ByteArrayInputStream(data))
+    assertEquals(400, packet.tsbpdDelayResponse)
+  }
+
   @Test
   fun `GIVEN a buffer WHEN read buffer as handshake packet THEN get expected handshake packet`() {
     val buffer = byteArrayOf(-128, 0, 0, 0, 0, 0, 0, 0, 0, 0, 9, -60, 0, 0, 0, 64, 0, 0, 0, 4, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 5, -36, 0, 0, 32, 0, 0, 0, 0, 1, 45, 116, -9, 30, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0)
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.encryption
+
+import com.pedro.srt.Utils.hex
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import javax.crypto.Cipher
+import javax.crypto.spec.IvParameterSpec
+import javax.crypto.spec.SecretKeySpec
+import kotlin.random.Random
+
+class AesCtrCipherTest {
+
+  private val counter = hex("f0f1f2f3f4f5f6f7f8f9fafbfcfdfeff")
+  private val plaintext = hex(
+    "6bc1bee22e409f96e93d7e117393172a" + "ae2d8a571e03ac9c9eb76fac45af8e51" +
+        "30c81c46a35ce411e5fbc1191a0a52ef" + "f69f2445df4f9b17ad2b417be66c3710"
+  )
+
+  /**
+   * NIST SP 800-38A F.5.1 and F.5.5 test vectors
+   */
+  @Test
+  fun `GIVEN nist vectors WHEN encrypt and decrypt THEN get expected values`() {
+    val ciphertext128 = hex(
+      "874d6191b620e3261bef6864990db6ce" + "9806f66b7970fdff8617187bb9fffdff" +
+          "5ae4df3edbd5d35e5b4f09020db03eab" + "1e031dda2fbe03d1792170a0f3009cee"
+    )
+    val cipher128 = AesCtrCipher(hex("2b7e151628aed2a6abf7158809cf4f3c"))
+    val data = plaintext.copyOf()
+    cipher128.process(counter, data, 0, data.size)
+    assertArrayEquals(ciphertext128, data)
+    cipher128.process(counter, data, 0, data.size)
+    assertArrayEquals(plaintext, data)
+
+    val ciphertext256 = hex(
+      "601ec313775789a5b7a7f504bbf3d228" + "f443e3ca4d62b59aca84e990cacaf5c5" +
+          "2b0930daa23de94ce87017ba2d84988d" + "dfc9c58db67aada613c2dd08457941a6"
+    )
+    val cipher256 = AesCtrCipher(hex("603deb1015ca71be2b73aef0857d77811f352c073b6108d72d9810a30914dff4"))
+    cipher256.process(counter, data, 0, data.size)
+    assertArrayEquals(ciphertext256, data)
+  }
+
+  @Test
+  fun `GIVEN data not multiple of block size and bigger than internal buffer WHEN encrypt THEN get same result than jce cipher`() {
+    val key = Random.nextBytes(16)
+    listOf(1, 15, 17, 1316, 1500, 4000).forEach { size ->
+      val data = Random.nextBytes(size + 8)
+      val expected = data.copyOf()
+      val jceCipher = Cipher.getInstance("AES/CTR/NoPadding")
+      jceCipher.init(Cipher.ENCRYPT_MODE, SecretKeySpec(key, "AES"), IvParameterSpec(counter))
+      jceCipher.doFinal(expected, 4, size, expected, 4)
+      AesCtrCipher(key).process(counter, data, 4, size)
+      assertArrayEquals(expected, data)
+    }
+  }
+
+  /**
+   * Compare encrypt packets with a reused cipher against init a CTR cipher per packet with the IV of the packet.
+   */
+  @Test
+  fun `GIVEN srt payloads WHEN encrypt with reused cipher THEN throughput is measured without allocations`() {
+    val packets = 20000
+    val key = Random.nextBytes(16)
+    val salt = Random.nextBytes(16)
+    val payload = Random.nextBytes(1316)
+    val iv = ByteArray(16)
+    val cipher = AesCtrCipher(key)
+    val jceCipher = Cipher.getInstance("AES/CTR/NoPadding")
+    val secretKey = SecretKeySpec(key, "AES")
+    val perPacketInit = measure(packets) { sequence ->
+      jceCipher.init(Cipher.ENCRYPT_MODE, secretKey, IvParameterSpec(EncryptionManager.createIv(salt, sequence)))
+      jceCipher.doFinal(payload)
+    }
+    val reused = measure(packets) { sequence ->
+      cipher.process(EncryptionManager.createIv(salt, sequence, iv), payload, 0, payload.size)
+    }
+    val megabytes = packets * payload.size / 1_000_000.0
+    println("cipher init per packet: ${(megabytes * 1e9 / perPacketInit.first).toInt()} MB/s, ${perPacketInit.second} bytes allocated per packet")
+    println("reused cipher: ${(megabytes * 1e9 / reused.first).toInt()} MB/s, ${reused.second} bytes allocated per packet")
+    if (reused.second >= 0) {
+      assertTrue(reused.second < 64)
+      assertTrue(reused.second < perPacketInit.second / 10)
+    }
+  }
+
+  /**
+   * @return time in nanoseconds and allocated bytes per packet (-1 if not supported by the JVM)
+   */
+  private fun measure(packets: Int, encrypt: (Int) -> Unit): Pair<Long, Long> {
+    //warm up
+    repeat(packets * 5) { encrypt(it) }
+    val bean = ManagementFactory.getThreadMXBean()
+    val threadId = Thread.currentThread().id
+    val startAllocated = if (bean is com.sun.management.ThreadMXBean) bean.getThreadAllocatedBytes(threadId) else -1
+    val start = System.nanoTime()
+    repeat(packets) { encrypt(it) }
+    val time = System.nanoTime() - start
+    val allocated = if (bean is com.sun.management.ThreadMXBean) bean.getThreadAllocatedBytes(threadId) - startAllocated else -1
+    return Pair(time, if (startAllocated < 0) -1 else allocated / packets)
+  }
+}
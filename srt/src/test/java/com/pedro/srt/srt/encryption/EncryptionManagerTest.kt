@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.encryption
+
+import com.pedro.srt.srt.packets.DataPacket
+import com.pedro.srt.srt.packets.SrtPacket
+import com.pedro.srt.srt.packets.control.KeyMaterialMessage
+import com.pedro.srt.srt.packets.control.handshake.EncryptionType
+import com.pedro.srt.srt.packets.control.handshake.Handshake
+import com.pedro.srt.srt.packets.control.handshake.HandshakeType
+import com.pedro.srt.srt.packets.control.handshake.extension.ExtensionType
+import com.pedro.srt.srt.packets.control.handshake.extension.HandshakeExtension
+import com.pedro.srt.srt.packets.control.handshake.extension.KeyMaterial
+import com.pedro.srt.srt.packets.control.handshake.extension.KeyMaterialState
+import com.pedro.srt.srt.packets.data.KeyBasedEncryption
+import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.readUInt16
+import com.pedro.srt.utils.writeUInt16
+import com.pedro.srt.utils.writeUInt32
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertThrows
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import javax.crypto.Cipher
+import javax.crypto.spec.IvParameterSpec
+import javax.crypto.spec.SecretKeySpec
+import kotlin.random.Random
+
+class EncryptionManagerTest {
+
+  private val passphrase = "my secret passphrase"
+
+  @Test
+  fun `GIVEN a salt and a sequence number WHEN create iv THEN sequence is xored with the salt before the block counter`() {
+    val salt = ByteArray(16) { (it + 1).toByte() }
+    val iv = EncryptionManager.createIv(salt, 0x12345678)
+    val expected = byteArrayOf(1, 2, 3, 4, 5, 6, 7, 8, 9, 10,
+      (11 xor 0x12).toByte(), (12 xor 0x34).toByte(), (13 xor 0x56).toByte(), (14 xor 0x78).toByte(), 0, 0)
+    assertArrayEquals(expected, iv)
+  }
+
+  /**
+   * Act as a receiver that only knows the passphrase: read the KMREQ from the handshake,
+   * unwrap the key and decrypt packets using a standard AES-CTR cipher.
+   */
+  @Test
+  fun `GIVEN a handshake with key material WHEN receiver use the passphrase THEN packets are decrypted`() {
+    EncryptionType.values().filter { it != EncryptionType.NONE }.forEach { type ->
+      val encryptionManager = EncryptionManager(passphrase, type)
+      val handshake = Handshake(
+        handshakeType = HandshakeType.CONCLUSION,
+        handshakeExtension = HandshakeExtension(path = "live/test", keyMaterial = encryptionManager.getKeyMaterial())
+      )
+      handshake.write(0, 0)
+      val keyMaterial = readKeyMaterialRequest(handshake.getData())
+      assertEquals(KeyBasedEncryption.PAIR_KEY, keyMaterial.keyBasedEncryption)
+      assertEquals(EncryptionManager.getKeyLength(type), keyMaterial.keyLength)
+      val key = unwrapKeys(keyMaterial, passphrase)
+
+      repeat(10) {
+        val sequenceNumber = 0x7FFFFFFA + it
+        val payload = Random.nextBytes(1316)
+        val packet = DataPacket(sequenceNumber = sequenceNumber, payload = payload.copyOf())
+        assertNull(encryptionManager.encrypt(packet))
+        assertEquals(KeyBasedEncryption.PAIR_KEY, packet.encryption)
+        assertFalse(payload.contentEquals(packet.payload))
+        assertArrayEquals(payload, decrypt(received(packet), key, keyMaterial.salt))
+      }
+    }
+  }
+
+  @Test
+  fun `GIVEN a wrong passphrase WHEN unwrap keys THEN fails`() {
+    val keyMaterial = EncryptionManager(passphrase).getKeyMaterial()
+    assertThrows(IOException::class.java) {
+      unwrapKeys(keyMaterial, "wrong passphrase")
+    }
+    assertThrows(IllegalArgumentException::class.java) {
+      EncryptionManager("short")
+    }
+  }
+
+  @Test
+  fun `GIVEN a refresh rate WHEN encrypt packets THEN keys are announced, switched and decommissioned`() {
+    val refreshRate = 100
+    val preAnnounce = 10
+    val encryptionManager = EncryptionManager(passphrase, EncryptionType.AES128, refreshRate, preAnnounce)
+    val initialKeyMaterial = encryptionManager.getKeyMaterial()
+    val keys = mutableMapOf(KeyBasedEncryption.PAIR_KEY to unwrapKeys(initialKeyMaterial, passphrase))
+    val announced = mutableMapOf<Int, KeyMaterial>()
+    repeat(250) { index ->
+      val payload = Random.nextBytes(188)
+      val packet = DataPacket(sequenceNumber = index, payload = payload.copyOf())
+      encryptionManager.encrypt(packet)?.let { keyMaterial ->
+        announced[index] = keyMaterial
+        val unwrapped = unwrapKeys(keyMaterial, passphrase)
+        when (keyMaterial.keyBasedEncryption) {
+          KeyBasedEncryption.BOTH_KEYS -> {
+            //even key first, key in use is the same and the other is the new key
+            val even = unwrapped.copyOfRange(0, 16)
+            val odd = unwrapped.copyOfRange(16, 32)
+            if (packet.encryption == KeyBasedEncryption.PAIR_KEY) {
+              assertArrayEquals(keys[KeyBasedEncryption.PAIR_KEY], even)
+              keys[KeyBasedEncryption.ODD_KEY] = odd
+            } else {
+              assertArrayEquals(keys[KeyBasedEncryption.ODD_KEY], odd)
+              keys[KeyBasedEncryption.PAIR_KEY] = even
+            }
+          }
+          else -> assertArrayEquals(keys[keyMaterial.keyBasedEncryption], unwrapped)
+        }
+      }
+      val expectedKey = if ((index / refreshRate) % 2 == 0) KeyBasedEncryption.PAIR_KEY else KeyBasedEncryption.ODD_KEY
+      assertEquals(expectedKey, packet.encryption)
+      val key = keys[packet.encryption]
+      assertNotNull(key)
+      assertArrayEquals(payload, decrypt(received(packet), key!!, initialKeyMaterial.salt))
+    }
+    assertEquals(listOf(89, 109, 189, 209), announced.keys.toList())
+    assertEquals(KeyBasedEncryption.BOTH_KEYS, announced[89]?.keyBasedEncryption)
+    assertEquals(KeyBasedEncryption.ODD_KEY, announced[109]?.keyBasedEncryption)
+    assertEquals(KeyBasedEncryption.BOTH_KEYS, announced[189]?.keyBasedEncryption)
+    assertEquals(KeyBasedEncryption.PAIR_KEY, announced[209]?.keyBasedEncryption)
+  }
+
+  @Test
+  fun `GIVEN a key material control packet WHEN write and read THEN values are the same`() {
+    val keyMaterial = EncryptionManager(passphrase, EncryptionType.AES256).getKeyMaterial()
+    val request = KeyMaterialMessage(keyMaterial = keyMaterial)
+    request.write(1000, 25)
+    val packet = SrtPacket.getSrtPacket(request.getData()) as KeyMaterialMessage
+    assertEquals(ExtensionType.SRT_CMD_KM_REQ, packet.extensionType)
+    assertEquals(25, packet.socketId)
+    assertEquals(32, packet.keyMaterial?.keyLength)
+    assertArrayEquals(keyMaterial.salt, packet.keyMaterial?.salt)
+    assertArrayEquals(keyMaterial.wrappedKey, packet.keyMaterial?.wrappedKey)
+
+    val response = KeyMaterialMessage(ExtensionType.SRT_CMD_KM_RSP, keyMaterialState = KeyMaterialState.BAD_SECRET)
+    response.write(1000, 25)
+    val responsePacket = SrtPacket.getSrtPacket(response.getData()) as KeyMaterialMessage
+    assertEquals(ExtensionType.SRT_CMD_KM_RSP, responsePacket.extensionType)
+    assertNull(responsePacket.keyMaterial)
+    assertEquals(KeyMaterialState.BAD_SECRET, responsePacket.keyMaterialState)
+  }
+
+  @Test
+  fun `GIVEN a handshake response with KMRSP WHEN read THEN key material response is parsed`() {
+    val keyMaterial = EncryptionManager(passphrase).getKeyMaterial()
+    keyMaterial.write()
+    val accepted = SrtPacket.getSrtPacket(handshakeResponse(keyMaterial.getData())) as Handshake
+    assertEquals(KeyMaterialState.SECURED, accepted.keyMaterialState)
+    assertArrayEquals(keyMaterial.wrappedKey, accepted.keyMaterialResponse?.wrappedKey)
+
+    val stateData = ByteArrayOutputStream()
+    stateData.writeUInt32(KeyMaterialState.BAD_SECRET.value)
+    val rejected = SrtPacket.getSrtPacket(handshakeResponse(stateData.toByteArray())) as Handshake
+    assertEquals(KeyMaterialState.BAD_SECRET, rejected.keyMaterialState)
+    assertNull(rejected.keyMaterialResponse)
+  }
+
+  @Test
+  fun `GIVEN an encrypted data packet WHEN write and read THEN key flag is the same`() {
+    listOf(KeyBasedEncryption.NONE, KeyBasedEncryption.PAIR_KEY, KeyBasedEncryption.ODD_KEY).forEach {
+      val packet = DataPacket(sequenceNumber = 5, packetPosition = PacketPosition.FIRST, encryption = it,
+        retransmitted = true, messageNumber = 8, payload = ByteArray(10))
+      packet.write()
+      val received = received(packet)
+      assertEquals(it, received.encryption)
+      assertEquals(true, received.retransmitted)
+      assertEquals(PacketPosition.FIRST, received.packetPosition)
+    }
+  }
+
+  private fun handshakeResponse(keyMaterialResponse: ByteArray): ByteArray {
+    val handshake = Handshake(handshakeType = HandshakeType.CONCLUSION)
+    handshake.write(0, 0)
+    val output = ByteArrayOutputStream()
+    output.write(handshake.getData())
+    output.writeUInt16(ExtensionType.SRT_CMD_HS_RSP.value)
+    output.writeUInt16(3)
+    output.write(ByteArray(12))
+    output.writeUInt16(ExtensionType.SRT_CMD_KM_RSP.value)
+    output.writeUInt16(keyMaterialResponse.size / 4)
+    output.write(keyMaterialResponse)
+    return output.toByteArray()
+  }
+
+  private fun readKeyMaterialRequest(handshake: ByteArray): KeyMaterial {
+    //header + handshake body with ipv4 address
+    val input = ByteArrayInputStream(handshake, 16 + 48, handshake.size)
+    while (input.available() >= 4) {
+      val type = input.readUInt16()
+      val length = input.readUInt16() * 4
+      if (type == ExtensionType.SRT_CMD_KM_REQ.value) {
+        val keyMaterial = KeyMaterial()
+        keyMaterial.read(input)
+        return keyMaterial
+      }
+      input.skip(length.toLong())
+    }
+    throw AssertionError("KMREQ not found")
+  }
+
+  private fun unwrapKeys(keyMaterial: KeyMaterial, passphrase: String): ByteArray {
+    val kek = EncryptionManager.deriveKek(passphrase, keyMaterial.salt, keyMaterial.keyLength)
+    return KeyDerivation.unwrap(kek, keyMaterial.wrappedKey)
+  }
+
+  private fun received(packet: DataPacket): DataPacket {
+    packet.write()
+    val received = DataPacket()
+    received.read(ByteArrayInputStream(packet.getData()))
+    return received
+  }
+
+  private fun decrypt(packet: DataPacket, key: ByteArray, salt: ByteArray): ByteArray {
+    //IV built from the first 4 bytes of the packet header as described in SRT RFC
+    val iv = ByteArray(16)
+    packet.write()
+    System.arraycopy(packet.getData(), 0, iv, 10, 4)
+    for (i in 0 until 14) iv[i] = (iv[i].toInt() xor salt[i].toInt()).toByte()
+    val cipher = Cipher.getInstance("AES/CTR/NoPadding")
+    cipher.init(Cipher.DECRYPT_MODE, SecretKeySpec(key, "AES"), IvParameterSpec(iv))
+    return cipher.doFinal(packet.payload, 0, packet.payloadSize)
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.encryption
+
+import com.pedro.srt.Utils.hex
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertThrows
+import org.junit.Test
+import java.io.IOException
+
+class KeyDerivationTest {
+
+  /**
+   * RFC 6070 test vectors
+   */
+  @Test
+  fun `GIVEN rfc 6070 vectors WHEN derive key with pbkdf2 THEN get expected key`() {
+    val password = "password".toByteArray()
+    val salt = "salt".toByteArray()
+    assertArrayEquals(hex("0c60c80f961f0e71f3a9b524af6012062fe037a6"), KeyDerivation.pbkdf2(password, salt, 1, 20))
+    assertArrayEquals(hex("ea6c014dc72d6f8ccd1ed92ace1d41f0d8de8957"), KeyDerivation.pbkdf2(password, salt, 2, 20))
+    assertArrayEquals(hex("4b007901b765489abead49d926f721d065a429c1"), KeyDerivation.pbkdf2(password, salt, 4096, 20))
+    assertArrayEquals(
+      hex("3d2eec4fe41c849b80c8d83662c0e44a8b291a964cf2f07038"),
+      KeyDerivation.pbkdf2("passwordPASSWORDpassword".toByteArray(), "saltSALTsaltSALTsaltSALTsaltSALTsalt".toByteArray(), 4096, 25)
+    )
+  }
+
+  /**
+   * RFC 3394 test vectors
+   */
+  @Test
+  fun `GIVEN rfc 3394 vectors WHEN wrap and unwrap keys THEN get expected values`() {
+    val kek128 = hex("000102030405060708090A0B0C0D0E0F")
+    val key128 = hex("00112233445566778899AABBCCDDEEFF")
+    val wrapped128 = hex("1FA68B0A8112B447AEF34BD8FB5A7B829D3E862371D2CFE5")
+    assertArrayEquals(wrapped128, KeyDerivation.wrap(kek128, key128))
+    assertArrayEquals(key128, KeyDerivation.unwrap(kek128, wrapped128))
+
+    val kek256 = hex("000102030405060708090A0B0C0D0E0F101112131415161718191A1B1C1D1E1F")
+    val key256 = hex("00112233445566778899AABBCCDDEEFF000102030405060708090A0B0C0D0E0F")
+    val wrapped256 = hex("28C9F404C4B810F4CBCCB35CFB87F8263F5786E2D80ED326CBC7F0E71A99F43BFB988B9B7A02DD21")
+    assertArrayEquals(wrapped256, KeyDerivation.wrap(kek256, key256))
+    assertArrayEquals(key256, KeyDerivation.unwrap(kek256, wrapped256))
+  }
+
+  @Test
+  fun `GIVEN a wrong kek WHEN unwrap THEN integrity check fails`() {
+    val wrapped = KeyDerivation.wrap(ByteArray(16) { 1 }, ByteArray(32) { it.toByte() })
+    assertThrows(IOException::class.java) {
+      KeyDerivation.unwrap(ByteArray(16) { 2 }, wrapped)
+    }
+  }
+}
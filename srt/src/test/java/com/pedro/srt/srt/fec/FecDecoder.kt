@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.fec
+
+import com.pedro.srt.srt.packets.DataPacket
+import com.pedro.srt.srt.packets.data.KeyBasedEncryption
+
+/**
+ * Receiver side of the row/column FEC used to check the packets generated by [FecFilter].
+ * Positions are the index of the packet since the first packet sent.
+ * Lost packets are rebuilt iteratively, a packet recovered in a row could complete a column and vice versa.
+ */
+class FecDecoder(private val config: FecConfig) {
+
+  private val cols = config.cols
+  private val columnSize = config.columnSize
+  private val packets = HashMap<Long, DataPacket>()
+  //FEC packets with the positions of the group
+  private val groups = mutableListOf<Pair<DataPacket, List<Long>>>()
+
+  fun onDataPacket(position: Long, packet: DataPacket) {
+    packets[position] = packet
+  }
+
+  fun onFecPacket(position: Long, fecPacket: DataPacket) {
+    val copy = DataPacket(
+      sequenceNumber = fecPacket.sequenceNumber,
+      ts = fecPacket.ts,
+      payload = fecPacket.payload.copyOf(fecPacket.payloadSize)
+    )
+    val index = fecPacket.payload[0].toInt()
+    val members = if (index == FecFilter.ROW_GROUP_INDEX) {
+      (0 until cols).map { position - it }
+    } else {
+      (0 until columnSize).map { position - it.toLong() * cols }
+    }
+    groups.add(copy to members)
+  }
+
+  /**
+   * @return positions recovered
+   */
+  fun recover(): List<Long> {
+    val recovered = mutableListOf<Long>()
+    var progress = true
+    while (progress) {
+      progress = false
+      groups.forEach { (fec, members) ->
+        val lost = members.filter { !packets.containsKey(it) }
+        if (lost.size == 1) {
+          packets[lost[0]] = rebuild(fec, members.filter { it != lost[0] }.map { packets.getValue(it) })
+          recovered.add(lost[0])
+          progress = true
+        }
+      }
+    }
+    return recovered
+  }
+
+  fun get(position: Long): DataPacket? = packets[position]
+
+  private fun rebuild(fec: DataPacket, received: List<DataPacket>): DataPacket {
+    val clip = fec.payload
+    var ts = fec.ts
+    var flag = clip[1].toInt() and 0xFF
+    var length = ((clip[2].toInt() and 0xFF) shl 8) or (clip[3].toInt() and 0xFF)
+    val payload = clip.copyOfRange(FecFilter.HEADER_SIZE, clip.size)
+    received.forEach { packet ->
+      ts = ts xor packet.ts
+      flag = flag xor packet.encryption.value
+      length = length xor packet.payloadSize
+      for (i in 0 until packet.payloadSize) {
+        payload[i] = (payload[i].toInt() xor packet.payload[i].toInt()).toByte()
+      }
+    }
+    return DataPacket(
+      ts = ts,
+      encryption = KeyBasedEncryption.from(flag),
+      payload = payload.copyOf(length)
+    )
+  }
+}
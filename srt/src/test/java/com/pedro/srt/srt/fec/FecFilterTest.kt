@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.fec
+
+import com.pedro.srt.srt.packets.DataPacket
+import com.pedro.srt.srt.packets.control.handshake.ExtensionField
+import com.pedro.srt.srt.packets.control.handshake.Handshake
+import com.pedro.srt.srt.packets.control.handshake.HandshakeType
+import com.pedro.srt.srt.packets.control.handshake.extension.HandshakeExtension
+import com.pedro.srt.srt.packets.data.KeyBasedEncryption
+import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.SequenceNumber
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import kotlin.random.Random
+
+class FecFilterTest {
+
+  private val payloadSize = 1316
+
+  @Test
+  fun `GIVEN a FEC config WHEN convert to string and parse THEN get the same config`() {
+    val config = FecConfig(10, 5, FecConfig.Layout.EVEN, FecConfig.Arq.NEVER)
+    assertEquals("fec,cols:10,rows:5,layout:even,arq:never", config.toString())
+    assertEquals(config, FecConfig.parse(config.toString()))
+    assertEquals(FecConfig(8), FecConfig.parse("fec,cols:8"))
+    assertEquals(FecConfig(8, -4), FecConfig.parse("fec,cols:8,rows:-4,layout:staircase"))
+    assertNull(FecConfig.parse("fec,rows:5"))
+    assertNull(FecConfig.parse("fec,cols:1,rows:1"))
+    assertNull(FecConfig.parse("other,cols:10"))
+  }
+
+  @Test
+  fun `GIVEN a handshake with filter extension WHEN write and read it THEN get the same filter`() {
+    val config = FecConfig(10, 5)
+    val handshake = Handshake(
+      extensionField = ExtensionField.HS_REQ.value or ExtensionField.CONFIG.value,
+      handshakeType = HandshakeType.CONCLUSION,
+      handshakeExtension = HandshakeExtension(path = "test", filter = config.toString())
+    )
+    handshake.write(2500, 0x40)
+    val packet = Handshake()
+    packet.read(ByteArrayInputStream(handshake.getData()))
+    assertEquals(config.toString(), packet.filterResponse)
+  }
+
+  @Test
+  fun `GIVEN even and staircase layouts WHEN feed packets THEN column groups are completed in expected positions`() {
+    //4 columns, 3 rows
+    assertEquals(
+      listOf(3 to -1, 7 to -1, 8 to 0, 9 to 1, 10 to 2, 11 to -1, 11 to 3),
+      fecPositions(FecConfig(4, 3, FecConfig.Layout.EVEN), 12)
+    )
+    //column c start in row c % rows
+    assertEquals(
+      listOf(3 to -1, 7 to -1, 8 to 0, 11 to -1, 11 to 3, 13 to 1, 15 to -1, 18 to 2),
+      fecPositions(FecConfig(4, 3, FecConfig.Layout.STAIRCASE), 19)
+    )
+    //only columns
+    assertEquals(listOf(8 to 0, 9 to 1, 10 to 2, 11 to 3), fecPositions(FecConfig(4, -3, FecConfig.Layout.EVEN), 12))
+  }
+
+  @Test
+  fun `GIVEN a FEC packet WHEN check fields THEN use last packet of the group and xor of the group values`() {
+    val filter = FecFilter(FecConfig(2), payloadSize)
+    val first = DataPacket(sequenceNumber = 10, messageNumber = 1, ts = 0x1234, socketId = 5,
+      encryption = KeyBasedEncryption.PAIR_KEY, payload = byteArrayOf(1, 2, 3))
+    val second = DataPacket(sequenceNumber = 11, messageNumber = 2, ts = 0x4321, socketId = 5,
+      encryption = KeyBasedEncryption.ODD_KEY, packetPosition = PacketPosition.FIRST, payload = byteArrayOf(4, 5))
+    assertTrue(filter.feed(first).isEmpty())
+    val fecPackets = filter.feed(second)
+    assertEquals(1, fecPackets.size)
+    val fec = fecPackets[0]
+    assertEquals(11, fec.sequenceNumber)
+    assertEquals(0, fec.messageNumber)
+    assertEquals(PacketPosition.SINGLE, fec.packetPosition)
+    assertEquals(KeyBasedEncryption.NONE, fec.encryption)
+    assertEquals(5, fec.socketId)
+    assertEquals(0x1234 xor 0x4321, fec.ts)
+    assertEquals(FecFilter.HEADER_SIZE + payloadSize, fec.payloadSize)
+    val header = intArrayOf(-1, 1 xor 2, 0, 3 xor 2, 1 xor 4, 2 xor 5, 3).map { it.toByte() }.toByteArray()
+    assertArrayEquals(header, fec.payload.copyOf(header.size))
+    assertTrue(fec.payload.drop(header.size).all { it == 0.toByte() })
+    //FEC packet is reused for the next group
+    filter.feed(first)
+    assertSame(fec, filter.feed(second)[0])
+  }
+
+  @Test
+  fun `GIVEN random loss WHEN decode with FEC THEN recover lost packets with the same data`() {
+    val config = FecConfig(10, 5, FecConfig.Layout.STAIRCASE)
+    val random = Random(1234)
+    val result = simulate(config, 5000) { _, _ -> random.nextInt(100) < 5 }
+    println("random loss: lost ${result.lost}, recovered ${result.recovered}")
+    assertTrue(result.lost > 0)
+    //most single losses are recovered, the rest need retransmission
+    assertTrue(result.recovered >= result.lost * 8 / 10)
+  }
+
+  @Test
+  fun `GIVEN burst loss up to cols packets WHEN decode with columns THEN recover all packets`() {
+    listOf(FecConfig.Layout.EVEN, FecConfig.Layout.STAIRCASE).forEach { layout ->
+      val config = FecConfig(10, 5, layout)
+      //bursts of 10 data packets each 200 packets
+      val result = simulate(config, 2000) { position, isFec -> !isFec && position % 200 in 100L until 110L }
+      println("burst loss $layout: lost ${result.lost}, recovered ${result.recovered}")
+      assertTrue(result.lost > 0)
+      assertEquals(result.lost, result.recovered)
+    }
+    //rows only can't recover 2 packets lost in the same row
+    val result = simulate(FecConfig(10), 2000) { position, isFec -> !isFec && position % 200 in 100L until 110L }
+    assertTrue(result.recovered < result.lost)
+  }
+
+  private fun fecPositions(config: FecConfig, packets: Int): List<Pair<Int, Int>> {
+    val filter = FecFilter(config, payloadSize)
+    val positions = mutableListOf<Pair<Int, Int>>()
+    repeat(packets) { position ->
+      filter.feed(DataPacket(sequenceNumber = position, payload = ByteArray(188))).forEach {
+        positions.add(position to it.payload[0].toInt())
+      }
+    }
+    return positions
+  }
+
+  private data class Result(val lost: Int, val recovered: Int)
+
+  /**
+   * Send packets through the filter reusing the same payload buffer, like packets taken from a pool,
+   * and drop packets (data and FEC) using isLost with the position of the last data packet sent.
+   */
+  private fun simulate(config: FecConfig, packets: Int, isLost: (Long, Boolean) -> Boolean): Result {
+    val random = Random(packets)
+    val filter = FecFilter(config, payloadSize)
+    val decoder = FecDecoder(config)
+    val sent = mutableMapOf<Long, DataPacket>()
+    val lost = mutableListOf<Long>()
+    val pooledPayload = ByteArray(payloadSize)
+    val firstSequence = 0x7FFFFFFF - packets / 2
+    for (position in 0L until packets) {
+      random.nextBytes(pooledPayload)
+      val packet = DataPacket(
+        sequenceNumber = SequenceNumber.add(firstSequence, position.toInt()),
+        messageNumber = position.toInt() + 1,
+        ts = random.nextInt(0, Int.MAX_VALUE),
+        encryption = if (random.nextBoolean()) KeyBasedEncryption.PAIR_KEY else KeyBasedEncryption.ODD_KEY,
+        payload = pooledPayload,
+        payloadSize = 188 * random.nextInt(1, 8)
+      )
+      sent[position] = DataPacket(ts = packet.ts, encryption = packet.encryption,
+        payload = pooledPayload.copyOf(packet.payloadSize))
+      if (isLost(position, false)) lost.add(position) else decoder.onDataPacket(position, sent.getValue(position))
+      filter.feed(packet).forEach { fec ->
+        assertEquals(packet.sequenceNumber, fec.sequenceNumber)
+        if (!isLost(position, true)) decoder.onFecPacket(position, fec)
+      }
+    }
+    val recovered = decoder.recover()
+    recovered.forEach { position ->
+      val expected = sent.getValue(position)
+      val packet = decoder.get(position)!!
+      assertEquals(expected.ts, packet.ts)
+      assertEquals(expected.encryption, packet.encryption)
+      assertArrayEquals(expected.payload, packet.payload)
+    }
+    return Result(lost.size, recovered.size)
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.group
+
+import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.srt.CommandsManager
+import com.pedro.srt.srt.packets.DataPacket
+import com.pedro.srt.srt.packets.SrtPacket
+import com.pedro.srt.srt.packets.control.Ack
+import com.pedro.srt.srt.packets.control.Ack2
+import com.pedro.srt.srt.packets.control.KeepAlive
+import com.pedro.srt.srt.packets.control.Nak
+import com.pedro.srt.srt.packets.control.Shutdown
+import com.pedro.srt.srt.packets.control.handshake.extension.GroupType
+import com.pedro.srt.srt.packets.control.handshake.extension.HandshakeExtension
+import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.Constants
+import com.pedro.srt.utils.SequenceNumber
+import com.pedro.srt.utils.SrtSocket
+import com.pedro.srt.utils.TimeUtils
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.net.SocketAddress
+import java.net.SocketTimeoutException
+
+class BroadcastGroupTest {
+
+  private val host = InetAddress.getLoopbackAddress()
+  private val localAddress = host.hostAddress ?: "127.0.0.1"
+  private lateinit var peerA: Peer
+  private lateinit var peerB: Peer
+  private lateinit var memberA: GroupMember
+  private lateinit var memberB: GroupMember
+  private val commandsManager = CommandsManager()
+
+  /**
+   * Stand-in of a server connection, records the address of the client to reply.
+   */
+  private inner class Peer {
+    val socket = DatagramSocket(0, host).also { it.soTimeout = 2000 }
+    var clientAddress: SocketAddress? = null
+
+    fun receive(): SrtPacket {
+      val buffer = ByteArray(Constants.MTU)
+      val udpPacket = DatagramPacket(buffer, buffer.size)
+      socket.receive(udpPacket)
+      clientAddress = udpPacket.socketAddress
+      val data = buffer.sliceArray(0 until udpPacket.length)
+      val packet = SrtPacket.getSrtPacket(data)
+      if (packet is DataPacket) packet.read(ByteArrayInputStream(data))
+      return packet
+    }
+
+    fun receiveData(amount: Int): List<DataPacket> = List(amount) { receive() as DataPacket }
+
+    fun assertNothingReceived() {
+      socket.soTimeout = 200
+      try {
+        fail("unexpected packet received: ${receive()}")
+      } catch (ignored: SocketTimeoutException) { }
+      socket.soTimeout = 2000
+    }
+
+    fun send(data: ByteArray) {
+      socket.send(DatagramPacket(data, data.size, clientAddress))
+    }
+  }
+
+  @Before
+  fun setup() {
+    peerA = Peer()
+    peerB = Peer()
+    memberA = GroupMember(SrtSocket(localAddress, peerA.socket.localPort, localAddress))
+    memberA.socketId = 0x100
+    memberB = GroupMember(SrtSocket(localAddress, peerB.socket.localPort, localAddress))
+    memberB.socketId = 0x200
+    memberA.socket.connect()
+    memberB.socket.connect()
+    commandsManager.tooLatePacketDrop = false
+    commandsManager.loadStartTs()
+    commandsManager.groupMembers = listOf(memberA, memberB)
+  }
+
+  @After
+  fun teardown() {
+    memberA.socket.close()
+    memberB.socket.close()
+    peerA.socket.close()
+    peerB.socket.close()
+  }
+
+  @Test
+  fun `GIVEN a group extension WHEN write handshake extension THEN group id and type are written`() {
+    val extension = HandshakeExtension(path = "test", groupId = 0x40000005, groupType = GroupType.BROADCAST, groupWeight = 10)
+    extension.write()
+    val data = extension.getData()
+    val expected = byteArrayOf(0, 8, 0, 2, 0x40, 0, 0, 5, 1, 0, 0, 10)
+    assertArrayEquals(expected, data.sliceArray(data.size - expected.size until data.size))
+  }
+
+  @Test
+  fun `GIVEN a broadcast group WHEN write data THEN all members receive the same packets with his socket id`() = runBlocking {
+    val firstSequence = commandsManager.sequenceNumber
+    repeat(10) { writeData() }
+    val packetsA = peerA.receiveData(10)
+    val packetsB = peerB.receiveData(10)
+    packetsA.forEachIndexed { index, packet ->
+      assertEquals(SequenceNumber.add(firstSequence, index), packet.sequenceNumber)
+      assertEquals(packet.sequenceNumber, packetsB[index].sequenceNumber)
+      assertEquals(packet.messageNumber, packetsB[index].messageNumber)
+      assertEquals(0x100, packet.socketId)
+      assertEquals(0x200, packetsB[index].socketId)
+    }
+    //packets are counted once for the group and once per member
+    assertEquals(10, commandsManager.statsManager.getStats().packetsSent)
+    assertEquals(10, memberA.statsManager.getStats().packetsSent)
+    assertEquals(10, memberB.statsManager.getStats().packetsSent)
+
+    commandsManager.writeShutdown(null)
+    assertEquals(0x100, (peerA.receive() as Shutdown).socketId)
+    assertEquals(0x200, (peerB.receive() as Shutdown).socketId)
+  }
+
+  /**
+   * Path A lose packets, only path A receive retransmissions until path B acknowledge them.
+   */
+  @Test
+  fun `GIVEN loss in a member path WHEN receive nak THEN resend only in that member and skip packets acknowledged by other member`() = runBlocking {
+    val firstSequence = commandsManager.sequenceNumber
+    repeat(20) { writeData() }
+    val lost = setOf(5, 6, 7, 15)
+    val receivedA = peerA.receiveData(20).filter { SequenceNumber.offset(firstSequence, it.sequenceNumber) !in lost }
+    assertEquals(16, receivedA.size)
+    peerB.receiveData(20)
+
+    //member A report 5 to 7 lost
+    val nak = Nak()
+    nak.addLostPacketsRange(SequenceNumber.add(firstSequence, 5), SequenceNumber.add(firstSequence, 7))
+    nak.write(0, 0x100)
+    peerA.send(nak.getData())
+    commandsManager.reSendPackets(memberA.socket.receive() as Nak, memberA)
+    val resent = peerA.receiveData(3)
+    resent.forEachIndexed { index, packet ->
+      assertTrue(packet.retransmitted)
+      assertEquals(0x100, packet.socketId)
+      assertEquals(SequenceNumber.add(firstSequence, 5 + index), packet.sequenceNumber)
+    }
+    peerB.assertNothingReceived()
+    assertEquals(3, memberA.statsManager.getStats().packetsRetransmitted)
+    assertEquals(0, memberB.statsManager.getStats().packetsRetransmitted)
+
+    //member B receive all packets, ACK2 is sent only to B
+    peerB.send(createAck(1, SequenceNumber.add(firstSequence, 20)))
+    commandsManager.handleAck(memberB.socket.receive() as Ack, memberB)
+    val ack2 = peerB.receive() as Ack2
+    assertEquals(0x200, ack2.socketId)
+    peerA.assertNothingReceived()
+    assertEquals(1, memberB.statsManager.getStats().acksReceived)
+    assertEquals(0, memberA.statsManager.getStats().acksReceived)
+
+    //packet 15 was received by B, the server already has it
+    val lateNak = Nak()
+    lateNak.addLostPacket(SequenceNumber.add(firstSequence, 15))
+    lateNak.write(0, 0x100)
+    peerA.send(lateNak.getData())
+    commandsManager.reSendPackets(memberA.socket.receive() as Nak, memberA)
+    peerA.assertNothingReceived()
+    assertEquals(4, memberA.statsManager.getStats().packetsLost)
+  }
+
+  @Test
+  fun `GIVEN a member disabled WHEN write data THEN only active members receive packets until all fail`() = runBlocking {
+    memberA.disable()
+    writeData()
+    assertTrue(peerB.receive() is DataPacket)
+    peerA.assertNothingReceived()
+    memberB.disable()
+    assertFalse(memberB.isActive)
+    try {
+      writeData()
+      fail("write must fail without active members")
+    } catch (ignored: IOException) { }
+  }
+
+  @Test
+  fun `GIVEN a member without response from server WHEN time pass THEN keep alive, timeout and rejoin with a new socket`() = runBlocking {
+    val ts = TimeUtils.getCurrentTimeMillis()
+    memberA.onPacketSent(ts)
+    memberA.onPacketReceived(ts)
+    assertFalse(memberA.needKeepAlive(ts + GroupMember.KEEPALIVE_INTERVAL - 1))
+    assertTrue(memberA.needKeepAlive(ts + GroupMember.KEEPALIVE_INTERVAL))
+    commandsManager.writeKeepAlive(memberA)
+    assertEquals(0x100, (peerA.receive() as KeepAlive).socketId)
+
+    assertFalse(memberA.isTimedOut(ts + GroupMember.PEER_IDLE_TIMEOUT - 1))
+    assertTrue(memberA.isTimedOut(ts + GroupMember.PEER_IDLE_TIMEOUT))
+    val disabledTs = ts + GroupMember.PEER_IDLE_TIMEOUT
+    memberA.disable(ts = disabledTs)
+    assertFalse(memberA.isTimedOut(disabledTs))
+    assertFalse(memberA.needKeepAlive(disabledTs + GroupMember.KEEPALIVE_INTERVAL))
+    assertFalse(memberA.canRejoin(disabledTs + GroupMember.REJOIN_INTERVAL - 1))
+    assertTrue(memberA.canRejoin(disabledTs + GroupMember.REJOIN_INTERVAL))
+    //next rejoin after other interval
+    val failedTs = disabledTs + GroupMember.REJOIN_INTERVAL
+    memberA.onRejoinFailed(failedTs)
+    assertFalse(memberA.canRejoin(failedTs + GroupMember.REJOIN_INTERVAL - 1))
+
+    val newPeer = Peer()
+    val newSocket = SrtSocket(localAddress, newPeer.socket.localPort, localAddress)
+    newSocket.connect()
+    memberA.socket.close()
+    memberA.rejoin(newSocket, 0x300, failedTs + GroupMember.REJOIN_INTERVAL)
+    assertTrue(memberA.isActive)
+    assertEquals(0, memberA.statsManager.getStats().packetsSent)
+    writeData()
+    assertEquals(0x300, (newPeer.receive() as DataPacket).socketId)
+    assertTrue(peerB.receive() is DataPacket)
+    newPeer.socket.close()
+  }
+
+  @Test
+  fun `GIVEN acks of all members WHEN handle ack THEN group stats are only from the first active member`() = runBlocking {
+    val firstSequence = commandsManager.sequenceNumber
+    repeat(10) { writeData() }
+    peerA.receiveData(10)
+    peerB.receiveData(10)
+
+    peerB.send(createAck(1, SequenceNumber.add(firstSequence, 10)))
+    assertFalse(commandsManager.handleAck(memberB.socket.receive() as Ack, memberB))
+    peerB.receive() as Ack2
+    assertEquals(1, memberB.statsManager.getStats().acksReceived)
+    assertEquals(0, commandsManager.statsManager.getStats().acksReceived)
+
+    peerA.send(createAck(1, SequenceNumber.add(firstSequence, 10)))
+    commandsManager.handleAck(memberA.socket.receive() as Ack, memberA)
+    peerA.receive() as Ack2
+    assertEquals(1, commandsManager.statsManager.getStats().acksReceived)
+
+    //member B is the active member now
+    memberA.disable()
+    peerB.send(createAck(2, SequenceNumber.add(firstSequence, 10)))
+    commandsManager.handleAck(memberB.socket.receive() as Ack, memberB)
+    assertEquals(2, commandsManager.statsManager.getStats().acksReceived)
+  }
+
+  private suspend fun writeData() {
+    commandsManager.writeData(MpegTsPacket(ByteArray(1316), MpegType.VIDEO, PacketPosition.SINGLE), null)
+  }
+
+  private fun SrtSocket.receive(): SrtPacket = SrtPacket.getSrtPacket(readBuffer())
+
+  private fun createAck(ackSequence: Int, lastSequence: Int): ByteArray {
+    val ack = Ack(lastAcknowledgedPacketSequenceNumber = lastSequence, availableBufferSize = 1000)
+    ack.typeSpecificInformation = ackSequence
+    ack.write(0, 0)
+    return ack.getData()
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pedro.srt.utils
+
+import android.media.MediaCodec
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.util.Random
+
+class ComfortFrameFilterTest {
+
+  //AAC frame duration at 44100 Hz
+  private val frameDuration = 23220L
+  private val random = Random(1)
+  //CBR encoders fill silence frames to the bitrate, 128 kbps
+  private val frameSize = 371
+  private val silenceFrame = ByteArray(frameSize) { if (it < 8) (0x21 + it).toByte() else 0 }
+
+  private fun speechFrame() = ByteArray(frameSize).also { random.nextBytes(it) }
+
+  /**
+   * @return timestamps of sent frames
+   */
+  private fun send(filter: ComfortFrameFilter, frames: List<ByteArray>): List<Long> {
+    val sent = mutableListOf<Long>()
+    val info = MediaCodec.BufferInfo()
+    frames.forEachIndexed { i, frame ->
+      val buffer = ByteBuffer.wrap(frame)
+      info.set(0, frame.size, i * frameDuration, 0)
+      if (filter.shouldSend(buffer, info)) sent.add(info.presentationTimeUs)
+      assertEquals(0, buffer.position())
+    }
+    return sent
+  }
+
+  @Test
+  fun `GIVEN filter disabled WHEN send silence frames THEN all frames are sent`() {
+    val filter = ComfortFrameFilter()
+    val frames = List(20) { silenceFrame }
+    assertEquals(20, send(filter, frames).size)
+    assertEquals(0, filter.skippedFrames)
+  }
+
+  @Test
+  fun `GIVEN repeated silence frames WHEN send THEN only hangover and comfort frames are sent with original timestamps`() {
+    val filter = ComfortFrameFilter()
+    filter.enabled = true
+    val frames = List(3) { speechFrame() } + List(20) { silenceFrame } + List(3) { speechFrame() }
+    val sent = send(filter, frames)
+    val expected = mutableListOf<Long>()
+    //speech
+    (0..2).forEach { expected.add(it * frameDuration) }
+    //first silence frame and hangover, then 1 of each 4 frames
+    (3..5).forEach { expected.add(it * frameDuration) }
+    (9..22 step 4).forEach { expected.add(it * frameDuration) }
+    //speech again, first frame is sent without delay
+    (23..25).forEach { expected.add(it * frameDuration) }
+    assertEquals(expected, sent)
+    assertEquals(20L - 7, filter.skippedFrames)
+    assertEquals((20L - 7) * frameSize, filter.skippedBytes)
+    filter.reset()
+    assertEquals(0, filter.skippedFrames)
+  }
+
+  @Test
+  fun `GIVEN a frame with offset WHEN compare THEN only frame bytes are used`() {
+    val filter = ComfortFrameFilter()
+    filter.enabled = true
+    val info = MediaCodec.BufferInfo()
+    var sent = 0
+    repeat(10) {
+      //bytes out of the frame change in each frame
+      val data = ByteArray(frameSize + 20).also { random.nextBytes(it) }
+      System.arraycopy(silenceFrame, 0, data, 10, frameSize)
+      info.set(10, frameSize, it * frameDuration, 0)
+      if (filter.shouldSend(ByteBuffer.wrap(data), info)) sent++
+    }
+    //first frame, 2 hangover frames and a comfort frame
+    assertEquals(4, sent)
+  }
+
+  /**
+   * Talk show like stream with 2-8 seconds of speech and pauses of 2-6 seconds encoded with
+   * digital silence (400 ms of silence detector hangover).
+   */
+  @Test
+  fun `GIVEN a talk show stream WHEN send with audio dtx THEN measure bytes saved`() {
+    val frames = mutableListOf<ByteArray>()
+    var durationUs = 0L
+    while (durationUs < 60_000_000L) {
+      val speech = (2_000_000 + random.nextInt(6_000_000) + 400_000) / frameDuration
+      val pause = (2_000_000 + random.nextInt(4_000_000) - 400_000) / frameDuration
+      repeat(speech.toInt()) { frames.add(speechFrame()) }
+      repeat(pause.toInt()) { frames.add(silenceFrame) }
+      durationUs += (speech + pause) * frameDuration
+    }
+    val filter = ComfortFrameFilter()
+    filter.enabled = true
+    val sent = send(filter, frames)
+    val totalBytes = frames.size.toLong() * frameSize
+    val saved = filter.skippedBytes * 100 / totalBytes
+    println("${frames.size} frames, sent ${sent.size}, saved ${filter.skippedBytes} of $totalBytes bytes ($saved%)")
+    assertEquals(frames.size.toLong(), sent.size + filter.skippedFrames)
+    assertTrue(saved > 20)
+    //max gap between sent frames is the comfort interval
+    val maxGap = sent.zipWithNext { a, b -> b - a }.max()
+    assertEquals(ComfortFrameFilter.DEFAULT_COMFORT_INTERVAL * frameDuration, maxGap)
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class FrameQueueTest {
+
+  private data class Frame(val id: Int, val type: FrameQueue.FrameType)
+
+  private class Result(queue: FrameQueue<Frame>) {
+    val discarded = mutableListOf<Frame>()
+    var keyFrameRequests = 0
+
+    init {
+      queue.onFrameDiscarded = { frame, _ -> discarded.add(frame) }
+      queue.onKeyFrameRequired = { keyFrameRequests++ }
+    }
+  }
+
+  private fun FrameQueue<Frame>.offer(frame: Frame): Boolean = offer(frame, frame.type)
+
+  private fun FrameQueue<Frame>.drain(): List<Frame> {
+    val frames = mutableListOf<Frame>()
+    while (true) frames.add(poll(0, TimeUnit.MILLISECONDS) ?: return frames)
+  }
+
+  @Test
+  fun `GIVEN a full queue with video WHEN offer audio THEN newest video is removed and a key frame is requested`() {
+    val queue = FrameQueue<Frame>(3)
+    val result = Result(queue)
+    queue.offer(Frame(0, FrameQueue.FrameType.KEY_FRAME))
+    queue.offer(Frame(1, FrameQueue.FrameType.VIDEO))
+    queue.offer(Frame(2, FrameQueue.FrameType.VIDEO))
+    assertTrue(queue.offer(Frame(3, FrameQueue.FrameType.AUDIO)))
+    assertTrue(queue.offer(Frame(4, FrameQueue.FrameType.CONFIG)))
+    assertEquals(listOf(2, 1), result.discarded.map { it.id })
+    assertEquals(1, result.keyFrameRequests)
+    assertEquals(listOf(0, 3, 4), queue.drain().map { it.id })
+  }
+
+  @Test
+  fun `GIVEN a full queue without video WHEN offer audio THEN audio is discarded`() {
+    val queue = FrameQueue<Frame>(2)
+    val result = Result(queue)
+    queue.offer(Frame(0, FrameQueue.FrameType.AUDIO))
+    queue.offer(Frame(1, FrameQueue.FrameType.AUDIO))
+    assertFalse(queue.offer(Frame(2, FrameQueue.FrameType.AUDIO)))
+    assertEquals(listOf(2), result.discarded.map { it.id })
+    assertEquals(0, result.keyFrameRequests)
+  }
+
+  @Test
+  fun `GIVEN a dropped video frame WHEN offer next frames THEN video is discarded until a key frame`() {
+    val queue = FrameQueue<Frame>(3)
+    val result = Result(queue)
+    queue.offer(Frame(0, FrameQueue.FrameType.KEY_FRAME))
+    queue.offer(Frame(1, FrameQueue.FrameType.VIDEO))
+    queue.offer(Frame(2, FrameQueue.FrameType.VIDEO))
+    assertFalse(queue.offer(Frame(3, FrameQueue.FrameType.VIDEO)))
+    assertEquals(3, queue.drain().size)
+    //there is room but the frames depend on the dropped one
+    assertFalse(queue.offer(Frame(4, FrameQueue.FrameType.VIDEO)))
+    assertTrue(queue.offer(Frame(5, FrameQueue.FrameType.AUDIO)))
+    assertFalse(queue.offer(Frame(6, FrameQueue.FrameType.VIDEO)))
+    assertTrue(queue.offer(Frame(7, FrameQueue.FrameType.KEY_FRAME)))
+    assertTrue(queue.offer(Frame(8, FrameQueue.FrameType.VIDEO)))
+    assertEquals(listOf(3, 4, 6), result.discarded.map { it.id })
+    //only one request per drop
+    assertEquals(1, result.keyFrameRequests)
+    assertEquals(listOf(5, 7, 8), queue.drain().map { it.id })
+  }
+
+  @Test
+  fun `GIVEN a full queue WHEN offer a key frame THEN queued video is removed and audio is kept`() {
+    val queue = FrameQueue<Frame>(4)
+    val result = Result(queue)
+    queue.offer(Frame(0, FrameQueue.FrameType.KEY_FRAME))
+    queue.offer(Frame(1, FrameQueue.FrameType.AUDIO))
+    queue.offer(Frame(2, FrameQueue.FrameType.VIDEO))
+    queue.offer(Frame(3, FrameQueue.FrameType.AUDIO))
+    assertTrue(queue.offer(Frame(4, FrameQueue.FrameType.KEY_FRAME)))
+    assertEquals(listOf(0, 2), result.discarded.map { it.id })
+    assertEquals(0, result.keyFrameRequests)
+    assertEquals(listOf(1, 3, 4), queue.drain().map { it.id })
+  }
+
+  @Test
+  fun `GIVEN a queue full of audio WHEN offer a key frame THEN key frame is discarded and requested again`() {
+    val queue = FrameQueue<Frame>(1)
+    val result = Result(queue)
+    queue.offer(Frame(0, FrameQueue.FrameType.AUDIO))
+    assertFalse(queue.offer(Frame(1, FrameQueue.FrameType.KEY_FRAME)))
+    queue.drain()
+    assertFalse(queue.offer(Frame(2, FrameQueue.FrameType.VIDEO)))
+    assertTrue(queue.offer(Frame(3, FrameQueue.FrameType.KEY_FRAME)))
+    assertEquals(listOf(1, 2), result.discarded.map { it.id })
+    assertEquals(1, result.keyFrameRequests)
+  }
+
+  @Test
+  fun `GIVEN drops in the same second WHEN offer frames THEN key frame is requested once per interval`() {
+    var now = 0L
+    val queue = FrameQueue<Frame>(1) { now }
+    val result = Result(queue)
+    queue.offer(Frame(0, FrameQueue.FrameType.AUDIO))
+    assertFalse(queue.offer(Frame(1, FrameQueue.FrameType.VIDEO)))
+    assertEquals(1, result.keyFrameRequests)
+    now += TimeUnit.MILLISECONDS.toNanos(100)
+    //key frame received but the link is still congested
+    assertFalse(queue.offer(Frame(2, FrameQueue.FrameType.KEY_FRAME)))
+    assertFalse(queue.offer(Frame(3, FrameQueue.FrameType.VIDEO)))
+    assertEquals(1, result.keyFrameRequests)
+    //the request skipped is sent after the interval
+    now += TimeUnit.SECONDS.toNanos(1)
+    assertFalse(queue.offer(Frame(4, FrameQueue.FrameType.VIDEO)))
+    assertEquals(2, result.keyFrameRequests)
+    queue.drain()
+    assertTrue(queue.offer(Frame(5, FrameQueue.FrameType.KEY_FRAME)))
+    queue.drain()
+    now += TimeUnit.SECONDS.toNanos(1)
+    assertTrue(queue.offer(Frame(6, FrameQueue.FrameType.AUDIO)))
+    assertEquals(2, result.keyFrameRequests)
+  }
+
+  @Test
+  fun `GIVEN frames split in packets WHEN drop a packet THEN all packets of the frame are removed`() {
+    val queue = FrameQueue<Frame>(5)
+    val result = Result(queue)
+    //id / 10 is the frame of the packet
+    queue.isSameFrame = { a, b -> a.id / 10 == b.id / 10 }
+    queue.offer(Frame(0, FrameQueue.FrameType.KEY_FRAME))
+    queue.offer(Frame(1, FrameQueue.FrameType.VIDEO))
+    queue.offer(Frame(10, FrameQueue.FrameType.VIDEO))
+    queue.offer(Frame(11, FrameQueue.FrameType.VIDEO))
+    queue.offer(Frame(12, FrameQueue.FrameType.VIDEO))
+    //newest frame removed to make room for audio
+    assertTrue(queue.offer(Frame(100, FrameQueue.FrameType.AUDIO)))
+    assertEquals(listOf(12, 10, 11), result.discarded.map { it.id })
+    assertEquals(listOf(0, 1, 100), queue.drain().map { it.id })
+
+    result.discarded.clear()
+    queue.offer(Frame(20, FrameQueue.FrameType.KEY_FRAME))
+    queue.offer(Frame(21, FrameQueue.FrameType.VIDEO))
+    queue.offer(Frame(30, FrameQueue.FrameType.KEY_FRAME))
+    queue.offer(Frame(31, FrameQueue.FrameType.VIDEO))
+    queue.offer(Frame(32, FrameQueue.FrameType.VIDEO))
+    //packet that doesn't fit, the frame is removed
+    assertFalse(queue.offer(Frame(33, FrameQueue.FrameType.VIDEO)))
+    assertEquals(listOf(30, 31, 32, 33), result.discarded.map { it.id })
+    assertEquals(listOf(20, 21), queue.drain().map { it.id })
+  }
+
+  @Test
+  fun `GIVEN an empty queue WHEN poll with timeout THEN return null after timeout`() {
+    val queue = FrameQueue<Frame>(1)
+    val start = System.nanoTime()
+    assertNull(queue.poll(20, TimeUnit.MILLISECONDS))
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20))
+    queue.resize(2)
+    queue.offer(Frame(0, FrameQueue.FrameType.AUDIO))
+    assertEquals(1, queue.remainingCapacity())
+    assertEquals(0, queue.poll(20, TimeUnit.MILLISECONDS)?.id)
+  }
+
+  /**
+   * 30 fps video with 1 second GOP and 43 fps audio sent by a link that can send 50 frames per second
+   * during 2 seconds. The encoder produce a key frame when it is requested.
+   */
+  @Test
+  fun `GIVEN a congested link WHEN send audio and video THEN audio is not dropped and video is decodable`() {
+    val queue = FrameQueue<Frame>(20)
+    val result = Result(queue)
+    var keyFrameRequested = false
+    queue.onKeyFrameRequired = {
+      result.keyFrameRequests++
+      keyFrameRequested = true
+    }
+    val sent = mutableListOf<Frame>()
+    var videoId = 0
+    var audioId = 0
+    for (ts in 0 until 4000) {
+      if (ts % 33 == 0) {
+        val isKey = videoId % 30 == 0 || keyFrameRequested
+        if (isKey) keyFrameRequested = false
+        queue.offer(Frame(videoId++, if (isKey) FrameQueue.FrameType.KEY_FRAME else FrameQueue.FrameType.VIDEO))
+      }
+      if (ts % 23 == 0) queue.offer(Frame(audioId++, FrameQueue.FrameType.AUDIO))
+      val congested = ts in 1000 until 3000
+      if (!congested) sent.addAll(queue.drain())
+      else if (ts % 20 == 0) queue.poll(0, TimeUnit.MILLISECONDS)?.let { sent.add(it) }
+    }
+    sent.addAll(queue.drain())
+
+    assertTrue(result.discarded.all { it.type != FrameQueue.FrameType.AUDIO })
+    assertEquals(audioId, sent.count { it.type == FrameQueue.FrameType.AUDIO })
+    val sentVideo = sent.filter { it.type != FrameQueue.FrameType.AUDIO }
+    assertEquals(videoId, sentVideo.size + result.discarded.size)
+    assertTrue(result.discarded.isNotEmpty())
+    assertTrue(result.keyFrameRequests > 0)
+    //after a gap the next video frame sent must be a key frame
+    sentVideo.zipWithNext().forEach { (previous, frame) ->
+      if (frame.id != previous.id + 1) assertEquals(FrameQueue.FrameType.KEY_FRAME, frame.type)
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.utils
+
+import com.pedro.srt.srt.packets.DataPacket
+import com.pedro.srt.srt.packets.SrtPacket
+import com.pedro.srt.srt.packets.data.PacketPosition
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+
+class SrtSocketTest {
+
+  private val host = InetAddress.getLoopbackAddress()
+  private lateinit var receiver: DatagramSocket
+  private lateinit var socket: SrtSocket
+
+  @Before
+  fun setup() {
+    receiver = DatagramSocket(0, host)
+    receiver.soTimeout = 2000
+    socket = SrtSocket(host.hostAddress ?: "127.0.0.1", receiver.localPort)
+    socket.connect()
+  }
+
+  @After
+  fun teardown() {
+    socket.close()
+    receiver.close()
+  }
+
+  @Test
+  fun `GIVEN a data packet WHEN write with gathering write THEN receive the same bytes that write in a buffer`() {
+    val dataPacket = DataPacket(
+      sequenceNumber = 0x7FFFFFF0,
+      packetPosition = PacketPosition.FIRST,
+      retransmitted = true,
+      messageNumber = 25,
+      ts = 2500,
+      socketId = 0x40,
+      payload = ByteArray(1316) { it.toByte() }
+    )
+    socket.write(dataPacket)
+    //a different payload with same size reuse nothing from the previous write
+    val secondPacket = DataPacket(sequenceNumber = 0x7FFFFFF1, payload = ByteArray(1316) { 0x47 })
+    socket.write(secondPacket)
+
+    dataPacket.write()
+    secondPacket.write()
+    assertArrayEquals(dataPacket.getData(), receive())
+    assertArrayEquals(secondPacket.getData(), receive())
+  }
+
+  @Test
+  fun `GIVEN a data packet with a pooled payload WHEN write THEN send only the used bytes`() {
+    val payload = ByteArray(1316) { it.toByte() }
+    socket.write(DataPacket(sequenceNumber = 1, payload = payload, payloadSize = 1316))
+    //same buffer reused with less data
+    val dataPacket = DataPacket(sequenceNumber = 2, payload = payload, payloadSize = 376)
+    socket.write(dataPacket)
+    assertEquals(SrtPacket.headerSize + 1316, receive().size)
+    val received = receive()
+    assertEquals(SrtPacket.headerSize + 376, received.size)
+    dataPacket.write()
+    assertArrayEquals(dataPacket.getData(), received)
+  }
+
+  /**
+   * Compare the previous send path (write packet in a stream, copy it and create a DatagramPacket)
+   * with the gathering write used now.
+   */
+  @Test
+  fun `GIVEN data packets WHEN write using gathering write THEN send more packets per second with less allocations`() {
+    val packets = 20000
+    val dataPackets = Array(packets) {
+      DataPacket(sequenceNumber = it, messageNumber = it, payload = ByteArray(1316))
+    }
+    val legacySocket = DatagramSocket()
+    legacySocket.connect(host, receiver.localPort)
+    val legacy = measure(dataPackets) { dataPacket ->
+      dataPacket.write()
+      val data = dataPacket.getData()
+      legacySocket.send(DatagramPacket(data, data.size))
+    }
+    legacySocket.close()
+    val gathering = measure(dataPackets) { dataPacket ->
+      socket.write(dataPacket)
+    }
+    println("previous path: ${legacy.first} packets/s, ${legacy.second} bytes allocated per packet")
+    println("gathering write: ${gathering.first} packets/s, ${gathering.second} bytes allocated per packet")
+    if (legacy.second >= 0 && gathering.second >= 0) {
+      //previous path copy the payload at least 2 times
+      assertTrue(gathering.second < legacy.second / 4)
+    }
+  }
+
+  /**
+   * @return packets per second and allocated bytes per packet (-1 if not supported by the JVM)
+   */
+  private fun measure(dataPackets: Array<DataPacket>, write: (DataPacket) -> Unit): Pair<Long, Long> {
+    //warm up
+    dataPackets.forEach { write(it) }
+    val threadId = Thread.currentThread().id
+    val startAllocated = allocatedBytes(threadId)
+    val start = System.nanoTime()
+    dataPackets.forEach { write(it) }
+    val time = System.nanoTime() - start
+    val allocated = allocatedBytes(threadId) - startAllocated
+    val packetsPerSecond = dataPackets.size * 1_000_000_000L / time
+    return Pair(packetsPerSecond, if (startAllocated < 0) -1 else allocated / dataPackets.size)
+  }
+
+  private fun allocatedBytes(threadId: Long): Long {
+    val bean = ManagementFactory.getThreadMXBean()
+    return if (bean is com.sun.management.ThreadMXBean) bean.getThreadAllocatedBytes(threadId) else -1
+  }
+
+  private fun receive(): ByteArray {
+    val buffer = ByteArray(SrtPacket.headerSize + 1316)
+    val udpPacket = DatagramPacket(buffer, buffer.size)
+    receiver.receive(udpPacket)
+    return buffer.sliceArray(0 until udpPacket.length)
+  }
+}